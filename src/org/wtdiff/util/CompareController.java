@@ -23,8 +23,10 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.MessageFormat;
 import java.util.zip.*;
 
+import org.wtdiff.util.binary.BinaryTreeBuilder;
 import org.wtdiff.util.filter.CompositeNodeFilter;
 import org.wtdiff.util.filter.NodeFilter;
 import org.wtdiff.util.xml.XMLTreeBuilder;
@@ -45,7 +47,7 @@ import org.wtdiff.util.xml.XMLTreeBuilder;
  *      DirNode r = controller.getCompareRootNode();
  * </PRE>
  */  
-public class CompareController { //TODO change class name
+public class CompareController implements Closeable { //TODO change class name
 
     public enum NodeRole { OLD_ROOT, NEW_ROOT, CMP_ROOT }
     
@@ -62,6 +64,9 @@ public class CompareController { //TODO change class name
     
     private DirNode oldRootNode;
     private DirNode newRootNode;
+    // builders of current old and new root trees, may hold resources used by tree nodes
+    private NodeTreeBuilder oldRootBuilder;
+    private NodeTreeBuilder newRootBuilder;
     /* node used of comparison may be different from true node 
      * due to realignment for comparison 
      */
@@ -81,6 +86,30 @@ public class CompareController { //TODO change class name
      */
     private boolean isIgnoreNameCase = false;
     
+    /**
+     * Number of threads used to walk file system directories when building trees
+     * {@link FileSystemNodeTreeBuilder#FileSystemNodeTreeBuilder(String, int)}
+     */
+    private int parallelism = 1;
+    
+    /**
+     * Maximum concurrent content comparisons per device, 0 for no limit
+     * {@link TreeComparor#setDeviceLimit(int)}
+     */
+    private int deviceLimit = 0;
+    
+    /**
+     * Persistent digest cache used by file system trees, null if none
+     * {@link FileSystemNodeTreeBuilder#setDigestCache(DigestCache)}
+     */
+    private DigestCache digestCache;
+    
+    /**
+     * Progress of building and comparing trees, null if not tracked
+     * {@link #setProgress(TaskProgress)}
+     */
+    private TaskProgress progress;
+    
     /**
      * Filter to be applied when constructing trees
      * {@link fitler.NodeFilter#NodeFilter()}
@@ -178,6 +207,98 @@ public class CompareController { //TODO change class name
     }
     
     
+    /**
+     * Set number of threads used to walk file system directories when building trees,
+     * and to compare file content.  Only affects trees built after this call.
+     * 
+     * @param threads number of threads, 1 to walk serially
+     */
+    public void setParallelism(int threads) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("CompareController.bad_parallelism"), //$NON-NLS-1$
+                    threads
+                )
+            );
+        }
+        parallelism = threads;
+    }
+    
+    /**
+     * Get number of threads used to walk file system directories {@link #setParallelism(int)}
+     * 
+     * @return current setting
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set maximum number of concurrent content comparisons reading from one device.
+     * 
+     * @param limit maximum per device, 0 for no limit
+     */
+    public void setDeviceLimit(int limit) {
+        if ( limit < 0 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("TreeComparor.bad_device_limit"), //$NON-NLS-1$
+                    limit
+                )
+            );
+        }
+        deviceLimit = limit;
+    }
+    
+    /**
+     * Get maximum number of concurrent content comparisons per device {@link #setDeviceLimit(int)}
+     * 
+     * @return current setting
+     */
+    public int getDeviceLimit() {
+        return deviceLimit;
+    }
+    
+    /**
+     * Set persistent digest cache used by file system trees.  Only affects 
+     * trees built after this call.  The caller remains responsible for closing the cache.
+     * 
+     * @param cache cache, or null for none
+     */
+    public void setDigestCache(DigestCache cache) {
+        digestCache = cache;
+    }
+    
+    /**
+     * Get persistent digest cache used by file system trees {@link #setDigestCache(DigestCache)}
+     * 
+     * @return cache, or null if none
+     */
+    public DigestCache getDigestCache() {
+        return digestCache;
+    }
+    
+    /**
+     * Set progress to be updated while building and comparing trees.  If progress is
+     * cancelled, building or comparing stops with an InterruptedIOException, and the 
+     * previous trees and comparison are left as they were.
+     * 
+     * @param p progress, or null for none
+     */
+    public void setProgress(TaskProgress p) {
+        progress = p;
+    }
+    
+    /**
+     * Get progress updated while building and comparing trees {@link #setProgress(TaskProgress)}
+     * 
+     * @return progress, or null if none
+     */
+    public TaskProgress getProgress() {
+        return progress;
+    }
+    
     /**
      * TODO javadoc
      */
@@ -258,8 +379,10 @@ public class CompareController { //TODO change class name
      * @throws IOException
      */
     public void setOldRoot(String root) throws IOException {
-        oldRootNode = buildRoot(root);
-        oldRootNode.sort();
+        NodeTreeBuilder builder = createBuilder(root);
+        oldRootNode = buildRoot(builder); // on failure, including cancellation, current tree is kept
+        releaseBuilder(oldRootBuilder);
+        oldRootBuilder = builder;
         oldCompareNode = oldRootNode;
         oldRoot = root;        
         oldCompareRoot = root;
@@ -283,8 +406,10 @@ public class CompareController { //TODO change class name
      * @throws IOException
      */
     public void setNewRoot(String root) throws IOException {
-        newRootNode = buildRoot(root);
-        newRootNode.sort();
+        NodeTreeBuilder builder = createBuilder(root);
+        newRootNode = buildRoot(builder); // on failure, including cancellation, current tree is kept
+        releaseBuilder(newRootBuilder);
+        newRootBuilder = builder;
         newCompareNode = newRootNode;
         newRoot = root;
         newCompareRoot = root;
@@ -421,33 +546,86 @@ public class CompareController { //TODO change class name
         notifyRootNodeListeners(node, compareRootListenerList);
     }
     /**
-     * Build tree for specified root path and type
+     * Create tree builder appropriate for specified root path and type
      * 
      * @param root path of root
-     * @return root node of constructed tree
+     * @return builder
      * @throws IOException
      */
-    private DirNode buildRoot(String root) throws IOException {
+    private NodeTreeBuilder createBuilder(String root) throws IOException {
 
         NodeTreeBuilder builder;
         
         if ( isZip(root) ) {
-            builder = new ZipTreeBuilder(root);
+            ZipTreeBuilder zipBuilder = new ZipTreeBuilder(root);
+            zipBuilder.setProgress(progress);
+            zipBuilder.setFilter(filter);
+            builder = zipBuilder;
+        } else if ( isBinarySnapshot(root) ) {
+            BinaryTreeBuilder binaryBuilder = new BinaryTreeBuilder(root);
+            binaryBuilder.setProgress(progress);
+            binaryBuilder.setFilter(filter);
+            builder = binaryBuilder;
         } else {
             if ( isXMLSnapshot(root) ) {
-                builder = new XMLTreeBuilder(root);
+                XMLTreeBuilder xmlBuilder = new XMLTreeBuilder(root);
+                xmlBuilder.setProgress(progress);
+                xmlBuilder.setFilter(filter);
+                builder = xmlBuilder;
             } else {
-                builder = new FileSystemNodeTreeBuilder(root);
+                FileSystemNodeTreeBuilder fsBuilder = new FileSystemNodeTreeBuilder(root, parallelism);
+                fsBuilder.setDigestCache(digestCache);
+                fsBuilder.setProgress(progress);
+                fsBuilder.setFilter(filter);
+                builder = fsBuilder;
             }
         }
-        
-        DirNode rootNode = builder.buildTree(errorHandler);
-        if ( filter != null ) {
-            FilterTreeBuilder filterBuilder = new FilterTreeBuilder( rootNode, filter);
-            rootNode = filterBuilder.buildTree(errorHandler);
+        return builder;
+    }
+    
+    /**
+     * Build and sort tree with given builder.  If building fails the builder is released.
+     * 
+     * @param builder
+     * @return root node of constructed tree
+     * @throws IOException
+     */
+    private DirNode buildRoot(NodeTreeBuilder builder) throws IOException {
+        try {
+            DirNode rootNode = builder.buildTree(errorHandler); // builder applies any filter
+            rootNode.sort();
+            return rootNode;
+        } catch (IOException | RuntimeException e) {
+            releaseBuilder(builder);
+            throw e;
+        }
+    }
+    
+    /**
+     * Release resources, such as open Zip files, held by the builders of the
+     * current trees for reading content.  Content can still be read afterwards,
+     * but resources are then opened for each read.
+     */
+    @Override
+    public void close() {
+        releaseBuilder(oldRootBuilder);
+        releaseBuilder(newRootBuilder);
+    }
+    
+    /**
+     * Release any resources, such as an open zip file, a builder holds for 
+     * its tree once the tree is replaced.
+     * 
+     * @param builder builder of replaced tree, may be null
+     */
+    private void releaseBuilder(NodeTreeBuilder builder) {
+        if ( builder instanceof Closeable ) {
+            try {
+                ((Closeable)builder).close();
+            } catch (IOException ioe) {
+                errorHandler.logError(ioe);
+            }
         }
-
-        return rootNode;
     }
     
     /**
@@ -523,6 +701,11 @@ public class CompareController { //TODO change class name
 //                newCompareNode = newRootNode; 
 //            }
 //        } else {
+        // realignment is only kept if comparison completes
+        String oldRootPath = oldCompareRoot;
+        String newRootPath = newCompareRoot;
+        DirNode oldNodeToCompare = oldCompareNode;
+        DirNode newNodeToCompare = newCompareNode;
         if ( !isForcedOldRoot || !isForcedNewRoot ) {
             DirNode oldNode =  isForcedOldRoot ? oldCompareNode : oldRootNode;
             DirNode newNode =  isForcedNewRoot ? newCompareNode : newRootNode;
@@ -536,22 +719,29 @@ public class CompareController { //TODO change class name
             List<DirNode> pathToBest;
             if ( bestDepth < 0 && !isForcedNewRoot ) {
                 pathToBest = taa.bestSubTree(-bestDepth, newNode, oldNode);
-                newCompareRoot  = buildRootString(newRoot, pathToBest);
-                newCompareNode = pathToBest.get( pathToBest.size() - 1 );
+                newRootPath  = buildRootString(newRoot, pathToBest);
+                newNodeToCompare = pathToBest.get( pathToBest.size() - 1 );
             } else if ( bestDepth > 0 && !isForcedOldRoot ) {
                 pathToBest = taa.bestSubTree(bestDepth, oldNode, newNode);
-                oldCompareRoot  = buildRootString(oldRoot, pathToBest);
-                oldCompareNode = pathToBest.get( pathToBest.size() - 1 );
+                oldRootPath  = buildRootString(oldRoot, pathToBest);
+                oldNodeToCompare = pathToBest.get( pathToBest.size() - 1 );
             } else {
                 if ( !isForcedOldRoot )
-                    oldCompareRoot = oldRoot;
+                    oldRootPath = oldRoot;
                 if ( !isForcedNewRoot )
-                    newCompareRoot  = newRoot;
+                    newRootPath  = newRoot;
             }
         }
         TreeComparor cmp = new TreeComparor(isIgnoreNameCase, isTextCompare);
         cmp.setErrorHandler(errorHandler);
-        ComparisonDirNode r = cmp.compare(oldCompareNode, newCompareNode);
+        cmp.setParallelism(parallelism);
+        cmp.setDeviceLimit(deviceLimit);
+        cmp.setProgress(progress);
+        ComparisonDirNode r = cmp.compare(oldNodeToCompare, newNodeToCompare);
+        oldCompareRoot = oldRootPath;
+        newCompareRoot = newRootPath;
+        oldCompareNode = oldNodeToCompare;
+        newCompareNode = newNodeToCompare;
         //r.setRoot(getCompareRoot());
         setCompareRootNode(r);
     }
@@ -665,4 +855,8 @@ public class CompareController { //TODO change class name
     private boolean isXMLSnapshot(String path) throws IOException {
         return XMLTreeBuilder.isXMLSnapshot(path);
     }
+    
+    private boolean isBinarySnapshot(String path) throws IOException {
+        return BinaryTreeBuilder.isBinarySnapshot(path);
+    }
 }
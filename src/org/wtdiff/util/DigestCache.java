@@ -0,0 +1,474 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.wtdiff.util.io.ProgressInputStream;
+
+/**
+ * Persistent cache of file content digests, so that unchanged files need not be
+ * read again on later runs.  An entry is only used if the file size, modification
+ * time (nanoseconds) and file key (e.g. device and inode) all still match.
+ *
+ * The cache is an append-only log of entries in a directory.  New entries are
+ * appended as they are computed.  On close the log is rewritten without superseded,
+ * old or excess entries, only if there are any.  Time of last use is kept coarsely,
+ * being refreshed once it is half the maximum age, so that a run finding everything
+ * in the cache does not usually rewrite it.
+ *
+ * Methods are synchronized so a cache can be shared by nodes compared in parallel.
+ *
+ * @author davidst
+ *
+ */
+public class DigestCache implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(DigestCache.class.getName());
+
+    /**
+     * Name of cache file within cache directory
+     */
+    public static final String CACHE_FILE_NAME = "digest-cache.dat"; //$NON-NLS-1$
+
+    /**
+     * Entries not used for this long are evicted, 30 days
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Default maximum number of entries kept
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000000;
+
+    private static final int MAGIC = 0x57544443; // WTDC
+    private static final int VERSION = 1;
+
+    private static final int FLAG_CRC = 1;
+    private static final int FLAG_MD5 = 2;
+    private static final int FLAG_TEXT_KNOWN = 4;
+    private static final int FLAG_IS_TEXT = 8;
+    private static final int MD5_LENGTH = 16;
+
+    /**
+     * Cached digests of a single file
+     */
+    public static class Entry {
+        private final long size;
+        private final long timeNanos;
+        private final String fileKey;
+        private long lastUsed;
+        private Long crc;
+        private byte[] md5;
+        private Boolean isText;
+
+        Entry(long size, long timeNanos, String fileKey, long lastUsed) {
+            this.size = size;
+            this.timeNanos = timeNanos;
+            this.fileKey = fileKey;
+            this.lastUsed = lastUsed;
+        }
+
+        private boolean matches(long size, long timeNanos, String fileKey) {
+            return this.size == size && this.timeNanos == timeNanos && this.fileKey.equals(fileKey);
+        }
+
+        /**
+         * @return CRC32 or null if not cached
+         */
+        public Long getCrc() {
+            return crc;
+        }
+
+        /**
+         * @return MD5 or null if not cached
+         */
+        public byte[] getMd5() {
+            return md5;
+        }
+
+        /**
+         * @return text guess or null if not cached
+         */
+        public Boolean getIsText() {
+            return isText;
+        }
+    }
+
+    private final Path cacheFile;
+    private final long maxAgeMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private DataOutputStream log;
+    private long nRecords = 0; // records in log, including superseded ones
+    private boolean isDirty = false;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Open cache in given directory with default eviction limits, creating directory if needed
+     *
+     * @param dir
+     * @throws IOException
+     */
+    public DigestCache(Path dir) throws IOException {
+        this(dir, DEFAULT_MAX_AGE_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Open cache in given directory, creating directory if needed
+     *
+     * @param dir cache directory
+     * @param maxAgeMillis entries not used for this long are evicted on close
+     * @param maxEntries most recently used entries kept on close
+     * @throws IOException
+     */
+    public DigestCache(Path dir, long maxAgeMillis, int maxEntries) throws IOException {
+        if ( maxAgeMillis <= 0 || maxEntries <= 0 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("DigestCache.bad_limits"), //$NON-NLS-1$
+                    maxAgeMillis,
+                    maxEntries
+                )
+            );
+        }
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxEntries = maxEntries;
+        Files.createDirectories(dir);
+        cacheFile = dir.resolve(CACHE_FILE_NAME);
+        if ( ! Files.exists(cacheFile) || ! load() ) {
+            rewrite();
+        }
+        log = new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(cacheFile, StandardOpenOption.APPEND, StandardOpenOption.WRITE)
+            )
+        );
+    }
+
+    /**
+     * Load entries from cache file.  
+     *
+     * @return false if file is not a cache file, or the last record is truncated as 
+     *   left by an interrupted run, so that the file must be rewritten before appending
+     * @throws IOException
+     */
+    private boolean load() throws IOException {
+        long fileSize = Files.size(cacheFile);
+        TaskProgress position = new TaskProgress(); // counts bytes read
+        try ( DataInputStream in = new DataInputStream(
+                new ProgressInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)), position)) ) 
+        {
+            try {
+                if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+                    logger.warn(MessageFormat.format(Messages.getString("DigestCache.bad_file"), cacheFile)); //$NON-NLS-1$
+                    return false;
+                }
+            } catch (EOFException eof) {
+                logger.warn(MessageFormat.format(Messages.getString("DigestCache.bad_file"), cacheFile)); //$NON-NLS-1$
+                return false;
+            }
+            while ( position.getBytes() < fileSize ) {
+                try {
+                    String path = readString(in, fileSize - position.getBytes());
+                    Entry e = readEntry(in, fileSize - position.getBytes());
+                    entries.put(path, e);
+                    nRecords++;
+                } catch (EOFException eof) {
+                    return false; // truncated or corrupt record
+                }
+            }
+            return true;  // clean end of log
+        }
+    }
+
+    /**
+     * Replace cache file with one holding only current entries
+     *
+     * @throws IOException
+     */
+    private void rewrite() throws IOException {
+        Path tmpFile = cacheFile.resolveSibling(CACHE_FILE_NAME + ".tmp"); //$NON-NLS-1$
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile))) ) {
+            writeHeader(out);
+            for ( Map.Entry<String, Entry> me: entries.entrySet() ) {
+                writeRecord(out, me.getKey(), me.getValue());
+            }
+        }
+        Files.move(tmpFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        nRecords = entries.size();
+        isDirty = false;
+    }
+
+    /**
+     * Read string whose length must fit in the rest of the file, so that a corrupt
+     * length does not cause a huge allocation
+     * 
+     * @param in
+     * @param remaining bytes remaining in file
+     * @return string
+     * @throws EOFException if length is negative or too long
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in, long remaining) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 || length > remaining - 4 ) {
+            throw new EOFException(
+                MessageFormat.format(
+                    Messages.getString("DigestCache.bad_length"), //$NON-NLS-1$
+                    length
+                )
+            );
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static Entry readEntry(DataInputStream in, long remaining) throws IOException {
+        long size = in.readLong();
+        long timeNanos = in.readLong();
+        String fileKey = readString(in, remaining - 16);
+        long lastUsed = in.readLong();
+        Entry e = new Entry(size, timeNanos, fileKey, lastUsed);
+        int flags = in.readByte();
+        if ( (flags & FLAG_CRC) != 0 ) {
+            e.crc = in.readLong();
+        }
+        if ( (flags & FLAG_MD5) != 0 ) {
+            e.md5 = new byte[MD5_LENGTH];
+            in.readFully(e.md5);
+        }
+        if ( (flags & FLAG_TEXT_KNOWN) != 0 ) {
+            e.isText = (flags & FLAG_IS_TEXT) != 0;
+        }
+        return e;
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    private static void writeRecord(DataOutputStream out, String path, Entry e) throws IOException {
+        writeString(out, path);
+        out.writeLong(e.size);
+        out.writeLong(e.timeNanos);
+        writeString(out, e.fileKey);
+        out.writeLong(e.lastUsed);
+        int flags = 0;
+        if ( e.crc != null ) {
+            flags |= FLAG_CRC;
+        }
+        if ( e.md5 != null ) {
+            flags |= FLAG_MD5;
+        }
+        if ( e.isText != null ) {
+            flags |= FLAG_TEXT_KNOWN;
+            if ( e.isText ) {
+                flags |= FLAG_IS_TEXT;
+            }
+        }
+        out.writeByte(flags);
+        if ( e.crc != null ) {
+            out.writeLong(e.crc);
+        }
+        if ( e.md5 != null ) {
+            out.write(e.md5);
+        }
+    }
+
+    /**
+     * Look up cached digests for a file.  Counts as a hit if there is an entry
+     * and the file is unchanged, otherwise a miss.
+     *
+     * @param path absolute path of file
+     * @param size current size of file
+     * @param timeNanos current modification time of file in nanoseconds
+     * @param fileKey current file key of file, empty string if none
+     * @return entry or null if nothing cached for file as it is now
+     */
+    public synchronized Entry lookup(String path, long size, long timeNanos, String fileKey) {
+        Entry e = entries.get(path);
+        if ( e == null || ! e.matches(size, timeNanos, fileKey) ) {
+            misses++;
+            return null;
+        }
+        hits++;
+        long now = System.currentTimeMillis();
+        if ( now - e.lastUsed > maxAgeMillis / 2 ) {
+            e.lastUsed = now;
+            isDirty = true;
+        }
+        return e;
+    }
+
+    /**
+     * Look up cached digests for a file without counting a hit or miss, or 
+     * counting as a use of the entry.
+     *
+     * @param path absolute path of file
+     * @param size current size of file
+     * @param timeNanos current modification time of file in nanoseconds
+     * @param fileKey current file key of file, empty string if none
+     * @return entry or null if nothing cached for file as it is now
+     */
+    public synchronized Entry peek(String path, long size, long timeNanos, String fileKey) {
+        Entry e = entries.get(path);
+        if ( e == null || ! e.matches(size, timeNanos, fileKey) ) {
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * Record digests for a file, merged with anything already cached for the file
+     * as it is now.
+     *
+     * @param path absolute path of file
+     * @param size size of file
+     * @param timeNanos modification time of file in nanoseconds
+     * @param fileKey file key of file, empty string if none
+     * @param crc CRC32 or null if not known
+     * @param md5 MD5 or null if not known
+     * @param isText text guess or null if not known
+     * @throws IOException
+     */
+    public synchronized void store(String path, long size, long timeNanos, String fileKey, Long crc, byte[] md5, Boolean isText)
+        throws IOException
+    {
+        Entry e = entries.get(path);
+        if ( e == null || ! e.matches(size, timeNanos, fileKey) ) {
+            e = new Entry(size, timeNanos, fileKey, 0);
+            entries.put(path, e);
+        }
+        e.lastUsed = System.currentTimeMillis();
+        if ( crc != null ) {
+            e.crc = crc;
+        }
+        if ( md5 != null && md5.length == MD5_LENGTH ) {
+            e.md5 = md5;
+        }
+        if ( isText != null ) {
+            e.isText = isText;
+        }
+        if ( log != null ) {
+            writeRecord(log, path, e);
+            nRecords++; // log now holds entry, rewrite only needed if it superseded another
+        }
+    }
+
+    /**
+     * @return number of lookups that found an entry for an unchanged file
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that found no entry, or found a changed file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of entries currently in cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove entries older than the maximum age, then least recently
+     * used entries in excess of maximum entries.
+     *
+     * @param now current time in milliseconds
+     */
+    synchronized void evict(long now) {
+        long oldest = now - maxAgeMillis;
+        List<Map.Entry<String, Entry>> kept = new ArrayList<>(entries.size());
+        for ( Map.Entry<String, Entry> me: entries.entrySet() ) {
+            if ( me.getValue().lastUsed >= oldest ) {
+                kept.add(me);
+            }
+        }
+        if ( kept.size() > maxEntries ) {
+            Collections.sort(kept, new Comparator<Map.Entry<String, Entry>>() {
+                @Override
+                public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+                    return Long.compare(o2.getValue().lastUsed, o1.getValue().lastUsed);
+                }
+            });
+            kept = kept.subList(0, maxEntries);
+        }
+        if ( kept.size() != entries.size() ) {
+            Map<String, Entry> keep = new HashMap<>(kept.size() * 2);
+            for ( Map.Entry<String, Entry> me: kept ) {
+                keep.put(me.getKey(), me.getValue());
+            }
+            entries.clear();
+            entries.putAll(keep);
+            isDirty = true;
+        }
+    }
+
+    /**
+     * Evict entries and rewrite cache file holding only current entries.
+     * Cache may not be updated after it is closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if ( log == null ) {
+            return;
+        }
+        log.close();
+        log = null;
+        evict(System.currentTimeMillis());
+        if ( ! isDirty && nRecords == entries.size() ) {
+            return;
+        }
+        rewrite();
+    }
+}
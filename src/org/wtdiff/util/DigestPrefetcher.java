@@ -0,0 +1,162 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes digests of regular files in a tree on a pool of worker threads, ahead
+ * of a single thread which uses them in tree order, e.g. to write a snapshot.  Files
+ * are queued in order, leaves of a dir before its sub dirs, and only a few per
+ * thread are queued ahead at a time.  The user need do nothing different: asking
+ * a file for a digest a worker is computing waits for it, and a digest not yet
+ * reached, or which failed, is computed by the user as it would be without
+ * prefetching.  So results, and any errors reported, are as for a serial run.
+ * 
+ * @author davidst
+ *
+ */
+public class DigestPrefetcher implements Closeable {
+
+    // files queued ahead are limited to this many per thread
+    private static final int QUEUE_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final boolean wantCrc;
+    private final boolean wantMd5;
+    private ThreadPoolExecutor executor;
+    private Semaphore queueSlots;
+    private Thread feeder;
+    private volatile boolean isClosed = false;
+
+    /**
+     * Constructor
+     * 
+     * @param threads number of threads computing digests
+     * @param computeCrc true to compute CRC32
+     * @param computeMd5 true to compute MD5
+     */
+    public DigestPrefetcher(int threads, boolean computeCrc, boolean computeMd5) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("DigestPrefetcher.bad_parallelism"), //$NON-NLS-1$
+                    threads
+                )
+            );
+        }
+        parallelism = threads;
+        wantCrc = computeCrc;
+        wantMd5 = computeMd5;
+    }
+
+    /**
+     * Number of threads computing digests
+     * 
+     * @return parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Start computing digests of regular files in tree, returning at once.
+     * 
+     * @param root top of tree
+     */
+    public synchronized void start(final DirNode root) {
+        if ( executor != null || isClosed ) {
+            throw new IllegalStateException();
+        }
+        executor = new ThreadPoolExecutor(
+            parallelism, parallelism, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>() // bounded by queueSlots
+        );
+        queueSlots = new Semaphore(parallelism * QUEUE_PER_THREAD);
+        feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queueFiles(root);
+                } catch (InterruptedException ie) {
+                    // closed
+                } catch (RejectedExecutionException ree) {
+                    // closed
+                }
+            }
+        }, DigestPrefetcher.class.getSimpleName());
+        feeder.setDaemon(true);
+        feeder.start();
+    }
+
+    private void queueFiles(DirNode dir) throws InterruptedException {
+        for ( Leaf leaf: dir.getLeaves() ) {
+            if ( ! ( leaf instanceof FileNode ) 
+              || ((FileNode)leaf).getFileType() != FileNode.FileType.REGFILE ) {
+                continue;
+            }
+            final FileNode file = (FileNode)leaf;
+            queueSlots.acquire();
+            if ( isClosed ) {
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if ( ! isClosed ) {
+                            file.computeDigests(wantCrc, wantMd5);
+                        }
+                    } catch (IOException ioe) {
+                        // left for the user to compute, and report, in turn
+                    } finally {
+                        queueSlots.release();
+                    }
+                }
+            });
+        }
+        for ( DirNode subDir: dir.getDirs() ) {
+            queueFiles(subDir);
+        }
+    }
+
+    /**
+     * Stop computing digests, interrupting workers, and wait for them to stop.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        isClosed = true;
+        if ( executor == null ) {
+            return;
+        }
+        feeder.interrupt();
+        executor.shutdownNow();
+        try {
+            feeder.join();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.wtdiff.util;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.Iterator;
 import java.util.ArrayList;
@@ -29,10 +30,12 @@ import java.util.Vector;
 import org.apache.commons.cli.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.wtdiff.util.binary.BinaryTreeBuilder;
 import org.wtdiff.util.filter.CompositeNodeFilter;
 import org.wtdiff.util.filter.GlobNameFilter;
 import org.wtdiff.util.filter.NodeFilter;
 import org.wtdiff.util.ui.DirCmpFrame;
+import org.wtdiff.util.xml.XMLTreeBuilder;
 /**
  * Main application class.  This application compares one directory structure
  * to another, one or both of which might be a zip file.  In future this application
@@ -73,6 +76,10 @@ public class DirCmp {
     static Option textCompareOption;
     static Option guiOption;
     static Option excludeOption;
+    static Option parallelismOption;
+    static Option digestCacheOption;
+    static Option deviceLimitOption;
+    static Option verifyOption;
     static {
         aboutOption = new Option("a", "about", false, Messages.getString("DirCmp.opt.about.msg")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         helpOption = new Option("h", "help", false, Messages.getString("DirCmp.opt.help.msg")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -81,6 +88,10 @@ public class DirCmp {
         textCompareOption = new Option("t", "textcompare", false, Messages.getString("DirCmp.opt.textcompare.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         guiOption = new Option("g", "gui", false, Messages.getString("DirCmp.opt.gui.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
         excludeOption = new Option("x", "exclude", true, Messages.getString("DirCmp.opt.exclude.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        parallelismOption = new Option("j", "parallelism", true, Messages.getString("DirCmp.opt.parallelism.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        digestCacheOption = new Option("c", "digestcache", true, Messages.getString("DirCmp.opt.digestcache.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        deviceLimitOption = new Option("d", "devicelimit", true, Messages.getString("DirCmp.opt.devicelimit.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        verifyOption = new Option("v", "verify", false, Messages.getString("DirCmp.opt.verify.msg"));         //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     }
     public static Options buildOptions() {
     	Options opts = new Options();
@@ -91,6 +102,10 @@ public class DirCmp {
         opts.addOption(textCompareOption);
         opts.addOption(guiOption);
         opts.addOption(excludeOption);
+        opts.addOption(parallelismOption);
+        opts.addOption(digestCacheOption);
+        opts.addOption(deviceLimitOption);
+        opts.addOption(verifyOption);
         return opts;
     }
     
@@ -143,6 +158,10 @@ public class DirCmp {
         boolean isIgnorePermErrors = false;
         boolean isTextCompare = false;
         boolean isGui = false;
+        boolean isVerify = false;
+        int parallelism = 1;
+        String digestCacheDir = null;
+        int deviceLimit = 0;
         Vector<String> excludes = new Vector<String>();
         try {
             cl = parser.parse(opts,args);
@@ -174,9 +193,41 @@ public class DirCmp {
             else if ( o.equals(guiOption) ) {
                 isGui = true;
             }
+            else if ( o.equals(verifyOption) ) {
+                isVerify = true;
+            }
             else if ( o.equals(excludeOption) ) {
                 excludes.addAll(o.getValuesList());
             }
+            else if ( o.equals(parallelismOption) ) {
+                try {
+                    parallelism = Integer.parseInt(o.getValue());
+                } catch (NumberFormatException nfe) {
+                    parallelism = 0;
+                }
+                if ( parallelism < 1 ) {
+                    System.err.println(
+                        MessageFormat.format(Messages.getString("DirCmp.opt.parallelism.bad"), o.getValue()) //$NON-NLS-1$
+                    );
+                    return Result.HELP;
+                }
+            }
+            else if ( o.equals(digestCacheOption) ) {
+                digestCacheDir = o.getValue();
+            }
+            else if ( o.equals(deviceLimitOption) ) {
+                try {
+                    deviceLimit = Integer.parseInt(o.getValue());
+                } catch (NumberFormatException nfe) {
+                    deviceLimit = 0;
+                }
+                if ( deviceLimit < 1 ) {
+                    System.err.println(
+                        MessageFormat.format(Messages.getString("DirCmp.opt.devicelimit.bad"), o.getValue()) //$NON-NLS-1$
+                    );
+                    return Result.HELP;
+                }
+            }
             else {
                 throw new Exception(
                     MessageFormat.format(Messages.getString("DirCmp.opt.bug"), o)
@@ -185,6 +236,10 @@ public class DirCmp {
         }
 
         List<String> what = cl.getArgList();
+        if ( isGui && isVerify ) {
+            System.err.println( Messages.getString("DirCmp.verify_gui.msg")); //$NON-NLS-1$
+            return Result.HELP;
+        }
         if ( isGui ) {
             if ( what.size() > 2 ) {
                 System.err.println( Messages.getString("DirCmp.required_max.msg")); //$NON-NLS-1$
@@ -195,19 +250,41 @@ public class DirCmp {
             return Result.HELP;
         }
 
-        CompareController controller = new CompareController();
         ErrorHandler handler = new LoggingErrorHandler( logger, isIgnorePermErrors );
+        CompositeNodeFilter filter = null;
+        if ( excludes.size() > 0 ) {
+            filter = new CompositeNodeFilter();
+            for ( String glob: excludes ) {
+                filter.add( new GlobNameFilter( glob ) );
+            }
+        }
+        if ( isVerify ) {
+            StreamingVerifier verifier = new StreamingVerifier(isIgnoreCase, isTextCompare);
+            verifier.setErrorHandler(handler);
+            verifier.setFilter(filter);
+            return verify(verifier, what.get(0), what.get(1), digestCacheDir);
+        }
+
+        CompareController controller = new CompareController();
         controller.setErrorHandler(handler);
         
         controller.setTextCompare(isTextCompare);
         controller.setIgnoreNameCase(isIgnoreCase);
+        controller.setParallelism(parallelism);
+        controller.setDeviceLimit(deviceLimit);
         
-        if ( excludes.size() > 0 ) {
-            CompositeNodeFilter filter = new CompositeNodeFilter();
-            for ( String glob: excludes ) {
-                filter.add( new GlobNameFilter( glob ) );
+        controller.setFilter(filter);
+        DigestCache digestCache = null;
+        if ( digestCacheDir != null ) {
+            try {
+                digestCache = new DigestCache(Paths.get(digestCacheDir));
+            } catch (IOException ioe) {
+                System.err.println(
+                    MessageFormat.format(Messages.getString("DirCmp.opt.digestcache.bad"), digestCacheDir, ioe.getLocalizedMessage()) //$NON-NLS-1$
+                );
+                return Result.FAILED;
             }
-            controller.setFilter(filter);
+            controller.setDigestCache(digestCache);
         }
         Result result = Result.FAILED;
         try {
@@ -239,10 +316,100 @@ public class DirCmp {
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
+        } finally {
+            if ( ! isGui ) {
+                controller.close(); // gui keeps using trees
+            }
+            if ( digestCache != null ) {
+                logger.info(
+                    MessageFormat.format(Messages.getString("DirCmp.digestcache.stats"), digestCache.getHits(), digestCache.getMisses()) //$NON-NLS-1$
+                );
+                try {
+                    digestCache.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
         }
         return result;
     }
 
+    /**
+     * Verify directory against snapshot, printing differences as they are found.
+     * Either old or new may be the snapshot.
+     * 
+     * @param verifier
+     * @param oldRoot
+     * @param newRoot
+     * @param digestCacheDir directory of digest cache, null if none
+     * @return result
+     */
+    private static Result verify(StreamingVerifier verifier, String oldRoot, String newRoot, String digestCacheDir) {
+        final boolean isSnapshotOld;
+        try {
+            if ( isSnapshot(oldRoot) ) {
+                isSnapshotOld = true;
+            } else if ( isSnapshot(newRoot) ) {
+                isSnapshotOld = false;
+            } else {
+                System.err.println( Messages.getString("DirCmp.verify_no_snapshot.msg")); //$NON-NLS-1$
+                return Result.HELP;
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return Result.FAILED;
+        }
+        verifier.setDifferenceListener(new StreamingVerifier.DifferenceListener() {
+            @Override
+            public void difference(StreamingVerifier.Difference difference, String path, boolean isDir) {
+                String indicator;
+                if ( difference == StreamingVerifier.Difference.CHANGED ) {
+                    indicator = "*"; //$NON-NLS-1$
+                } else if ( ( difference == StreamingVerifier.Difference.SNAPSHOT_ONLY ) == isSnapshotOld ) {
+                    indicator = "-"; //$NON-NLS-1$
+                } else {
+                    indicator = "+"; //$NON-NLS-1$
+                }
+                System.out.println(indicator + path + (isDir ? "/" : "")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        });
+        DigestCache digestCache = null;
+        if ( digestCacheDir != null ) {
+            try {
+                digestCache = new DigestCache(Paths.get(digestCacheDir));
+            } catch (IOException ioe) {
+                System.err.println(
+                    MessageFormat.format(Messages.getString("DirCmp.opt.digestcache.bad"), digestCacheDir, ioe.getLocalizedMessage()) //$NON-NLS-1$
+                );
+                return Result.FAILED;
+            }
+            verifier.setDigestCache(digestCache);
+        }
+        ErrorHandler handler = verifier.getErrorHandler();
+        try {
+            boolean isSame = isSnapshotOld ? verifier.verify(oldRoot, newRoot) : verifier.verify(newRoot, oldRoot);
+            if ( isSame ) {
+                return handler.encounteredError() ? Result.SAME_WITH_ERRORS : Result.SAME;
+            }
+            return handler.encounteredError() ? Result.DIFFERENT_WITH_ERRORS : Result.DIFFERENT;
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return Result.FAILED;
+        } finally {
+            if ( digestCache != null ) {
+                try {
+                    digestCache.close();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        }
+    }
+    
+    private static boolean isSnapshot(String file) throws IOException {
+        return BinaryTreeBuilder.isBinarySnapshot(file) || XMLTreeBuilder.isXMLSnapshot(file);
+    }
+
     public static void main(String[] args) throws Exception {
         Result returnCode;
         try {
@@ -17,8 +17,15 @@ limitations under the License.
 
 package org.wtdiff.util;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
 import java.util.*;
 
+import org.wtdiff.util.FileNode.FileType;
+
 /**
  * DirNode is the class used for trees.  DirNodes can have leafs and DirNodes as children.
  * Ths implementation differentiates between leaf nodes and non-leafnodes via class instead of 
@@ -38,6 +45,26 @@ public class DirNode extends Node {
      */
     private List <DirNode >dirNodes;
     
+    /**
+     * Lazily built indexes of children, null when not built or invalidated by a change
+     * of children. Sizes of child lists when indexed guard against changes made through
+     * the lists themselves. 
+     */
+    private Map <String, Integer> dirIndexByName;
+    private Map <String, Integer> leafIndexByName;
+    private Map <Node, Integer> indexByChild;
+    private int indexedDirCount;
+    private int indexedLeafCount;
+    
+    /**
+     * Merkle digest of this subtree, null if not known.  Either set from a snapshot
+     * or computed from children on demand.  Flags note when it can not be computed,
+     * so that failure is not retried for every ancestor.
+     */
+    private byte[] merkleDigest;
+    private boolean isMerkleCheapUnavailable;
+    private boolean isMerkleUnavailable;
+    
     /**
      * Construct a DirNode with given name, leaves and sub-dir nodes.
      * 
@@ -88,7 +115,9 @@ public class DirNode extends Node {
      * @param l
      */
     public void addLeaf(Leaf l) {
-        leaves.add(l);
+        getLeaves().add(l);
+        invalidateIndexes();
+        invalidateMerkleDigest();
     }
 
     /**
@@ -105,16 +134,19 @@ public class DirNode extends Node {
      * @param dir
      */
     public void addDir(DirNode dir) {
-        dirNodes.add(dir);
+        getDirs().add(dir);
+        invalidateIndexes();
+        invalidateMerkleDigest();
     }
     
     /**
      * Recursively sort leaves and directories
      */
     public void sort() {
-        Collections.sort(leaves, nameComparator);
-        Collections.sort(dirNodes, nameComparator);
-        for ( DirNode dir: dirNodes )
+        Collections.sort(getLeaves(), nameComparator);
+        Collections.sort(getDirs(), nameComparator);
+        invalidateIndexes();
+        for ( DirNode dir: getDirs() )
             dir.sort();
     }
     
@@ -125,11 +157,9 @@ public class DirNode extends Node {
      * @return DirNode of child with name if found, otherwise null
      */
     public DirNode childDirNodeByName(String name) {
-        for( DirNode d: dirNodes ) {
-            if ( d.getName().equals(name) )
-                return d;
-        }
-        return null;
+        buildIndexes();
+        Integer index = dirIndexByName.get(name);
+        return index == null ? null : getDirs().get(index);
     }
     
     /**
@@ -139,11 +169,198 @@ public class DirNode extends Node {
      * @return DirNode of child with name if found, otherwise null
      */
     public Leaf childLeafByName(String name) {
-        for( Leaf leaf: leaves ) {
-            if ( leaf.getName().equals(name) )
-                return leaf;
+        buildIndexes();
+        Integer index = leafIndexByName.get(name);
+        return index == null ? null : getLeaves().get(index);
+    }
+    
+    /**
+     * Find index of immediate child, DirNode children first followed by leaves.  
+     * 
+     * @param child
+     * @return index of child, or -1 if not a child of this node
+     */
+    public int indexOfChild(Node child) {
+        buildIndexes();
+        Integer index = indexByChild.get(child);
+        if ( index == null )
+            return -1;
+        return index;
+    }
+
+    private void invalidateIndexes() {
+        dirIndexByName = null;
+        leafIndexByName = null;
+        indexByChild = null;
+    }
+    
+    /**
+     * Build indexes of children if not already built for current children.
+     * Where names are duplicated the first child with the name is indexed.
+     */
+    private void buildIndexes() {
+        List <DirNode> dirNodes = getDirs();
+        List <Leaf> leaves = getLeaves();
+        if ( indexByChild != null 
+            && indexedDirCount == dirNodes.size() 
+            && indexedLeafCount == leaves.size() )
+            return;
+        indexedDirCount = dirNodes.size();
+        indexedLeafCount = leaves.size();
+        Map <String, Integer> dirIndex = new HashMap <String, Integer>(indexedDirCount * 2);
+        Map <String, Integer> leafIndex = new HashMap <String, Integer>(indexedLeafCount * 2);
+        Map <Node, Integer> childIndex = new IdentityHashMap <Node, Integer>(indexedDirCount + indexedLeafCount);
+        for ( int i = 0; i < indexedDirCount; i++ ) {
+            DirNode d = dirNodes.get(i);
+            if ( ! dirIndex.containsKey(d.getName()) )
+                dirIndex.put(d.getName(), i);
+            if ( ! childIndex.containsKey(d) )
+                childIndex.put(d, i);
+        }
+        for ( int i = 0; i < indexedLeafCount; i++ ) {
+            Leaf leaf = leaves.get(i);
+            if ( ! leafIndex.containsKey(leaf.getName()) )
+                leafIndex.put(leaf.getName(), i);
+            if ( ! childIndex.containsKey(leaf) )
+                childIndex.put(leaf, i + indexedDirCount);
+        }
+        dirIndexByName = dirIndex;
+        leafIndexByName = leafIndex;
+        indexByChild = childIndex;
+    }
+    
+    /**
+     * Get the Merkle digest of this subtree if it is known or can be computed without
+     * reading file content, as when file content is only known by MD5s in a snapshot.  The digest is
+     * an MD5 over the names, types, sizes and content digests (link targets for
+     * symbolic links) of the leaves, and the names and Merkle digests of the sub-dirs,
+     * in name order.  Trees with equal digests compare the same.  Subtrees containing 
+     * special files, which never compare the same, have no digest.
+     * <p>
+     * The digest is cached; changes made to descendants after it is computed are not 
+     * noticed.
+     * 
+     * @return digest, or null if not available
+     */
+    public synchronized byte[] getMerkleDigest() {
+        if ( merkleDigest != null || isMerkleCheapUnavailable || isMerkleUnavailable ) {
+            return merkleDigest;
+        }
+        try {
+            merkleDigest = calculateMerkleDigest(true);
+        } catch (IOException ioe) {
+            merkleDigest = null;
+        }
+        isMerkleCheapUnavailable = merkleDigest == null;
+        return merkleDigest;
+    }
+    
+    /**
+     * Get the Merkle digest of this subtree {@link #getMerkleDigest()}, reading file content 
+     * to compute MD5s where needed.
+     * 
+     * @return digest, or null if not possible for this subtree
+     * @throws IOException
+     */
+    public synchronized byte[] computeMerkleDigest() throws IOException {
+        if ( merkleDigest != null || isMerkleUnavailable ) {
+            return merkleDigest;
+        }
+        merkleDigest = calculateMerkleDigest(false);
+        isMerkleUnavailable = merkleDigest == null;
+        return merkleDigest;
+    }
+    
+    /**
+     * Set Merkle digest of this subtree, as recorded in a snapshot {@link #getMerkleDigest()}
+     * 
+     * @param digest
+     */
+    public synchronized void setMerkleDigest(byte[] digest) {
+        merkleDigest = digest;
+        isMerkleCheapUnavailable = false;
+        isMerkleUnavailable = false;
+    }
+    
+    private synchronized void invalidateMerkleDigest() {
+        setMerkleDigest(null);
+    }
+    
+    /**
+     * Calculate Merkle digest from children
+     * 
+     * @param cheapOnly true to give up rather than read file content 
+     * @return digest, or null if not available
+     * @throws IOException
+     */
+    private byte[] calculateMerkleDigest(boolean cheapOnly) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+        }  catch (NoSuchAlgorithmException e) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("FileNode.digest_not_available"), //$NON-NLS-1$
+                    "MD5" //$NON-NLS-1$
+                )
+            );
+        }
+        List <Leaf> sortedLeaves = new ArrayList <Leaf>(getLeaves());
+        Collections.sort(sortedLeaves, nameComparator);
+        for ( Leaf leaf: sortedLeaves ) {
+            if ( ! ( leaf instanceof FileNode ) ) {
+                return null;
+            }
+            FileNode file = (FileNode)leaf;
+            FileType type = file.getFileType();
+            if ( type == FileType.REGFILE ) {
+                double cost = file.getContentMethodCost(FileNode.CONTENT_METHOD_MD5);
+                if ( cost >= FileNode.COST_IMPOSSIBLE ) {
+                    return null;
+                }
+                // when content is at hand comparing it is as good
+                if ( cheapOnly && ( cost > FileNode.COST_EASY || file.getContentMethodCost(FileNode.CONTENT_METHOD_CONTENT) <= FileNode.COST_EASY ) ) {
+                    return null;
+                }
+                updateMerkle(md, 'f', file.getName());
+                updateMerkle(md, file.getSize());
+                md.update(file.getMd5());
+            } else if ( type == FileType.SYMLINK ) {
+                updateMerkle(md, 'l', file.getName());
+                updateMerkle(md, file.getSize());
+                updateMerkle(md, file.getLinkTo());
+            } else {
+                return null;
+            }
+        }
+        List <DirNode> sortedDirs = new ArrayList <DirNode>(getDirs());
+        Collections.sort(sortedDirs, nameComparator);
+        for ( DirNode dir: sortedDirs ) {
+            byte[] dirDigest = cheapOnly ? dir.getMerkleDigest() : dir.computeMerkleDigest();
+            if ( dirDigest == null ) {
+                return null;
+            }
+            updateMerkle(md, 'd', dir.getName());
+            md.update(dirDigest);
+        }
+        return md.digest();
+    }
+    
+    private static void updateMerkle(MessageDigest md, char type, String name) {
+        md.update((byte)type);
+        updateMerkle(md, name);
+    }
+    
+    private static void updateMerkle(MessageDigest md, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        updateMerkle(md, bytes.length);
+        md.update(bytes);
+    }
+    
+    private static void updateMerkle(MessageDigest md, long n) {
+        for ( int shift = 56; shift >= 0; shift -= 8 ) {
+            md.update((byte)(n >>> shift));
         }
-        return null;
     }
     
     /**
@@ -189,12 +406,12 @@ public class DirNode extends Node {
     public void dump(String prefix, String totPrefix ) {
         System.out.println(totPrefix + "name: '"+getName()+"'");
         System.out.println(totPrefix + "files:");
-        Iterator <Leaf> iterL = leaves.iterator();
+        Iterator <Leaf> iterL = getLeaves().iterator();
         while (iterL.hasNext()) {
             System.out.println(totPrefix+prefix+"'"+iterL.next().toString()+"'");
         }
         System.out.println(totPrefix + "dirs:");
-        Iterator <DirNode> iterC = dirNodes.iterator();
+        Iterator <DirNode> iterC = getDirs().iterator();
         while (iterC.hasNext()) {
             ((DirNode) iterC.next()).dump(prefix, totPrefix+prefix);
         }
@@ -0,0 +1,52 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Stream of the directories of a tree, read one at a time in depth first order
+ * rather than building the whole tree.  Each dir read has its leaves but no 
+ * sub-directories, these are read in turn after it.  So only the directories 
+ * on the path to the current one need be held.
+ * 
+ * The first {@link #nextDir()} returns the top dir.  Each later call returns
+ * the next sub-directory of the innermost open dir, or null once that dir has
+ * no more, which closes it.  {@link #skipDir()} closes the innermost open dir 
+ * without reading the rest of its sub-directories.
+ * 
+ * @author davidst
+ *
+ */
+public interface DirNodeStream extends Closeable {
+    /**
+     * Read the next dir
+     * 
+     * @return top dir on first call, then next sub-directory of innermost open dir, 
+     *   or null if it has no more, or there is no open dir
+     * @throws IOException
+     */
+    public DirNode nextDir() throws IOException;
+    
+    /**
+     * Close innermost open dir, skipping those of its sub-directories not yet read
+     * 
+     * @throws IOException
+     */
+    public void skipDir() throws IOException;
+}
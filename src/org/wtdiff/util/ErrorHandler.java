@@ -16,6 +16,11 @@ limitations under the License.
 */
 package org.wtdiff.util;
 
+/**
+ * Handler for errors encountered while building or comparing trees.
+ * Implementations must be thread-safe since tree builders and comparors 
+ * may invoke callbacks from several worker threads at once.
+ */
 public interface ErrorHandler {
     
     /**
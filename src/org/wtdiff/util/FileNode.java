@@ -18,11 +18,16 @@ limitations under the License.
 package org.wtdiff.util;
 
 import java.io.*;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.Arrays;
 
+import org.wtdiff.util.io.CRLFFilterInputStream;
+import org.wtdiff.util.io.ContentComparor;
+import org.wtdiff.util.io.ContentDigester;
+
 /**
  * A FileNode is a leaf node that is a file of some sort.  FileNodes 
  * can compare themselves to other FileNodes.  They can use different comparison methods.  
@@ -78,6 +83,16 @@ public abstract class FileNode extends Leaf {
     public static final double COST_VERY_HARD = 9.0;
     public static final double COST_IMPOSSIBLE = 10e6;
     
+    /**
+     * Difference offset indicating content is the same {@link #findDifference(FileNode, ContentMethod)}
+     */
+    public static final long OFFSET_SAME = ContentComparor.SAME;
+    /**
+     * Difference offset indicating content differs, but where is not known 
+     * {@link #findDifference(FileNode, ContentMethod)}
+     */
+    public static final long OFFSET_UNKNOWN = -2;
+    
     /**
      * Do we know if this file is a text file?
      */
@@ -87,6 +102,11 @@ public abstract class FileNode extends Leaf {
      */
     private boolean isText = false;
     
+    /**
+     * Number of leading bytes examined when guessing if file is text
+     */
+    private static final int TEXT_SAMPLE_SIZE = 512;
+    
     /**
      * What type of file is this?
      */
@@ -99,6 +119,16 @@ public abstract class FileNode extends Leaf {
      */
     abstract public long getTime();
     
+    /**
+     * Timestamp of this file in nanoseconds.  By default this is simply
+     * {@link #getTime()} scaled, subclasses with better precision should override.
+     * 
+     * @return
+     */
+    public long getTimeNanos() {
+        return getTime() * 1000000L;
+    }
+    
     /**
      * "Raw" size of this file
      * @return
@@ -143,6 +173,36 @@ public abstract class FileNode extends Leaf {
         return isText;
     }
 
+    /**
+     * Identifies the storage device holding the content of this node, so that 
+     * concurrent reads of one device can be limited.  
+     * 
+     * @return device key, or null if not known
+     */
+    public Object getDeviceKey() {
+        return null;
+    }
+
+    /**
+     * Identifies the file within its device, e.g. device and inode, so that a
+     * replaced file can be told from an unchanged one with the same size and time.
+     * 
+     * @return file key, or null if not known
+     */
+    public String getFileKey() {
+        return null;
+    }
+
+    /**
+     * Path of a regular file from which the content of this node may be read directly.
+     * Allows content to be read through a FileChannel rather than a stream.
+     * 
+     * @return path of file holding content, or null if content is not directly available as a file
+     */
+    public Path getContentPath() {
+        return null;
+    }
+
     /**
      * Is the content of this file available?  Note does not check permissions.
      *  
@@ -185,14 +245,23 @@ public abstract class FileNode extends Leaf {
         }
         // TODO reimplement with a reader???  A reader might deal with encodings other than ASCII. 
         // On the other hand a read might blow up due to bad encoding for a true binary file.
-        int BUFF_SIZE = 512;  // will look at first 512 bytes
-        byte[] buff = new byte[BUFF_SIZE];
+        byte[] buff = new byte[TEXT_SAMPLE_SIZE];
         int nread; // nread has the total number of bytes read
         try ( InputStream is = getInputStream() )
         { 
               nread = fullRead( is, buff ); // nread has the total number of bytes
         }
-        
+        return isTextSample(buff, nread);
+    }
+    
+    /**
+     * Guess if leading bytes of a file look like text
+     * 
+     * @param buff leading bytes
+     * @param nread number of valid bytes in buff
+     * @return true if is text, false otherwise
+     */
+    private static boolean isTextSample(byte[] buff, int nread) {
         if (nread <= 0)
             return false; // is an empty file text?  We'll say no.
         
@@ -211,6 +280,79 @@ public abstract class FileNode extends Leaf {
                   
     }
     
+    /**
+     * Has text guess already been made?
+     * 
+     * @return true if {@link #isText()} is cached 
+     */
+    protected synchronized boolean isTextKnown() {
+        return isKnownText;
+    }
+    
+    /**
+     * Set cached text guess, e.g. from a previously computed value 
+     * 
+     * @param text
+     */
+    protected synchronized void setText(boolean text) {
+        isText = text;
+        isKnownText = true;
+    }
+    
+    /**
+     * Make and cache text guess from leading bytes of content 
+     * 
+     * @param sample leading bytes
+     * @param length number of valid bytes in sample
+     */
+    protected synchronized void setTextFromSample(byte[] sample, int length) {
+        isText = getFileType() == FileType.REGFILE && isTextSample(sample, length);
+        isKnownText = true;
+    }
+    
+    /**
+     * Make sure the requested digests and the text guess are known, so later
+     * calls to {@link #getCrc()}, {@link #getMd5()} and {@link #isText()}
+     * do not need to read content.  Subclasses that cache digests should override
+     * to compute everything in a single read using {@link #readDigests(boolean, boolean)}.
+     * 
+     * @param wantCrc true if CRC32 is needed
+     * @param wantMd5 true if MD5 is needed
+     * @throws IOException
+     */
+    public void computeDigests(boolean wantCrc, boolean wantMd5) throws IOException {
+        if ( wantCrc ) {
+            getCrc();
+        }
+        if ( wantMd5 ) {
+            getMd5();
+        }
+        isText();
+    }
+    
+    /**
+     * Read content once computing requested digests and caching the text guess.
+     * Content is read directly from {@link #getContentPath()} when there is one.
+     * 
+     * @param computeCrc
+     * @param computeMd5
+     * @return digester holding results
+     * @throws IOException
+     */
+    protected ContentDigester readDigests(boolean computeCrc, boolean computeMd5) throws IOException {
+        ContentDigester digester = new ContentDigester(computeCrc, computeMd5 ? newMd5Digest() : null, TEXT_SAMPLE_SIZE);
+        Path path = getContentPath();
+        if ( path != null ) {
+            digester.digest(path);
+        } else {
+            try ( InputStream in = getInputStream() ) {
+                digester.digest(in);
+            }
+        }
+        setTextFromSample(digester.getSample(), digester.getSampleLength());
+        return digester;
+    }
+    
     /**
      * Compare this file to another file using given content comparison method
      * 
@@ -221,124 +363,72 @@ public abstract class FileNode extends Leaf {
      * @throws IOException
      */
     public boolean compareDetails(FileNode f2, ContentMethod method) throws IOException {
+        return findDifference(f2, method) == OFFSET_SAME;
+    }
+     
+    /**
+     * Compare this file to another file using given content comparison method, 
+     * reporting where the content first differs when the method allows.
+     * 
+     * @param f2
+     * @param method
+     * @return {@link #OFFSET_SAME} if same; offset of first differing byte if known; 
+     *    otherwise {@link #OFFSET_UNKNOWN}
+     * 
+     * @throws IOException
+     */
+    public long findDifference(FileNode f2, ContentMethod method) throws IOException {
         
         if ( this.getFileType() != f2.getFileType() ) {
-            return false;
+            return OFFSET_UNKNOWN;
         }
         if ( this.getFileType() == FileType.SPECIAL || f2.getFileType() == FileType.SPECIAL ) {
-            return false;
+            return OFFSET_UNKNOWN;
         }
         // why not check size?
         if ( method == CONTENT_METHOD_CRC ) {
-            return this.getSize() == f2.getSize() && this.getCrc() == f2.getCrc();
+            return this.getSize() == f2.getSize() && this.getCrc() == f2.getCrc() ? OFFSET_SAME : OFFSET_UNKNOWN;
         }
         else if ( method == CONTENT_METHOD_MD5 ) {
-            return this.getSize() == f2.getSize() && Arrays.equals( this.getMd5(), f2.getMd5() );
+            return this.getSize() == f2.getSize() && Arrays.equals( this.getMd5(), f2.getMd5() ) ? OFFSET_SAME : OFFSET_UNKNOWN;
         }
         else if ( method == CONTENT_METHOD_CONTENT) {
-            return this.getSize() == f2.getSize() && compareContent(f2);
+            if ( this.getSize() != f2.getSize() ) {
+                return OFFSET_UNKNOWN;
+            }
+            return findFirstDifference(f2);
         }
         else if ( method == CONTENT_METHOD_CONTENT_TEXT) {
-            return compareContentText(f2);
+            return compareContentText(f2) ? OFFSET_SAME : OFFSET_UNKNOWN;
         }
         throw new IllegalArgumentException(Messages.getString("FileNode.illegal_content_method") + method); //$NON-NLS-1$
     }
      
     /**
-     * Perform a byte by byte comparison
+     * Perform a byte by byte comparison finding where content first differs.  If both 
+     * nodes are backed by files read them via channels, otherwise read streams.
+     * If the content of one is a prefix of the other, the offset is the length of the shorter.
      * 
      * @param f2
-     * @return true if same
+     * @return offset of first difference, or {@link #OFFSET_SAME} if the same
      * @throws IOException
      */
-    private boolean compareContent(FileNode f2) throws IOException {
-        
+    public long findFirstDifference(FileNode f2) throws IOException {
+        Path thisPath = this.getContentPath();
+        Path thatPath = f2.getContentPath();
+        if ( thisPath != null && thatPath != null ) {
+            return ContentComparor.findFirstDifference(thisPath, thatPath);
+        }
         try (InputStream thisStream = this.getInputStream();
             InputStream thatStream = f2.getInputStream() )   
         {
-            int BUF_SIZE = 512;
-            byte[] thisBuf = new byte[BUF_SIZE];
-            byte[] thatBuf = new byte[BUF_SIZE];
-            
-            // Will ignore possibility of non-blocking IO
-            int thisN;
-            int thatN;
-            do {
-                thisN = fullRead( thisStream, thisBuf );
-                thatN = fullRead( thatStream, thatBuf );
-            
-                if (thisN != thatN ) 
-                    return false;
-                for(int i = 0 ; i < thisN; i++)
-                    if (thisBuf[i] != thatBuf[i])
-                        return false; 
-            } while ( thisN > 0 ); // NOTE eof would yeild -1; 0 could be result of non-blocking IO
+            return ContentComparor.findFirstDifference(thisStream, thatStream);
         }
-        return true;
     }
     
     /**
-     * Utility class to normalize text file formats to ignore differences in
-     * line separators.  Will also ignore old DOS convention of putting a ^Z
-     * at the end of a file.  This is a poorman's intput stream.  It only has read().
-     * 
-     * @author davidst
-     *
-     */
-    private class CRLFFilter {
-        int oldCh = 0; // Keep track of previous character from a look-ahead
-        InputStream is; // The stream to filter
-        
-        /**
-         * Construct
-         * @param stream
-         */
-        public CRLFFilter( InputStream stream ) {
-            is = stream;
-        }
-        
-        /**
-         * Read a single character from out input stream.  Normalize 
-         * possible line separators.
-         *  
-         * @return
-         * @throws IOException
-         */
-        public int read() throws IOException {
-            // if we'vea character from a previous look-ahead
-            // then return that
-            if (oldCh != 0) {
-                int temp = oldCh;
-                oldCh = 0;
-                return temp;
-            }
-            
-            int ch = is.read();
-            /**
-             * If this char is a CR then check if next char is LF.
-             * CR, CRLF, and LF all return a single LF
-             */
-            if ( ch == '\r' ) {
-                ch = '\n';
-                int next = is.read();
-                if ( next != '\n' ) {
-                    oldCh = next; // CR without LF remember the look-ahead char
-                }
-            } else if ( ch == '\032' ) { // DOS ^Z at end of file
-                int next = is.read();
-                if ( next >= 0 ) {
-                    oldCh = next; // ^Z but wasn't EOF remember look-ahead
-                } else {
-                    ch = next; // we reached EOF, so return EOF
-                }
-                
-            }
-            return ch;
-        }
-    }
-    
-    /**
-     * Perform a byte by byte text comparison 
+     * Perform a text comparison ignoring differences in line separators
+     * and DOS ^Z at end of file
      * 
      * @param f2
      * @return true if same
@@ -346,25 +436,11 @@ public abstract class FileNode extends Leaf {
      */
     private boolean compareContentText(FileNode f2) throws IOException {
         
-        try (InputStream thisStream = this.getInputStream();
-            InputStream thatStream = f2.getInputStream() ) 
+        try (InputStream thisStream = new CRLFFilterInputStream(this.getInputStream());
+            InputStream thatStream = new CRLFFilterInputStream(f2.getInputStream()) ) 
         {
-            CRLFFilter thisFiltered = new CRLFFilter(thisStream);
-            CRLFFilter thatFiltered = new CRLFFilter(thatStream);
-            
-            int thisB;
-            int thatB;
-            
-            // Will ignore possibility of non-blocking IO
-            do {
-                thisB = thisFiltered.read();
-                thatB = thatFiltered.read();
-                if (thisB != thatB ) // note this will take care of EOF too
-                    return false;
-            } while ( thisB >= 0 ); // NOTE eof would yeild -1
-            
+            return ContentComparor.findFirstDifference(thisStream, thatStream) == ContentComparor.SAME;
         }        
-        return true;
     }
 
     /**
@@ -374,9 +450,18 @@ public abstract class FileNode extends Leaf {
      * @throws IOException
      */
     protected byte[] calculateMd5() throws IOException {
-        MessageDigest md = null;
+        return readDigests(false, true).getMd5();
+    }
+
+    /**
+     * Create MD5 message digest
+     * 
+     * @return
+     * @throws IOException if MD5 is not available
+     */
+    private MessageDigest newMd5Digest() throws IOException {
         try {
-            md = MessageDigest.getInstance("MD5");
+            return MessageDigest.getInstance("MD5");
         }  catch (NoSuchAlgorithmException e) {
             throw new IOException(
                 MessageFormat.format(
@@ -385,19 +470,7 @@ public abstract class FileNode extends Leaf {
                 )
             );
         }
-        int bufSize = 512;  // Define this elsewhere?
-        byte[] b = new byte[bufSize];
-        try ( InputStream in = getInputStream()) 
-        {
-            int n;
-            while( (n = in.read(b)) > 0 ) {
-                md.update(b, 0, n);
-            }
-            return md.digest();
-        }
-        
     }
-
     
     /**
      * Return MD5Sum of file content.  Note client will also need to check size.
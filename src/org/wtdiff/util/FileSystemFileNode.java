@@ -25,9 +25,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.MessageFormat;
-import java.util.zip.CRC32;
+import java.util.concurrent.TimeUnit;
+
+import org.wtdiff.util.io.ContentDigester;
 
 /**
  * Concrete file node class.
@@ -46,9 +51,13 @@ public class FileSystemFileNode extends FileNode {
      */
     private long size;
     /**
-     * Mode time of this file
+     * Mode time of this file in milliseconds
      */
     private long modTime;
+    /**
+     * Mode time of this file in nanoseconds, as precise as the file system provides
+     */
+    private long modTimeNanos;
     /**
      * What type of files is this?
      */
@@ -66,47 +75,83 @@ public class FileSystemFileNode extends FileNode {
      * For symbolic links this is what link points to 
      */
     private String linkTo;
+
+    /**
+     * File system key (e.g. device and inode) of file, empty if not available
+     */
+    private String fileKey;
     
     /**
-     * Construct from a path
+     * Persistent cache of digests, null if none
+     */
+    private DigestCache digestCache;
+    
+    /**
+     * Storage device holding file, null if not known
+     */
+    private Object deviceKey;
+    
+    /**
+     * Construct from a path.  Symbolic links are not followed.
      * 
      * @param p
      * @throws IOException
      */
     public FileSystemFileNode(Path p) throws IOException {
+        this(p, readAttributes(p, false));
+    }
+    
+    /**
+     * Construct from a path and its already read attributes.  The attributes 
+     * should have been read without following symbolic links.  Avoids
+     * querying the file system again for file type, size and time.
+     * 
+     * @param p
+     * @param attrs attributes of p
+     * @throws IOException
+     */
+    public FileSystemFileNode(Path p, BasicFileAttributes attrs) throws IOException {
         this(p, 
-            Files.isSymbolicLink(p)?FileType.SYMLINK: 
-                Files.isRegularFile(p) ? FileType.REGFILE :
-                    ! Files.isDirectory(p) ? FileType.SPECIAL:
-                        null
-                        );
+            attrs.isSymbolicLink() ? FileType.SYMLINK: 
+                attrs.isRegularFile() ? FileType.REGFILE :
+                    ! attrs.isDirectory() ? FileType.SPECIAL:
+                        null,
+            attrs
+        );
     }
     
     /**
-     * Construct from a path given type
+     * Construct from a path given type.  Symbolic links are followed unless type
+     * is SYMLINK.
      * 
      * @param p
      * @param type
      * @throws IOException
      */
     public FileSystemFileNode(Path p, FileType type) throws IOException {
+        this(p, type, readAttributes(p, type != FileType.SYMLINK));
+    }
+    
+    /**
+     * Construct from a path given type and attributes
+     * 
+     * @param p
+     * @param type
+     * @param attrs attributes of p
+     * @throws IOException
+     */
+    private FileSystemFileNode(Path p, FileType type, BasicFileAttributes attrs) throws IOException {
         
-        if ( ! Files.exists(p, LinkOption.NOFOLLOW_LINKS) ) {
-            throw new IOException(
-                MessageFormat.format(
-                    Messages.getString("FileSystemFileNode.file_no_exist"), //$NON-NLS-1$
-                    p
-                )
-            );
-        }
         file = p.toFile();
         fileType = type;
-        size = file.length();
-        modTime = file.lastModified(); // TODO may get more time resolution via java.nio.file.Files.getLastModifiedTime()
+        size = attrs.size();
+        FileTime lastModified = attrs.lastModifiedTime();
+        modTime = lastModified.toMillis();
+        modTimeNanos = lastModified.to(TimeUnit.NANOSECONDS);
+        fileKey = attrs.fileKey() == null ? "" : attrs.fileKey().toString(); //$NON-NLS-1$
         setName( file.getName() );
         
         if ( type == FileType.SYMLINK ) {
-            modTime = Files.getLastModifiedTime(p, LinkOption.NOFOLLOW_LINKS).toMillis();
             linkTo = Files.readSymbolicLink(p).toString();
             size = linkTo.getBytes().length;
         } else if ( type !=  FileType.REGFILE && type != FileType.SPECIAL) {
@@ -118,6 +163,31 @@ public class FileSystemFileNode extends FileNode {
             );
         }
     }
+    
+    /**
+     * Read basic attributes of path with a single file system query
+     * 
+     * @param p
+     * @param followLinks if true then attributes are of what a symbolic link points to
+     * @return attributes of p
+     * @throws IOException if p does not exist
+     */
+    private static BasicFileAttributes readAttributes(Path p, boolean followLinks) throws IOException {
+        try {
+            if ( followLinks ) {
+                return Files.readAttributes(p, BasicFileAttributes.class);
+            }
+            return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException nsfe) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("FileSystemFileNode.file_no_exist"), //$NON-NLS-1$
+                    p
+                )
+            );
+        }
+    }
+    
     /**
      * What type of file is this (most commonly regular file)
      */
@@ -126,20 +196,30 @@ public class FileSystemFileNode extends FileNode {
     }
     /**
      * How hard is it to use given content method with this tyep of FileNode.
+     * A digest already known, or an MD5 held in the digest cache for the file 
+     * as it is now, is easy.  With a digest cache files are compared by MD5, 
+     * which is kept for later runs, rather than by content or by CRC32 alone.
      * 
      * @return cost (difficulty) of using given contant comparison method
      */
     public double getContentMethodCost(ContentMethod method) {
+        boolean isCacheable = digestCache != null && fileType == FileType.REGFILE;
         // comparison by content is the easiest (at least the first time). 
         // determining the CRC32 is only a little more work 
         if ( method == CONTENT_METHOD_CRC ) {
-            return COST_MODERATE;
+            if ( isCrcKnown() ) {
+                return COST_EASY;
+            }
+            return isCacheable ? COST_HARD : COST_MODERATE;
         }
         else if ( method == CONTENT_METHOD_MD5 ) {
-            return COST_HARD;
+            if ( isMd5Known() ) {
+                return COST_EASY;
+            }
+            return isCacheable ? COST_MODERATE : COST_HARD;
         }
         else if ( method == CONTENT_METHOD_CONTENT ) {
-            return COST_EASY;
+            return isCacheable ? COST_MODERATE : COST_EASY;
         }
         else if ( method == CONTENT_METHOD_CONTENT_TEXT ) {
             return COST_EASY;
@@ -148,6 +228,24 @@ public class FileSystemFileNode extends FileNode {
         return COST_IMPOSSIBLE;
     }
 
+    private synchronized boolean isCrcKnown() {
+        return crc != null;
+    }
+
+    /**
+     * @return true if MD5 is known or cached for file as it is now
+     */
+    private synchronized boolean isMd5Known() {
+        if ( md5 != null ) {
+            return true;
+        }
+        if ( digestCache == null || fileType != FileType.REGFILE ) {
+            return false;
+        }
+        DigestCache.Entry entry = digestCache.peek(file.getAbsolutePath(), size, modTimeNanos, fileKey);
+        return entry != null && entry.getMd5() != null;
+    }
+
     /**
      * Return CRC32 of file content.  Note client will also need to check size.
      * The CRC32 isn't good enough for to guard against malicious file tampering.
@@ -155,21 +253,7 @@ public class FileSystemFileNode extends FileNode {
      */
     public synchronized long getCrc() throws IOException {
         if (crc == null) {
-            CRC32 crc32 = new CRC32();
-            InputStream in = null;
-            try {
-                in = getInputStream();
-                int bufSize = 512;  // Define this elsewhere?
-                byte[] b = new byte[bufSize];
-                int n;
-                while( (n = in.read(b)) > 0 ) {
-                    crc32.update(b, 0, n);
-                }
-                crc = new Long(crc32.getValue());
-            }
-            finally {
-                if ( in != null ) in.close();
-            }
+            computeDigests(true, false);
         }
         return crc.longValue();
     }
@@ -181,11 +265,117 @@ public class FileSystemFileNode extends FileNode {
      */
      public synchronized byte[] getMd5() throws IOException {
          if (md5 == null) {
-             md5 = calculateMd5();
+             computeDigests(false, true);
          }
          return md5;
      }
 
+    /**
+     * Compute any of the requested digests not already known, along with the 
+     * text guess, in a single read of the file.  If there is a digest cache
+     * it is consulted first, and updated with what is computed.
+     */
+    @Override
+    public synchronized void computeDigests(boolean wantCrc, boolean wantMd5) throws IOException {
+        boolean needCrc = wantCrc && crc == null;
+        boolean needMd5 = wantMd5 && md5 == null;
+        if ( !needCrc && !needMd5 && isTextKnown() ) {
+            return;
+        }
+        boolean isCacheable = digestCache != null && fileType == FileType.REGFILE;
+        if ( isCacheable ) {
+            DigestCache.Entry entry = digestCache.lookup(file.getAbsolutePath(), size, modTimeNanos, fileKey);
+            if ( entry != null ) {
+                if ( crc == null && entry.getCrc() != null ) {
+                    crc = entry.getCrc();
+                    needCrc = false;
+                }
+                if ( md5 == null && entry.getMd5() != null ) {
+                    md5 = entry.getMd5();
+                    needMd5 = false;
+                }
+                if ( entry.getIsText() != null ) {
+                    setText(entry.getIsText().booleanValue());
+                }
+                if ( !needCrc && !needMd5 && isTextKnown() ) {
+                    return;
+                }
+            }
+        }
+        if ( isCacheable ) {
+            // reading anyway, so cache both digests
+            needCrc = crc == null;
+            needMd5 = md5 == null;
+        }
+        ContentDigester digester = readDigests(needCrc, needMd5);
+        if ( needCrc ) {
+            crc = new Long(digester.getCrc());
+        }
+        if ( needMd5 ) {
+            md5 = digester.getMd5();
+        }
+        if ( isCacheable ) {
+            digestCache.store(file.getAbsolutePath(), size, modTimeNanos, fileKey, 
+                needCrc ? crc : null, needMd5 ? md5 : null, Boolean.valueOf(isText()));
+        }
+    }
+
+    /**
+     * Set key identifying storage device holding file
+     * 
+     * @param key device key, e.g. FileStore, or null if not known
+     */
+    public void setDeviceKey(Object key) {
+        deviceKey = key;
+    }
+    
+    @Override
+    public Object getDeviceKey() {
+        return deviceKey;
+    }
+    
+    @Override
+    public String getFileKey() {
+        return fileKey.isEmpty() ? null : fileKey;
+    }
+    
+    /**
+     * Take digests and text guess known from elsewhere, such as an earlier snapshot 
+     * of the unchanged file, rather than reading the file for them.  Digests already
+     * known are kept.
+     * 
+     * @param knownCrc CRC32, or null if not known
+     * @param knownMd5 MD5, or null if not known
+     * @param knownIsText text guess, or null if not known
+     */
+    public synchronized void setKnownDigests(Long knownCrc, byte[] knownMd5, Boolean knownIsText) {
+        if ( crc == null ) {
+            crc = knownCrc;
+        }
+        if ( md5 == null ) {
+            md5 = knownMd5;
+        }
+        if ( knownIsText != null && ! isTextKnown() ) {
+            setText(knownIsText.booleanValue());
+        }
+    }
+    
+    /**
+     * Use given persistent cache for digests
+     * 
+     * @param cache cache to use, or null for none
+     */
+    public synchronized void setDigestCache(DigestCache cache) {
+        digestCache = cache;
+    }
+    
+    /**
+     * @return persistent cache for digests, null if none
+     */
+    public synchronized DigestCache getDigestCache() {
+        return digestCache;
+    }
+    
     /**
      * Return an input stream for this file.  It is the callers responsibility
      * to close the steam.  
@@ -202,6 +392,17 @@ public class FileSystemFileNode extends FileNode {
         return new BufferedInputStream( new FileInputStream(file) );
     }
 
+    /**
+     * Path of file for regular files, otherwise null since content
+     * of symbolic links and special files is synthesized.
+     */
+    public Path getContentPath() {
+        if ( fileType == FileType.REGFILE ) {
+            return file.toPath();
+        }
+        return null;
+    }
+
     /**
      * Size of this file
      */
@@ -216,5 +417,12 @@ public class FileSystemFileNode extends FileNode {
         return modTime;
     }
     
+    /**
+     * File timestamp with nanosecond precision (if supported by file system)
+     */
+    public long getTimeNanos() {
+        return modTimeNanos;
+    }
+    
 
 }
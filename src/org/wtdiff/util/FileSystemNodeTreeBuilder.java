@@ -21,10 +21,15 @@ import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.filter.NodeFilter;
 
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * Node Tree builder to build a tree based on some starting point in a file system
@@ -38,13 +43,103 @@ public class FileSystemNodeTreeBuilder implements NodeTreeBuilder {
      * Starting point in filesystem from which to build tree
      */
     private Path rootFile;
+    /**
+     * Number of threads used to walk directories.  1 means walk serially
+     * on the calling thread.
+     */
+    private int parallelism;
+    /**
+     * Persistent digest cache given to file nodes, null if none
+     */
+    private DigestCache digestCache;
+    /**
+     * File stores by device id, so that the store holding a directory is only
+     * looked up once per device
+     */
+    private final ConcurrentHashMap<Object, Object> fileStoreByDevice = new ConcurrentHashMap<>();
+    /**
+     * Progress of building, null if not tracked
+     */
+    private TaskProgress progress;
+    /**
+     * Filter of nodes to leave out of tree, null if none
+     */
+    private NodeFilter filter;
     /**
      * Constructor
      * 
      * @param path starting place in file system
      */
     public FileSystemNodeTreeBuilder(String path) {
+        this(path, 1);
+    }
+
+    /**
+     * Constructor for a builder which walks sibling directories concurrently.
+     * Resulting tree is the same as that of a serial walk.
+     * 
+     * @param path starting place in file system
+     * @param parallelism number of threads used to walk directories, 1 for serial
+     */
+    public FileSystemNodeTreeBuilder(String path, int parallelism) {
+        if ( parallelism < 1 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("FileSystemNodeTreeBuilder.bad_parallelism"), //$NON-NLS-1$
+                    parallelism
+                )
+            );
+        }
         rootFile = Paths.get(path);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Number of threads used to walk directories
+     * 
+     * @return parallelism, 1 if serial
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set persistent digest cache used by file nodes in built tree
+     * 
+     * @param cache cache, or null for none
+     */
+    public void setDigestCache(DigestCache cache) {
+        digestCache = cache;
+    }
+
+    /**
+     * Persistent digest cache used by file nodes in built tree
+     * 
+     * @return cache, or null if none
+     */
+    public DigestCache getDigestCache() {
+        return digestCache;
+    }
+
+    /**
+     * Set progress to update as directories are listed.  Building stops
+     * with an InterruptedIOException if progress is cancelled.
+     * 
+     * @param p progress, or null for none
+     */
+    public void setProgress(TaskProgress p) {
+        progress = p;
+    }
+
+    /**
+     * Set filter of nodes to leave out of the built tree.  Excluded directories 
+     * are not walked.  The tree is the same as filtering the unfiltered tree
+     * with a {@link FilterTreeBuilder}.
+     * 
+     * @param f filter, or null for none
+     */
+    public void setFilter(NodeFilter f) {
+        filter = f;
     }
 
     /**
@@ -65,17 +160,28 @@ public class FileSystemNodeTreeBuilder implements NodeTreeBuilder {
             );
         }
         String root = rootFile.toString();
-        if ( Files.isDirectory(rootFile) ) {
+        if ( Files.isDirectory(rootFile) && FilterTreeBuilder.isDirExcluded(filter, rootFile.toFile().getName()) ) {
+            d = new DirNode(rootFile.toFile().getName(), new ArrayList <Leaf>(0), new ArrayList <DirNode>(0));
+        } else if ( Files.isDirectory(rootFile) ) {
             // root is a directory. recursively build Node tree from files and dirs under it
-            d = buildTree(rootFile, handler);
+            if ( parallelism > 1 ) {
+                d = buildTreeParallel(rootFile, handler);
+            } else {
+                d = buildTree(rootFile, handler);
+            }
         } else {
             // root is not a directory. create an artificial DirNode to hold it.
             // Construction is trivial
-            FileNode f = new FileSystemFileNode(
+            FileSystemFileNode f = new FileSystemFileNode(
                     rootFile, 
                     Files.isRegularFile(rootFile) ? FileType.REGFILE : FileType.SPECIAL
             );
+            f.setDigestCache(digestCache);
+            f.setDeviceKey(deviceKeyOf(rootFile.toAbsolutePath().getParent()));
             d = new DirNode(f);
+            if ( FilterTreeBuilder.isExcluded(filter, d) || FilterTreeBuilder.isExcluded(filter, f) ) {
+                d.getLeaves().clear();
+            }
             if ( rootFile.getParent() == null ) {
                 root = "";
             } else {
@@ -95,12 +201,51 @@ public class FileSystemNodeTreeBuilder implements NodeTreeBuilder {
      * @return DirNode representing dir and its children
      */
     private DirNode buildTree(Path dir, ErrorHandler handler)  throws IOException {
-        // Make two passes through dir, one for dirs and one for files.
-        // Would be more efficient to do this in one pass.
-        
         ArrayList <Leaf> fileNodeList = new ArrayList <Leaf> ();
-        ArrayList <DirNode> dirNodeList = new ArrayList <DirNode>();
+        ArrayList <Path> subDirList = new ArrayList <Path> ();
+        listDir(dir, handler, fileNodeList, subDirList);
+
+        ArrayList <DirNode> dirNodeList = new ArrayList <DirNode>(subDirList.size());
+        for ( Path p : subDirList ) {
+            dirNodeList.add( buildTree( p, handler ) );
+        }
+        // now construct the DirNode for this dir
+        return new DirNode(dir.toFile().getName(), fileNodeList, dirNodeList);
+    }
 
+    /**
+     * Build tree of files and dirs walking subdirectories concurrently
+     * 
+     * @param dir directory to expand into node tree
+     * @return DirNode representing dir and its children
+     */
+    private DirNode buildTreeParallel(Path dir, ErrorHandler handler)  throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new DirWalkTask(dir, handler));
+        } catch (WalkException we) {
+            throw we.getIOException();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * List a single directory.  Files, symbolic links and special files are turned into FileNodes
+     * appended to fileNodeList.  Sub-directories are appended to subDirList for the caller to expand.
+     * If directory can not be read and error handler ignores the error both lists are left empty.
+     * 
+     * @param dir directory to list
+     * @param handler error handler
+     * @param fileNodeList list to which to add leaves
+     * @param subDirList list to which to add sub-directories
+     * @throws IOException
+     */
+    void listDir(Path dir, ErrorHandler handler, List <Leaf> fileNodeList, List <Path> subDirList)  throws IOException {
+        if ( progress != null ) {
+            progress.checkCancelled();
+            progress.addDir();
+        }
         if ( ! Files.isReadable(dir) || ! Files.isExecutable(dir) ) {
             IOException e = new IOException(
                 MessageFormat.format(
@@ -110,24 +255,122 @@ public class FileSystemNodeTreeBuilder implements NodeTreeBuilder {
             );
             if ( ! handler.handleError(e) )
                 throw e;
-            return new DirNode(dir.toFile().getName(), fileNodeList, dirNodeList);
+            return;
         }
 
-//        Path dirPath = Paths.get(dir.getPath());
+        Object deviceKey = deviceKeyOf(dir);
         try ( DirectoryStream<Path> dirStream = Files.newDirectoryStream(dir) ) {
             for ( Path p : dirStream ) {
-                if ( Files.isSymbolicLink(p)) {
-                    fileNodeList.add( new FileSystemFileNode(p) );
-                } else if ( Files.isDirectory(p) ) {
-                    DirNode aDir = buildTree( p, handler );
-                    dirNodeList.add(aDir);
+                // stat each entry only once, the node is constructed from these attributes
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if ( attrs.isDirectory() ) {
+                    if ( ! FilterTreeBuilder.isDirExcluded(filter, p.toFile().getName()) ) {
+                        subDirList.add(p);
+                    }
                 } else {
-                    fileNodeList.add( new FileSystemFileNode(p) );   
+                    FileSystemFileNode f = new FileSystemFileNode(p, attrs);
+                    if ( FilterTreeBuilder.isExcluded(filter, f) ) {
+                        continue;
+                    }
+                    f.setDigestCache(digestCache);
+                    f.setDeviceKey(deviceKey);
+                    fileNodeList.add( f );   
+                    if ( progress != null ) {
+                        progress.addFile();
+                        progress.addBytes(attrs.size());
+                    }
                 }
             }
         }
-        // now construct the DirNode for this dir
-        return new DirNode(dir.toFile().getName(), fileNodeList, dirNodeList);
+    }
+
+    /**
+     * Device key of files in a directory, the file store holding it.  Subtrees
+     * may be on other mounts, so each directory is checked.  Where the device id
+     * of a directory is available the store is only looked up once per device.
+     * 
+     * @param dir
+     * @return file store, or null if not known
+     */
+    private Object deviceKeyOf(Path dir) {
+        if ( dir == null ) {
+            return null;
+        }
+        Object device;
+        try {
+            device = Files.getAttribute(dir, "unix:dev"); //$NON-NLS-1$
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            device = null;
+        }
+        Object store = device == null ? null : fileStoreByDevice.get(device);
+        if ( store == null ) {
+            try {
+                store = Files.getFileStore(dir);
+            } catch (IOException ioe) {
+                return null; // only used to limit concurrent reads
+            }
+            if ( device != null ) {
+                fileStoreByDevice.putIfAbsent(device, store);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Unchecked wrapper so that an IOException can escape a fork join task
+     */
+    private static class WalkException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public WalkException(IOException cause) {
+            super(cause);
+        }
+
+        public IOException getIOException() {
+            return (IOException)getCause();
+        }
+    }
+
+    /**
+     * Fork join task to build tree for a single directory.  Sub-directories are
+     * forked as their own tasks and joined in listing order so that the result is 
+     * the same as a serial walk.
+     * 
+     * @author davidst
+     */
+    private class DirWalkTask extends RecursiveTask<DirNode> {
+        private static final long serialVersionUID = 1L;
+
+        private Path dir;
+        private ErrorHandler handler;
+
+        public DirWalkTask(Path dir, ErrorHandler handler) {
+            this.dir = dir;
+            this.handler = handler;
+        }
+
+        @Override
+        protected DirNode compute() {
+            ArrayList <Leaf> fileNodeList = new ArrayList <Leaf> ();
+            ArrayList <Path> subDirList = new ArrayList <Path> ();
+            try {
+                listDir(dir, handler, fileNodeList, subDirList);
+            } catch (IOException ioe) {
+                throw new WalkException(ioe);
+            }
+
+            ArrayList <DirWalkTask> tasks = new ArrayList <DirWalkTask>(subDirList.size());
+            for ( Path p : subDirList ) {
+                tasks.add( new DirWalkTask(p, handler) );
+            }
+            invokeAll(tasks);
+
+            ArrayList <DirNode> dirNodeList = new ArrayList <DirNode>(tasks.size());
+            for ( DirWalkTask task : tasks ) {
+                dirNodeList.add( task.join() );
+            }
+            return new DirNode(dir.toFile().getName(), fileNodeList, dirNodeList);
+        }
     }
     
     /**
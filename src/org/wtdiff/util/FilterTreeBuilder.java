@@ -23,6 +23,14 @@ import java.util.List;
 import org.wtdiff.util.filter.NodeFilter;
 import org.wtdiff.util.filter.NodeFilter.Result;
 
+/**
+ * Builds a copy of a tree without the nodes excluded by a filter.  Tree builders
+ * given a filter apply the same rules as they build, so that excluded directories
+ * are never expanded.
+ * 
+ * @author davidst
+ *
+ */
 public class FilterTreeBuilder implements NodeTreeBuilder {
 
     private DirNode root;
@@ -47,6 +55,30 @@ public class FilterTreeBuilder implements NodeTreeBuilder {
         return filteredDir;
     }
 
+    /**
+     * Check whether node is excluded by filter
+     * 
+     * @param nodeFilter filter, or null for none
+     * @param node
+     * @return true if excluded
+     */
+    public static boolean isExcluded(NodeFilter nodeFilter, Node node) {
+        return nodeFilter != null && nodeFilter.filterNode(node) == Result.EXCLUDE;
+    }
+
+    /**
+     * Check whether a directory with given name is excluded by filter, before
+     * its content is known.
+     * 
+     * @param nodeFilter filter, or null for none
+     * @param name name of directory
+     * @return true if excluded
+     */
+    public static boolean isDirExcluded(NodeFilter nodeFilter, String name) {
+        return nodeFilter != null 
+            && isExcluded(nodeFilter, new DirNode(name, new ArrayList <Leaf>(0), new ArrayList <DirNode>(0)));
+    }
+
     private DirNode buildTree(ErrorHandler handler, DirNode dirNode) throws IOException {
         List<Leaf> leaves = new ArrayList <Leaf>();
         for ( Leaf n: dirNode.getLeaves()) {
@@ -17,11 +17,11 @@ limitations under the License.
 
 package org.wtdiff.util;
 
-import java.util.HashMap;
-
 /**
  * Class to collect simiple stats into buckets (bins) based on 
- * integer value.  Also keeps track of min/max integer values
+ * integer value.  Also keeps track of min/max integer values.
+ * Bins are an array spanning values seen, so values should lie within
+ * a modest range, such as differences in tree depth.
  * <pre>
  *    binCounter = new IntBinCounter();
  *    binCounter.incr(2);
@@ -39,10 +39,13 @@ import java.util.HashMap;
  *
  */
 public class IntBinCounter {
+    private static final int INITIAL_BINS = 16;
+    
     private int min; // min value seen
     private int max; // max value seen
     private int count = 0; // total count of values seen
-    private HashMap <Integer, Integer> counts = new HashMap <> (); //counts per value
+    private int[] counts = new int[INITIAL_BINS]; //counts per value, offset by base
+    private int base; // value counted by counts[0] 
     
     /**
      * Constructor
@@ -55,27 +58,50 @@ public class IntBinCounter {
      * @param i the value
      */
     public void incr(int i) {
+        incr(i, 1);
+    }
+    
+    /**
+     * increase count for given value by n
+     * @param i the value
+     * @param n number of times value counted, not negative
+     */
+    public void incr(int i, int n) {
+        if ( n <= 0 ) {
+            return;
+        }
         // min/max value of i seen
         if ( count == 0 ) {
             min = max = i;
+            base = i - counts.length / 2; // room to grow either way
         } else if (i < min) {
             min = i;
         } else if ( i > max) {
             max = i;
         }
-        count++; // total count
-        
-        // convert int to Integer object so can use as a key
-        Integer key = new Integer(i);
-        Integer count = counts.get(key);
-        if (count == null) {
-            count = new Integer(1);   // we don't have a bucket for this value, so count is 1            
-        } else {
-            // we already have a bucket, so increment count for this value
-            count = new Integer(count.intValue()+1);
+        count += n; // total count
+        if ( i < base || i - base >= counts.length ) {
+            grow(i);
         }
-        //      note that count is a new object.  We have to replace the old object in hash map.
-        counts.put(key, count); 
+        counts[i - base] += n;
+    }
+    
+    /**
+     * Enlarge bins to include value i
+     * 
+     * @param i
+     */
+    private void grow(int i) {
+        int newBase = Math.min(base, i);
+        int newEnd = Math.max(base + counts.length, i + 1);
+        int newLength = Math.max(counts.length * 2, newEnd - newBase);
+        if ( newBase < base ) {
+            newBase = newEnd - newLength; // grow down
+        }
+        int[] newCounts = new int[newLength];
+        System.arraycopy(counts, 0, newCounts, base - newBase, counts.length);
+        counts = newCounts;
+        base = newBase;
     }
     
     /**
@@ -91,9 +117,10 @@ public class IntBinCounter {
      * @return count for value i
      */
     public int getCount(int i) {
-        Integer key = new Integer(i);
-        Integer count = counts.get(key);
-        return count == null ? 0 : count.intValue();
+        if ( count == 0 || i < min || i > max ) {
+            return 0;
+        }
+        return counts[i - base];
     }
     /**
      * Minimum thing seen.
@@ -28,6 +28,7 @@ public class LeafComparisonResult extends Leaf implements ComparisonResult {
     private boolean areSame12;
     private String name1;
     private String name2;
+    private long differenceOffset = -1;
     /**
      * Constructor
      * 
@@ -79,6 +80,25 @@ public class LeafComparisonResult extends Leaf implements ComparisonResult {
     public boolean haveBoth() {
         return !missing2 && !missing1;
     }
+    
+    /**
+     * Offset of the first byte at which content of the two leaves differs,
+     * if known.  Only set when content was compared byte by byte.
+     * 
+     * @return offset of first difference, -1 if not known or same
+     */
+    public long getDifferenceOffset() {
+        return differenceOffset;
+    }
+    
+    /**
+     * Set offset of first byte at which content differs
+     * 
+     * @param offset
+     */
+    public void setDifferenceOffset(long offset) {
+        differenceOffset = offset;
+    }
 
     /**
      * return a String representation of the comparison result of the node
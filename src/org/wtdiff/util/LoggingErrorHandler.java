@@ -30,26 +30,26 @@ public class LoggingErrorHandler implements ErrorHandler {
         isIgnore = ignore;
     }
     @Override
-    public boolean handleError(Exception e) {
+    public synchronized boolean handleError(Exception e) {
         logger.error(e.getMessage());
         encounteredErrors = true;
         return isIgnore;
     }
 
     @Override
-    public void logError(Exception e) {
+    public synchronized void logError(Exception e) {
         logger.error(e.getMessage());
         encounteredErrors = true;
     }
 
     
     @Override
-    public boolean encounteredError() {
+    public synchronized boolean encounteredError() {
         return encounteredErrors;
     }
     
     @Override
-    public void reset() {
+    public synchronized void reset() {
         encounteredErrors = false;
     }
     
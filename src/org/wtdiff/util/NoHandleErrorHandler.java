@@ -21,23 +21,23 @@ public class NoHandleErrorHandler implements ErrorHandler {
     private boolean encounteredErrors = false;
 
     @Override
-    public boolean handleError(Exception e) {
+    public synchronized boolean handleError(Exception e) {
         encounteredErrors = true;
         return false;
     }
 
     @Override
-    public void logError(Exception e) {
+    public synchronized void logError(Exception e) {
         encounteredErrors = true;
     }
 
     @Override
-    public boolean encounteredError() {
+    public synchronized boolean encounteredError() {
         return encounteredErrors;
     }
 
     @Override
-    public void reset() {
+    public synchronized void reset() {
         encounteredErrors = false;
         
     }
@@ -0,0 +1,308 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.binary.BinarySnapshotReader;
+import org.wtdiff.util.binary.BinaryTreeBuilder;
+import org.wtdiff.util.filter.NodeFilter;
+import org.wtdiff.util.xml.DirNodeXMLStreamReader;
+import org.wtdiff.util.xml.XMLTreeBuilder;
+
+/**
+ * Verify a directory in the file system against a snapshot, XML or binary, without
+ * building either tree.  The directory is walked in step with a {@link DirNodeStream}
+ * of the snapshot, comparing a directory at a time, and differences are passed to 
+ * a listener as they are found.  So memory use depends on the depth of the tree
+ * rather than its size.
+ * 
+ * The top dir of the snapshot corresponds to the directory verified, whatever 
+ * their names.  Unlike {@link CompareController} the trees are not aligned.  Files 
+ * are compared as by {@link TreeComparor}.  A directory found on only one side is
+ * reported, but not what it holds.
+ * 
+ * @author davidst
+ *
+ */
+public class StreamingVerifier {
+
+    /**
+     * Kind of difference
+     */
+    public enum Difference { 
+        /** in snapshot but not directory */
+        SNAPSHOT_ONLY, 
+        /** in directory but not snapshot */
+        LIVE_ONLY, 
+        /** file differs */
+        CHANGED 
+    }
+    
+    /**
+     * Listener notified of each difference found
+     */
+    public interface DifferenceListener {
+        /**
+         * @param difference kind of difference
+         * @param path path relative to top, '/' separated
+         * @param isDir true if a directory
+         */
+        public void difference(Difference difference, String path, boolean isDir);
+    }
+    
+    private boolean isNameIgnoreCase;
+    private boolean isTextCompare;
+    private ErrorHandler errorHandler = new NoHandleErrorHandler();
+    private NodeFilter filter;
+    private TaskProgress progress;
+    private DigestCache digestCache;
+    private DifferenceListener listener;
+    private long differenceCount;
+    
+    /**
+     * Constructor
+     * 
+     * @param nameIgnoreCase comparison of node names is case insensitive
+     * @param textCompare text nodes should be compared as text  
+     */
+    public StreamingVerifier(boolean nameIgnoreCase, boolean textCompare) {
+        isNameIgnoreCase = nameIgnoreCase;
+        isTextCompare = textCompare;
+    }
+    
+    public void setErrorHandler(ErrorHandler handler) {
+        errorHandler = handler;
+    }
+    
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+    
+    /**
+     * Set filter of nodes to leave out of both sides.  Top dirs are not filtered.
+     * 
+     * @param f filter, or null for none
+     */
+    public void setFilter(NodeFilter f) {
+        filter = f;
+    }
+    
+    /**
+     * Set progress to update as directories are walked.  Verifying stops
+     * with an InterruptedIOException if progress is cancelled.
+     * 
+     * @param p progress, or null for none
+     */
+    public void setProgress(TaskProgress p) {
+        progress = p;
+    }
+    
+    /**
+     * Set persistent digest cache used by files of directory
+     * 
+     * @param cache cache, or null for none
+     */
+    public void setDigestCache(DigestCache cache) {
+        digestCache = cache;
+    }
+    
+    /**
+     * Set listener to notify of differences
+     * 
+     * @param l listener, or null for none
+     */
+    public void setDifferenceListener(DifferenceListener l) {
+        listener = l;
+    }
+    
+    /**
+     * @return number of differences found by last verify
+     */
+    public long getDifferenceCount() {
+        return differenceCount;
+    }
+    
+    /**
+     * Verify directory against snapshot
+     * 
+     * @param snapshot XML or binary snapshot
+     * @param root directory, or file, to verify
+     * @return true if same
+     * @throws IOException if either can't be read, or snapshot is malformed
+     */
+    public boolean verify(String snapshot, String root) throws IOException {
+        differenceCount = 0;
+        Path rootFile = Paths.get(root);
+        if ( ! rootFile.toFile().exists() ) { // nio Files.exists(path) returns false in Windows7 if missing read permission
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("FileSystemNodeTreeBuilder.root_file_noexist"), //$NON-NLS-1$
+                    rootFile
+                )
+            );
+        }
+        boolean isBinary = BinaryTreeBuilder.isBinarySnapshot(snapshot);
+        if ( ! isBinary && ! XMLTreeBuilder.isXMLSnapshot(snapshot) ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("StreamingVerifier.not_snapshot"), //$NON-NLS-1$
+                    snapshot
+                )
+            );
+        }
+        FileSystemNodeTreeBuilder builder = new FileSystemNodeTreeBuilder(root);
+        builder.setFilter(filter);
+        builder.setProgress(progress);
+        builder.setDigestCache(digestCache);
+        TreeComparor comparor = new TreeComparor(isNameIgnoreCase, isTextCompare);
+        comparor.setErrorHandler(errorHandler);
+        
+        try ( InputStream input = new FileInputStream(snapshot); 
+              DirNodeStream stream = openStream(input, isBinary) ) {
+            DirNode top = stream.nextDir();
+            if ( Files.isDirectory(rootFile) ) {
+                verifyDir(stream, top, rootFile, "", builder, comparor); //$NON-NLS-1$
+            } else {
+                // as for a tree, a file is held by an artificial dir 
+                List<Leaf> leaves = new ArrayList<>(1);
+                FileSystemFileNode f = new FileSystemFileNode(
+                    rootFile, 
+                    Files.isRegularFile(rootFile) ? FileType.REGFILE : FileType.SPECIAL
+                );
+                f.setDigestCache(digestCache);
+                if ( ! FilterTreeBuilder.isExcluded(filter, f) ) {
+                    leaves.add(f);
+                }
+                compareLeaves(top, new DirNode(rootFile.toFile().getName(), leaves, new ArrayList<DirNode>(0)), "", comparor); //$NON-NLS-1$
+                DirNode d;
+                while ( (d = stream.nextDir()) != null ) {
+                    report(Difference.SNAPSHOT_ONLY, d.getName(), true);
+                    stream.skipDir();
+                }
+            }
+        }
+        return differenceCount == 0;
+    }
+    
+    private DirNodeStream openStream(InputStream input, boolean isBinary) throws IOException {
+        if ( isBinary ) {
+            BinarySnapshotReader reader = new BinarySnapshotReader();
+            reader.setFilter(filter);
+            return reader.openStream(input);
+        }
+        DirNodeXMLStreamReader reader = new DirNodeXMLStreamReader();
+        reader.setFilter(filter);
+        return reader.openStream(input);
+    }
+    
+    /**
+     * Verify directory against open dir of snapshot, reading the rest of the 
+     * dir from the stream.
+     * 
+     * @param stream snapshot stream
+     * @param snapshotDir open snapshot dir, with its leaves
+     * @param dir directory to verify
+     * @param prefix path of dir relative to top, empty or ending in '/'
+     * @param builder 
+     * @param comparor
+     * @throws IOException
+     */
+    private void verifyDir(DirNodeStream stream, DirNode snapshotDir, Path dir, String prefix, 
+        FileSystemNodeTreeBuilder builder, TreeComparor comparor) throws IOException 
+    {
+        List<Leaf> leaves = new ArrayList<>();
+        List<Path> subDirs = new ArrayList<>();
+        builder.listDir(dir, errorHandler, leaves, subDirs);
+        compareLeaves(snapshotDir, new DirNode(dir.toFile().getName(), leaves, new ArrayList<DirNode>(0)), prefix, comparor);
+        
+        TreeMap<String, Path> unmatched = new TreeMap<>();
+        for ( Path p: subDirs ) {
+            unmatched.put(p.toFile().getName(), p);
+        }
+        DirNode snapshotSubDir;
+        while ( (snapshotSubDir = stream.nextDir()) != null ) {
+            String name = snapshotSubDir.getName();
+            Path match = unmatched.remove(name);
+            if ( match == null && isNameIgnoreCase ) {
+                // exact match is preferred, but names of later snapshot dirs aren't known yet
+                for ( Iterator<Map.Entry<String, Path>> iter = unmatched.entrySet().iterator(); iter.hasNext(); ) {
+                    Map.Entry<String, Path> entry = iter.next();
+                    if ( entry.getKey().equalsIgnoreCase(name) ) {
+                        match = entry.getValue();
+                        iter.remove();
+                        break;
+                    }
+                }
+            }
+            if ( match == null ) {
+                report(Difference.SNAPSHOT_ONLY, prefix + name, true);
+                stream.skipDir();
+            } else {
+                verifyDir(stream, snapshotSubDir, match, prefix + name + "/", builder, comparor); //$NON-NLS-1$
+            }
+        }
+        for ( String name: unmatched.keySet() ) {
+            report(Difference.LIVE_ONLY, prefix + name, true);
+        }
+    }
+    
+    /**
+     * Compare leaves of a snapshot dir and a directory
+     * 
+     * @param snapshotDir dir with leaves only
+     * @param liveDir dir with leaves only
+     * @param prefix path of dirs relative to top
+     * @param comparor
+     * @throws IOException
+     */
+    private void compareLeaves(DirNode snapshotDir, DirNode liveDir, String prefix, TreeComparor comparor) throws IOException {
+        ComparisonDirNode result = comparor.compare(snapshotDir, liveDir);
+        if ( result.areSame() ) {
+            return;
+        }
+        for ( Leaf l: result.getLeaves() ) {
+            LeafComparisonResult r = (LeafComparisonResult)l;
+            if ( r.isMissing2() ) {
+                report(Difference.SNAPSHOT_ONLY, prefix + r.getName(), false);
+            } else if ( r.isMissing1() ) {
+                report(Difference.LIVE_ONLY, prefix + r.getName(), false);
+            } else if ( ! r.areSame() ) {
+                report(Difference.CHANGED, prefix + r.getName(), false);
+            }
+        }
+    }
+    
+    private void report(Difference difference, String path, boolean isDir) {
+        differenceCount++;
+        if ( listener != null ) {
+            listener.difference(difference, path, isDir);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of building or comparing trees, and means of cancelling it.  Counts are
+ * updated by the (possibly several) threads doing the work and may be read by any
+ * thread, e.g. to display progress.  Work checks {@link #checkCancelled()} at convenient
+ * points, so that a cancelled task ends by throwing an {@link InterruptedIOException}.
+ *
+ * @author davidst
+ *
+ */
+public class TaskProgress {
+
+    /**
+     * Value of totals and estimates when not known
+     */
+    public static final long UNKNOWN = -1;
+
+    private final AtomicLong dirs = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long totalFiles = UNKNOWN;
+    private volatile long totalBytes = UNKNOWN;
+    private volatile long startNanos = System.nanoTime();
+    private volatile boolean isCancelled = false;
+    private Thread taskThread; // guarded by this
+    private final Set<Thread> helperThreads = new HashSet<>(); // guarded by this
+
+    /**
+     * Reset counts, totals and cancellation for reuse
+     */
+    public void reset() {
+        dirs.set(0);
+        files.set(0);
+        bytes.set(0);
+        totalFiles = UNKNOWN;
+        totalBytes = UNKNOWN;
+        isCancelled = false;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Note calling thread as that running the task, to be interrupted if 
+     * the task is cancelled.
+     */
+    public synchronized void start() {
+        taskThread = Thread.currentThread();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Note that task has finished, so its thread will no longer be interrupted on cancel.
+     * Called by the task thread, any interrupt due to cancellation is cleared so
+     * as not to affect later use of the thread.
+     */
+    public synchronized void finish() {
+        taskThread = null;
+        Thread.interrupted();
+    }
+
+    /**
+     * Note calling thread as helping the task thread, for example a worker thread of
+     * a pool, to be interrupted along with the task thread if the task is cancelled.
+     * Interrupted at once if the task has already been cancelled.
+     */
+    public synchronized void addHelper() {
+        Thread t = Thread.currentThread();
+        helperThreads.add(t);
+        if ( isCancelled ) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * Note that calling thread no longer helps with task
+     */
+    public synchronized void removeHelper() {
+        helperThreads.remove(Thread.currentThread());
+    }
+
+    /**
+     * Request that task stop.  The task thread and any helper threads are 
+     * interrupted so that any blocking IO or waits end promptly.
+     */
+    public synchronized void cancel() {
+        isCancelled = true;
+        if ( taskThread != null ) {
+            taskThread.interrupt();
+        }
+        for ( Thread t: helperThreads ) {
+            t.interrupt();
+        }
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Throw if task has been cancelled, or current thread interrupted
+     *
+     * @throws InterruptedIOException
+     */
+    public void checkCancelled() throws InterruptedIOException {
+        if ( isCancelled || Thread.currentThread().isInterrupted() ) {
+            throw new InterruptedIOException(Messages.getString("TaskProgress.cancelled")); //$NON-NLS-1$
+        }
+    }
+
+    public void addDir() {
+        dirs.incrementAndGet();
+    }
+
+    public void addFile() {
+        files.incrementAndGet();
+    }
+
+    public void addBytes(long n) {
+        bytes.addAndGet(n);
+    }
+
+    public long getDirs() {
+        return dirs.get();
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Set expected totals when known in advance
+     *
+     * @param nFiles expected number of files, or {@link #UNKNOWN}
+     * @param nBytes expected number of bytes, or {@link #UNKNOWN}
+     */
+    public void setTotals(long nFiles, long nBytes) {
+        totalFiles = nFiles;
+        totalBytes = nBytes;
+    }
+
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return milliseconds since task started
+     */
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * Estimate time remaining from rate so far. Based on bytes if total
+     * bytes are known, otherwise files.
+     *
+     * @return estimated milliseconds remaining, or {@link #UNKNOWN}
+     */
+    public long getEstimatedMillisRemaining() {
+        long done;
+        long total;
+        if ( totalBytes > 0 ) {
+            done = bytes.get();
+            total = totalBytes;
+        } else if ( totalFiles > 0 ) {
+            done = files.get();
+            total = totalFiles;
+        } else {
+            return UNKNOWN;
+        }
+        if ( done <= 0 ) {
+            return UNKNOWN;
+        }
+        if ( done >= total ) {
+            return 0;
+        }
+        return (long)((double)getElapsedMillis() * (total - done) / done);
+    }
+}
@@ -31,7 +31,9 @@ import java.util.*;
  *    file system:
  *       c/x.txt
  * </pre>
- * The analysis is solely based on the names of things and their depth. 
+ * The analysis is solely based on the names of things and their depth. Names and depths
+ * of each tree are collected once and reused by later queries on the same trees, so trees
+ * should not be changed while an analyser is in use.
  * 
  * @author davidst
  *
@@ -40,6 +42,89 @@ public class TreeAlignmentAnalyser {
     // is case significant when comparing names?
     private boolean isIgnoreFileNameCase;
     
+    /**
+     * Id of each distinct name (normalized for case if ignoring case), shared by 
+     * all trees analysed so that ids are comparable between trees 
+     */
+    private HashMap <String, Integer> nameIds = new HashMap <> ();
+    
+    /**
+     * Names of trees analysed, by top node
+     */
+    private IdentityHashMap <DirNode, TreeNames> treeNamesByTop = new IdentityHashMap <> ();
+    
+    /**
+     * Last pair of trees compared by depth difference and the result
+     */
+    private TreeNames lastNames1;
+    private TreeNames lastNames2;
+    private IntBinCounter lastDepthCounts;
+    
+    /**
+     * Names and depths of all nodes of a tree in pre-order, so that each subtree
+     * occupies a contiguous range.  
+     */
+    private class TreeNames {
+        final int[] nameId; // name id of each node
+        final int[] depth; // depth of each node below top
+        final int[] end; // index after last node of subtree of each node
+        final IdentityHashMap <DirNode, Integer> dirIndex = new IdentityHashMap <> (); // index of each DirNode
+        int size = 0;
+        long[] topKeys; // sorted name depth keys of whole tree, null until needed
+        
+        TreeNames(DirNode top) {
+            int n = countNodes(top);
+            nameId = new int[n];
+            depth = new int[n];
+            end = new int[n];
+            add(top, 0);
+            addDir(top, 1);
+        }
+        
+        private int add(Node node, int d) {
+            int i = size++;
+            nameId[i] = nameId(node);
+            depth[i] = d;
+            end[i] = size;
+            return i;
+        }
+        
+        private void addDir(DirNode dir, int d) {
+            int i = size - 1;
+            dirIndex.put(dir, i);
+            for ( Leaf leaf: dir.getLeaves() ) {
+                add(leaf, d);
+            }
+            for ( DirNode sub: dir.getDirs() ) {
+                add(sub, d);
+                addDir(sub, d + 1);
+            }
+            end[i] = size;
+        }
+        
+        /**
+         * Sorted keys of name and depth relative to subtree top, of nodes in subtree
+         * 
+         * @param top index of top node of subtree
+         * @return keys ordered by name id then depth 
+         */
+        long[] sortedKeys(int top) {
+            if ( top == 0 && topKeys != null ) {
+                return topKeys;
+            }
+            int topDepth = depth[top];
+            long[] keys = new long[end[top] - top];
+            for ( int i = top; i < end[top]; i++ ) {
+                keys[i - top] = key(nameId[i], depth[i] - topDepth);
+            }
+            Arrays.sort(keys);
+            if ( top == 0 ) {
+                topKeys = keys;
+            }
+            return keys;
+        }
+    }
+    
     /**
      * Construct an analyser with given sensitivity to case of names 
      * 
@@ -49,6 +134,69 @@ public class TreeAlignmentAnalyser {
         isIgnoreFileNameCase = ignoreCase;
     }
     
+    private static int countNodes(DirNode d) {
+        int n = 1 + d.getLeaves().size();
+        for ( DirNode sub: d.getDirs() ) {
+            n += countNodes(sub);
+        }
+        return n;
+    }
+    
+    private int nameId(Node n) {
+        String name = isIgnoreFileNameCase ? n.getName().toLowerCase(): n.getName();
+        Integer id = nameIds.get(name);
+        if ( id == null ) {
+            id = nameIds.size();
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+    
+    private static long key(int nameId, int depth) {
+        return ((long)nameId << 32) | depth;
+    }
+    
+    private static int nameIdOf(long key) {
+        return (int)(key >>> 32);
+    }
+    
+    private static int depthOf(long key) {
+        return (int)key;
+    }
+    
+    /**
+     * Names of tree, collected on first use
+     * 
+     * @param top
+     * @return
+     */
+    private TreeNames treeNames(DirNode top) {
+        TreeNames names = treeNamesByTop.get(top);
+        if ( names == null ) {
+            names = new TreeNames(top);
+            treeNamesByTop.put(top, names);
+        }
+        return names;
+    }
+    
+    /**
+     * Number of name matches at each depth difference between two trees
+     * 
+     * @param d1
+     * @param d2
+     * @return
+     */
+    private IntBinCounter depthCounts(DirNode d1, DirNode d2) {
+        TreeNames names1 = treeNames(d1);
+        TreeNames names2 = treeNames(d2);
+        if ( names1 != lastNames1 || names2 != lastNames2 ) {
+            lastDepthCounts = depthCompareOrderedKeys(names1.sortedKeys(0), names2.sortedKeys(0));
+            lastNames1 = names1;
+            lastNames2 = names2;
+        }
+        return lastDepthCounts;
+    }
+    
     /**
      * Without looking at detailed tree structure, what is the degree of matches between the
      * two trees based on names of nodes at the same depth in both trees.
@@ -58,21 +206,13 @@ public class TreeAlignmentAnalyser {
      * @return match factor (inclusive range 0.0 to 1.0 with 0.0 being no matches, and 1.0 being all matches
      */
     public double matchFactor(DirNode d1, DirNode d2) {
-        int n1;
-        int n2;
-        int nmatch;
-        NameDepthListBuilder ndc = new NameDepthListBuilder(isIgnoreFileNameCase);
-        List <NameDepth> nameDepths1 = ndc.buildNameDepthList(d1);
-        n1 = nameDepths1.size();
-        List <NameDepth> nameDepths2 = ndc.buildNameDepthList(d2);
-        n2 = nameDepths2.size();
-        Collections.sort(nameDepths1, NameDepth.nameDepthComparator);
-        Collections.sort(nameDepths2, NameDepth.nameDepthComparator);
-        IntBinCounter ibc = depthCompareOrderedLists(nameDepths1, nameDepths2);
+        int n1 = treeNames(d1).size;
+        int n2 = treeNames(d2).size;
+        IntBinCounter ibc = depthCounts(d1, d2);
         if ( ibc.getTotCount() == 0 ) { // tot count is number of name matches  
             return 0.0;
         }
-        nmatch = ibc.getCount(0); // number of matches at exactly same depth
+        int nmatch = ibc.getCount(0); // number of matches at exactly same depth
         return 2*nmatch / (double)(n1 + n2);  // match factor at same depth
     } 
     /**
@@ -81,16 +221,10 @@ public class TreeAlignmentAnalyser {
      * 
      * @param d1 first tree
      * @param d2 second tree
-     * @return match factor (inclusive range 0.0 to 1.0 with 0.0 being no matches, and 1.0 being all matches
+     * @return number of name matches at same depth 
      */
     public int matchCount(DirNode d1, DirNode d2) {
-        NameDepthListBuilder ndc = new NameDepthListBuilder(isIgnoreFileNameCase);
-        List <NameDepth> nameDepths1 = ndc.buildNameDepthList(d1);
-        List <NameDepth> nameDepths2 = ndc.buildNameDepthList(d2);
-        Collections.sort(nameDepths1, NameDepth.nameDepthComparator);
-        Collections.sort(nameDepths2, NameDepth.nameDepthComparator);
-        IntBinCounter ibc = depthCompareOrderedLists(nameDepths1, nameDepths2);
-        return ibc.getCount(0); // number of matches at exactly same depth
+        return sameDepthCount(treeNames(d1).sortedKeys(0), treeNames(d2).sortedKeys(0));
     } 
     
     /**
@@ -102,12 +236,7 @@ public class TreeAlignmentAnalyser {
      * @return  0 if trees best aligned at same depth. n &lt; 0 if d1 will align best n deep into d2; n &gt; 0 if d2 will best align n deep into d21
      */
     public int findBestDepthAlignment(DirNode d1, DirNode d2) {
-        NameDepthListBuilder ndc = new NameDepthListBuilder(isIgnoreFileNameCase);
-        List <NameDepth> nameDepths1 = ndc.buildNameDepthList(d1);
-        List <NameDepth> nameDepths2 = ndc.buildNameDepthList(d2);
-        Collections.sort(nameDepths1, NameDepth.nameDepthComparator);
-        Collections.sort(nameDepths2, NameDepth.nameDepthComparator);
-        IntBinCounter ibc = depthCompareOrderedLists(nameDepths1, nameDepths2);
+        IntBinCounter ibc = depthCounts(d1, d2);
         if ( ibc.getTotCount() == 0 ) {
             return 0;
         }
@@ -124,11 +253,14 @@ public class TreeAlignmentAnalyser {
         
     }
     
-    
     /**
-     * Compare 2 ordered lists of name/depth values and return an IntBinCounter with
-     * number of name matches at various relative depths.  Note that this method does not
-     * try to optimize the comparison by depth  
+     * Compare 2 ordered arrays of name/depth keys and return an IntBinCounter with
+     * number of name matches at various relative depths.  
+     * <p>
+     * When a name occurs more than once in a tree the count is the theoretical maximum 
+     * number of matches.  For each depth of the name in the first tree and each depth of 
+     * the name in the second tree, the number of matches at the depth difference is the 
+     * lesser of the numbers of occurrences at those depths.
      * <pre>
      * example:
      *  l1 = { (a,1) (c,2) (d,3) (d,4) (e,2) }
@@ -146,178 +278,92 @@ public class TreeAlignmentAnalyser {
      *  count at depth difference +1 is 1
      * </pre>
      *  
-     * @param l1
-     * @param l2
+     * @param keys1
+     * @param keys2
      * @return
      */
-    private IntBinCounter depthCompareOrderedLists(List <NameDepth> l1, List <NameDepth> l2) {
+    private static IntBinCounter depthCompareOrderedKeys(long[] keys1, long[] keys2) {
         IntBinCounter ibc = new IntBinCounter();
-        ListIterator <NameDepth> iter1 = l1.listIterator();
-        ListIterator <NameDepth> iter2 = l2.listIterator();
-        // start each list.  handle case with a list is empty
-        boolean isEnd1 = false; // have we reached the end of list 1?
-        boolean isEnd2 = false; // have we reached the end of list 2?
-        if (! iter1.hasNext() || ! iter2.hasNext() ) { // list should not be empty, but be defensive
-            return ibc; // if one list is empty then no matches are possible;
-        }
-        NameDepth nd1 = iter1.next();
-        NameDepth nd2 = iter2.next();
-        
-        // go through the lists counting the number of possible name matches depending on depth difference
-        while( !isEnd1 && !isEnd2 ) {
-            boolean isGet1 = true;  // start by assuming we will need to get the next value from list 1
-            boolean isGet2 = true;  // similar for list 2
-            // 
-            int cmp = nd1.name.compareTo(nd2.name);
-            if ( cmp < 0 ) { // name 1 < name 2 so name 1 is missing from list 2
-                isGet2 = false; // it turns out that we won't need to get the next item from list 2
-            } else if ( cmp > 0 ) {
-                isGet1 = false; // it turns out that we won't need to get the next item from list 1
+        int i1 = 0;
+        int i2 = 0;
+        while ( i1 < keys1.length && i2 < keys2.length ) {
+            int name1 = nameIdOf(keys1[i1]);
+            int name2 = nameIdOf(keys2[i2]);
+            if ( name1 < name2 ) {
+                i1 = nameEnd(keys1, i1);
+            } else if ( name1 > name2 ) {
+                i2 = nameEnd(keys2, i2);
             } else {
-                // the names are the same. add to count for relative depth difference
-                // handle case of duplicate names in lists
-                // warning - iter1 may be modified if duplicates pulled from list
-                List<DepthDegeneracy> dupList1 = buildDuplicatesList( nd1, iter1 );
-                List<DepthDegeneracy> dupList2 = buildDuplicatesList( nd2, iter2 );
-                updateNameDepthCompareCounts( ibc, dupList1, dupList2);
-            }
-            // get the next item from list one if needed and if we haven't reached the end
-            if ( isGet1 ) {
-                if ( !iter1.hasNext() ) {
-                    isEnd1 = true;
-                } else {
-                   nd1 = (NameDepth) iter1.next();
-                }
-            }
-            // get the next item from list two if needed and if we haven't reached the end
-            if ( isGet2 ) {
-                if ( !iter2.hasNext() ) {
-                    isEnd2 = true;
-                } else {
-                   nd2 = (NameDepth) iter2.next();
+                int end1 = nameEnd(keys1, i1);
+                int end2 = nameEnd(keys2, i2);
+                // for each depth of the name in list 1 and in list 2 
+                for ( int j1 = i1; j1 < end1; j1 = runEnd(keys1, j1) ) {
+                    int n1 = runEnd(keys1, j1) - j1;
+                    for ( int j2 = i2; j2 < end2; j2 = runEnd(keys2, j2) ) {
+                        int n2 = runEnd(keys2, j2) - j2;
+                        ibc.incr(depthOf(keys1[j1]) - depthOf(keys2[j2]), Math.min(n1, n2));
+                    }
                 }
+                i1 = end1;
+                i2 = end2;
             }
-            
         }
         return ibc;
-        
     }
     
-    /** When comparing depths of names between two lists the situation becomes complicated
-      if a name occurs more than once in a list.  If it occurs more than once at the same depth
-      in a list (termed degeneracy here), we need even more care.  We are trying to 
-      determine the theoretical maximum number of matches between the two lists.
-      
-      DepthDegeneracy helps capture the duplicates at a given depth
-    **/ 
-    private class DepthDegeneracy {
-        public int depth;
-        public int degeneracy = 1;
-        public DepthDegeneracy(int depth) {
-            this.depth = depth;
-        }
-    }
-
     /**
-     * Build a list of depth degeneracies for the remaining elements in iter that
-     * have the same name as theNd.  
+     * Number of name matches at the same depth between 2 ordered arrays of 
+     * name depth keys.  The same as the count at depth difference 0 of 
+     * {@link #depthCompareOrderedKeys(long[], long[])}.
      * 
-     * @param theNd the name depth object currently pulled from iter 
-     * @param iter the iterator from which to pull objects with the same name.  
-     *     iter is assumed to be positioned directly after theNd.
-     *     Any objects with the same name as theNd should be at the head of iter and
-     *     should be in order of increasing depth
-     *     On return iter will be positioned at the first object with a different name
-     *     than theNd. 
-     * @return a list of DepthDegeneracy objects
+     * @param keys1
+     * @param keys2
+     * @return number of matches
      */
-    private List <DepthDegeneracy> buildDuplicatesList(NameDepth theNd, ListIterator <NameDepth> iter) {
-        
-        List <DepthDegeneracy> dupList = new ArrayList <> ();
-        DepthDegeneracy current = new DepthDegeneracy(theNd.depth);
-        dupList.add(current);
-        
-        while ( iter.hasNext() ) {
-            NameDepth nextNd = iter.next();
-            if ( ! nextNd.name.equals(theNd.name) ) {
-                iter.previous();
-                break;
-            }
-            if ( nextNd.depth == current.depth ) {
-                current.degeneracy++;
+    private static int sameDepthCount(long[] keys1, long[] keys2) {
+        int count = 0;
+        int i1 = 0;
+        int i2 = 0;
+        while ( i1 < keys1.length && i2 < keys2.length ) {
+            if ( keys1[i1] < keys2[i2] ) {
+                i1 = runEnd(keys1, i1);
+            } else if ( keys1[i1] > keys2[i2] ) {
+                i2 = runEnd(keys2, i2);
             } else {
-                current = new DepthDegeneracy(nextNd.depth);
-                dupList.add(current);
+                int end1 = runEnd(keys1, i1);
+                int end2 = runEnd(keys2, i2);
+                count += Math.min(end1 - i1, end2 - i2);
+                i1 = end1;
+                i2 = end2;
             }
         }
-        return dupList;
+        return count;
     }
     
     /**
-     * This method increments counter to account for the possible matches at different 
-     * depth offsets.
-     * 
-     * Simple case
-     * l1  l2
-     * 0   1
-     * 1 match for offset -1
-     * 
-     * Simple duplicates in one list
-     * l1  l2
-     * 0   0
-     * 1
-     * 1 match for offset 0
-     * 1 match for offset 1
-     *
-     * Simple duplicates in both lists
-     * l1  l2
-     * 0   1
-     * 1   2
-     * 2 matches for offset -1
-     * 1 match for offset 0
-     * 1 match for offset -2
-     * 
-     * Degenerate duplicates in one list
-     * l1  l2
-     * 0   0
-     * 0
-     * 1 match for offset 0
-     * 
-     * Degenerate duplicates in one list, simple duplicates in other
-     * l1  l2
-     * 0   0
-     * 0   1
-     * 1 match for offset -1
-     * 1 match for offset 0
-     * 
-     * Degenerate duplicates in both lists
-     * l1  l2
-     * 0   0
-     * 1   0
-     * 1
-     * 1 match for offset 0
-     * 2 matches for offset 1
-     * 
-     * @param counter
-     * @param depthDegeneracyList1
-     * @param depthDegeneracyList2
+     * @return index after last key equal to keys[i]
      */
-    private void updateNameDepthCompareCounts(IntBinCounter counter, List <DepthDegeneracy> depthDegeneracyList1,
-      List <DepthDegeneracy> depthDegeneracyList2) {
-        Iterator <DepthDegeneracy> iter1 = depthDegeneracyList1.iterator();
-        while ( iter1.hasNext() ) {
-            DepthDegeneracy dd1 = iter1.next();
-            Iterator <DepthDegeneracy> iter2 = depthDegeneracyList2.iterator();
-            while ( iter2.hasNext() ) {
-                DepthDegeneracy dd2 = iter2.next();
-                int minDegen = ( dd1.degeneracy < dd2.degeneracy ? dd1.degeneracy : dd2.degeneracy );
-                for(int i = 0 ; i < minDegen; i++) {
-                    counter.incr( dd1.depth - dd2.depth );
-                }
-            }
+    private static int runEnd(long[] keys, int i) {
+        long key = keys[i];
+        int end = i + 1;
+        while ( end < keys.length && keys[end] == key ) {
+            end++;
+        }
+        return end;
+    }
+    
+    /**
+     * @return index after last key with same name as keys[i]
+     */
+    private static int nameEnd(long[] keys, int i) {
+        int name = nameIdOf(keys[i]);
+        int end = i + 1;
+        while ( end < keys.length && nameIdOf(keys[end]) == name ) {
+            end++;
         }
-        return;    
+        return end;
     }
+    
     /**
      * Find best matching subtree in d1 for d2 at given depth
      *  
@@ -331,7 +377,7 @@ public class TreeAlignmentAnalyser {
             throw new IllegalArgumentException(Messages.getString("TreeAlignmentAnalyser.depth_negative")); //$NON-NLS-1$
         }
         IntRef bestCount = new IntRef();
-        List <DirNode> bestPath = bestSubTree(depth, d1, d2, bestCount);
+        List <DirNode> bestPath = bestSubTree(depth, d1, treeNames(d1), treeNames(d2).sortedKeys(0), bestCount);
         
         System.out.println("best count " + bestCount.val); //$NON-NLS-1$
         return bestPath;
@@ -347,13 +393,14 @@ public class TreeAlignmentAnalyser {
      *  
      * @param depth
      * @param d1
-     * @param d2
+     * @param names1 names of tree containing d1
+     * @param keys2 sorted name depth keys of d2 tree
      * @param iRef
      * @return dirnode in d1 at given depth that best matches d2 tree
      */
-    private List<DirNode> bestSubTree(int depth, DirNode d1, DirNode d2, IntRef iRef ) {
+    private List<DirNode> bestSubTree(int depth, DirNode d1, TreeNames names1, long[] keys2, IntRef iRef ) {
         if (depth == 0 ) {
-            iRef.val = matchCount(d1, d2);
+            iRef.val = sameDepthCount(names1.sortedKeys(names1.dirIndex.get(d1)), keys2);
             List <DirNode> bestPath = new ArrayList<DirNode>();
             bestPath.add(d1);
             return bestPath;
@@ -364,7 +411,7 @@ public class TreeAlignmentAnalyser {
         for(Iterator <DirNode> iter = subDirs1.iterator(); iter.hasNext(); ) {
             DirNode sd1 = iter.next();
             IntRef nMatches = new IntRef(); 
-            List <DirNode> subPath = bestSubTree(depth - 1, sd1, d2, nMatches);
+            List <DirNode> subPath = bestSubTree(depth - 1, sd1, names1, keys2, nMatches);
             if (nMatches.val > bestMatchCount ) {
                 bestMatchCount = nMatches.val;
                 bestSubPath = subPath;
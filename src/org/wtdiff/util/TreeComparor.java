@@ -19,7 +19,20 @@ package org.wtdiff.util;
 
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
 
 /**
  * Class to compare two trees of Nodes.  The comparison result is also a tree of Nodes, Comparison result nodes. 
@@ -35,6 +48,92 @@ public class TreeComparor {
     
     // error handler
     private ErrorHandler errorHandler; 
+    
+    // number of threads comparing file content, 1 to compare on calling thread
+    private int parallelism = 1;
+    // max concurrent content comparisons reading from one device, 0 for no limit
+    private int deviceLimit = 0;
+    
+    // progress of comparison, null if not tracked
+    private TaskProgress progress;
+    
+    // pending comparisons are limited to this many per thread
+    private static final int QUEUE_PER_THREAD = 4;
+    
+    // state of a parallel comparison, null otherwise
+    private ThreadPoolExecutor executor;
+    private ArrayDeque<Future<Void>> pending; // at most maxPending, oldest first
+    private int maxPending;
+    private ConcurrentHashMap<Object, DevicePermits> devicePermits;
+    private AtomicInteger devicePermitsOrder;
+    
+    /**
+     * Permits limiting concurrent reads of a device.  Permits are acquired in
+     * order to avoid deadlock when a comparison needs two devices.
+     */
+    private static class DevicePermits {
+        final int order;
+        final Semaphore semaphore;
+        
+        DevicePermits(int order, int permits) {
+            this.order = order;
+            semaphore = new Semaphore(permits, true);
+        }
+    }
+    
+    /**
+     * Result of comparing two trees known to be identical.  Results for children
+     * are only created when asked for, so that comparing needn't visit the trees.
+     */
+    private static class IdenticalComparisonDirNode extends ComparisonDirNode {
+        private DirNode dir1;
+        private DirNode dir2;
+        
+        IdenticalComparisonDirNode(DirNode d1, DirNode d2) {
+            super(d1, d2, true, true, true);
+            dir1 = d1;
+            dir2 = d2;
+        }
+        
+        @Override
+        public List<Leaf> getLeaves() {
+            expand();
+            return super.getLeaves();
+        }
+        
+        @Override
+        public List<DirNode> getDirs() {
+            expand();
+            return super.getDirs();
+        }
+        
+        /**
+         * Create results for children.  As trees are identical, children sorted by
+         * name pair up.
+         */
+        private synchronized void expand() {
+            if ( dir1 == null ) {
+                return;
+            }
+            List<Leaf> leaves1 = new ArrayList<>(dir1.getLeaves());
+            List<Leaf> leaves2 = new ArrayList<>(dir2.getLeaves());
+            List<DirNode> dirs1 = new ArrayList<>(dir1.getDirs());
+            List<DirNode> dirs2 = new ArrayList<>(dir2.getDirs());
+            dir1 = dir2 = null;
+            Collections.sort(leaves1, Node.nameComparator);
+            Collections.sort(leaves2, Node.nameComparator);
+            Collections.sort(dirs1, Node.nameComparator);
+            Collections.sort(dirs2, Node.nameComparator);
+            List<Leaf> leafResults = super.getLeaves();
+            for ( int i = 0; i < leaves1.size(); i++ ) {
+                leafResults.add( new LeafComparisonResult(leaves1.get(i), leaves2.get(i), true, true, true) );
+            }
+            List<DirNode> dirResults = super.getDirs();
+            for ( int i = 0; i < dirs1.size(); i++ ) {
+                dirResults.add( new IdenticalComparisonDirNode(dirs1.get(i), dirs2.get(i)) );
+            }
+        }
+    }
     /**
      * Constructor
      * 
@@ -57,6 +156,119 @@ public class TreeComparor {
         errorHandler = handler;
     }
 
+    /**
+     * Set number of threads used to compare file content.  Directories are still matched
+     * on the calling thread while content comparisons run concurrently.  The comparison 
+     * result is the same as that of a serial comparison.
+     * 
+     * @param threads number of threads, 1 to compare on calling thread
+     */
+    public void setParallelism(int threads) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("TreeComparor.bad_parallelism"),  //$NON-NLS-1$
+                    threads
+                )
+            );
+        }
+        parallelism = threads;
+    }
+    
+    /**
+     * Get number of threads used to compare file content {@link #setParallelism(int)}
+     * 
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set maximum number of concurrent content comparisons reading from any one device
+     * {@link FileNode#getDeviceKey()}.  Only matters when parallelism is more than 1.
+     * 
+     * @param limit maximum comparisons per device, 0 for no limit
+     */
+    public void setDeviceLimit(int limit) {
+        if ( limit < 0 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("TreeComparor.bad_device_limit"),  //$NON-NLS-1$
+                    limit
+                )
+            );
+        }
+        deviceLimit = limit;
+    }
+    
+    /**
+     * Get maximum number of concurrent content comparisons per device {@link #setDeviceLimit(int)}
+     * 
+     * @return limit, 0 if no limit
+     */
+    public int getDeviceLimit() {
+        return deviceLimit;
+    }
+
+    /**
+     * Set progress to update as files are compared.  Totals are set to the
+     * number and size of files in both trees when comparison starts.  Comparison
+     * stops with an InterruptedIOException if progress is cancelled.
+     * 
+     * @param p progress, or null for none
+     */
+    public void setProgress(TaskProgress p) {
+        progress = p;
+    }
+
+    /**
+     * Count files in tree and their total size, as reported by {@link #leafDone(Leaf)}
+     * 
+     * @param d
+     * @param totals {number of files, total size}
+     */
+    private static void countLeaves(DirNode d, long[] totals) {
+        if ( d == null ) {
+            return;
+        }
+        for ( Leaf l: d.getLeaves() ) {
+            if ( l instanceof FileNode ) {
+                totals[0]++;
+                totals[1] += ((FileNode)l).getSize();
+            }
+        }
+        for ( DirNode sub: d.getDirs() ) {
+            countLeaves(sub, totals);
+        }
+    }
+    
+    /**
+     * Note that leaf has been dealt with, only files are counted
+     * 
+     * @param l
+     */
+    private void leafDone(Leaf l) {
+        if ( l instanceof FileNode ) {
+            progress.addFile();
+            progress.addBytes(((FileNode)l).getSize());
+        }
+    }
+
+    /**
+     * Note that all leaves in tree have been dealt with
+     * 
+     * @param d
+     */
+    private void leavesDone(DirNode d) {
+        for ( Leaf l: d.getLeaves() ) {
+            leafDone(l);
+        }
+        for ( DirNode sub: d.getDirs() ) {
+            leavesDone(sub);
+        }
+    }
+
     /**
      * Check if any comparison results in list indicate a difference.
      * 
@@ -90,7 +302,8 @@ public class TreeComparor {
     }
 
     /**
-     * Compare two trees of DirNodes.
+     * Compare two trees of DirNodes.  If parallelism is more than 1, content 
+     * comparisons run on a pool of worker threads and this waits for them to finish.
      * 
      * @param d1 root DirNode of first tree
      * @param d2 root DirNode of first tree
@@ -99,13 +312,147 @@ public class TreeComparor {
      * @throws IOException
      */
     public ComparisonDirNode compare(DirNode d1, DirNode d2)  throws IOException {
+        if ( progress != null ) {
+            long[] totals = new long[2];
+            countLeaves(d1, totals);
+            countLeaves(d2, totals);
+            progress.setTotals(totals[0], totals[1]);
+        }
+        if ( parallelism <= 1 ) {
+            return compareDirs(d1, d2);
+        }
+        executor = new ThreadPoolExecutor(
+            parallelism, parallelism, 0, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(parallelism * QUEUE_PER_THREAD),
+            new HelperThreadFactory(progress),
+            new ThreadPoolExecutor.CallerRunsPolicy() // queue full, so compare on this thread
+        );
+        pending = new ArrayDeque<>();
+        maxPending = parallelism * (QUEUE_PER_THREAD + 1); // queued and running
+        devicePermits = new ConcurrentHashMap<>();
+        devicePermitsOrder = new AtomicInteger();
+        try {
+            ComparisonDirNode result = compareDirs(d1, d2);
+            for ( Future<Void> f: pending ) {
+                waitFor(f);
+            }
+            updateAreSame(result);
+            return result;
+        } finally {
+            executor.shutdownNow();
+            executor = null;
+            pending = null;
+            devicePermits = null;
+            devicePermitsOrder = null;
+        }
+    }
+    
+    /**
+     * Creates pool threads registered as helpers of the comparison's progress, so
+     * that cancelling it interrupts comparisons in progress on the pool
+     */
+    private static class HelperThreadFactory implements ThreadFactory {
+        private final ThreadFactory factory = Executors.defaultThreadFactory();
+        private final TaskProgress progress;
+
+        HelperThreadFactory(TaskProgress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            if ( progress == null ) {
+                return factory.newThread(r);
+            }
+            return factory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    progress.addHelper();
+                    try {
+                        r.run();
+                    } finally {
+                        progress.removeHelper();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait for a content comparison to complete, rethrowing its exception if any
+     * 
+     * @param f
+     * @throws IOException
+     */
+    private void waitFor(Future<Void> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ie.getLocalizedMessage());
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if ( cause instanceof IOException ) {
+                throw (IOException)cause;
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+    
+    /**
+     * Set whether comparison directory nodes are the same once all their leaves
+     * have been compared.  Same rule as in {@link #compareDirs(DirNode, DirNode)}.
+     * 
+     * @param node
+     */
+    private void updateAreSame(ComparisonDirNode node) {
+        if ( node instanceof IdenticalComparisonDirNode ) {
+            return; // nothing pending below, and don't expand it
+        }
+        for ( DirNode d: node.getDirs() ) {
+            updateAreSame((ComparisonDirNode)d);
+        }
+        node.setAreSame( node.haveBoth() && checkResults(node.getLeaves()) && checkDirResults(node.getDirs()) );
+    }
+    
+    /**
+     * Compare two trees of DirNodes.  In a parallel comparison content 
+     * comparisons may still be pending when this returns.  Trees with equal
+     * Merkle digests {@link DirNode#getMerkleDigest()} are the same, so are
+     * not descended.
+     * 
+     * @param d1 root DirNode of first tree
+     * @param d2 root DirNode of first tree
+     * @return root DirNode of comparison result tree
+     *  
+     * @throws IOException
+     */
+    private ComparisonDirNode compareDirs(DirNode d1, DirNode d2)  throws IOException {
         List<Leaf> fileResults;
         List<DirNode> dirResults;
         boolean have1 = false;
         boolean have2 = false;
+        if ( progress != null ) {
+            progress.checkCancelled();
+            progress.addDir();
+        }
 //        String name1 = "";
 //        String name2 = "";
         if ( d1 != null && d2 != null ) {
+            byte[] merkle1 = d1.getMerkleDigest();
+            if ( merkle1 != null && Arrays.equals(merkle1, d2.getMerkleDigest()) ) {
+                if ( progress != null ) {
+                    leavesDone(d1);
+                    leavesDone(d2);
+                }
+                return new IdenticalComparisonDirNode(d1, d2);
+            }
 //            name1 = d1.getName();
 //            name2 = d2.getName();
             fileResults = CompareFileNodes(d1.getLeaves(), d2.getLeaves());
@@ -219,7 +566,7 @@ public class TreeComparor {
             DirNode dn1 = iter.next();
             DirNode dn2 = iter.next();
             ComparisonDirNode r;
-            r = compare(dn1, dn2);
+            r = compareDirs(dn1, dn2);
             resultList.add(r);
         }
         
@@ -237,7 +584,7 @@ public class TreeComparor {
                 DirNode dn1 = iter.next();
                 DirNode dn2 = iter.next();
                 ComparisonDirNode r;
-                r = compare(dn1, dn2);
+                r = compareDirs(dn1, dn2);
                 resultList.add(r);
             }
             
@@ -246,13 +593,13 @@ public class TreeComparor {
         for(Iterator<DirNode> iter = lOnly1.iterator(); iter.hasNext();) {
             DirNode dn1 = iter.next();
             ComparisonDirNode r;
-            r = compare(dn1, null);
+            r = compareDirs(dn1, null);
             resultList.add(r);
         }
         for(Iterator<DirNode> iter = lOnly2.iterator(); iter.hasNext();) {
             DirNode dn2 = iter.next();
             ComparisonDirNode r;
-            r = compare(null, dn2);
+            r = compareDirs(null, dn2);
             resultList.add(r);
         }
         
@@ -284,8 +631,8 @@ public class TreeComparor {
         for(Iterator<Leaf> iter = lBoth.iterator(); iter.hasNext();) {
             FileNode fn1 = (FileNode)iter.next();
             FileNode fn2 = (FileNode)iter.next();
-            boolean areSame = compareDetails(fn1, fn2);
-            LeafComparisonResult r = new LeafComparisonResult(fn1, fn2, true, true, areSame);
+            LeafComparisonResult r = new LeafComparisonResult(fn1, fn2, true, true, false);
+            compareLeaves(fn1, fn2, r);
             resultList.add(r);
         }
         
@@ -303,8 +650,8 @@ public class TreeComparor {
             for(Iterator<Leaf> iter = lBoth.iterator(); iter.hasNext();) {
                 FileNode fn1 = (FileNode)iter.next();
                 FileNode fn2 = (FileNode)iter.next();
-                boolean areSame = compareDetails(fn1, fn2);
-                LeafComparisonResult r = new LeafComparisonResult(fn1, fn2, true, true, areSame);
+                LeafComparisonResult r = new LeafComparisonResult(fn1, fn2, true, true, false);
+                compareLeaves(fn1, fn2, r);
                 resultList.add(r);
             }
         }
@@ -313,12 +660,18 @@ public class TreeComparor {
             FileNode fn1 = (FileNode)iter.next();
             LeafComparisonResult r = new LeafComparisonResult(fn1, null, true, false, false);
             resultList.add(r);
+            if ( progress != null ) {
+                leafDone(fn1);
+            }
         }
 
         for(Iterator<Leaf> iter = lOnly2.iterator(); iter.hasNext();) {
             FileNode fn2 = (FileNode)iter.next();
             LeafComparisonResult r = new LeafComparisonResult(null, fn2, false, true, false);
             resultList.add(r);
+            if ( progress != null ) {
+                leafDone(fn2);
+            }
         }
 
         // sort result list by name?
@@ -326,15 +679,141 @@ public class TreeComparor {
         return resultList; 
     }
     
+    /**
+     * Compare two FileNodes setting whether result is the same.  In a parallel
+     * comparison this is queued to run on a worker thread.
+     * 
+     * @param f1
+     * @param f2
+     * @param result comparison result
+     * @throws IOException
+     */
+    private void compareLeaves(final FileNode f1, final FileNode f2, final LeafComparisonResult result) throws IOException {
+        if ( executor == null ) {
+            compareLeavesWithProgress(f1, f2, result);
+            return;
+        }
+        reapPending();
+        pending.add( executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                List<Semaphore> held = acquireDevices(f1, f2);
+                try {
+                    compareLeavesWithProgress(f1, f2, result);
+                } finally {
+                    for ( Semaphore s: held ) {
+                        s.release();
+                    }
+                }
+                return null;
+            }
+        }));
+    }
+    
+
+    /**
+     * Forget comparisons that have completed, rethrowing any exception, and 
+     * wait for the oldest while too many are outstanding.  Keeps the pending list 
+     * bounded however large the tree.
+     * 
+     * @throws IOException
+     */
+    private void reapPending() throws IOException {
+        while ( ! pending.isEmpty() && ( pending.peekFirst().isDone() || pending.size() >= maxPending ) ) {
+            waitFor(pending.removeFirst());
+        }
+    }
+    
+    /**
+     * Compare two FileNodes setting whether result is the same, and update progress 
+     * 
+     * @param f1
+     * @param f2
+     * @param result comparison result
+     * @throws IOException
+     */
+    private void compareLeavesWithProgress(FileNode f1, FileNode f2, LeafComparisonResult result) throws IOException {
+        if ( progress != null ) {
+            progress.checkCancelled();
+        }
+        result.setAreSame( compareDetails(f1, f2, result) );
+        if ( progress != null ) {
+            leafDone(f1);
+            leafDone(f2);
+        }
+    }
+    
+    /**
+     * Acquire permits for devices holding content of given nodes
+     * 
+     * @param f1
+     * @param f2
+     * @return semaphores from which permits were acquired
+     * @throws InterruptedException
+     */
+    private List<Semaphore> acquireDevices(FileNode f1, FileNode f2) throws InterruptedException {
+        List<Semaphore> held = new ArrayList<>(2);
+        if ( deviceLimit == 0 ) {
+            return held;
+        }
+        DevicePermits p1 = getDevicePermits(f1.getDeviceKey());
+        DevicePermits p2 = getDevicePermits(f2.getDeviceKey());
+        if ( p1 == p2 ) {
+            p2 = null;
+        } else if ( p1 == null || p2 != null && p2.order < p1.order ) {
+            DevicePermits t = p1;
+            p1 = p2;
+            p2 = t;
+        }
+        try {
+            if ( p1 != null ) {
+                p1.semaphore.acquire();
+                held.add(p1.semaphore);
+            }
+            if ( p2 != null ) {
+                p2.semaphore.acquire();
+                held.add(p2.semaphore);
+            }
+        } catch (InterruptedException ie) {
+            for ( Semaphore s: held ) {
+                s.release();
+            }
+            throw ie;
+        }
+        return held;
+    }
+    
+    /**
+     * Get permits for given device, creating them if needed
+     * 
+     * @param deviceKey
+     * @return permits, or null if device is not known
+     */
+    private DevicePermits getDevicePermits(Object deviceKey) {
+        if ( deviceKey == null ) {
+            return null;
+        }
+        DevicePermits p = devicePermits.get(deviceKey);
+        if ( p == null ) {
+            DevicePermits newP = new DevicePermits(devicePermitsOrder.getAndIncrement(), deviceLimit);
+            p = devicePermits.putIfAbsent(deviceKey, newP);
+            if ( p == null ) {
+                p = newP;
+            }
+        }
+        return p;
+    }
+    
     /**
      * Compare details of two FileNodes
      * 
      * @param f1
      * @param f2
+     * @param result comparison result in which to note where content differs
      * @return true if same, false otherwise
      * @throws IOException
      */
-    private boolean compareDetails(FileNode f1, FileNode f2)throws IOException {
+    private boolean compareDetails(FileNode f1, FileNode f2, LeafComparisonResult result)throws IOException {
         // TODO use strategy, since least cost method is not always desirable.
         // might want to base decision on security.  For example, in case of a snapshot
         // may want to compare based on most secure hash.
@@ -350,13 +829,15 @@ public class TreeComparor {
                 try {
                     isText1 = f1.isText();
                     isText2 = f2.isText();
+                } catch ( InterruptedIOException | ClosedByInterruptException e ) {
+                    throw e; // cancelled, not an error
                 } catch ( IOException ioe ) {
                     if ( errorHandler.handleError(ioe) )
                         return false;
                     throw(ioe);
                 }
                 if ( isText1 && isText2 ) {
-                    return compareDetails(f1, f2, FileNode.CONTENT_METHOD_CONTENT_TEXT);
+                    return compareDetails(f1, f2, FileNode.CONTENT_METHOD_CONTENT_TEXT, result);
                 }
                 if ( f1.isText() || f2.isText() ) {
                     return false; // one is text and the other isn't - thus not the same
@@ -396,7 +877,7 @@ public class TreeComparor {
             );
         }
         // now compare with cheapest method
-        return compareDetails(f1, f2, bestMethod);
+        return compareDetails(f1, f2, bestMethod, result);
     }
 
     /**
@@ -404,12 +885,20 @@ public class TreeComparor {
      * 
      * @param f1
      * @param f2
+     * @param method content comparison method
+     * @param result comparison result in which to note where content differs
      * @return true if same, false otherwise
      * @throws IOException
      */
-    private boolean compareDetails(FileNode f1, FileNode f2, FileNode.ContentMethod method)throws IOException {
+    private boolean compareDetails(FileNode f1, FileNode f2, FileNode.ContentMethod method, LeafComparisonResult result)throws IOException {
         try {
-            return f1.compareDetails(f2, method);
+            long offset = f1.findDifference(f2, method);
+            if ( offset >= 0 ) {
+                result.setDifferenceOffset(offset);
+            }
+            return offset == FileNode.OFFSET_SAME;
+        } catch ( InterruptedIOException | ClosedByInterruptException e ) {
+            throw e; // cancelled, not an error
         } catch (IOException ioe) {
             if ( errorHandler.handleError(ioe) )
                 return false;  // consider files to be different
@@ -22,14 +22,29 @@ import java.util.zip.*;
 import java.io.*;
 import java.util.*;
 
+import org.wtdiff.util.filter.NodeFilter;
+
 /**
  * Node Tree builder to build a tree based on a Zip file
  * @author davidst
  */
-public class ZipTreeBuilder implements NodeTreeBuilder {
+public class ZipTreeBuilder implements NodeTreeBuilder, Closeable {
 
     // name of Zip file from which to build tree
     private String zipFileName;
+    
+    // Zip file shared by content streams of all nodes in built tree
+    private SharedZipFile sharedZip;
+
+    /**
+     * Progress of building, null if not tracked
+     */
+    private TaskProgress progress;
+
+    /**
+     * Filter of nodes to leave out of tree, null if none
+     */
+    private NodeFilter filter;
 
     /**
      * Constructor
@@ -38,8 +53,30 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
      */
     public ZipTreeBuilder(String zipFile) {   
         zipFileName = zipFile;
+        sharedZip = new SharedZipFile(zipFile);
     }
     
+    /**
+     * Set progress to update as entries are read.  Building stops
+     * with an InterruptedIOException if progress is cancelled.
+     * 
+     * @param p progress, or null for none
+     */
+    public void setProgress(TaskProgress p) {
+        progress = p;
+    }
+
+    /**
+     * Set filter of nodes to leave out of the built tree.  Entries under excluded
+     * directories are skipped.  The tree is the same as filtering the unfiltered 
+     * tree with a {@link FilterTreeBuilder}.
+     * 
+     * @param f filter, or null for none
+     */
+    public void setFilter(NodeFilter f) {
+        filter = f;
+    }
+
     /**
      * Build the Node tree from our Zip file
      */
@@ -47,6 +84,129 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
         return load(handler);
     } 
     
+    /**
+     * Release the Zip file held open for reading content of nodes of built tree.
+     * It is closed once any open content streams are closed.  Reading content 
+     * afterwards is still possible, but reopens the Zip file.
+     */
+    public void close() throws IOException {
+        sharedZip.close();
+    }
+    
+    /**
+     * Number of times Zip file has been opened to read content 
+     * 
+     * @return open count
+     */
+    int getZipOpenCount() {
+        return sharedZip.getOpenCount();
+    }
+    
+    /**
+     * Zip file opened once and shared by all content streams rather than opened,
+     * and its central directory parsed, for every stream.  Open streams are counted 
+     * so the Zip file is not closed out from under them.  ZipFile supports
+     * concurrent streams, so one Zip file serves concurrent readers.
+     * 
+     * @author davidst
+     *
+     */
+    private static class SharedZipFile implements Closeable {
+        private String zipFileName;
+        private ZipFile zip = null;
+        private int nStreams = 0; // number of open streams
+        private boolean isCloseRequested = false;
+        private int openCount = 0;
+        
+        SharedZipFile(String zipFileName) {
+            this.zipFileName = zipFileName;
+        }
+        
+        /**
+         * Open stream of entry content, opening Zip file if needed
+         * 
+         * @param ze
+         * @return stream, which must be closed
+         * @throws IOException
+         */
+        synchronized InputStream getInputStream(ZipEntry ze) throws IOException {
+            if ( zip == null ) {
+                zip = new ZipFile(zipFileName);
+                openCount++;
+            }
+            InputStream stream = zip.getInputStream(ze);
+            if ( stream == null ) {
+                throw new ZipException(
+                    MessageFormat.format(
+                        Messages.getString("ZipTreeBuilder.entry_not_found"), //$NON-NLS-1$
+                        zipFileName,
+                        ze.getName()
+                    )
+                );
+            }
+            nStreams++;
+            return new ReleaseOnCloseInputStream(stream);
+        }
+        
+        /**
+         * Note a stream has been closed, close Zip file if it has been released
+         * 
+         * @throws IOException
+         */
+        synchronized void release() throws IOException {
+            nStreams--;
+            if ( nStreams == 0 && isCloseRequested ) {
+                closeZip();
+            }
+        }
+        
+        /**
+         * Close Zip file now, or when last open stream is closed.  The request
+         * stands, so a Zip file reopened afterwards is closed with its last stream.
+         */
+        public synchronized void close() throws IOException {
+            isCloseRequested = true;
+            if ( nStreams == 0 ) {
+                closeZip();
+            }
+        }
+        
+        private void closeZip() throws IOException {
+            if ( zip != null ) {
+                ZipFile z = zip;
+                zip = null;
+                z.close();
+            }
+        }
+        
+        synchronized int getOpenCount() {
+            return openCount;
+        }
+        
+        /**
+         * Entry content stream that notifies shared Zip file when closed
+         */
+        private class ReleaseOnCloseInputStream extends FilterInputStream {
+            private boolean isClosed = false;
+            
+            ReleaseOnCloseInputStream(InputStream stream) {
+                super(stream);
+            }
+            
+            public void close() throws IOException {
+                if ( isClosed ) {
+                    return;
+                }
+                isClosed = true;
+                try {
+                    super.close();
+                } finally {
+                    release();
+                }
+            }
+        }
+    }
+    
     /**
      * Inner class that provides FileNode behaviour for a regular file 
      * in a Zip file
@@ -111,6 +271,22 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
             }
             return md5;
         }
+        
+        /**
+         * CRC comes from the zip entry, so only MD5 and the text
+         * guess need content, compute both in a single read.
+         */
+        @Override
+        public synchronized void computeDigests(boolean wantCrc, boolean wantMd5) throws IOException {
+            boolean needMd5 = wantMd5 && md5 == null;
+            if ( !needMd5 && isTextKnown() ) {
+                return;
+            }
+            byte[] digest = readDigests(false, needMd5).getMd5();
+            if ( needMd5 ) {
+                md5 = digest;
+            }
+        }
 
         /**
          * uncompressed size of file
@@ -119,73 +295,11 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
             return zipEntry.getSize();
         }
         
-        /** 
-         * Class to wrap around input stream from a zip file that closes zip file when stream is closed.
-         * 
-         * @author davidst
-         *
-         */
-        private class CloseZipWIthCloseInputStream extends InputStream {
-            ZipFile zip = null;
-            InputStream stream = null;
-            public CloseZipWIthCloseInputStream(String zipFileName) throws IOException {
-                zip =  new ZipFile(zipFileName);
-                try {
-                    stream = zip.getInputStream(zipEntry);
-                } catch (Exception e) {
-                    if (zip != null) {
-                        try { zip.close(); } catch (Exception ignore) {}
-                    }
-                    throw(e);
-                }
-                
-            }
-
-            public int available()  throws IOException {
-                return stream.available();
-            }
-            public void close()  throws IOException {
-                try {
-                    if ( stream != null )
-                        stream.close();
-                    if ( zip != null )
-                        zip.close();
-                } finally {
-                    if (stream != null) {
-                        try { stream.close(); } catch (Exception e) {}
-                    }
-                    if (zip != null) {
-                        try { zip.close(); } catch (Exception e) {}
-                    }
-                }
-            }
-            public int read() throws IOException {
-                return stream.read();
-            }
-            public int read(byte[] b) throws IOException {
-                return stream.read(b);
-            }
-            public int read(byte[] b, int off, int len) throws IOException {
-                return stream.read(b, off, len);
-            }
-            public void mark(int readlimit) {
-                stream.mark(readlimit);
-            }
-            public void reset() throws IOException {
-                stream.reset();
-            }
-            public boolean markSupported() {
-                return stream.markSupported();
-            }
-            public long skip(long n) throws IOException {
-                return stream.skip(n);
-            }
-        }
         /**
          * Input stream of file content.  It is clients responsibility to close the stream.
          */
         public InputStream getInputStream() throws IOException {
-            return new CloseZipWIthCloseInputStream(zipFileName);
+            return sharedZip.getInputStream(zipEntry);
         }
         
         /**
@@ -213,9 +327,10 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
      */
     private class DirTree {
         private String name;  // name of dir
-        private Vector <DirTree> children = new Vector <> ();  // subdirs of this dir ordered by name
-        private Vector <Leaf> leaves = new Vector <> (); // files in this dir
+        private HashMap <String, DirTree> children = new HashMap <> ();  // subdirs of this dir by name
+        private List <Leaf> leaves = new ArrayList <> (); // files in this dir
         private HashSet<String> leafNames = new HashSet<>();  // names of files in this dir
+        private boolean isExcluded; // excluded by filter, so entries under it are skipped
         
         /**
          * Construct from simple dir name
@@ -223,6 +338,7 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
          */
         public DirTree(String s) {
             name = s;
+            isExcluded = FilterTreeBuilder.isDirExcluded(filter, s);
         }
         /**
          * Retrun simple dir aname
@@ -238,26 +354,11 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
          * @return Dirtree of child
          */
         public DirTree addChild(String child) {
-            // go through dir's current children looking for child, inserting in correct place
-            // if ordered list.  Note that possible performance enhancement would be to check 
-            // last element before iterating though list.  Binary search would be better.
-            // A hash might have been a better implementation choice.
-            for(int i=0; i < children.size(); i++) {
-                int cmp = ((DirTree)children.get(i)).getName().compareTo(child);
-                if ( cmp == 0 ) {
-                    // the child already exists, return it
-                    return (DirTree)children.get(i);
-                }
-                if ( cmp > 0 ) {
-                    // this entry's name is grater than the child.  Insert the child here 
-                    DirTree childTree = new DirTree(child);
-                    children.add(i, childTree);
-                    return childTree;
-                }
+            DirTree childTree = children.get(child);
+            if ( childTree == null ) {
+                childTree = new DirTree(child);
+                children.put(child, childTree);
             }
-            // This is a new child whose name is greater than any existing child.  append to list
-            DirTree childTree = new DirTree(child);
-            children.add(childTree);
             return childTree;
         }
         /**
@@ -272,6 +373,15 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
             }
         }
         
+        /**
+         * Is this dir excluded by the filter?
+         * 
+         * @return
+         */
+        public boolean isExcluded() {
+            return isExcluded;
+        }
+        
         /**
          * Do we already have a leaf with this name?
          * 
@@ -283,11 +393,18 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
         }
         
         /**
-         * Return subdirs of this dir
+         * Return subdirs of this dir ordered by name
          * @return
          */
         public List <DirTree> getChildren() {
-            return children;
+            List <DirTree> sorted = new ArrayList <> (children.values());
+            Collections.sort(sorted, new Comparator <DirTree> () {
+                @Override
+                public int compare(DirTree t1, DirTree t2) {
+                    return t1.getName().compareTo(t2.getName());
+                }
+            });
+            return sorted;
         }
         /**
          * Return leaves of this dir
@@ -311,7 +428,7 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
                 System.out.println(totPrefix+prefix+"'"+iterL.next().toString()+"'"); //$NON-NLS-1$ //$NON-NLS-2$
             }
             System.out.println(totPrefix + "children:"); //$NON-NLS-1$
-            Iterator <DirTree> iterC = children.iterator();
+            Iterator <DirTree> iterC = getChildren().iterator();
             while (iterC.hasNext()) {
                 ((DirTree) iterC.next()).dump(prefix, totPrefix+prefix);
             }
@@ -327,6 +444,15 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
             java.util.Enumeration <? extends ZipEntry> entries = zip.entries();        
             while (entries.hasMoreElements()) {
                 ZipEntry ze = entries.nextElement();
+                if ( progress != null ) {
+                    progress.checkCancelled();
+                    if ( ze.isDirectory() ) {
+                        progress.addDir();
+                    } else {
+                        progress.addFile();
+                        progress.addBytes(Math.max(0, ze.getSize()));
+                    }
+                }
                 String path = ze.getName();
                 // strip leading slash
                 if (path.length() > 0 && path.charAt(0) == '/' ) {
@@ -335,11 +461,17 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
                 
                 DirTree currTree = zipTree; // current directory starts at top
                 while (path.length() > 0) {
+                    if ( currTree.isExcluded() ) {
+                        break; // in excluded dir, nothing to add
+                    }
                     int iNextSlash = path.indexOf('/');
                     if ( iNextSlash < 0 ) {
                         // note that directories should end with /. so this is not a directory
                         // add FileNode to current directory
                         ZipFileNode fileNode = new ZipFileNode(ze);
+                        if ( FilterTreeBuilder.isExcluded(filter, fileNode) ) {
+                            break;
+                        }
                         if ( currTree.haveLeafWithName(fileNode.getName())) {
                             // ZipFile seems to lookup zip entries by name, it is not clear
                             // which copy will be used if there are duplicates
@@ -370,7 +502,7 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
             }
         }
         // next step is to convert the dirTree into dirNodes
-        DirNode dirNode = dirTree2DirNode(zipTree);
+        DirNode dirNode = dirTree2DirNode(zipTree); // empty if top is excluded
         dirNode.setRoot(zipFileName);
         return dirNode;
     }
@@ -383,10 +515,14 @@ public class ZipTreeBuilder implements NodeTreeBuilder {
      */
     private DirNode dirTree2DirNode(DirTree tree) {
         List <Leaf> fileList = tree.getLeaves();  // the leaves are File nodes 
-        List <DirNode> dirList = new Vector <> (tree.children.size());  // Vector that will house DirNodes created from Dirtrees
-        Iterator <DirTree> iter = tree.getChildren().iterator();
+        List <DirTree> children = tree.getChildren(); // sorted by name
+        List <DirNode> dirList = new ArrayList <> (children.size());  // list that will house DirNodes created from Dirtrees
+        Iterator <DirTree> iter = children.iterator();
         while (iter.hasNext()) {
             DirTree childDirTree = iter.next();
+            if ( childDirTree.isExcluded() ) {
+                continue;
+            }
             dirList.add( dirTree2DirNode(childDirTree) );  // convert this subtree into a DirNode
         }
         // finally create DirNode for this tree 
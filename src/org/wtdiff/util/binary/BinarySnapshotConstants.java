@@ -0,0 +1,78 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.binary;
+
+/**
+ * Constants of the binary snapshot format.  A snapshot is
+ * <pre>
+ *   magic             8 bytes {@link #MAGIC}
+ *   version           varint {@link #VERSION}, {@link #MIN_VERSION} or later are read
+ *   framing           byte {@link #FRAMING_NONE} or {@link #FRAMING_DEFLATE}, how the body is framed
+ *   body:
+ *     info count      varint, followed by pairs of strings, name and value,
+ *                     named as the corresponding XML snapshot elements
+ *     digest count    varint, followed by digest names
+ *     top dir
+ * </pre>
+ * where a dir is
+ * <pre>
+ *   name              name reference
+ *   file count        varint, followed by files
+ *   dir count         varint, followed by dirs
+ *   merkle length     varint, followed by Merkle digest bytes, 0 if none
+ * </pre>
+ * and a file is
+ * <pre>
+ *   name              name reference
+ *   type              byte {@link #TYPE_REGFILE}, {@link #TYPE_SYMLINK} or {@link #TYPE_SPECIAL}
+ *   flags             byte {@link #FLAG_TEXT}, {@link #FLAG_FILE_KEY}
+ *   size              varint
+ *   time              zigzag varint, nanoseconds since the epoch
+ *   file key          string, only if {@link #FLAG_FILE_KEY}
+ *   regular file:     varint mask of digests present, bit i for i'th digest name,
+ *                     followed by raw digest bytes in digest name order
+ *   symbolic link:    target string
+ * </pre>
+ * Varints are unsigned LEB128.  Strings are a varint length followed by UTF-8 bytes.
+ * A name reference is a varint, 0 for a new name given as a string which is added 
+ * to the name table, otherwise one more than the index of a name already in the table.
+ * 
+ * @author davidst
+ *
+ */
+public interface BinarySnapshotConstants {
+    
+    public static final byte[] MAGIC = { 'W', 'T', 'D', 'S', 'N', 'A', 'P', 'B' };
+    
+    public static final int VERSION = 2;
+    public static final int MIN_VERSION = 1;
+    
+    public static final int FRAMING_NONE = 0;
+    public static final int FRAMING_DEFLATE = 1;
+    
+    public static final int TYPE_REGFILE = 0;
+    public static final int TYPE_SYMLINK = 1;
+    public static final int TYPE_SPECIAL = 2;
+    
+    public static final int FLAG_TEXT = 1;
+    public static final int FLAG_FILE_KEY = 2;
+    
+    public static final int NAME_NEW = 0;
+    
+    public static final int CRC32_LENGTH = 4;
+    public static final int MD5_LENGTH = 16;
+}
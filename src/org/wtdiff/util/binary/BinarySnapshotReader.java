@@ -0,0 +1,575 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.binary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.DirNodeStream;
+import org.wtdiff.util.FilterTreeBuilder;
+import org.wtdiff.util.Leaf;
+import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.filter.NodeFilter;
+import org.wtdiff.util.xml.DirNodeXMLStreamConstants;
+import org.wtdiff.util.xml.SnapshotFileNode;
+import org.wtdiff.util.xml.SnapshotUtil;
+
+/**
+ * Read a binary snapshot written by {@link BinarySnapshotWriter}, see 
+ * {@link BinarySnapshotConstants} for the format.  Files in the tree read 
+ * are {@link SnapshotFileNode}s, as for XML snapshots.
+ * 
+ * @author davidst
+ *
+ */
+public class BinarySnapshotReader implements BinarySnapshotConstants {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // don't trust counts read for more than this
+    private static final int MAX_PRESIZE = 1024;
+    // longest string accepted, names, link targets and info are far shorter
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+    private static final int MAX_INFO_COUNT = 1024;
+    private static final int MAX_MERKLE_LENGTH = 64;
+    
+    private List<String> availableDigests = new ArrayList<>();
+    private HashMap<String,String> snapshotInfo = new HashMap<>();
+    private NodeFilter filter;
+    private DataInputStream in;
+    private List<String> nameTable;
+    
+    /**
+     * Set filter of nodes to leave out of tree read.  Filter applies to files and 
+     * dirs within the top dir, but not the top dir itself.  The snapshot is still
+     * read and checked in full.
+     * 
+     * @param f filter, or null for none
+     */
+    public void setFilter(NodeFilter f) {
+        filter = f;
+    }
+    
+    /**
+     * @return information about snapshot, keyed by name of corresponding XML snapshot element
+     */
+    public Map<String,String> getSnapshotInfo() {
+        return snapshotInfo;        
+    }
+    
+    public List<String> getAvailableDigests() {
+        return availableDigests;
+    }
+    
+    /**
+     * Check if input starts as a binary snapshot
+     * 
+     * @param input
+     * @return true if snapshot
+     * @throws IOException
+     */
+    public boolean isSnapshot(InputStream input) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        int n = 0;
+        while ( n < magic.length ) {
+            int got = input.read(magic, n, magic.length - n);
+            if ( got < 0 ) {
+                return false;
+            }
+            n += got;
+        }
+        return Arrays.equals(MAGIC, magic);
+    }
+    
+    /**
+     * Read snapshot
+     * 
+     * @param input
+     * @return top dir of snapshot
+     * @throws IOException if snapshot can't be read or is malformed
+     */
+    public synchronized DirNode readSnapshot(InputStream input) throws IOException {
+        Inflater inflater = readHeader(input);
+        try {
+            return readDir(true);
+        } catch (EOFException eof) {
+            throw new IOException(Messages.getString("BinarySnapshotReader.truncated"), eof); //$NON-NLS-1$
+        } finally {
+            endBody(inflater);
+        }
+    }
+    
+    /**
+     * Open snapshot to be read one directory at a time.  Snapshot information 
+     * and available digests are read on opening.  The filter applies as for
+     * {@link #readSnapshot(InputStream)}, excluded directories are skipped.
+     * Merkle digests of directories are not read.  Closing the stream 
+     * does not close input.  The reader must not be used for another snapshot
+     * until the stream is closed.
+     * 
+     * @param input
+     * @return stream of directories of snapshot
+     * @throws IOException if snapshot can't be read or is malformed
+     */
+    public synchronized DirNodeStream openStream(InputStream input) throws IOException {
+        return new BinaryDirNodeStream(readHeader(input));
+    }
+    
+    /**
+     * Read snapshot up to its top dir, leaving {@link #in} set to read the rest
+     * 
+     * @param input
+     * @return inflater of compressed body to end once read, null if not compressed
+     * @throws IOException
+     */
+    private Inflater readHeader(InputStream input) throws IOException {
+        snapshotInfo = new HashMap<>();
+        availableDigests = new ArrayList<>();
+        nameTable = new ArrayList<>();
+        if ( ! isSnapshot(input) ) {
+            throw new IOException(Messages.getString("BinarySnapshotReader.not_snapshot")); //$NON-NLS-1$
+        }
+        DataInputStream header = new DataInputStream(input);
+        long version = readVarLong(header);
+        if ( version < MIN_VERSION || version > VERSION ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.unsupported_version"), //$NON-NLS-1$
+                    version
+                )
+            );
+        }
+        int framing = header.readUnsignedByte();
+        Inflater inflater = null;
+        InputStream body = input;
+        if ( framing == FRAMING_DEFLATE ) {
+            inflater = new Inflater();
+            body = new InflaterInputStream(body, inflater, BUFFER_SIZE);
+        } else if ( framing != FRAMING_NONE ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.unknown_framing"), //$NON-NLS-1$
+                    framing
+                )
+            );
+        }
+        in = new DataInputStream(new BufferedInputStream(body, BUFFER_SIZE));
+        boolean isRead = false;
+        try {
+            readInfo();
+            readDigestNames();
+            isRead = true;
+        } catch (EOFException eof) {
+            throw new IOException(Messages.getString("BinarySnapshotReader.truncated"), eof); //$NON-NLS-1$
+        } finally {
+            if ( ! isRead ) {
+                endBody(inflater);
+            }
+        }
+        return inflater;
+    }
+    
+    private void endBody(Inflater inflater) {
+        if ( inflater != null ) {
+            inflater.end();
+        }
+        in = null;
+        nameTable = null;
+    }
+
+    private void readInfo() throws IOException {
+        int count = readCount(MAX_INFO_COUNT);
+        for ( int i = 0; i < count; i++ ) {
+            String name = readString();
+            snapshotInfo.put(name, readString());
+        }
+    }
+    
+    private void readDigestNames() throws IOException {
+        int count = readCount();
+        if ( count > 31 ) {
+            throw new IOException(Messages.getString("BinarySnapshotReader.too_many_digests")); //$NON-NLS-1$
+        }
+        for ( int i = 0; i < count; i++ ) {
+            String name = readString();
+            if ( ! DirNodeXMLStreamConstants.DIGEST_CRC32.equals(name) 
+                && ! DirNodeXMLStreamConstants.DIGEST_MD5.equals(name) ) {
+                throw new IOException(
+                    MessageFormat.format(
+                        Messages.getString("BinarySnapshotReader.unknown_digest"), //$NON-NLS-1$
+                        name
+                    )
+                );
+            }
+            availableDigests.add(name);
+        }
+    }
+    
+    private DirNode readDir(boolean isTop) throws IOException {
+        String name = readName();
+        if ( ! isTop ) {
+            checkName(name);
+        }
+        int nFiles = readCount();
+        List<Leaf> files = new ArrayList<>(Math.min(nFiles, MAX_PRESIZE));
+        for ( int i = 0; i < nFiles; i++ ) {
+            files.add(readFile());
+        }
+        int nDirs = readCount();
+        List<DirNode> dirs = new ArrayList<>(Math.min(nDirs, MAX_PRESIZE));
+        for ( int i = 0; i < nDirs; i++ ) {
+            dirs.add(readDir(false));
+        }
+        byte[] merkle = null;
+        int merkleLength = readCount(MAX_MERKLE_LENGTH);
+        if ( merkleLength > 0 ) {
+            merkle = new byte[merkleLength];
+            in.readFully(merkle);
+        }
+        String duplicate = SnapshotUtil.findDuplicateName(files, dirs);
+        if ( duplicate != null ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.duplicate_file_or_dir_name"), //$NON-NLS-1$
+                    duplicate,
+                    name
+                 )
+             );
+        }
+        if ( filter != null ) {
+            files = SnapshotUtil.filterNodes(filter, files);
+            dirs = SnapshotUtil.filterNodes(filter, dirs);
+        }
+        DirNode dir = new DirNode(name, files, dirs);
+        // recorded digest is of the unfiltered dir
+        if ( filter == null && merkle != null ) {
+            dir.setMerkleDigest(merkle);
+        }
+        return dir;
+    }
+    
+    /**
+     * A dir being streamed
+     */
+    private static class StreamLevel {
+        String name;
+        int remainingDirs;
+        HashSet<String> names = new HashSet<>();
+    }
+    
+    /**
+     * Stream of the dirs of a snapshot.  The input is left positioned after the
+     * files, or last sub-directory read, of the innermost open dir, so a dir is 
+     * only held while open.  Note that names of the name table are kept throughout.
+     */
+    private class BinaryDirNodeStream implements DirNodeStream {
+        private Inflater inflater;
+        private ArrayDeque<StreamLevel> levels = new ArrayDeque<>();
+        private boolean isStarted = false;
+        private boolean isClosed = false;
+        
+        BinaryDirNodeStream(Inflater inflater) {
+            this.inflater = inflater;
+        }
+        
+        @Override
+        public DirNode nextDir() throws IOException {
+            try {
+                if ( ! isStarted ) {
+                    isStarted = true;
+                    StreamLevel top = new StreamLevel();
+                    DirNode dir = readDirStart(top, true);
+                    levels.push(top);
+                    return dir;
+                }
+                StreamLevel level = levels.peek();
+                if ( level == null ) {
+                    return null;
+                }
+                while ( level.remainingDirs > 0 ) {
+                    level.remainingDirs--;
+                    StreamLevel child = new StreamLevel();
+                    DirNode dir = readDirStart(child, false);
+                    addStreamName(level, child.name);
+                    if ( FilterTreeBuilder.isExcluded(filter, dir) ) {
+                        skipDirs(child);
+                        readDirEnd();
+                        continue;
+                    }
+                    levels.push(child);
+                    return dir;
+                }
+                readDirEnd();
+                levels.pop();
+                return null;
+            } catch (EOFException eof) {
+                throw new IOException(Messages.getString("BinarySnapshotReader.truncated"), eof); //$NON-NLS-1$
+            }
+        }
+        
+        @Override
+        public void skipDir() throws IOException {
+            try {
+                StreamLevel level = levels.peek();
+                if ( level != null ) {
+                    skipDirs(level);
+                    readDirEnd();
+                    levels.pop();
+                }
+            } catch (EOFException eof) {
+                throw new IOException(Messages.getString("BinarySnapshotReader.truncated"), eof); //$NON-NLS-1$
+            }
+        }
+        
+        @Override
+        public void close() {
+            if ( ! isClosed ) {
+                isClosed = true;
+                endBody(inflater);
+            }
+        }
+        
+        /**
+         * Read dir up to its sub-directories
+         * 
+         * @param level level to set up for the dir
+         * @param isTop
+         * @return dir with its files but no dirs
+         */
+        private DirNode readDirStart(StreamLevel level, boolean isTop) throws IOException {
+            level.name = readName();
+            if ( ! isTop ) {
+                checkName(level.name);
+            }
+            int nFiles = readCount();
+            List<Leaf> files = new ArrayList<>(Math.min(nFiles, MAX_PRESIZE));
+            for ( int i = 0; i < nFiles; i++ ) {
+                SnapshotFileNode file = readFile();
+                addStreamName(level, file.getName());
+                files.add(file);
+            }
+            level.remainingDirs = readCount();
+            if ( filter != null ) {
+                files = SnapshotUtil.filterNodes(filter, files);
+            }
+            return new DirNode(level.name, files, new ArrayList<DirNode>(0));
+        }
+        
+        /**
+         * Read rest of dir after its sub-directories
+         */
+        private void readDirEnd() throws IOException {
+            int merkleLength = readCount(MAX_MERKLE_LENGTH);
+            if ( merkleLength > 0 ) {
+                in.readFully(new byte[merkleLength]);
+            }
+        }
+        
+        /**
+         * Skip any sub-directories of level not yet read
+         */
+        private void skipDirs(StreamLevel level) throws IOException {
+            while ( level.remainingDirs > 0 ) {
+                level.remainingDirs--;
+                StreamLevel child = new StreamLevel();
+                readDirStart(child, false);
+                skipDirs(child);
+                readDirEnd();
+            }
+        }
+        
+        private void addStreamName(StreamLevel level, String name) throws IOException {
+            if ( ! level.names.add(name) ) {
+                throw new IOException(
+                    MessageFormat.format(
+                        Messages.getString("BinarySnapshotReader.duplicate_file_or_dir_name"), //$NON-NLS-1$
+                        name,
+                        level.name
+                     )
+                 );
+            }
+        }
+    }
+    
+    private SnapshotFileNode readFile() throws IOException {
+        String name = readName();
+        checkName(name);
+        int typeCode = in.readUnsignedByte();
+        FileType fileType;
+        switch ( typeCode ) {
+        case TYPE_REGFILE:
+            fileType = FileType.REGFILE;
+            break;
+        case TYPE_SYMLINK:
+            fileType = FileType.SYMLINK;
+            break;
+        case TYPE_SPECIAL:
+            fileType = FileType.SPECIAL;
+            break;
+        default:
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.file_type_bad"), //$NON-NLS-1$
+                    typeCode,
+                    name
+                )
+            );
+        }
+        int flags = in.readUnsignedByte();
+        long size = readVarLong(in);
+        if ( size < 0 ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.file_size_negative"), //$NON-NLS-1$
+                    size,
+                    name
+                )
+            );
+        }
+        long timeNanos = unzigzag(readVarLong(in));
+        String fileKey = null;
+        if ( ( flags & FLAG_FILE_KEY ) != 0 ) {
+            fileKey = readString();
+        }
+        long time = timeNanos / 1000000L;
+        if ( timeNanos < 0 && timeNanos % 1000000L != 0 ) {
+            time--; // milliseconds are rounded down
+        }
+        HashMap<String, byte[]> digests = new HashMap<>();
+        String linkTo = null;
+        if ( fileType == FileType.REGFILE ) {
+            readDigests(name, digests);
+        } else if ( fileType == FileType.SYMLINK ) {
+            linkTo = readString();
+        }
+        try {
+            SnapshotFileNode file = new SnapshotFileNode(name, size, time, timeNanos, (flags & FLAG_TEXT) != 0, fileType, linkTo, digests);
+            file.setFileKey(fileKey);
+            return file;
+        } catch (IllegalArgumentException iae) {
+            throw new IOException(iae.getMessage(), iae);
+        }
+    }
+    
+    private void readDigests(String fileName, HashMap<String, byte[]> digests) throws IOException {
+        long mask = readVarLong(in);
+        if ( ( mask >>> availableDigests.size() ) != 0 ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.digest_mask_bad"), //$NON-NLS-1$
+                    mask,
+                    fileName
+                )
+            );
+        }
+        for ( int i = 0; i < availableDigests.size(); i++ ) {
+            if ( ( mask & ( 1L << i ) ) == 0 ) {
+                continue;
+            }
+            String digestName = availableDigests.get(i);
+            byte[] digest = new byte[DirNodeXMLStreamConstants.DIGEST_CRC32.equals(digestName) ? CRC32_LENGTH : MD5_LENGTH];
+            in.readFully(digest);
+            digests.put(digestName, digest);
+        }
+    }
+    
+    private void checkName(String name) throws IOException {
+        if ( name.length() == 0 ) {
+            throw new IOException(Messages.getString("BinarySnapshotReader.empty_name")); //$NON-NLS-1$
+        }
+    }
+    
+    private String readName() throws IOException {
+        long ref = readVarLong(in);
+        if ( ref == NAME_NEW ) {
+            String name = readString();
+            nameTable.add(name);
+            return name;
+        }
+        if ( ref < 0 || ref > nameTable.size() ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.name_ref_bad"), //$NON-NLS-1$
+                    ref
+                )
+            );
+        }
+        return nameTable.get((int)ref - 1);
+    }
+    
+    private String readString() throws IOException {
+        byte[] bytes = new byte[readCount(MAX_STRING_LENGTH)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Read a varint count, which must fit in an int
+     */
+    private int readCount() throws IOException {
+        return readCount(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Read a varint count or length, so that a corrupt snapshot can't cause
+     * a huge allocation
+     * 
+     * @param max largest value accepted
+     */
+    private int readCount(int max) throws IOException {
+        long n = readVarLong(in);
+        if ( n < 0 || n > max ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotReader.count_bad"), //$NON-NLS-1$
+                    n
+                )
+            );
+        }
+        return (int)n;
+    }
+    
+    static long unzigzag(long n) {
+        return ( n >>> 1 ) ^ -( n & 1 );
+    }
+    
+    static long readVarLong(DataInputStream dataIn) throws IOException {
+        long n = 0;
+        for ( int shift = 0; shift < 64; shift += 7 ) {
+            int b = dataIn.readUnsignedByte();
+            n |= (long)( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 ) {
+                return n;
+            }
+        }
+        throw new IOException(Messages.getString("BinarySnapshotReader.varint_bad")); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,322 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.FileNode;
+import org.wtdiff.util.Leaf;
+import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.xml.DirNodeXMLStreamConstants;
+import org.wtdiff.util.xml.SnapshotUtil;
+
+/**
+ * Write a tree as a binary snapshot, see {@link BinarySnapshotConstants} for the format.
+ * Holds the same information as an XML snapshot written by 
+ * {@link org.wtdiff.util.xml.DirNodeXMLStreamWriter}, but file times keep 
+ * nanoseconds.
+ * 
+ * @author davidst
+ *
+ */
+public class BinarySnapshotWriter implements BinarySnapshotConstants {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private List<String> digests;
+    private boolean isCompressed;
+    private OutputStream outStream;
+    private DataOutputStream out;
+    private HashMap<String, Integer> nameTable;
+    private Map<String, String> infoOverrides = new HashMap<>();
+    private boolean isFileKeyWritten = false;
+    
+    /**
+     * Constructor
+     * 
+     * @param output stream to write to, not closed by writer
+     * @param digestTypes names of digests to record, as for XML snapshots
+     * @param compress true to deflate body of snapshot
+     */
+    public BinarySnapshotWriter(OutputStream output, List<String> digestTypes, boolean compress) {
+        outStream = output;
+        digests = digestTypes;
+        isCompressed = compress;
+        checkDigests();
+    }
+    
+    /**
+     * Set capture time, user, home, current dir and os to write, rather than those
+     * of the current environment, as when converting a snapshot.
+     * 
+     * @param info values keyed by XML element name, as {@link BinarySnapshotReader#getSnapshotInfo()}
+     */
+    public void setSnapshotInfo(Map<String, String> info) {
+        infoOverrides = new HashMap<>(info);
+    }
+    
+    /**
+     * Set whether file keys, such as device and inode, are recorded for files
+     * that have them.  Default is not to, as keys are of no use on another system.
+     * 
+     * @param writeFileKeys
+     */
+    public void setWriteFileKeys(boolean writeFileKeys) {
+        isFileKeyWritten = writeFileKeys;
+    }
+    
+    private void checkDigests() {
+        SnapshotUtil.checkDigests(digests);
+        if ( digests.size() > 31 ) {
+            throw new IllegalArgumentException(Messages.getString("BinarySnapshotWriter.too_many_digests")); //$NON-NLS-1$
+        }
+    }
+
+    public synchronized void writeDirNodeSnapShot(DirNode dir) throws IOException {
+        writeDirNodeSnapShot(dir, null);
+    }
+    
+    public synchronized void writeDirNodeSnapShot(DirNode dir, String userComment) throws IOException {
+        writeDirNodeSnapShot( dir, userComment, dir.getRoot() );
+    }
+    
+    public synchronized void writeDirNodeSnapShot(DirNode dir, String userComment, String root) throws IOException {
+        nameTable = new HashMap<>();
+        outStream.write(MAGIC);
+        DataOutputStream header = new DataOutputStream(outStream);
+        writeVarLong(header, VERSION);
+        header.writeByte(isCompressed ? FRAMING_DEFLATE : FRAMING_NONE);
+        header.flush();
+        
+        Deflater deflater = null;
+        OutputStream body = new NoCloseOutputStream(outStream);
+        if ( isCompressed ) {
+            deflater = new Deflater();
+            body = new DeflaterOutputStream(body, deflater, BUFFER_SIZE);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(body, BUFFER_SIZE));
+        try {
+            writeInfo(userComment, root);
+            writeVarLong(out, digests.size());
+            for ( String digest: digests ) {
+                writeString(digest);
+            }
+            writeDir(dir);
+            out.close(); // finishes deflating, but leaves outStream open
+        } finally {
+            if ( deflater != null ) {
+                deflater.end();
+            }
+            out = null;
+            nameTable = null;
+        }
+    }
+    
+    /**
+     * Stream whose close only flushes
+     */
+    private static class NoCloseOutputStream extends FilterOutputStream {
+        NoCloseOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private void writeInfo(String userComment, String root) throws IOException {
+        DateFormat dateFormat = new SimpleDateFormat(DirNodeXMLStreamConstants.FILE_TIME_FORMAT_STRING);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+        Map<String, String> info = new LinkedHashMap<>();
+        info.put(DirNodeXMLStreamConstants.ELEMENT_CAPTURE_TIME, dateFormat.format(new Date()));
+        info.put(DirNodeXMLStreamConstants.ELEMENT_CAPTURE_ROOT, root);
+        info.put(DirNodeXMLStreamConstants.ELEMENT_USER, System.getProperty("user.name")); //$NON-NLS-1$
+        info.put(DirNodeXMLStreamConstants.ELEMENT_HOME, System.getProperty("user.home")); //$NON-NLS-1$
+        info.put(DirNodeXMLStreamConstants.ELEMENT_CURRENT_DIR, System.getProperty("user.dir")); //$NON-NLS-1$
+        info.put(DirNodeXMLStreamConstants.ELEMENT_OS, System.getProperty("os.name")); //$NON-NLS-1$
+        for ( String element: info.keySet() ) {
+            if ( infoOverrides.get(element) != null ) {
+                info.put(element, infoOverrides.get(element));
+            }
+        }
+        info.put(DirNodeXMLStreamConstants.ELEMENT_CAPTURE_ROOT, root);
+        if ( userComment != null ) {
+            info.put(DirNodeXMLStreamConstants.ELEMENT_USER_COMMENT, userComment);
+        }
+        writeVarLong(out, info.size());
+        for ( Map.Entry<String, String> entry: info.entrySet() ) {
+            writeString(entry.getKey());
+            writeString(entry.getValue() == null ? "" : entry.getValue()); //$NON-NLS-1$
+        }
+    }
+    
+    private void writeDir(DirNode dir) throws IOException {
+        writeName(dir.getName());
+        List<Leaf> leaves = dir.getLeaves();
+        writeVarLong(out, leaves.size());
+        for ( Leaf leaf: leaves ) {
+            if ( ! ( leaf instanceof FileNode ) ) {
+                throw new IllegalArgumentException(
+                    MessageFormat.format(
+                        Messages.getString("BinarySnapshotWriter.bug_leaf_not_file"), //$NON-NLS-1$
+                        leaf.getClass(),
+                        leaf.getName()
+                    )
+                );
+            }
+            writeFile((FileNode)leaf);
+        }
+        List<DirNode> dirs = dir.getDirs();
+        writeVarLong(out, dirs.size());
+        for ( DirNode sub: dirs ) {
+            writeDir(sub);
+        }
+        byte[] merkle = null;
+        if ( digests.contains(DirNodeXMLStreamConstants.DIGEST_MD5) ) {
+            merkle = dir.computeMerkleDigest();
+        }
+        if ( merkle == null ) {
+            writeVarLong(out, 0);
+        } else {
+            writeVarLong(out, merkle.length);
+            out.write(merkle);
+        }
+    }
+    
+    private void writeFile(FileNode file) throws IOException {
+        writeName(file.getName());
+        FileType fileType = file.getFileType();
+        if ( fileType == FileType.REGFILE ) {
+            SnapshotUtil.prepareDigests(digests, file);
+        }
+        switch ( fileType ) {
+        case REGFILE:
+            out.writeByte(TYPE_REGFILE);
+            break;
+        case SYMLINK:
+            out.writeByte(TYPE_SYMLINK);
+            break;
+        case SPECIAL:
+            out.writeByte(TYPE_SPECIAL);
+            break;
+        default:
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("BinarySnapshotWriter.bug_unknown_file_type"), //$NON-NLS-1$
+                    file.getName(),
+                    fileType
+                )
+            );
+        }
+        String fileKey = isFileKeyWritten ? file.getFileKey() : null;
+        out.writeByte((file.isText() ? FLAG_TEXT : 0) | (fileKey != null ? FLAG_FILE_KEY : 0));
+        writeVarLong(out, file.getSize());
+        writeVarLong(out, zigzag(file.getTimeNanos()));
+        if ( fileKey != null ) {
+            writeString(fileKey);
+        }
+        if ( fileType == FileType.REGFILE ) {
+            writeDigests(file);
+        } else if ( fileType == FileType.SYMLINK ) {
+            writeString(file.getLinkTo());
+        }
+    }
+
+    private void writeDigests(FileNode file) throws IOException {
+        int mask = 0;
+        for ( int i = 0; i < digests.size(); i++ ) {
+            if ( SnapshotUtil.isDigestWritten(digests, file, digests.get(i)) ) {
+                mask |= 1 << i;
+            }
+        }
+        writeVarLong(out, mask);
+        for ( int i = 0; i < digests.size(); i++ ) {
+            if ( ( mask & ( 1 << i ) ) == 0 ) {
+                continue;
+            }
+            if ( DirNodeXMLStreamConstants.DIGEST_CRC32.equals(digests.get(i)) ) {
+                out.writeInt((int)file.getCrc());
+            } else {
+                byte[] md5 = file.getMd5();
+                if ( md5.length != MD5_LENGTH ) {
+                    throw new IOException(
+                        MessageFormat.format(
+                            Messages.getString("BinarySnapshotWriter.bad_digest_length"), //$NON-NLS-1$
+                            DirNodeXMLStreamConstants.DIGEST_MD5,
+                            file.getName(),
+                            md5.length
+                        )
+                    );
+                }
+                out.write(md5);
+            }
+        }
+    }
+    
+    private void writeName(String name) throws IOException {
+        Integer index = nameTable.get(name);
+        if ( index != null ) {
+            writeVarLong(out, index + 1);
+        } else {
+            writeVarLong(out, NAME_NEW);
+            writeString(name);
+            nameTable.put(name, nameTable.size());
+        }
+    }
+    
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    static long zigzag(long n) {
+        return ( n << 1 ) ^ ( n >> 63 );
+    }
+    
+    static void writeVarLong(DataOutputStream dataOut, long n) throws IOException {
+        while ( ( n & ~0x7fL ) != 0 ) {
+            dataOut.writeByte((int)( ( n & 0x7f ) | 0x80 ));
+            n >>>= 7;
+        }
+        dataOut.writeByte((int)n);
+    }
+}
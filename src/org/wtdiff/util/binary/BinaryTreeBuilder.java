@@ -0,0 +1,57 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.xml.SnapshotTreeBuilder;
+
+/**
+ * Build tree from a binary snapshot.  The tree is as built by 
+ * {@link org.wtdiff.util.xml.XMLTreeBuilder} from the same snapshot in XML.
+ * 
+ * @author davidst
+ *
+ */
+public class BinaryTreeBuilder extends SnapshotTreeBuilder {
+
+    public BinaryTreeBuilder(String path) {
+        super(path);
+    }
+
+    @Override
+    protected DirNode readSnapshot(InputStream input) throws IOException {
+        BinarySnapshotReader snapshotReader = new BinarySnapshotReader();
+        snapshotReader.setFilter(getFilter());
+        return snapshotReader.readSnapshot(input);
+    }
+
+    /**
+     * Check if file is a binary snapshot
+     * 
+     * @param file
+     * @return true if binary snapshot
+     * @throws IOException if file does not exist or can't be read
+     */
+    public static boolean isBinarySnapshot(String file) throws IOException {
+        try ( InputStream input = openIfRegularFile(file) ){
+            return input != null && new BinarySnapshotReader().isSnapshot(input);
+        }
+    }
+}
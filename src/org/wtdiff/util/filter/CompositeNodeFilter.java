@@ -16,39 +16,100 @@ limitations under the License.
 */
 package org.wtdiff.util.filter;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Vector;
 
 import org.wtdiff.util.Node;
 
+/**
+ * Filter applying a sequence of filters, the result being that of the first
+ * filter with a result other than NONE.  For speed, consecutive {@link GlobNameFilter}s 
+ * are compiled to match all their globs at once.
+ * 
+ * @author davidst
+ *
+ */
 public class CompositeNodeFilter implements NodeFilter {
 
-    private Vector<NodeFilter> filters = new Vector<NodeFilter>(); 
+    /**
+     * Filters compiled for matching, and glob change count when compiled
+     */
+    private static class Compiled {
+        final NodeFilter[] stages;
+        final int globChangeCount;
+        
+        Compiled(NodeFilter[] stages, int globChangeCount) {
+            this.stages = stages;
+            this.globChangeCount = globChangeCount;
+        }
+    }
+    
+    private List<NodeFilter> filters = new ArrayList<NodeFilter>(); 
+    /**
+     * Compiled filters, null until needed after filters are added
+     */
+    private volatile Compiled compiled;
+    
     public CompositeNodeFilter() {
     }
     
     public CompositeNodeFilter add(NodeFilter filter) {
         filters.add(filter);
+        compiled = null;
         return this;
     }
 
     public CompositeNodeFilter add(List<NodeFilter> filterList) {
         filters.addAll(filterList);
+        compiled = null;
         return this;
     }
 
     public List<NodeFilter> filters() {
-        return filters;
+        return Collections.unmodifiableList(filters);
     }
     
     public int size() {
         return filters.size();
     }
     
+    /**
+     * Compile filters, combining each run of consecutive glob filters into one 
+     * filter.  Globs only ever exclude, so a run excludes if any of its globs match,
+     * and order relative to other filters is kept.
+     * 
+     * @return compiled filters
+     */
+    private Compiled compile() {
+        int globChangeCount = GlobNameFilter.getChangeCount(); // before reading globs, so that a concurrent change is noticed
+        List<NodeFilter> stages = new ArrayList<NodeFilter>();
+        List<GlobNameFilter> globs = new ArrayList<GlobNameFilter>();
+        for( NodeFilter f: filters ) {
+            if ( f.getClass() == GlobNameFilter.class ) {
+                globs.add((GlobNameFilter)f);
+                continue;
+            }
+            if ( ! globs.isEmpty() ) {
+                stages.add(new GlobSetFilter(globs));
+                globs = new ArrayList<GlobNameFilter>();
+            }
+            stages.add(f);
+        }
+        if ( ! globs.isEmpty() ) {
+            stages.add(new GlobSetFilter(globs));
+        }
+        return new Compiled(stages.toArray(new NodeFilter[stages.size()]), globChangeCount);
+    }
+    
     @Override
     public Result filterNode(Node node) {
-        // TODO Auto-generated method stub
-        for( NodeFilter n: filters) {
+        Compiled c = compiled;
+        if ( c == null || c.globChangeCount != GlobNameFilter.getChangeCount() ) {
+            c = compile();
+            compiled = c;
+        }
+        for( NodeFilter n: c.stages ) {
             Result r = n.filterNode(node);
             if ( r != Result.NONE ) {
                 return r;
@@ -16,6 +16,7 @@ limitations under the License.
 */
 package org.wtdiff.util.filter;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.wtdiff.util.Node;
@@ -23,6 +24,11 @@ import org.wtdiff.util.text.PatternUtil;
 
 public class GlobNameFilter implements NodeFilter {
 
+    /**
+     * Count of glob changes of any filter, so compiled filters can notice a change 
+     */
+    private static final AtomicInteger changeCount = new AtomicInteger();
+    
     private String glob;
     private Pattern pat;
     public GlobNameFilter(String globString) {
@@ -32,8 +38,17 @@ public class GlobNameFilter implements NodeFilter {
     public GlobNameFilter setGlob( String g ) {
         glob = g;
         pat = PatternUtil.SimpleGlobToPattern(glob);
+        changeCount.incrementAndGet();
         return this;
     }
+    
+    static int getChangeCount() {
+        return changeCount.get();
+    }
+    
+    Pattern getPattern() {
+        return pat;
+    }
     public String getGlob() {
         return glob;
     }
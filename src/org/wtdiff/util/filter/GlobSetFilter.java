@@ -0,0 +1,168 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.filter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.wtdiff.util.Node;
+
+/**
+ * Filter matching names against a set of {@link GlobNameFilter} globs at once,
+ * excluding a node if any glob matches.  Globs without wildcards are looked up in a 
+ * hash set, and globs with only a leading and/or trailing '*' are matched as prefix, 
+ * suffix or contained strings.  Remaining globs are combined into a single pattern.
+ * Results are the same as trying each GlobNameFilter in turn.
+ * 
+ * @author davidst
+ *
+ */
+class GlobSetFilter implements NodeFilter {
+
+    /**
+     * Characters with a special meaning in globs, or passed through by 
+     * {@link org.wtdiff.util.text.PatternUtil} as regular expression syntax
+     */
+    private static final String SPECIAL_CHARS = "*?[]^$|"; //$NON-NLS-1$
+
+    private final HashSet<String> literals = new HashSet<>();
+    private final String[] prefixes;
+    private final String[] suffixes;
+    private final String[] infixes;
+    private final Pattern combined; // null if no other globs
+    private final Pattern[] patterns; // of all globs
+
+    /**
+     * Construct from globs of filters
+     * 
+     * @param globFilters
+     */
+    GlobSetFilter(List<GlobNameFilter> globFilters) {
+        List<String> prefixList = new ArrayList<>();
+        List<String> suffixList = new ArrayList<>();
+        List<String> infixList = new ArrayList<>();
+        List<Pattern> otherList = new ArrayList<>();
+        patterns = new Pattern[globFilters.size()];
+        for ( int i = 0; i < patterns.length; i++ ) {
+            GlobNameFilter filter = globFilters.get(i);
+            String glob = filter.getGlob();
+            patterns[i] = filter.getPattern();
+            int len = glob.length();
+            boolean isLeadingStar = len > 0 && glob.charAt(0) == '*';
+            boolean isTrailingStar = len > 1 && glob.charAt(len - 1) == '*';
+            if ( isPlain(glob) ) {
+                literals.add(glob);
+            } else if ( isLeadingStar && isTrailingStar && isPlain(glob.substring(1, len - 1)) ) {
+                infixList.add(glob.substring(1, len - 1));
+            } else if ( isLeadingStar && isPlain(glob.substring(1)) ) {
+                suffixList.add(glob.substring(1));
+            } else if ( glob.endsWith("*") && isPlain(glob.substring(0, len - 1)) ) { //$NON-NLS-1$
+                prefixList.add(glob.substring(0, len - 1));
+            } else {
+                otherList.add(patterns[i]);
+            }
+        }
+        prefixes = prefixList.toArray(new String[prefixList.size()]);
+        suffixes = suffixList.toArray(new String[suffixList.size()]);
+        infixes = infixList.toArray(new String[infixList.size()]);
+        combined = combine(otherList);
+    }
+
+    private static boolean isPlain(String s) {
+        for ( int i = 0; i < s.length(); i++ ) {
+            if ( SPECIAL_CHARS.indexOf(s.charAt(i)) >= 0 )
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Combine patterns into one matching if any one matches 
+     * 
+     * @param others
+     * @return combined pattern, or null if none
+     */
+    private static Pattern combine(List<Pattern> others) {
+        if ( others.isEmpty() ) {
+            return null;
+        }
+        if ( others.size() == 1 ) {
+            return others.get(0);
+        }
+        StringBuilder regex = new StringBuilder();
+        for ( Pattern p: others ) {
+            if ( regex.length() > 0 ) {
+                regex.append('|');
+            }
+            regex.append("(?:").append(p.pattern()).append(')'); //$NON-NLS-1$
+        }
+        // whole name must match, so as grouped alternatives each pattern matches as it would alone
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * '.' in a pattern does not match line terminators, so a wildcard
+     * can not match names containing them 
+     */
+    private static boolean hasLineTerminator(String s) {
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            if ( c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029' )
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Does any glob match name?
+     * 
+     * @param name
+     * @return true if some glob matches
+     */
+    boolean matches(String name) {
+        if ( hasLineTerminator(name) ) {
+            // rare, just try each pattern
+            for ( Pattern p: patterns ) {
+                if ( p.matcher(name).matches() )
+                    return true;
+            }
+            return false;
+        }
+        if ( literals.contains(name) )
+            return true;
+        for ( String suffix: suffixes ) {
+            if ( name.endsWith(suffix) )
+                return true;
+        }
+        for ( String prefix: prefixes ) {
+            if ( name.startsWith(prefix) )
+                return true;
+        }
+        for ( String infix: infixes ) {
+            if ( name.contains(infix) )
+                return true;
+        }
+        return combined != null && combined.matcher(name).matches();
+    }
+
+    @Override
+    public Result filterNode(Node node) {
+        return matches(node.getName()) ? Result.EXCLUDE : Result.NONE;
+    }
+}
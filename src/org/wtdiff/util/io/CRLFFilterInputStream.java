@@ -0,0 +1,162 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream to normalize text file formats to ignore differences in
+ * line separators.  CR, CRLF and LF all become a single LF.  Will also ignore 
+ * old DOS convention of putting a ^Z at the end of a file.
+ * 
+ * Works a buffer at a time, copying runs of bytes between separators in bulk.
+ * 
+ * @author davidst
+ *
+ */
+public class CRLFFilterInputStream extends InputStream {
+
+    /**
+     * Default size of read buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte CTRL_Z = '\032';
+    
+    private InputStream is; // the stream to filter
+    private byte[] buf;  // raw bytes from stream
+    private int pos = 0; // next unfiltered byte in buf
+    private int limit = 0; // end of valid data in buf
+    private boolean skipLF = false; // previous byte was a CR, so drop a following LF
+    private boolean pendingCtrlZ = false; // ^Z was last byte of buffer, only keep it if not at EOF
+    private boolean eof = false;
+    
+    /**
+     * Construct
+     * 
+     * @param stream stream to filter
+     */
+    public CRLFFilterInputStream(InputStream stream) {
+        this(stream, DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Construct with given buffer size
+     * 
+     * @param stream stream to filter
+     * @param bufferSize size of read buffer
+     */
+    CRLFFilterInputStream(InputStream stream, int bufferSize) {
+        is = stream;
+        buf = new byte[bufferSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n;
+        do {
+            n = read(one, 0, 1);
+        } while ( n == 0 );
+        return n < 0 ? n : one[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if ( off < 0 || len < 0 || len > b.length - off ) {
+            throw new IndexOutOfBoundsException();
+        }
+        int n = 0;
+        while ( n < len ) {
+            if ( pos >= limit ) {
+                if ( n > 0 ) {
+                    return n; // don't block for more if we have something
+                }
+                if ( ! fill() ) {
+                    pendingCtrlZ = false; // ^Z at end of file is dropped
+                    return -1;
+                }
+                if ( pendingCtrlZ ) { 
+                    // wasn't at end of file after all
+                    pendingCtrlZ = false;
+                    b[off + n++] = CTRL_Z;
+                    continue;
+                }
+            }
+            if ( skipLF ) {
+                skipLF = false;
+                if ( buf[pos] == LF ) {
+                    pos++;
+                    continue;
+                }
+            }
+            // copy everything up to next CR or ^Z as is
+            int end = Math.min(limit, pos + len - n);
+            int i = pos;
+            while ( i < end && buf[i] != CR && buf[i] != CTRL_Z ) {
+                i++;
+            }
+            System.arraycopy(buf, pos, b, off + n, i - pos);
+            n += i - pos;
+            pos = i;
+            if ( i < end ) {
+                pos++;
+                if ( buf[i] == CR ) {
+                    b[off + n++] = LF;
+                    skipLF = true;
+                } else if ( pos < limit ) {
+                    b[off + n++] = CTRL_Z; // ^Z not at end of file
+                } else {
+                    pendingCtrlZ = true; // don't know yet if at end of file
+                }
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * Refill buffer from underlying stream
+     * 
+     * @return false if at end of stream
+     * @throws IOException
+     */
+    private boolean fill() throws IOException {
+        if ( eof ) {
+            return false;
+        }
+        int nread;
+        do {
+            nread = is.read(buf, 0, buf.length);
+        } while ( nread == 0 );
+        pos = 0;
+        if ( nread < 0 ) {
+            eof = true;
+            limit = 0;
+            return false;
+        }
+        limit = nread;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        is.close();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Utility to find the first difference between two byte sequences using
+ * large buffers and comparing 8 bytes at a time.
+ *
+ * @author davidst
+ *
+ */
+public class ContentComparor {
+
+    /**
+     * Returned when there is no difference
+     */
+    public static final long SAME = -1;
+
+    /**
+     * Size of direct buffers used for reading files
+     */
+    public static final int CHANNEL_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Size of buffers used for reading streams
+     */
+    public static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Direct buffers are expensive to allocate, so keep a pair per thread
+     */
+    private static final ThreadLocal<ByteBuffer[]> channelBuffers = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[] {
+                ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE),
+                ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE)
+            };
+        }
+    };
+
+    private ContentComparor() {}
+
+    /**
+     * Find offset of first byte at which content of two files differs.  If the content
+     * of one is a prefix of the other, the offset is the length of the shorter.
+     *
+     * @param p1 first file
+     * @param p2 second file
+     * @return offset of first difference, or {@link #SAME} if content is the same
+     * @throws IOException
+     */
+    static public long findFirstDifference(Path p1, Path p2) throws IOException {
+        try ( FileChannel c1 = FileChannel.open(p1, StandardOpenOption.READ);
+            FileChannel c2 = FileChannel.open(p2, StandardOpenOption.READ) )
+        {
+            ByteBuffer[] buffers = channelBuffers.get();
+            ByteBuffer b1 = buffers[0];
+            ByteBuffer b2 = buffers[1];
+            long offset = 0;
+            while ( true ) {
+                b1.clear();
+                b2.clear();
+                int n1 = fill(c1, b1);
+                int n2 = fill(c2, b2);
+                long r = compareBlock(b1, n1, b2, n2);
+                if ( r >= 0 ) {
+                    return offset + r;
+                }
+                if ( n1 == 0 ) {
+                    return SAME; // both at EOF
+                }
+                offset += n1;
+                checkInterrupted();
+            }
+        }
+    }
+
+    /**
+     * Find offset of first byte at which content of two streams differs.  If the content
+     * of one is a prefix of the other, the offset is the length of the shorter.
+     * Streams are not closed.
+     *
+     * @param s1 first stream
+     * @param s2 second stream
+     * @return offset of first difference, or {@link #SAME} if content is the same
+     * @throws IOException
+     */
+    static public long findFirstDifference(InputStream s1, InputStream s2) throws IOException {
+        byte[] buf1 = new byte[STREAM_BUFFER_SIZE];
+        byte[] buf2 = new byte[STREAM_BUFFER_SIZE];
+        ByteBuffer b1 = ByteBuffer.wrap(buf1);
+        ByteBuffer b2 = ByteBuffer.wrap(buf2);
+        long offset = 0;
+        while ( true ) {
+            int n1 = fill(s1, buf1);
+            int n2 = fill(s2, buf2);
+            long r = compareBlock(b1, n1, b2, n2);
+            if ( r >= 0 ) {
+                return offset + r;
+            }
+            if ( n1 == 0 ) {
+                return SAME; // both at EOF
+            }
+            offset += n1;
+            checkInterrupted();
+        }
+    }
+
+    /**
+     * Stop comparing large content promptly if thread is interrupted, 
+     * streams, unlike channels, do not notice interrupts
+     * 
+     * @throws InterruptedIOException
+     */
+    static void checkInterrupted() throws InterruptedIOException {
+        if ( Thread.currentThread().isInterrupted() ) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Compare blocks of data starting at index 0.
+     *
+     * @param b1
+     * @param n1 number of bytes of data in b1
+     * @param b2
+     * @param n2 number of bytes of data in b2
+     * @return index of first difference, or {@link #SAME} if the same
+     */
+    static private long compareBlock(ByteBuffer b1, int n1, ByteBuffer b2, int n2) {
+        int n = n1 < n2 ? n1 : n2;
+        int i = mismatch(b1, b2, n);
+        if ( i >= 0 ) {
+            return i;
+        }
+        if ( n1 != n2 ) {
+            return n; // one ended before the other
+        }
+        return SAME;
+    }
+
+    /**
+     * Find index of first mismatch between the first length bytes of two buffers.
+     * Absolute indexing is used, buffer positions are ignored.
+     *
+     * @param b1
+     * @param b2
+     * @param length number of bytes to compare
+     * @return index of first mismatch, -1 if none
+     */
+    static int mismatch(ByteBuffer b1, ByteBuffer b2, int length) {
+        int i = 0;
+        // compare a long at a time.  Both buffers have the same byte order
+        // so a byte difference always yields a long difference
+        for ( ; i + 8 <= length; i += 8 ) {
+            if ( b1.getLong(i) != b2.getLong(i) ) {
+                break;
+            }
+        }
+        for ( ; i < length; i++ ) {
+            if ( b1.get(i) != b2.get(i) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read from channel until buffer is full or end of file
+     *
+     * @param c
+     * @param b
+     * @return number of bytes read, 0 if at end of file
+     * @throws IOException
+     */
+    static private int fill(FileChannel c, ByteBuffer b) throws IOException {
+        while ( b.hasRemaining() ) {
+            if ( c.read(b) < 0 ) {
+                break;
+            }
+        }
+        return b.position();
+    }
+
+    /**
+     * Read from stream until buffer is full or end of stream
+     *
+     * @param is
+     * @param buf
+     * @return number of bytes read, 0 if at end of stream
+     * @throws IOException
+     */
+    static private int fill(InputStream is, byte[] buf) throws IOException {
+        int ntot = 0;
+        while ( ntot < buf.length ) {
+            int nread = is.read(buf, ntot, buf.length - ntot);
+            if ( nread < 0 ) {
+                break;
+            }
+            ntot += nread;
+        }
+        return ntot;
+    }
+}
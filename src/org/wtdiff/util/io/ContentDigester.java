@@ -0,0 +1,175 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * Compute several digests of content in a single read.  Also keeps 
+ * a sample of the leading bytes, e.g. for guessing if content is text.
+ * 
+ * @author davidst
+ *
+ */
+public class ContentDigester {
+
+    /**
+     * Size of buffer used to read content
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Size of buffer used to read files
+     */
+    public static final int FILE_BUFFER_SIZE = 1024 * 1024;
+    
+    /**
+     * Large buffers are kept per thread rather than allocated for each file
+     */
+    private static final ThreadLocal<ByteBuffer> fileBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(FILE_BUFFER_SIZE);
+        }
+    };
+    
+    private CRC32 crc32;
+    private MessageDigest md;
+    private byte[] sample;
+    private int sampleLength = 0;
+    private byte[] md5;
+    
+    /**
+     * Construct
+     * 
+     * @param computeCrc true to compute CRC32 
+     * @param md5Digest MD5 message digest to update, or null if MD5 not wanted
+     * @param sampleSize number of leading bytes to keep
+     */
+    public ContentDigester(boolean computeCrc, MessageDigest md5Digest, int sampleSize) {
+        if ( computeCrc ) {
+            crc32 = new CRC32();
+        }
+        md = md5Digest;
+        sample = new byte[sampleSize];
+    }
+    
+    /**
+     * Read stream to end, updating digests.  Stream is not closed.
+     * 
+     * @param is
+     * @throws IOException
+     */
+    public void digest(InputStream is) throws IOException {
+        byte[] b = new byte[BUFFER_SIZE];
+        int n;
+        while ( (n = is.read(b)) >= 0 ) {
+            update(b, 0, n);
+            ContentComparor.checkInterrupted();
+        }
+        if ( md != null ) {
+            md5 = md.digest();
+        }
+    }
+    
+    /**
+     * Read file to end, updating digests.  The file is read with positional reads
+     * in large blocks, so the channel's position is not shared state.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void digest(Path file) throws IOException {
+        ByteBuffer buffer = fileBuffers.get();
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+            long position = 0;
+            int n;
+            buffer.clear();
+            while ( (n = channel.read(buffer, position)) >= 0 ) {
+                if ( n > 0 ) {
+                    update(buffer.array(), buffer.arrayOffset(), n);
+                    position += n;
+                }
+                buffer.clear();
+                ContentComparor.checkInterrupted();
+            }
+        }
+        if ( md != null ) {
+            md5 = md.digest();
+        }
+    }
+    
+    /**
+     * Update digests with given bytes
+     * 
+     * @param b
+     * @param off
+     * @param len
+     */
+    private void update(byte[] b, int off, int len) {
+        if ( sampleLength < sample.length ) {
+            int n = Math.min(len, sample.length - sampleLength);
+            System.arraycopy(b, off, sample, sampleLength, n);
+            sampleLength += n;
+        }
+        if ( crc32 != null ) {
+            crc32.update(b, off, len);
+        }
+        if ( md != null ) {
+            md.update(b, off, len);
+        }
+    }
+    
+    /**
+     * @return CRC32 of content
+     * @throws IllegalStateException if CRC was not requested
+     */
+    public long getCrc() {
+        if ( crc32 == null ) {
+            throw new IllegalStateException();
+        }
+        return crc32.getValue();
+    }
+    
+    /**
+     * @return MD5 of content, or null if not requested
+     */
+    public byte[] getMd5() {
+        return md5;
+    }
+    
+    /**
+     * @return leading bytes of content, see {@link #getSampleLength()}
+     */
+    public byte[] getSample() {
+        return sample;
+    }
+    
+    /**
+     * @return number of valid bytes in sample
+     */
+    public int getSampleLength() {
+        return sampleLength;
+    }
+}
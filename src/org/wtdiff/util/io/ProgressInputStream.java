@@ -0,0 +1,58 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.wtdiff.util.TaskProgress;
+
+/**
+ * Stream counting bytes read as progress, and failing once progress is cancelled
+ * 
+ * @author davidst
+ *
+ */
+public class ProgressInputStream extends FilterInputStream {
+    private final TaskProgress progress;
+
+    public ProgressInputStream(InputStream in, TaskProgress p) {
+        super(in);
+        progress = p;
+    }
+
+    @Override
+    public int read() throws IOException {
+        progress.checkCancelled();
+        int b = super.read();
+        if ( b >= 0 ) {
+            progress.addBytes(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        progress.checkCancelled();
+        int n = super.read(b, off, len);
+        if ( n > 0 ) {
+            progress.addBytes(n);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Diff data for which encoding and line separator can be forced
+ * 
+ * @author davidst
+ *
+ */
+interface ConfigurableDiffData extends DiffData {
+
+    /**
+     * Force line separator
+     * 
+     * @param lineSep line separator, null to guess
+     * @throws IOException
+     */
+    public void forceLineSep(TextUtil.LineSeparator lineSep) throws IOException;
+    
+    /**
+     * Force encoding
+     * 
+     * @param encoding encoding, null for default
+     * @throws IOException
+     */
+    public void forceEncoding(Charset encoding) throws IOException;
+    
+    public Charset getEncoding();
+}
@@ -22,8 +22,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
@@ -35,6 +37,7 @@ import org.wtdiff.util.CompareController.NodeRole;
 
 import difflib.Chunk;
 import difflib.Delta;
+import difflib.DiffAlgorithm;
 import difflib.DiffUtils;
 import difflib.Patch;
 import difflib.Delta.TYPE;
@@ -43,16 +46,39 @@ public class DiffController {
 
     public enum SourceType { OLD, NEW };
     
+    /**
+     * Effective white space handling, ignore overrides compact and trim
+     */
+    enum WhiteSpaceMode { NONE, IGNORE, COMPACT, COMPACT_TRIM, TRIM };
     
-    private DiffSource oldSourceInfo;
-    private DiffSource newSourceInfo;
+    /**
+     * Files larger than this are diffed as {@link LargeFileSource}s even when large
+     * file mode is off
+     */
+    public static final long DEFAULT_LARGE_FILE_THRESHOLD = 256L * 1024 * 1024;
+    
+    private InputStreamSource oldSource;
+    private InputStreamSource newSource;
+    private ConfigurableDiffData oldSourceInfo;
+    private ConfigurableDiffData newSourceInfo;
+    
+    private boolean largeFileMode = false;
+    private long largeFileThreshold = DEFAULT_LARGE_FILE_THRESHOLD;
     
     private boolean ignoreWhiteSpace = false;
     private boolean compactWhiteSpace = false;
     private boolean trimWhiteSpace = false;
     
+    private DiffAlgorithm diffAlgorithm = null;
+    
     private Patch patch = null;
     
+    // white space massaged lines of each source by mode, cleared when source lines change
+    private EnumMap<WhiteSpaceMode, List<String>> oldMassagedCache = new EnumMap<>(WhiteSpaceMode.class);
+    private EnumMap<WhiteSpaceMode, List<String>> newMassagedCache = new EnumMap<>(WhiteSpaceMode.class);
+    private long massageCacheHits = 0;
+    private long massageCacheMisses = 0;
+    
     private List<DiffChangeListener> diffChangeListeners = new ArrayList<>();
     
     public DiffController() {
@@ -105,6 +131,72 @@ public class DiffController {
         }
     }
 
+    /**
+     * Get algorithm used to diff lines
+     * 
+     * @return diff algorithm, null if difflib default (Myers) is used
+     */
+    public DiffAlgorithm getDiffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    /**
+     * Set algorithm used to diff lines, for example {@link HistogramDiff}
+     * 
+     * @param diffAlgorithm diff algorithm, null for difflib default (Myers)
+     */
+    public void setDiffAlgorithm(DiffAlgorithm diffAlgorithm) {
+        if ( this.diffAlgorithm != diffAlgorithm ) {
+            this.diffAlgorithm = diffAlgorithm;
+            patch = null;
+            notifyDiffChangeListeners();
+        }
+    }
+
+    public boolean isLargeFileMode() {
+        return largeFileMode;
+    }
+
+    /**
+     * In large file mode, file sources are memory mapped and indexed rather than 
+     * read into memory as lines, see {@link LargeFileSource}.  Large file sources 
+     * are diffed using {@link HistogramDiff} whatever the diff algorithm setting.
+     * Sources already set are reloaded.
+     * 
+     * @param largeFileMode
+     * @throws IOException
+     */
+    public void setLargeFileMode(boolean largeFileMode) throws IOException {
+        if ( this.largeFileMode != largeFileMode ) {
+            this.largeFileMode = largeFileMode;
+            setOldSource(oldSource);
+            setNewSource(newSource);
+        }
+    }
+
+    public long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+
+    /**
+     * Set size above which files set as sources afterwards are treated as large 
+     * files whether or not large file mode is on
+     * 
+     * @param largeFileThreshold size in bytes
+     */
+    public void setLargeFileThreshold(long largeFileThreshold) {
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    private ConfigurableDiffData createSourceInfo(InputStreamSource src) throws IOException {
+        if ( src instanceof FileInputStreamSource ) {
+            File file = ((FileInputStreamSource)src).getFile();
+            if ( largeFileMode || file.length() > largeFileThreshold )
+                return new LargeFileSource(file);
+        }
+        return new DiffSource(src);
+    }
+
     public void setSource(SourceType srcType, InputStreamSource src) throws IOException {
         switch ( srcType ) {
             case OLD:
@@ -117,19 +209,23 @@ public class DiffController {
     }
     
     public void setOldSource(InputStreamSource old) throws IOException {
+        oldSource = old;
         if ( old == null )
             oldSourceInfo = null;
         else
-            oldSourceInfo = new DiffSource(old);
+            oldSourceInfo = createSourceInfo(old);
+        oldMassagedCache.clear();
         patch = null;
         notifyDiffChangeListeners();
     }
 
     public void setNewSource(InputStreamSource news) throws IOException  {
+        newSource = news;
         if ( news == null )
             newSourceInfo = null;
         else
-            newSourceInfo = new DiffSource(news); 
+            newSourceInfo = createSourceInfo(news);
+        newMassagedCache.clear();
         patch = null;
         notifyDiffChangeListeners();
     }
@@ -150,34 +246,41 @@ public class DiffController {
         return newSourceInfo;
     }
     
-    private DiffSource getSourceInfo(SourceType which) {
+    private ConfigurableDiffData getSourceInfo(SourceType which) {
         return  which == SourceType.NEW ?
             newSourceInfo: oldSourceInfo;
     }
 
+    private EnumMap<WhiteSpaceMode, List<String>> getMassagedCache(SourceType which) {
+        return  which == SourceType.NEW ?
+            newMassagedCache: oldMassagedCache;
+    }
+
     public void forceEncoding(SourceType which, Charset encoding) throws IOException {
-        DiffSource si = getSourceInfo(which);
+        ConfigurableDiffData si = getSourceInfo(which);
         if ( si != null )
             si.forceEncoding( encoding );
+        getMassagedCache(which).clear();
         patch = null;
         notifyDiffChangeListeners();
     }
 
     public Charset getEncoding(SourceType which) {        
-        DiffSource si = which == SourceType.NEW ? newSourceInfo : oldSourceInfo;
+        ConfigurableDiffData si = which == SourceType.NEW ? newSourceInfo : oldSourceInfo;
         return si == null ? null : si.getEncoding();
     }
     
     public void forceLineSepSourceType(SourceType which, TextUtil.LineSeparator lineSep) throws IOException {
-        DiffSource si = getSourceInfo(which);
+        ConfigurableDiffData si = getSourceInfo(which);
         if ( si != null )
             si.forceLineSep(lineSep);
+        getMassagedCache(which).clear();
         patch = null;
         notifyDiffChangeListeners();
     }
 
     public TextUtil.LineSeparator getLineSep(SourceType which)  throws IOException {        
-        DiffSource si = which == SourceType.NEW ? newSourceInfo : oldSourceInfo;
+        ConfigurableDiffData si = which == SourceType.NEW ? newSourceInfo : oldSourceInfo;
         return si == null ? null : si.getLineSep();
     }
     
@@ -187,39 +290,132 @@ public class DiffController {
     public void diff() throws IOException {
         if ( oldSourceInfo == null || newSourceInfo ==null )
             return;
-        List<String> oldLines = oldSourceInfo.getLines();
-        List<String> newLines = newSourceInfo.getLines();
-        
-        List<String> oldMassaged = massageLines(oldLines);
-        List<String> newMassaged = massageLines(newLines);
+        if ( oldSourceInfo instanceof LargeFileSource ) {
+            if ( ! (newSourceInfo instanceof LargeFileSource) ) {
+                newSourceInfo = toLargeFileSource(newSource, newSourceInfo, oldSourceInfo);
+                newMassagedCache.clear();
+            }
+        } else if ( newSourceInfo instanceof LargeFileSource ) {
+            oldSourceInfo = toLargeFileSource(oldSource, oldSourceInfo, newSourceInfo);
+            oldMassagedCache.clear();
+        }
+        if ( oldSourceInfo instanceof LargeFileSource ) {
+            patch = LargeFileSource.diff(
+                (LargeFileSource)oldSourceInfo, (LargeFileSource)newSourceInfo, getWhiteSpaceMode()
+            );
+            notifyDiffChangeListeners();
+            return;
+        }
+        List<String> oldMassaged = getMassagedLines(oldSourceInfo, oldMassagedCache);
+        List<String> newMassaged = getMassagedLines(newSourceInfo, newMassagedCache);
         
-        patch = DiffUtils.diff(oldMassaged, newMassaged);
+        if ( diffAlgorithm == null )
+            patch = DiffUtils.diff(oldMassaged, newMassaged);
+        else
+            patch = diffAlgorithm.diff(oldMassaged, newMassaged);
         notifyDiffChangeListeners();
     }
 
-    private List<String> massageLines(List<String> lines) {
-        if ( !ignoreWhiteSpace && !compactWhiteSpace && !trimWhiteSpace )
-            return lines;
-        
+    /**
+     * Convert source to be diffed against a large file source to a large file
+     * source, keeping its encoding and line separator.  Only file sources can be
+     * converted, reading the other side into memory would defeat large file handling.
+     * 
+     * @param src source as set
+     * @param info current data for src
+     * @param large large file source on the other side
+     * @return large file source for src
+     * @throws IOException if src is not a file
+     */
+    private static LargeFileSource toLargeFileSource(InputStreamSource src, ConfigurableDiffData info, ConfigurableDiffData large) throws IOException {
+        if ( ! (src instanceof FileInputStreamSource) ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("DiffController.large_file_mismatch"), //$NON-NLS-1$
+                    large.getName(),
+                    info.getName()
+                )
+            );
+        }
+        LargeFileSource converted = new LargeFileSource( ((FileInputStreamSource)src).getFile() );
+        converted.forceEncoding(info.getEncoding());
+        converted.forceLineSep(info.getLineSep());
+        return converted;
+    }
+
+    WhiteSpaceMode getWhiteSpaceMode() {
+        if ( ignoreWhiteSpace )
+            return WhiteSpaceMode.IGNORE;
+        if ( compactWhiteSpace )
+            return trimWhiteSpace ? WhiteSpaceMode.COMPACT_TRIM : WhiteSpaceMode.COMPACT;
+        if ( trimWhiteSpace )
+            return WhiteSpaceMode.TRIM;
+        return WhiteSpaceMode.NONE;
+    }
+    
+    /**
+     * Get lines of source massaged according to current white space handling, reusing 
+     * lines massaged previously for the same handling when possible.
+     * 
+     * @param source
+     * @param cache massaged lines of source by mode
+     * @return massaged lines
+     * @throws IOException
+     */
+    private List<String> getMassagedLines(DiffData source, EnumMap<WhiteSpaceMode, List<String>> cache) throws IOException {
+        WhiteSpaceMode mode = getWhiteSpaceMode();
+        if ( mode == WhiteSpaceMode.NONE )
+            return source.getLines();
+        List<String> massaged = cache.get(mode);
+        if ( massaged == null ) {
+            massageCacheMisses++;
+            massaged = massageLines(source.getLines(), mode);
+            cache.put(mode, massaged);
+        } else {
+            massageCacheHits++;
+        }
+        return massaged;
+    }
+
+    private static List<String> massageLines(List<String> lines, WhiteSpaceMode mode) {
         ArrayList<String> massaged = new ArrayList<>( lines.size());
         for ( String line: lines ) {
-            String newLine = line;
-            if ( ignoreWhiteSpace ) {
-                newLine = TextUtil.removeWhiteSpace(newLine);
-            } 
-            else if ( compactWhiteSpace ) {
-                if ( trimWhiteSpace )
-                    newLine = TextUtil.normalizeTrimWhiteSpace(newLine);
-                else
-                    newLine = TextUtil.normalizeWhiteSpace(newLine);
-            } else if ( trimWhiteSpace ) {
-                newLine = newLine.trim();
-            }
-            massaged.add(newLine);
+            String newLine = massageLine(line, mode);
+            // share unchanged lines rather than keeping a copy
+            massaged.add(newLine.equals(line) ? line : newLine);
         }
         return massaged;
     }
 
+    static String massageLine(String line, WhiteSpaceMode mode) {
+        switch ( mode ) {
+        case IGNORE:
+            return TextUtil.removeWhiteSpace(line);
+        case COMPACT_TRIM:
+            return TextUtil.normalizeTrimWhiteSpace(line);
+        case COMPACT:
+            return TextUtil.normalizeWhiteSpace(line);
+        case TRIM:
+            return line.trim();
+        default:
+            return line;
+        }
+    }
+
+    /**
+     * @return number of times white space massaged lines were reused
+     */
+    public long getMassageCacheHits() {
+        return massageCacheHits;
+    }
+
+    /**
+     * @return number of times white space massaged lines had to be computed
+     */
+    public long getMassageCacheMisses() {
+        return massageCacheMisses;
+    }
+
     public boolean haveDiff() {
         return patch != null;
     }
@@ -16,18 +16,39 @@ limitations under the License.
 */
 package org.wtdiff.util.text;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
 import java.util.List;
 import java.util.ListIterator;
 
-public class DiffSource implements DiffData {
+/**
+ * Text source for diff.  The raw content of the source is read once, files are
+ * memory mapped.  Line separator guessing and line splitting both decode the
+ * content as they go according to the current encoding, so forcing a different
+ * encoding or line separator does not re-read the source, and the decoded text 
+ * is only held as lines.
+ * 
+ * @author davidst
+ *
+ */
+public class DiffSource implements ConfigurableDiffData {
     
     private static final Charset DEFAULT_CHARSET = Charset.defaultCharset();
   
+    /**
+     * size of buffer used when reading content from a stream, same as 
+     * the byte buffer of {@link java.io.InputStreamReader}
+     */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
 
     private InputStreamSource source;
     private boolean isForcedLineSep = false;
@@ -35,18 +56,116 @@ public class DiffSource implements DiffData {
     private boolean isForcedEncoding = false;
     private Charset encoding = DEFAULT_CHARSET;
     private List <String> lines = null; 
+    
+    private ByteBuffer content = null; // raw content
+    private IOException contentError = null; // error encountered after some content was read
         
     private boolean missingFinalLineSep = false;
     
     public DiffSource(InputStreamSource source) throws IOException {
         this.source = source;
-         determineLineSep();
+        readContent();
+        determineLineSep();
     }
 
+    /**
+     * Read raw content of source.  Files are memory mapped, other sources are read into memory.
+     * Files too large to map are rejected, as their lines could not be held in memory
+     * either, see {@link LargeFileSource}.
+     * If a read error occurs after some content has been read, the error is
+     * remembered and reported when the lines are loaded, as line separator
+     * guessing only needs the start of the content.
+     * 
+     * @throws IOException
+     */
+    private void readContent() throws IOException {
+        if ( source instanceof FileInputStreamSource ) {
+            File file = ((FileInputStreamSource)source).getFile();
+            try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+                long size = channel.size();
+                if ( size > Integer.MAX_VALUE ) {
+                    throw new IOException(
+                        MessageFormat.format(
+                            Messages.getString("DiffSource.file_too_large"), //$NON-NLS-1$
+                            file,
+                            size
+                        )
+                    );
+                }
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return;
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( InputStream is = source.getInputStream() ) {
+            byte[] buf = new byte[READ_BUFFER_SIZE];
+            int n;
+            while ( (n = is.read(buf)) >= 0 ) {
+                if ( bytes.size() > Integer.MAX_VALUE - 8 - n ) { // array limit
+                    throw new IOException(
+                        MessageFormat.format(
+                            Messages.getString("DiffSource.stream_too_large"), //$NON-NLS-1$
+                            source.getName()
+                        )
+                    );
+                }
+                bytes.write(buf, 0, n);
+            }
+        } catch (IOException ioe) {
+            if ( bytes.size() == 0 ) {
+                throw ioe;
+            }
+            contentError = ioe;
+        }
+        content = ByteBuffer.wrap(bytes.toByteArray());
+    }
+    
+    /**
+     * Reader decoding content using current encoding.  Malformed input is replaced, as 
+     * when reading through an {@link java.io.InputStreamReader}
+     * 
+     * @return reader of decoded content
+     */
+    private Reader textReader() {
+        return new InputStreamReader(new ByteBufferInputStream(content.duplicate()), encoding);
+    }
+    
+    /**
+     * Stream of bytes of a buffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        
+        ByteBufferInputStream(ByteBuffer b) {
+            buffer = b;
+        }
+        
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if ( len == 0 ) {
+                return 0;
+            }
+            if ( ! buffer.hasRemaining() ) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+        
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+    
     private void determineLineSep() throws IOException { 
-        try ( InputStream is = source.getInputStream() ;
-            Reader r = new InputStreamReader(is, encoding )
-        ) {
+        try ( Reader r = textReader() ) {
             lineSep = TextUtil.guessLineSeparator(r);
         }
     }
@@ -102,10 +221,11 @@ public class DiffSource implements DiffData {
     }
 
     private void load() throws IOException {
+        if ( contentError != null ) {
+            throw contentError;
+        }
         missingFinalLineSep = false;
-      try ( InputStream is = source.getInputStream() ;
-          Reader r = new InputStreamReader(is, encoding )
-       ) {
+        try ( Reader r = textReader() ) {
           lines = TextUtil.readerToLines(r, lineSep);
           for( ListIterator<String> iter = lines.listIterator() ; iter.hasNext(); ) {
               String line = iter.next();
@@ -115,7 +235,7 @@ public class DiffSource implements DiffData {
               else
                   iter.set(newLine);
           }
-      }
+        }
     }
 
     public synchronized List<String> getLines() throws IOException {
@@ -34,6 +34,15 @@ public class FileInputStreamSource implements InputStreamSource {
         return new FileInputStream(file);
     }
 
+    /**
+     * Get file of this source
+     * 
+     * @return file
+     */
+    public File getFile() {
+        return file;
+    }
+
     @Override
     public String getName() {
         return file.getPath();
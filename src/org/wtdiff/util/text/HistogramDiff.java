@@ -0,0 +1,376 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import difflib.ChangeDelta;
+import difflib.Chunk;
+import difflib.DeleteDelta;
+import difflib.DiffAlgorithm;
+import difflib.InsertDelta;
+import difflib.Patch;
+
+/**
+ * Patience/histogram diff.  Elements are interned to int ids and common prefix 
+ * and suffix are trimmed.  The remaining region is split at the longest increasing
+ * sequence of elements occurring once in both original and revised (patience diff).
+ * If there are none, it is split around the longest common run containing the
+ * element occurring least often in the original (histogram diff).  The pieces 
+ * between are then diffed the same way.
+ *
+ * Memory use is linear in the number of elements, unlike the Myers implementation
+ * of difflib, which makes this suitable for large inputs with many differences.
+ * Regions in which every common element occurs more than {@link #MAX_CHAIN_LENGTH}
+ * times in the original are reported as a single change.
+ *
+ * @author davidst
+ *
+ */
+public class HistogramDiff implements DiffAlgorithm {
+
+    /**
+     * Maximum number of occurrences of an element in the original for it to be
+     * considered when choosing a split point
+     */
+    public static final int MAX_CHAIN_LENGTH = 64;
+
+    private static final int NONE = -1;
+
+    @Override
+    public Patch diff(Object[] original, Object[] revised) {
+        return diff(Arrays.asList(original), Arrays.asList(revised));
+    }
+
+    @Override
+    public Patch diff(List<?> original, List<?> revised) {
+        int[] a = new int[original.size()];
+        int[] b = new int[revised.size()];
+        int nIds = intern(original, revised, a, b);
+        return diff(original, revised, a, b, nIds);
+    }
+
+    /**
+     * Diff elements already interned to int ids.
+     *
+     * @param original elements referenced by patch chunks
+     * @param revised elements referenced by patch chunks
+     * @param a ids of original elements
+     * @param b ids of revised elements
+     * @param nIds number of distinct ids, all ids are less than this
+     * @return patch
+     */
+    static Patch diff(List<?> original, List<?> revised, int[] a, int[] b, int nIds) {
+        int[] matchOf = new Matcher(a, b, nIds).match();
+        return toPatch(original, revised, matchOf);
+    }
+
+    /**
+     * Map elements to int ids, equal elements having the same id
+     *
+     * @param original
+     * @param revised
+     * @param a ids of original elements
+     * @param b ids of revised elements
+     * @return number of distinct ids
+     */
+    private static int intern(List<?> original, List<?> revised, int[] a, int[] b) {
+        HashMap<Object, Integer> ids = new HashMap<>();
+        int i = 0;
+        for ( Object o: original ) {
+            a[i++] = intern(ids, o);
+        }
+        i = 0;
+        for ( Object o: revised ) {
+            b[i++] = intern(ids, o);
+        }
+        return ids.size();
+    }
+
+    private static int intern(HashMap<Object, Integer> ids, Object o) {
+        Integer id = ids.get(o);
+        if ( id == null ) {
+            id = ids.size();
+            ids.put(o, id);
+        }
+        return id;
+    }
+
+    /**
+     * Build patch from matched elements
+     *
+     * @param original
+     * @param revised
+     * @param matchOf index of matching revised element for each original element, NONE if not matched
+     * @return patch
+     */
+    private static Patch toPatch(List<?> original, List<?> revised, int[] matchOf) {
+        Patch patch = new Patch();
+        int ia = 0;
+        int ib = 0;
+        for ( int i = 0; i < matchOf.length; i++ ) {
+            if ( matchOf[i] != NONE ) {
+                addDelta(patch, original, ia, i, revised, ib, matchOf[i]);
+                ia = i + 1;
+                ib = matchOf[i] + 1;
+            }
+        }
+        addDelta(patch, original, ia, original.size(), revised, ib, revised.size());
+        return patch;
+    }
+
+    private static void addDelta(Patch patch, List<?> original, int aStart, int aEnd, List<?> revised, int bStart, int bEnd) {
+        if ( aStart == aEnd && bStart == bEnd ) {
+            return;
+        }
+        Chunk orig = new Chunk(aStart, original.subList(aStart, aEnd));
+        Chunk rev = new Chunk(bStart, revised.subList(bStart, bEnd));
+        if ( aStart == aEnd ) {
+            patch.addDelta(new InsertDelta(orig, rev));
+        } else if ( bStart == bEnd ) {
+            patch.addDelta(new DeleteDelta(orig, rev));
+        } else {
+            patch.addDelta(new ChangeDelta(orig, rev));
+        }
+    }
+
+    /**
+     * Finds common runs between two id sequences.  Regions still to be
+     * examined are kept on a stack rather than recursing, as there can be as
+     * many regions as lines.  Both the stack and the matches are kept in int 
+     * arrays, as there may be millions of them.
+     */
+    private static class Matcher {
+        private final int[] a;
+        private final int[] b;
+
+        // occurrences in original of each id within current region
+        private final int[] countA;
+        // occurrences in revised of each id within current region
+        private final int[] countB;
+        // last occurrence in original of each id within current region
+        private final int[] last;
+        // previous occurrence in original of the same id
+        private final int[] previous;
+
+        // matching revised element for each original element 
+        private final int[] matchOf;
+
+        // regions to examine as {original start, original end, revised start, revised end}
+        private int[] regions = new int[4 * 64];
+        private int nRegions = 0;
+
+        // best run found in current region
+        private int bestA;
+        private int bestB;
+        private int bestLength;
+        private int bestCount;
+
+        Matcher(int[] a, int[] b, int nIds) {
+            this.a = a;
+            this.b = b;
+            countA = new int[nIds];
+            countB = new int[nIds];
+            last = new int[nIds];
+            Arrays.fill(last, NONE);
+            previous = new int[a.length];
+            matchOf = new int[a.length];
+            Arrays.fill(matchOf, NONE);
+        }
+
+        /**
+         * @return index of matching revised element for each original element, NONE if not matched
+         */
+        int[] match() {
+            pushRegion(0, a.length, 0, b.length);
+            while ( nRegions > 0 ) {
+                nRegions--;
+                int aStart = regions[4 * nRegions];
+                int aEnd = regions[4 * nRegions + 1];
+                int bStart = regions[4 * nRegions + 2];
+                int bEnd = regions[4 * nRegions + 3];
+
+                while ( aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart] ) {
+                    matchOf[aStart++] = bStart++;
+                }
+                while ( aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1] ) {
+                    matchOf[--aEnd] = --bEnd;
+                }
+                if ( aStart == aEnd || bStart == bEnd ) {
+                    continue;
+                }
+                index(aStart, aEnd, bStart, bEnd);
+                if ( ! splitOnUniqueLines(aStart, aEnd, bStart, bEnd) 
+                    && findBestRun(aStart, aEnd, bStart, bEnd) ) 
+                {
+                    for ( int k = 0; k < bestLength; k++ ) {
+                        matchOf[bestA + k] = bestB + k;
+                    }
+                    pushRegion(aStart, bestA, bStart, bestB);
+                    pushRegion(bestA + bestLength, aEnd, bestB + bestLength, bEnd);
+                }
+                clearIndex(aStart, aEnd, bStart, bEnd);
+            }
+            return matchOf;
+        }
+
+        /**
+         * Queue region for examination, unless nothing in it could match
+         */
+        private void pushRegion(int aStart, int aEnd, int bStart, int bEnd) {
+            if ( aStart == aEnd || bStart == bEnd ) {
+                return;
+            }
+            if ( 4 * nRegions == regions.length ) {
+                regions = Arrays.copyOf(regions, regions.length * 2);
+            }
+            regions[4 * nRegions] = aStart;
+            regions[4 * nRegions + 1] = aEnd;
+            regions[4 * nRegions + 2] = bStart;
+            regions[4 * nRegions + 3] = bEnd;
+            nRegions++;
+        }
+
+        private void index(int aStart, int aEnd, int bStart, int bEnd) {
+            for ( int i = aStart; i < aEnd; i++ ) {
+                int id = a[i];
+                countA[id]++;
+                previous[i] = last[id];
+                last[id] = i;
+            }
+            for ( int j = bStart; j < bEnd; j++ ) {
+                countB[b[j]]++;
+            }
+        }
+
+        private void clearIndex(int aStart, int aEnd, int bStart, int bEnd) {
+            for ( int i = aStart; i < aEnd; i++ ) {
+                countA[a[i]] = 0;
+                last[a[i]] = NONE;
+            }
+            for ( int j = bStart; j < bEnd; j++ ) {
+                countB[b[j]] = 0;
+            }
+        }
+
+        /**
+         * Patience step: match the longest increasing sequence of elements occurring 
+         * exactly once in both original and revised region, and queue the regions 
+         * between them.
+         *
+         * @return true if any unique common elements were found
+         */
+        private boolean splitOnUniqueLines(int aStart, int aEnd, int bStart, int bEnd) {
+            int n = 0;
+            int[] pa = null;
+            int[] pb = null;
+            for ( int j = bStart; j < bEnd; j++ ) {
+                int id = b[j];
+                if ( countA[id] == 1 && countB[id] == 1 ) {
+                    if ( pa == null ) {
+                        int size = Math.min(aEnd - aStart, bEnd - bStart);
+                        pa = new int[size];
+                        pb = new int[size];
+                    }
+                    pa[n] = last[id];
+                    pb[n] = j;
+                    n++;
+                }
+            }
+            if ( n == 0 ) {
+                return false;
+            }
+            // longest increasing subsequence of original positions, pairs are in revised order
+            int[] tails = new int[n];
+            int[] predecessor = new int[n];
+            int length = 0;
+            for ( int k = 0; k < n; k++ ) {
+                int lo = 0;
+                int hi = length;
+                while ( lo < hi ) {
+                    int mid = (lo + hi) >>> 1;
+                    if ( pa[tails[mid]] < pa[k] ) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                predecessor[k] = lo > 0 ? tails[lo - 1] : NONE;
+                tails[lo] = k;
+                if ( lo == length ) {
+                    length++;
+                }
+            }
+            // queue regions between anchors, working back from last anchor
+            int nextA = aEnd;
+            int nextB = bEnd;
+            for ( int k = tails[length - 1]; k != NONE; k = predecessor[k] ) {
+                matchOf[pa[k]] = pb[k];
+                pushRegion(pa[k] + 1, nextA, pb[k] + 1, nextB);
+                nextA = pa[k];
+                nextB = pb[k];
+            }
+            pushRegion(aStart, nextA, bStart, nextB);
+            return true;
+        }
+
+        /**
+         * Histogram step: find longest common run containing the least frequent element 
+         * within region
+         *
+         * @return true if a run was found
+         */
+        private boolean findBestRun(int aStart, int aEnd, int bStart, int bEnd) {
+            bestLength = 0;
+            bestCount = MAX_CHAIN_LENGTH;
+            for ( int j = bStart; j < bEnd; ) {
+                int nextJ = j + 1;
+                int id = b[j];
+                if ( countA[id] > 0 && countA[id] <= bestCount ) {
+                    for ( int i = last[id]; i != NONE; i = previous[i] ) {
+                        int as = i;
+                        int bs = j;
+                        int runCount = countA[id];
+                        while ( as > aStart && bs > bStart && a[as - 1] == b[bs - 1] ) {
+                            as--;
+                            bs--;
+                            runCount = Math.min(runCount, countA[a[as]]);
+                        }
+                        int ae = i + 1;
+                        int be = j + 1;
+                        while ( ae < aEnd && be < bEnd && a[ae] == b[be] ) {
+                            runCount = Math.min(runCount, countA[a[ae]]);
+                            ae++;
+                            be++;
+                        }
+                        nextJ = Math.max(nextJ, be);
+                        if ( runCount < bestCount || (runCount == bestCount && ae - as > bestLength) ) {
+                            bestA = as;
+                            bestB = bs;
+                            bestLength = ae - as;
+                            bestCount = runCount;
+                        }
+                    }
+                }
+                j = nextJ;
+            }
+            return bestLength > 0;
+        }
+    }
+}
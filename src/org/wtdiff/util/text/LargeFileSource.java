@@ -0,0 +1,243 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import difflib.Patch;
+
+/**
+ * Diff data for files too large to hold in memory as lines.  The file is 
+ * memory mapped and indexed by {@link LineIndex}, and {@link #getLines()} returns
+ * a list which decodes each line when it is fetched.  Two large file sources are
+ * diffed by comparing line content bytes, without decoding, unless white space 
+ * is to be ignored.
+ * 
+ * @author davidst
+ *
+ */
+public class LargeFileSource implements ConfigurableDiffData {
+
+    private static final Charset DEFAULT_CHARSET = Charset.defaultCharset();
+
+    private String name;
+    private LineIndex index;
+    
+    public LargeFileSource(File file) throws IOException {
+        name = file.getPath();
+        index = new LineIndex(file, DEFAULT_CHARSET);
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return list of lines without line separators, decoded as fetched 
+     */
+    @Override
+    public List<String> getLines() {
+        return new LazyLineList(index);
+    }
+
+    @Override
+    public TextUtil.LineSeparator getLineSep() {
+        return index.getLineSep();
+    }
+
+    @Override
+    public boolean isMissingFinalLineSep() {
+        return index.isMissingFinalLineSep();
+    }
+
+    @Override
+    public void forceLineSep(TextUtil.LineSeparator lineSep) throws IOException {
+        index.setLineSep(lineSep);
+    }
+
+    @Override
+    public void forceEncoding(Charset encoding) throws IOException {
+        index.setEncoding(encoding == null ? DEFAULT_CHARSET : encoding);
+    }
+
+    @Override
+    public Charset getEncoding() {
+        return index.getEncoding();
+    }
+
+    /**
+     * Get index of lines of this source
+     * 
+     * @return line index
+     */
+    public LineIndex getLineIndex() {
+        return index;
+    }
+    
+    /**
+     * Diff two large file sources using {@link HistogramDiff}.  Lines are identified by 
+     * content bytes, only lines within changes are decoded, when the patch is formatted.
+     * 
+     * @param oldSource
+     * @param newSource
+     * @return patch
+     */
+    public static Patch diff(LargeFileSource oldSource, LargeFileSource newSource) {
+        return diff(oldSource, newSource, DiffController.WhiteSpaceMode.NONE);
+    }
+
+    /**
+     * Diff two large file sources using {@link HistogramDiff}, comparing lines after
+     * white space handling.  Other than for {@link DiffController.WhiteSpaceMode#NONE}
+     * each line is decoded to be compared, but massaged lines are not kept.
+     * 
+     * @param oldSource
+     * @param newSource
+     * @param mode white space handling
+     * @return patch
+     */
+    static Patch diff(LargeFileSource oldSource, LargeFileSource newSource, DiffController.WhiteSpaceMode mode) {
+        LineIndex oldIndex = oldSource.getLineIndex();
+        LineIndex newIndex = newSource.getLineIndex();
+        int[] a = new int[oldIndex.getLineCount()];
+        int[] b = new int[newIndex.getLineCount()];
+        int nIds = new LineInterner(oldIndex, newIndex, mode).intern(a, b);
+        return HistogramDiff.diff(oldSource.getLines(), newSource.getLines(), a, b, nIds);
+    }
+
+    /**
+     * Assigns the same int id to lines with the same content in either of two indexes,
+     * using an open addressing hash table keyed by line hash.
+     */
+    private static class LineInterner {
+        private final LineIndex[] indexes;
+        private final DiffController.WhiteSpaceMode mode;
+        
+        private int[] table; // id + 1 of line occupying slot, 0 if empty
+        private int nIds = 0;
+        // line for each id, old index lines are positive, new index lines are -(line + 1) 
+        private int[] idLines = new int[1024];
+        private int[] idHashes = new int[1024];
+        
+        LineInterner(LineIndex oldIndex, LineIndex newIndex, DiffController.WhiteSpaceMode mode) {
+            indexes = new LineIndex[] { oldIndex, newIndex };
+            this.mode = mode;
+            table = new int[1024];
+        }
+        
+        int intern(int[] a, int[] b) {
+            for ( int i = 0; i < a.length; i++ ) {
+                a[i] = intern(0, i);
+            }
+            for ( int i = 0; i < b.length; i++ ) {
+                b[i] = intern(1, i);
+            }
+            return nIds;
+        }
+
+        private int intern(int which, int line) {
+            LineIndex index = indexes[which];
+            String massaged = null;
+            int hash;
+            if ( mode == DiffController.WhiteSpaceMode.NONE ) {
+                hash = index.getLineHash(line);
+            } else {
+                massaged = DiffController.massageLine(index.getLine(line), mode);
+                hash = massaged.hashCode();
+            }
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            while ( table[slot] != 0 ) {
+                int id = table[slot] - 1;
+                if ( idHashes[id] == hash && isSame(index, line, massaged, idLines[id]) ) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = nIds++;
+            if ( id == idLines.length ) {
+                idLines = Arrays.copyOf(idLines, idLines.length * 2);
+                idHashes = Arrays.copyOf(idHashes, idHashes.length * 2);
+            }
+            idLines[id] = which == 0 ? line : -line - 1;
+            idHashes[id] = hash;
+            table[slot] = id + 1;
+            if ( nIds * 2 > table.length ) {
+                rehash();
+            }
+            return id;
+        }
+        
+        private boolean isSame(LineIndex index, int line, String massaged, int idLine) {
+            LineIndex idIndex = idLine >= 0 ? indexes[0] : indexes[1];
+            int idIndexLine = idLine >= 0 ? idLine : -idLine - 1;
+            if ( massaged == null ) {
+                return index.isSameLine(line, idIndex, idIndexLine);
+            }
+            return massaged.equals(DiffController.massageLine(idIndex.getLine(idIndexLine), mode));
+        }
+        
+        private void rehash() {
+            int[] newTable = new int[table.length * 2];
+            int mask = newTable.length - 1;
+            for ( int id = 0; id < nIds; id++ ) {
+                int slot = mix(idHashes[id]) & mask;
+                while ( newTable[slot] != 0 ) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = id + 1;
+            }
+            table = newTable;
+        }
+        
+        private static int mix(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+    
+    /**
+     * List view of lines of index, decoding lines as fetched
+     */
+    private static class LazyLineList extends AbstractList<String> implements RandomAccess {
+        private final LineIndex index;
+        
+        LazyLineList(LineIndex index) {
+            this.index = index;
+        }
+        
+        @Override
+        public String get(int i) {
+            if ( i < 0 || i >= index.getLineCount() ) {
+                throw new IndexOutOfBoundsException(Integer.toString(i));
+            }
+            return index.getLine(i);
+        }
+
+        @Override
+        public int size() {
+            return index.getLineCount();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+/**
+ * Index of lines of a memory mapped file.  Only the offset and a hash of each line
+ * are kept, line text is decoded on demand.  Files larger than 2GB are mapped as
+ * several segments.
+ *
+ * Lines are found by scanning bytes, so the encoding must represent CR and LF as
+ * single bytes which never occur within other characters, as for example ISO-8859-1
+ * and UTF-8 do, but UTF-16 does not.
+ *
+ * @author davidst
+ *
+ */
+public class LineIndex {
+
+    /**
+     * default segment size is 1GB
+     */
+    private static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    /**
+     * number of bytes examined when guessing line separator
+     */
+    private static final int GUESS_SAMPLE_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long size;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final ByteBuffer[] segments;
+
+    private Charset encoding;
+    private TextUtil.LineSeparator lineSep;
+
+    private int lineCount;
+    private long[] starts; // start of each line, and end of last line
+    private int[] hashes; // hash of line without line separator
+    private boolean missingFinalLineSep;
+
+    /**
+     * Create index of file using given encoding, guessing line separator
+     *
+     * @param file
+     * @param encoding
+     * @throws IOException
+     */
+    public LineIndex(File file, Charset encoding) throws IOException {
+        this(file, encoding, null, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * Create index of file using given encoding and line separator
+     *
+     * @param file
+     * @param encoding
+     * @param lineSep line separator, null to guess
+     * @throws IOException
+     */
+    public LineIndex(File file, Charset encoding, TextUtil.LineSeparator lineSep) throws IOException {
+        this(file, encoding, lineSep, DEFAULT_SEGMENT_SHIFT);
+    }
+
+    /**
+     * As {@link #LineIndex(File, Charset, TextUtil.LineSeparator)} mapping 2^segmentShift
+     * bytes per segment
+     */
+    LineIndex(File file, Charset encoding, TextUtil.LineSeparator lineSep, int segmentShift) throws IOException {
+        checkEncoding(encoding);
+        this.file = file;
+        this.encoding = encoding;
+        this.segmentShift = segmentShift;
+        segmentMask = (1L << segmentShift) - 1;
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+            size = channel.size();
+            int nSegments = (int)((size + segmentMask) >>> segmentShift);
+            segments = new ByteBuffer[nSegments];
+            for ( int i = 0; i < nSegments; i++ ) {
+                long position = (long)i << segmentShift;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentMask + 1, size - position));
+            }
+        }
+        this.lineSep = lineSep == null ? guessLineSeparator() : lineSep;
+        buildIndex();
+    }
+
+    /**
+     * Determine if lines of text in given encoding can be found by scanning bytes
+     *
+     * @param encoding
+     * @return true if supported
+     */
+    public static boolean isSupportedEncoding(Charset encoding) {
+        return encoding.canEncode()
+            && Arrays.equals(new byte[] {'a', '\r', '\n'}, "a\r\n".getBytes(encoding))
+            && ! encoding.name().toUpperCase().startsWith("UTF-16")
+            && ! encoding.name().toUpperCase().startsWith("UTF-32");
+    }
+
+    private static void checkEncoding(Charset encoding) throws IOException {
+        if ( ! isSupportedEncoding(encoding) ) {
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("LineIndex.unsupported_encoding"), //$NON-NLS-1$
+                    encoding.name()
+                )
+            );
+        }
+    }
+
+    private TextUtil.LineSeparator guessLineSeparator() throws IOException {
+        int n = (int)Math.min(size, GUESS_SAMPLE_SIZE);
+        byte[] sample = new byte[n];
+        for ( int i = 0; i < n; i++ ) {
+            sample[i] = get(i);
+        }
+        // line separator bytes are the same as ISO-8859-1 characters for supported encodings
+        return TextUtil.guessLineSeparator(new StringReader(new String(sample, StandardCharsets.ISO_8859_1)));
+    }
+
+    private byte get(long position) {
+        return segments[(int)(position >>> segmentShift)].get((int)(position & segmentMask));
+    }
+
+    private void buildIndex() {
+        char[] sepChars = lineSep.chars();
+        byte lastSepByte = (byte)sepChars[sepChars.length - 1];
+        boolean isTwoByteSep = sepChars.length > 1;
+        byte firstSepByte = (byte)sepChars[0];
+
+        int capacity = 1024;
+        starts = new long[capacity + 1];
+        hashes = new int[capacity];
+        lineCount = 0;
+
+        long lineStart = 0;
+        byte previous = 0;
+        long position = 0;
+        for ( ByteBuffer segment: segments ) {
+            int limit = segment.limit();
+            for ( int i = 0; i < limit; i++, position++ ) {
+                byte b = segment.get(i);
+                if ( b == lastSepByte ) {
+                    long contentEnd = position;
+                    if ( isTwoByteSep ) {
+                        if ( position == lineStart || previous != firstSepByte ) {
+                            previous = b;
+                            continue;
+                        }
+                        contentEnd--;
+                    }
+                    if ( lineCount == capacity ) {
+                        capacity += capacity >> 1;
+                        starts = Arrays.copyOf(starts, capacity + 1);
+                        hashes = Arrays.copyOf(hashes, capacity);
+                    }
+                    addLine(lineStart, contentEnd);
+                    lineStart = position + 1;
+                }
+                previous = b;
+            }
+        }
+        missingFinalLineSep = lineStart < size;
+        if ( missingFinalLineSep ) {
+            if ( lineCount == capacity ) {
+                capacity++;
+                starts = Arrays.copyOf(starts, capacity + 1);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            addLine(lineStart, size);
+        }
+        starts[lineCount] = size;
+    }
+
+    private void addLine(long start, long contentEnd) {
+        int hash = 0;
+        for ( long p = start; p < contentEnd; p++ ) {
+            hash = 31 * hash + get(p);
+        }
+        starts[lineCount] = start;
+        hashes[lineCount] = hash;
+        lineCount++;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Charset getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Change encoding used to decode lines.  Line boundaries are the same for all
+     * supported encodings, so index is not rebuilt.
+     *
+     * @param encoding
+     * @throws IOException if encoding not supported
+     */
+    public void setEncoding(Charset encoding) throws IOException {
+        checkEncoding(encoding);
+        this.encoding = encoding;
+    }
+
+    public TextUtil.LineSeparator getLineSep() {
+        return lineSep;
+    }
+
+    /**
+     * Change line separator, rebuilding index
+     *
+     * @param lineSep line separator, null to guess
+     * @throws IOException
+     */
+    public void setLineSep(TextUtil.LineSeparator lineSep) throws IOException {
+        TextUtil.LineSeparator newLineSep = lineSep == null ? guessLineSeparator() : lineSep;
+        if ( newLineSep != this.lineSep ) {
+            this.lineSep = newLineSep;
+            buildIndex();
+        }
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public boolean isMissingFinalLineSep() {
+        return missingFinalLineSep;
+    }
+
+    /**
+     * Get offset in file of start of line
+     *
+     * @param line line number starting from 0
+     * @return offset of line
+     */
+    public long getLineStart(int line) {
+        return starts[line];
+    }
+
+    /**
+     * Get hash of line content excluding line separator
+     *
+     * @param line line number starting from 0
+     * @return hash
+     */
+    public int getLineHash(int line) {
+        return hashes[line];
+    }
+
+    /**
+     * Get length in bytes of line excluding line separator
+     *
+     * @param line line number starting from 0
+     * @return length
+     */
+    private int getContentLength(int line) {
+        int length = (int)(starts[line + 1] - starts[line]);
+        if ( line < lineCount - 1 || ! missingFinalLineSep ) {
+            length -= lineSep.chars().length;
+        }
+        return length;
+    }
+
+    /**
+     * Decode text of line excluding line separator
+     *
+     * @param line line number starting from 0
+     * @return line text
+     */
+    public String getLine(int line) {
+        byte[] bytes = new byte[getContentLength(line)];
+        long start = starts[line];
+        for ( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = get(start + i);
+        }
+        return new String(bytes, encoding);
+    }
+
+    /**
+     * Determine if content of a line is the same as that of a line in another index
+     *
+     * @param line
+     * @param other
+     * @param otherLine
+     * @return true if line content bytes are equal
+     */
+    public boolean isSameLine(int line, LineIndex other, int otherLine) {
+        int length = getContentLength(line);
+        if ( hashes[line] != other.hashes[otherLine] || length != other.getContentLength(otherLine) ) {
+            return false;
+        }
+        long start = starts[line];
+        long otherStart = other.starts[otherLine];
+        for ( int i = 0; i < length; i++ ) {
+            if ( get(start + i) != other.get(otherStart + i) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -18,9 +18,9 @@ package org.wtdiff.util.text;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
 
 /**
  * Utility class for dealing with text
@@ -39,6 +39,11 @@ public final class TextUtil {
      */
     private static final int LINE_SEPARATOR_THRESHHOLD= 5;
 
+    /**
+     * number of characters read at a time when splitting input into lines
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     /**
      * carriage return only line separator
      */
@@ -117,9 +122,62 @@ public final class TextUtil {
      * @throws IOException
      */
     public static  List<String> readerToLines(Reader ir, LineSeparator lineSeparator) throws IOException {
-        Vector<String> lines = new Vector<>();
-        for(String line = readLine(ir, lineSeparator) ; line.length() > 0  ; line = readLine(ir, lineSeparator) ) {
-            lines.add(line);
+        return readerToLines(ir, lineSeparator, READ_BUFFER_SIZE);
+    }
+
+    /**
+     * As {@link #readerToLines(Reader, LineSeparator)} reading bufferSize characters at a time
+     * 
+     * @param ir
+     * @param lineSeparator
+     * @param bufferSize
+     * @return
+     * @throws IOException
+     */
+    static  List<String> readerToLines(Reader ir, LineSeparator lineSeparator, int bufferSize) throws IOException {
+        char[] lineSepChars = lineSeparator.chars();
+        // a line ends at first occurrence of the last separator character 
+        // that is preceded by the rest of the separator (at most one more character)
+        char lastSepChar = lineSepChars[lineSepChars.length - 1];
+        boolean isTwoCharSep = lineSepChars.length > 1;
+        char firstSepChar = lineSepChars[0];
+        
+        ArrayList<String> lines = new ArrayList<>();
+        char[] buf = new char[bufferSize];
+        StringBuilder partial = new StringBuilder(); // start of line continued from previous buffer
+        int n;
+        while ( (n = ir.read(buf)) >= 0 ) {
+            int start = 0;
+            for ( int i = 0; i < n; i++ ) {
+                if ( buf[i] != lastSepChar ) {
+                    continue;
+                }
+                if ( isTwoCharSep ) {
+                    char previous;
+                    if ( i > 0 ) {
+                        previous = buf[i - 1];
+                    } else if ( partial.length() > 0 ) {
+                        previous = partial.charAt(partial.length() - 1);
+                    } else {
+                        continue; // can't be a separator, nothing precedes it in this line
+                    }
+                    if ( previous != firstSepChar ) {
+                        continue;
+                    }
+                }
+                if ( partial.length() > 0 ) {
+                    partial.append(buf, start, i + 1 - start);
+                    lines.add(partial.toString());
+                    partial.setLength(0);
+                } else {
+                    lines.add(new String(buf, start, i + 1 - start));
+                }
+                start = i + 1;
+            }
+            partial.append(buf, start, n - start);
+        }
+        if ( partial.length() > 0 ) {
+            lines.add(partial.toString()); // last line missing line separator
         }
         return lines;
     }
@@ -384,7 +442,7 @@ public final class TextUtil {
     }
 
     public static String expandTabs(String s, int tabWidth) {
-        if ( tabWidth < 1 ) {
+        if ( tabWidth < 1 || s.indexOf('\t') < 0 ) {
             return s;
         }
         boolean foundTab = false;
@@ -173,7 +173,17 @@ public class CmpTreePanel extends JPanel implements RootNodeListener, ActionList
     /* (non-Javadoc)
      * @see org.wtdiff.util.RootNodeListener#rootNodeChanged(org.wtdiff.util.DirNode)
      */
-    public void rootNodeChanged(DirNode rootNode) {
+    public void rootNodeChanged(final DirNode rootNode) {
+        if ( ! SwingUtilities.isEventDispatchThread() ) {
+            // trees are built and compared in the background, display them on the event dispatch thread
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    rootNodeChanged(rootNode);
+                }
+            });
+            return;
+        }
         model = createTreeModel(rootNode);
         treeCellRenderer.clearEmphasizedNode();
         tree.setModel( model );
@@ -227,8 +237,20 @@ public class CmpTreePanel extends JPanel implements RootNodeListener, ActionList
                     File pathFile = new File(pathName);
                     doLoad(pathFile);
                 } else {
-                    controller.compare();
+                    boolean isComplete = runWithProgress(
+                        Messages.getString("CmpTreePanel.title_comparing"), //$NON-NLS-1$
+                        new ProgressDialog.Task() {
+                            @Override
+                            public void run() throws IOException {
+                                controller.compare();
+                            }
+                        }
+                    );
                     ErrorHandler handler = controller.getErrorHandler();
+                    if ( ! isComplete ) {
+                        handler.reset();
+                        return;
+                    }
                     if ( handler.encounteredError() ) {
                         JOptionPane.showMessageDialog(
                             null, 
@@ -298,6 +320,33 @@ public class CmpTreePanel extends JPanel implements RootNodeListener, ActionList
         
     }
 
+    /**
+     * Run task on a background thread while showing its progress.  The controller 
+     * reports progress of the task and stops if cancelled, leaving its previous trees.
+     * 
+     * @param title title of progress dialog
+     * @param task 
+     * @return true if task completed, false if cancelled
+     * @throws IOException if task failed
+     */
+    private boolean runWithProgress(String title, ProgressDialog.Task task) throws IOException {
+        TaskProgress progress = new TaskProgress();
+        controller.setProgress(progress);
+        try {
+            ProgressDialog dialog = new ProgressDialog(SwingUtilities.getWindowAncestor(this), title, progress);
+            IOException e = dialog.runTask(task);
+            if ( progress.isCancelled() ) {
+                return false;
+            }
+            if ( e != null ) {
+                throw e;
+            }
+            return true;
+        } finally {
+            controller.setProgress(null);
+        }
+    }
+
     private void doLoad(File loadPath) throws IOException {
         
         if ( ! loadPath.exists() ) {
@@ -309,12 +358,28 @@ public class CmpTreePanel extends JPanel implements RootNodeListener, ActionList
                 );
             return;
         }
-        if ( type == NodeRole.OLD_ROOT )
-            controller.setOldRoot(loadPath.getPath()); //TODO clear tree model to reduce memory use
-        else
-            controller.setNewRoot(loadPath.getPath()); //TODO clear tree model to reduce memory use
+        final String loadPathName = loadPath.getPath();
+        boolean isComplete = runWithProgress(
+            MessageFormat.format(
+                Messages.getString("CmpTreePanel.title_loading"),  //$NON-NLS-1$
+                loadPathName
+            ),
+            new ProgressDialog.Task() {
+                @Override
+                public void run() throws IOException {
+                    if ( type == NodeRole.OLD_ROOT )
+                        controller.setOldRoot(loadPathName); //TODO clear tree model to reduce memory use
+                    else
+                        controller.setNewRoot(loadPathName); //TODO clear tree model to reduce memory use
+                }
+            }
+        );
         
         ErrorHandler handler = controller.getErrorHandler();
+        if ( ! isComplete ) {
+            handler.reset();
+            return;
+        }
         if ( handler.encounteredError() ) {
             JOptionPane.showMessageDialog(
                 null, 
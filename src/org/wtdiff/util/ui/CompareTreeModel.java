@@ -66,14 +66,9 @@ public class CompareTreeModel extends Object implements TreeModel {
     }
 
     public int getIndexOfChild(Object parent, Object child) {
-        DirNode d = (DirNode)parent;
-        int dirIndex = d.getDirs().indexOf(child);
-        if ( dirIndex >= 0  )
-            return dirIndex;
-        int leafIndex = d.getLeaves().indexOf(child);
-        if ( leafIndex >= 0 )
-            return leafIndex + d.getDirs().size();
-        return -1;
+        if ( ! (parent instanceof DirNode) || ! (child instanceof Node) )
+            return -1;
+        return ((DirNode)parent).indexOfChild((Node)child);
     }
     
     public Object getRoot() {
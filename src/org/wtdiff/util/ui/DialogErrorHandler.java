@@ -16,7 +16,10 @@ limitations under the License.
 */
 package org.wtdiff.util.ui;
 
+import java.lang.reflect.InvocationTargetException;
+
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import org.wtdiff.util.ErrorHandler;
 
@@ -29,14 +32,35 @@ public class DialogErrorHandler implements ErrorHandler {
     private boolean ignoreAll = false;
     private boolean encounteredErrors = false;
     
-    @Override
-    public boolean handleError(Exception e) {
-        
-        encounteredErrors = true;
-        if ( ignoreAll )
-            return true;
-        
-        int response = JOptionPane.showOptionDialog(null,
+    /**
+     * Show option dialog on event dispatch thread, waiting for response
+     * 
+     * @param e
+     * @return response
+     */
+    private int showOptionDialog(final Exception e) {
+        if ( SwingUtilities.isEventDispatchThread() ) {
+            return showOptionDialogNow(e);
+        }
+        // errors may be found by trees built or compared in the background 
+        final int[] response = { JOptionPane.CLOSED_OPTION };
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    response[0] = showOptionDialogNow(e);
+                }
+            });
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt(); // cancelled, treat as closed
+        } catch (InvocationTargetException ite) {
+            throw new RuntimeException(ite.getCause());
+        }
+        return response[0];
+    }
+
+    private int showOptionDialogNow(Exception e) {
+        return JOptionPane.showOptionDialog(null,
             e.getMessage(),
             Messages.getString("DialogErrorHandler.error_title"), //$NON-NLS-1$
             JOptionPane.YES_NO_CANCEL_OPTION,
@@ -44,6 +68,16 @@ public class DialogErrorHandler implements ErrorHandler {
             null,
             options,
             CANCEL_OPTION);
+    }
+
+    @Override
+    public synchronized boolean handleError(Exception e) {
+        
+        encounteredErrors = true;
+        if ( ignoreAll )
+            return true;
+        
+        int response = showOptionDialog(e);
         if ( response == JOptionPane.CLOSED_OPTION || options[response].equals(CANCEL_OPTION))
             return false;
         if ( options[response].equals(IGNORE_ALL_OPTION) )
@@ -52,23 +86,48 @@ public class DialogErrorHandler implements ErrorHandler {
     }
     
     @Override
-    public void logError(Exception e) {
+    public synchronized void logError(Exception e) {
         
         encounteredErrors = true;
         if ( ignoreAll )
             return;
         
-        JOptionPane.showMessageDialog(null,
-            e.getMessage(),
-            Messages.getString("DialogErrorHandler.error_title"), //$NON-NLS-1$
-            JOptionPane.ERROR_MESSAGE);
+        showMessageDialog(e);
+    }
+
+    /**
+     * Show message dialog on event dispatch thread, waiting for it to be dismissed
+     * 
+     * @param e
+     */
+    private void showMessageDialog(final Exception e) {
+        Runnable show = new Runnable() {
+            @Override
+            public void run() {
+                JOptionPane.showMessageDialog(null,
+                    e.getMessage(),
+                    Messages.getString("DialogErrorHandler.error_title"), //$NON-NLS-1$
+                    JOptionPane.ERROR_MESSAGE);
+            }
+        };
+        if ( SwingUtilities.isEventDispatchThread() ) {
+            show.run();
+            return;
+        }
+        try {
+            SwingUtilities.invokeAndWait(show);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException ite) {
+            throw new RuntimeException(ite.getCause());
+        }
     }
     
-    public boolean encounteredError() {
+    public synchronized boolean encounteredError() {
         return encounteredErrors;
     }
     
-    public void reset() {
+    public synchronized void reset() {
         ignoreAll = false;
         encounteredErrors = false;
     }
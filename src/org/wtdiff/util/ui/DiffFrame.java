@@ -98,6 +98,7 @@ public class DiffFrame extends JFrame implements ActionListener, DiffChangeListe
     private JComboBox<String> whitespaceOption;
     private JComboBox<String> nonprintingOption;
     private JCheckBox numberLines;
+    private JCheckBox largeFiles;
     private LimitedDigitsTextField tabWidthField;
     private JButton displayButton;
     private JButton prevButton;
@@ -208,6 +209,11 @@ public class DiffFrame extends JFrame implements ActionListener, DiffChangeListe
         
         whitespaceBox.add(whitespaceOption);
         whitespaceBox.add(Box.createVerticalStrut(5));
+        largeFiles = new JCheckBox(Messages.getString("DiffFrame.label_large_files"));
+        largeFiles.setSelected(controller.isLargeFileMode());
+        largeFiles.addActionListener(this);
+        whitespaceBox.add(largeFiles);
+        whitespaceBox.add(Box.createVerticalStrut(5));
         whitespaceBox.add(Box.createVerticalGlue());
         
         Box diffButtonBox = Box.createVerticalBox();
@@ -558,6 +564,8 @@ public class DiffFrame extends JFrame implements ActionListener, DiffChangeListe
                 }
             } else if ( event.getSource() == numberLines ) {
                 diffPanel.setNumberLines(numberLines.isSelected());
+            } else if ( event.getSource() == largeFiles ) {
+                controller.setLargeFileMode(largeFiles.isSelected());
             } else if ( event.getSource() == oldLineSep ) {
                 TextUtil.LineSeparator lineSep = oldLineSep.getItemAt(oldLineSep.getSelectedIndex());
                 controller.forceLineSepSourceType(SourceType.OLD, lineSep);
@@ -625,16 +633,21 @@ public class DiffFrame extends JFrame implements ActionListener, DiffChangeListe
 
 
     /**
-     * @param args
+     * @param args [-l] [old file [new file]], -l diffs files in large file mode
      */
     public static void main(String[] args) {
         DiffController c = new DiffController();
+        int first = 0;
+        if ( args.length > 0 && "-l".equals(args[0]) ) { //$NON-NLS-1$
+            first++;
+        }
         try {
-            if ( args.length > 0) {
-                c.setOldSource(new FileInputStreamSource(new File(args[0])));
+            c.setLargeFileMode(first > 0);
+            if ( args.length > first) {
+                c.setOldSource(new FileInputStreamSource(new File(args[first])));
             }
-            if ( args.length > 1) {
-                c.setNewSource(new FileInputStreamSource(new File(args[1])));
+            if ( args.length > first + 1) {
+                c.setNewSource(new FileInputStreamSource(new File(args[first + 1])));
             }        
             c.diff();
         } catch (IOException ioe) {
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -43,6 +44,7 @@ import javax.swing.text.StyledDocument;
 import org.wtdiff.util.text.DiffAdapter;
 import org.wtdiff.util.text.DiffChangeListener;
 import org.wtdiff.util.text.DiffController;
+import org.wtdiff.util.text.DiffWriter;
 import org.wtdiff.util.text.FullDiffAdapter;
 import org.wtdiff.util.text.NonprintingCharStyle;
 import org.wtdiff.util.text.NormalDiffAdapter;
@@ -50,6 +52,8 @@ import org.wtdiff.util.ui.DiffNavigator.DiffNavigationEvent;
 import org.wtdiff.util.ui.DocumentDiffWriter.ChangeRange;
 import org.wtdiff.util.ui.text.NoWrapEditorKit;
 
+import difflib.Delta;
+
 public class DiffPanel extends JPanel implements ActionListener, DiffChangeListener, DiffNavigationListener {
     
     public enum DiffType {
@@ -63,6 +67,11 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
         }
     }
 
+    /**
+     * Diffs displaying more rows than this are rendered a viewport at a time
+     */
+    public static final int DEFAULT_VIRTUAL_ROW_THRESHOLD = 10000;
+
     private DiffController controller;
     private DiffType diffStyle = DiffType.NORMAL;
     private NonprintingCharStyle nonprintingStyle = NonprintingCharStyle.ASIS;
@@ -76,6 +85,9 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
     private JTextPane oldTextPane;
     private JTextPane newTextPane;
     private int currentChangeNo;
+    private int virtualRowThreshold = DEFAULT_VIRTUAL_ROW_THRESHOLD;
+    private JList<DiffRowModel.Row> oldRowList;
+    private JList<DiffRowModel.Row> newRowList;
     
     public DiffPanel(DiffController diffController) {
         controller = diffController;
@@ -105,6 +117,8 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
             newChanges = new ArrayList<ChangeRange>(0);
             oldTextPane = null;
             newTextPane = null;
+            oldRowList = null;
+            newRowList = null;
         }
         if ( haveDiff && ! controller.haveDiff() ) {
             haveDiff = false;
@@ -123,27 +137,22 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
         haveDiff = true;
     }
     
-    private void singlePaneDiff() {
-        this.setLayout(new GridLayout(1,1));
-//        JTextPane oldTextPane;
-        JScrollPane scrollPanel1;
-        StyleContext sc = new StyleContext();
-        DefaultStyledDocument doc1 = new DefaultStyledDocument(sc);
-
-//        StyledDocument doc1;
-//        textPane1 = new NoWrapTextPane();
-//        scrollPanel1 = new JScrollPane(textPane1, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-//        doc1 = textPane1.getStyledDocument();
-        NormalDocumentDiffWriter w = new NormalDocumentDiffWriter(doc1);
+    /**
+     * Format diff with given writer, showing error dialog on failure
+     * 
+     * @param w
+     * @param isFull if true show all lines, otherwise only changes
+     */
+    private void formatDiff(DiffWriter w, boolean isFull) {
         w.setControlCharaterHandling(nonprintingStyle);
         w.setNumberLines(isNumberLines);
         w.setTabWidth(tabWidth);
         try {
             DiffAdapter fmt;
-            if ( DiffType.NORMAL == diffStyle ) {
-                fmt = new NormalDiffAdapter( controller.getOldData(), controller.getNewData(), w);
-            } else {
+            if ( isFull ) {
                 fmt = new FullDiffAdapter( controller.getOldData(), controller.getNewData(), w);
+            } else {
+                fmt = new NormalDiffAdapter( controller.getOldData(), controller.getNewData(), w);
             }
             fmt.format( controller.getDiff() );
         } catch ( IOException ioe ) {
@@ -155,6 +164,75 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
             );
 
         }
+    }
+
+    /**
+     * Estimate number of rows displaying diff from the patch, without formatting it.
+     * Full diffs show every old line and the new lines of each change, normal diffs
+     * show a header and the old and new lines of each change.
+     * 
+     * @param isFull if true all lines are shown, otherwise only changes
+     * @return upper bound of number of rows
+     */
+    private long estimateRows(boolean isFull) {
+        long rows = 0;
+        if ( isFull ) {
+            try {
+                rows = controller.getOldData().getLines().size();
+            } catch ( IOException ioe ) {
+                // formatting will report it
+                return Long.MAX_VALUE;
+            }
+        }
+        for ( Delta delta: controller.getDiff().getDeltas() ) {
+            rows += delta.getRevised().size();
+            if ( ! isFull ) {
+                rows += delta.getOriginal().size() + 1;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Create list displaying rows, only visible rows are formatted and rendered
+     * 
+     * @param w
+     * @param model
+     * @return list
+     */
+    private JList<DiffRowModel.Row> createRowList(RowDiffWriter w, DiffRowModel model) {
+        JList<DiffRowModel.Row> list = new JList<>(model);
+        DiffRowRenderer renderer = new DiffRowRenderer(w.getStyleContext(), tabWidth);
+        list.setCellRenderer(renderer);
+        // fixed cell size so that laying out the list does not render every row
+        list.setFixedCellHeight(renderer.rowHeight());
+        list.setFixedCellWidth(1);
+        list.setBackground( list.getBackground().darker() );
+        return list;
+    }
+
+    private void singlePaneDiff() {
+        this.setLayout(new GridLayout(1,1));
+        if ( estimateRows(DiffType.NORMAL != diffStyle) > virtualRowThreshold ) {
+            RowDiffWriter rw = new RowDiffWriter(false);
+            formatDiff(rw, DiffType.NORMAL != diffStyle);
+            oldRowList = createRowList(rw, rw.getOldModel());
+            this.add(new JScrollPane(oldRowList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED));
+            this.validate();
+            showFirstChange(rw.numberOfDifferences(), rw.getOldChangeRanges(), rw.getNewChangeRanges());
+            return;
+        }
+//        JTextPane oldTextPane;
+        JScrollPane scrollPanel1;
+        StyleContext sc = new StyleContext();
+        DefaultStyledDocument doc1 = new DefaultStyledDocument(sc);
+
+//        StyledDocument doc1;
+//        textPane1 = new NoWrapTextPane();
+//        scrollPanel1 = new JScrollPane(textPane1, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+//        doc1 = textPane1.getStyledDocument();
+        NormalDocumentDiffWriter w = new NormalDocumentDiffWriter(doc1);
+        formatDiff(w, DiffType.NORMAL != diffStyle);
 //        oldTextPane = new NoWrapTextPane();
 //        // if we set the editor kit after setting the document, modelToView throws a null pointer exception
 //        oldTextPane.setEditorKit(new NoWrapEditorKit());
@@ -196,6 +274,28 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
         
     }
     
+    private void showFirstChange(int n, List<ChangeRange> oldRanges, List<ChangeRange> newRanges) {
+        nChanges = n;
+        oldChanges = oldRanges;
+        newChanges = newRanges;
+        if ( nChanges > 0 ) {
+            if ( navigator != null ) {
+                navigator.setNumChanges(nChanges);
+            }
+            makeChangeVisible(1);
+        }
+    }
+
+    /**
+     * Scroll rows of change into view, first row at top if change does not fit
+     */
+    private void makeRowsVisible(JList<DiffRowModel.Row> list, ChangeRange range) {
+        if ( range.end > range.begin ) {
+            list.ensureIndexIsVisible(range.end - 1);
+        }
+        list.ensureIndexIsVisible(range.begin);
+    }
+
     private void makeChangeVisible(int changeNo) {
 //        Rectangle delme2 = oldTextPane.getVisibleRect(); //TODO DEBUC
 //      System.out.println("model to view " + viewRectOldEnd.x + "," + viewRectOldEnd.y);
@@ -203,6 +303,17 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
         
         if ( nChanges == 0 || changeNo > nChanges || changeNo < 1)
             return;
+        if ( oldRowList != null ) {
+            makeRowsVisible(oldRowList, oldChanges.get(changeNo - 1));
+            if ( newRowList != null ) {
+                makeRowsVisible(newRowList, newChanges.get(changeNo - 1));
+            }
+            currentChangeNo = changeNo;
+            if ( navigator != null ) {
+                navigator.setCurrentChange(changeNo);
+            }
+            return;
+        }
         // need to position both old and new text panes
         // otherwise Panel gets into a frenzy due to
         // conflicts between caret positions and coupled scrolling
@@ -248,28 +359,27 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
     }
     private void doublePaneDiff() {
         this.setLayout(new GridLayout(1,2));
+        if ( estimateRows(true) > virtualRowThreshold ) {
+            RowDiffWriter rw = new RowDiffWriter(true);
+            formatDiff(rw, true);
+            oldRowList = createRowList(rw, rw.getOldModel());
+            newRowList = createRowList(rw, rw.getNewModel());
+            JScrollPane scrollPane1 = new JScrollPane(oldRowList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+            JScrollPane scrollPane2 = new JScrollPane(newRowList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+            scrollPane2.getVerticalScrollBar().setModel(scrollPane1.getVerticalScrollBar().getModel());
+            this.add(scrollPane1, BorderLayout.EAST);
+            this.add(scrollPane2, BorderLayout.WEST);
+            this.validate();
+            showFirstChange(rw.numberOfDifferences(), rw.getOldChangeRanges(), rw.getNewChangeRanges());
+            return;
+        }
         StyleContext sc = new StyleContext();
         DefaultStyledDocument doc1 = new DefaultStyledDocument(sc);
         DefaultStyledDocument doc2 = new DefaultStyledDocument(sc);
         JScrollPane scrollPane1;
         JScrollPane scrollPane2;
         TwoDocumentDiffWriter w = new TwoDocumentDiffWriter(doc1, doc2);
-        w.setControlCharaterHandling(nonprintingStyle);
-        w.setNumberLines(isNumberLines);
-        w.setTabWidth(tabWidth);
-        try {
-            DiffAdapter fmt;
-            fmt = new FullDiffAdapter( controller.getOldData(), controller.getNewData(), w);
-            fmt.format( controller.getDiff() );
-        } catch ( IOException ioe ) {
-            JOptionPane.showMessageDialog(
-                null, 
-                ioe.getMessage(), 
-                Messages.getString("DiffPanel.title_error"),  //$NON-NLS-1$
-                JOptionPane.ERROR_MESSAGE
-            );
-
-        }
+        formatDiff(w, true);
         oldTextPane = new NoWrapTextPane(doc1);
 //        // if we set the editor kit after setting the document, modelToView throws a null pointer exception
 //        oldTextPane.setEditorKit(new NoWrapEditorKit());
@@ -326,6 +436,20 @@ public class DiffPanel extends JPanel implements ActionListener, DiffChangeListe
 
     }
 
+    public int getVirtualRowThreshold() {
+        return virtualRowThreshold;
+    }
+
+    /**
+     * Set number of rows above which diff is rendered a viewport at a time, 
+     * rather than as a styled document
+     * 
+     * @param rows
+     */
+    public void setVirtualRowThreshold(int rows) {
+        virtualRowThreshold = rows;
+    }
+
     public DiffType getDiffStyle() {
         return diffStyle;
     }
@@ -0,0 +1,158 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+import javax.swing.text.Style;
+
+import org.wtdiff.util.ui.DocumentDiffWriter.StyleSet;
+
+/**
+ * List model of the rows of one pane of a diff display.  Rows are kept as
+ * segments referring to the diffed lines, and a row is only formatted when
+ * it is fetched, so that a list displaying the model only formats the rows
+ * that are visible.
+ *
+ * @author davidst
+ *
+ */
+public class DiffRowModel extends AbstractListModel<DiffRowModel.Row> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A formatted row
+     */
+    public static class Row {
+        public final String lineNumber; // null if not numbered
+        public final Style lineNumberStyle;
+        public final String indicator;
+        public final Style indicatorStyle;
+        public final String text;
+        public final Style textStyle;
+
+        Row(String lineNumber, Style lineNumberStyle, String indicator, Style indicatorStyle, String text, Style textStyle) {
+            this.lineNumber = lineNumber;
+            this.lineNumberStyle = lineNumberStyle;
+            this.indicator = indicator;
+            this.indicatorStyle = indicatorStyle;
+            this.text = text;
+            this.textStyle = textStyle;
+        }
+
+        @Override
+        public String toString() {
+            return (lineNumber == null ? "" : lineNumber) + indicator + text;
+        }
+    }
+
+    /**
+     * Consecutive rows in the same style. Either lines of text, or the same
+     * fixed text repeated
+     */
+    private static class Segment {
+        final List<String> lines; // null for fixed text
+        final int firstLineNo;
+        final String indicator;
+        final String fixedText;
+        final StyleSet styleSet;
+
+        Segment(List<String> lines, int firstLineNo, String indicator, String fixedText, StyleSet styleSet) {
+            this.lines = lines;
+            this.firstLineNo = firstLineNo;
+            this.indicator = indicator;
+            this.fixedText = fixedText;
+            this.styleSet = styleSet;
+        }
+    }
+
+    private final RowDiffWriter writer;
+    private final List<Segment> segments = new ArrayList<>();
+    private int[] segmentStarts = new int[64]; // first row of each segment
+    private int rowCount = 0;
+
+    DiffRowModel(RowDiffWriter writer) {
+        this.writer = writer;
+    }
+
+    private void addSegment(Segment segment, int nRows) {
+        if ( nRows == 0 ) {
+            return;
+        }
+        if ( segments.size() == segmentStarts.length ) {
+            segmentStarts = Arrays.copyOf(segmentStarts, segmentStarts.length * 2);
+        }
+        segmentStarts[segments.size()] = rowCount;
+        segments.add(segment);
+        rowCount += nRows;
+    }
+
+    /**
+     * Add rows for lines
+     *
+     * @param lines
+     * @param beginLineOffset line number of first line - 1
+     * @param indicator
+     * @param styleSet
+     */
+    void addLines(List<String> lines, int beginLineOffset, String indicator, StyleSet styleSet) {
+        addSegment(new Segment(lines, beginLineOffset + 1, indicator, null, styleSet), lines.size());
+    }
+
+    /**
+     * Add rows of fixed text, such as change headers, or blank padding
+     *
+     * @param text
+     * @param nRows number of rows
+     * @param styleSet
+     */
+    void addText(String text, int nRows, StyleSet styleSet) {
+        addSegment(new Segment(null, 0, "", text, styleSet), nRows);
+    }
+
+    @Override
+    public int getSize() {
+        return rowCount;
+    }
+
+    @Override
+    public Row getElementAt(int index) {
+        if ( index < 0 || index >= rowCount ) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        int i = Arrays.binarySearch(segmentStarts, 0, segments.size(), index);
+        if ( i < 0 ) {
+            i = -i - 2; // segment starting before index
+        }
+        Segment segment = segments.get(i);
+        StyleSet set = segment.styleSet;
+        if ( segment.lines == null ) {
+            return new Row(null, set.lineno, segment.indicator, set.indicator, segment.fixedText, set.text);
+        }
+        int lineIndex = index - segmentStarts[i];
+        String lineNumber = writer.isNumberLines() ? writer.formatLineNumber(segment.firstLineNo + lineIndex) : null;
+        return new Row(
+            lineNumber, set.lineno,
+            segment.indicator, set.indicator,
+            writer.formatRowText(segment.lines.get(lineIndex)), set.text
+        );
+    }
+}
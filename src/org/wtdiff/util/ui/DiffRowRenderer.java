@@ -0,0 +1,190 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.ui;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.util.Enumeration;
+
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.SwingUtilities;
+import javax.swing.text.Style;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+
+import org.wtdiff.util.text.TextUtil;
+
+/**
+ * Renders a {@link DiffRowModel.Row} as line number, indicator and text, each
+ * in its own style.  Unexpanded tabs are shown as spaces to the next multiple
+ * of the tab width, {@link #DEFAULT_TAB_WIDTH} columns unless set.
+ *
+ * @author davidst
+ *
+ */
+public class DiffRowRenderer extends JComponent implements ListCellRenderer<DiffRowModel.Row> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_TAB_WIDTH = 8;
+
+    private final StyleContext styleContext;
+    private final int tabWidth;
+    private DiffRowModel.Row row;
+    private boolean isSelected;
+    private Color selectionBackground;
+    private Color selectionForeground;
+    private int pendingCellWidth = 0;
+
+    /**
+     * @param sc style context of styles referenced by rows
+     * @param tabWidth columns between tab stops, {@link #DEFAULT_TAB_WIDTH} if less than 1
+     */
+    public DiffRowRenderer(StyleContext sc, int tabWidth) {
+        styleContext = sc;
+        this.tabWidth = tabWidth < 1 ? DEFAULT_TAB_WIDTH : tabWidth;
+        setOpaque(true);
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends DiffRowModel.Row> list,
+        DiffRowModel.Row value, int index, boolean selected, boolean cellHasFocus)
+    {
+        row = value;
+        isSelected = selected;
+        selectionBackground = list.getSelectionBackground();
+        selectionForeground = list.getSelectionForeground();
+        setBackground(list.getBackground());
+        growCellWidth(list);
+        return this;
+    }
+
+    /**
+     * Cell width is fixed so that the list need not render every row to lay out,
+     * widen it when a wider row is rendered
+     */
+    private void growCellWidth(final JList<?> list) {
+        int width = getPreferredSize().width;
+        if ( width > pendingCellWidth && width > list.getFixedCellWidth() ) {
+            pendingCellWidth = width;
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if ( pendingCellWidth > list.getFixedCellWidth() ) {
+                        list.setFixedCellWidth(pendingCellWidth);
+                    }
+                }
+            });
+        }
+    }
+
+    private Font fontOf(Style style) {
+        return styleContext.getFont(style);
+    }
+
+    /**
+     * @return height of a row in pixels, allowing for the largest font of any style
+     */
+    public int rowHeight() {
+        int height = 0;
+        Enumeration<?> names = styleContext.getStyleNames();
+        while ( names.hasMoreElements() ) {
+            Style style = styleContext.getStyle(names.nextElement().toString());
+            height = Math.max(height, getFontMetrics(fontOf(style)).getHeight());
+        }
+        return height;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        int width = 0;
+        int height = 0;
+        if ( row != null ) {
+            if ( row.lineNumber != null ) {
+                width += runWidth(row.lineNumber, row.lineNumberStyle);
+            }
+            width += runWidth(row.indicator, row.indicatorStyle);
+            width += runWidth(TextUtil.expandTabs(row.text, tabWidth), row.textStyle);
+            height = getFontMetrics(fontOf(row.textStyle)).getHeight();
+        }
+        return new Dimension(width, height);
+    }
+
+    private int runWidth(String s, Style style) {
+        return getFontMetrics(fontOf(style)).stringWidth(s);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(isSelected ? selectionBackground : getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if ( row == null ) {
+            return;
+        }
+        int x = 0;
+        if ( row.lineNumber != null ) {
+            x = paintRun(g, x, row.lineNumber, row.lineNumberStyle);
+        }
+        x = paintRun(g, x, row.indicator, row.indicatorStyle);
+        paintRun(g, x, TextUtil.expandTabs(row.text, tabWidth), row.textStyle);
+    }
+
+    private int paintRun(Graphics g, int x, String s, Style style) {
+        if ( s.isEmpty() ) {
+            return x;
+        }
+        Font font = fontOf(style);
+        FontMetrics fm = g.getFontMetrics(font);
+        int width = fm.stringWidth(s);
+        if ( ! isSelected && style.getAttribute(StyleConstants.Background) != null ) {
+            g.setColor(styleContext.getBackground(style));
+            g.fillRect(x, 0, width, getHeight());
+        }
+        g.setColor(isSelected ? selectionForeground : styleContext.getForeground(style));
+        g.setFont(font);
+        g.drawString(s, x, fm.getAscent());
+        return x + width;
+    }
+
+    // as DefaultListCellRenderer, skip property change overhead
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    protected void firePropertyChange(String propertyName, Object oldValue, Object newValue) {
+    }
+}
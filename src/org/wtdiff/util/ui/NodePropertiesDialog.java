@@ -67,6 +67,14 @@ public class NodePropertiesDialog extends JDialog implements ActionListener {
             mainBox.add( createLabledComponent(
                 Messages.getString( "NodePropertiesDialog.label_status" ),
                 status ) );
+            if ( node instanceof LeafComparisonResult ) {
+                long offset = ((LeafComparisonResult)node).getDifferenceOffset();
+                if ( offset >= 0 ) {
+                    mainBox.add( createLabledComponent(
+                        Messages.getString( "NodePropertiesDialog.label_difference_offset" ),
+                        Long.toString(offset) ) );
+                }
+            }
         }
         else if ( node instanceof DirNode ) {
             int nDirs = ((DirNode)node).getDirs().size();
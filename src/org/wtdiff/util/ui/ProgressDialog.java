@@ -0,0 +1,218 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.GridLayout;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.WindowConstants;
+
+import org.wtdiff.util.TaskProgress;
+
+/**
+ * Modal dialog running a task on a background thread, showing its progress
+ * until it completes.  The cancel button cancels the task's {@link TaskProgress},
+ * which interrupts the task.
+ *
+ * @author davidst
+ *
+ */
+public class ProgressDialog extends JDialog implements ActionListener {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Interval between updates of displayed progress in milliseconds
+     */
+    private static final int UPDATE_INTERVAL = 250;
+
+    private static final int MIN_WIDTH = 350;
+
+    /**
+     * Work to run in background
+     */
+    public interface Task {
+        public void run() throws IOException;
+    }
+
+    private TaskProgress progress;
+    private JLabel dirsLabel;
+    private JLabel filesLabel;
+    private JLabel bytesLabel;
+    private JLabel remainingLabel;
+    private JButton cancelButton;
+    private Timer timer;
+
+    /**
+     * Constructor
+     *
+     * @param owner
+     * @param title
+     * @param p progress updated by task
+     */
+    public ProgressDialog(Window owner, String title, TaskProgress p) {
+        super(owner, title, ModalityType.APPLICATION_MODAL);
+        progress = p;
+        setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cancel();
+            }
+        });
+
+        JPanel labels = new JPanel(new GridLayout(4, 1));
+        labels.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        dirsLabel = new JLabel();
+        filesLabel = new JLabel();
+        bytesLabel = new JLabel();
+        remainingLabel = new JLabel();
+        labels.add(dirsLabel);
+        labels.add(filesLabel);
+        labels.add(bytesLabel);
+        labels.add(remainingLabel);
+        // leave room for counts to grow
+        labels.setPreferredSize(new Dimension(MIN_WIDTH, labels.getPreferredSize().height));
+
+        cancelButton = new JButton(Messages.getString("ProgressDialog.button_cancel")); //$NON-NLS-1$
+        cancelButton.addActionListener(this);
+        Box buttonBox = Box.createHorizontalBox();
+        buttonBox.add(Box.createHorizontalGlue());
+        buttonBox.add(cancelButton);
+        buttonBox.add(Box.createHorizontalGlue());
+
+        getContentPane().add(labels, BorderLayout.CENTER);
+        getContentPane().add(buttonBox, BorderLayout.SOUTH);
+
+        timer = new Timer(UPDATE_INTERVAL, this);
+        updateLabels();
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    /**
+     * Run task on a background thread, showing this dialog until task completes.
+     * Must be called from the event dispatch thread, which continues to dispatch
+     * events meanwhile.
+     *
+     * @param task
+     * @return exception thrown by task, null if task completed normally.  An
+     *   InterruptedIOException if task was cancelled.
+     */
+    public IOException runTask(final Task task) {
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                progress.start();
+                try {
+                    task.run();
+                } finally {
+                    progress.finish();
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                timer.stop();
+                dispose();
+            }
+        };
+        progress.reset(); // before starting, so that an early cancel is not lost
+        worker.execute();
+        timer.start();
+        setVisible(true); // returns once done() disposes dialog
+        try {
+            worker.get();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new InterruptedIOException(e.getLocalizedMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException ) {
+                return (IOException)cause;
+            }
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException)cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error)cause;
+            }
+            return new IOException(cause);
+        }
+    }
+
+    private void cancel() {
+        cancelButton.setEnabled(false);
+        progress.cancel();
+    }
+
+    private void updateLabels() {
+        dirsLabel.setText(
+            MessageFormat.format(
+                Messages.getString("ProgressDialog.label_dirs"), //$NON-NLS-1$
+                progress.getDirs()
+            )
+        );
+        filesLabel.setText(countText("ProgressDialog.label_files", progress.getFiles(), progress.getTotalFiles())); //$NON-NLS-1$
+        bytesLabel.setText(countText("ProgressDialog.label_bytes", progress.getBytes(), progress.getTotalBytes())); //$NON-NLS-1$
+        long remaining = progress.getEstimatedMillisRemaining();
+        remainingLabel.setText(
+            remaining == TaskProgress.UNKNOWN ?
+                Messages.getString("ProgressDialog.label_remaining_unknown") : //$NON-NLS-1$
+                MessageFormat.format(
+                    Messages.getString("ProgressDialog.label_remaining"), //$NON-NLS-1$
+                    remaining / 1000
+                )
+        );
+    }
+
+    private String countText(String key, long count, long total) {
+        if ( total == TaskProgress.UNKNOWN ) {
+            return MessageFormat.format(Messages.getString(key), count);
+        }
+        return MessageFormat.format(Messages.getString(key + "_of"), count, total); //$NON-NLS-1$
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if ( e.getSource() == cancelButton ) {
+            cancel();
+        } else if ( e.getSource() == timer ) {
+            updateLabels();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyleContext;
+
+/**
+ * Diff writer producing {@link DiffRowModel}s rather than documents.  Rows are
+ * laid out as by {@link NormalDocumentDiffWriter}, or as by {@link TwoDocumentDiffWriter}
+ * if side by side, but only formatted when displayed.  Change ranges are row numbers,
+ * end exclusive.
+ *
+ * @author davidst
+ *
+ */
+public class RowDiffWriter extends DocumentDiffWriter {
+
+    private final boolean isSideBySide;
+    private final StyleContext styleContext = new StyleContext();
+    private final DiffRowModel oldModel;
+    private final DiffRowModel newModel;
+    private ChangeType currentType = ChangeType.COMMON;
+
+    private List<ChangeRange> oldChangeList = new ArrayList<>();
+    private List<ChangeRange> newChangeList = new ArrayList<>();
+
+    /**
+     * @param sideBySide true for separate old and new models, otherwise a single normal diff model
+     */
+    public RowDiffWriter(boolean sideBySide) {
+        isSideBySide = sideBySide;
+        initStyleSets(new DefaultStyledDocument(styleContext));
+        oldModel = new DiffRowModel(this);
+        newModel = sideBySide ? new DiffRowModel(this) : null;
+    }
+
+    /**
+     * @return style context of styles referenced by rows
+     */
+    public StyleContext getStyleContext() {
+        return styleContext;
+    }
+
+    /**
+     * @return model of old rows, or of all rows if not side by side
+     */
+    public DiffRowModel getOldModel() {
+        return oldModel;
+    }
+
+    /**
+     * @return model of new rows, null if not side by side
+     */
+    public DiffRowModel getNewModel() {
+        return newModel;
+    }
+
+    String formatRowText(String line) {
+        return formatLine(line);
+    }
+
+    String formatLineNumber(int lineNo) {
+        return lineNumberToString(lineNo);
+    }
+
+    @Override
+    public void append(List<String> oldLines, int oldBeginLineOffset, List<String> newLines, int newBeginLineOffset) {
+        if ( isSideBySide ) {
+            appendSideBySide(oldLines, oldBeginLineOffset, newLines, newBeginLineOffset);
+        } else {
+            appendNormal(oldLines, oldBeginLineOffset, newLines, newBeginLineOffset);
+        }
+    }
+
+    private void appendNormal(List<String> oldLines, int oldBeginLineOffset, List<String> newLines, int newBeginLineOffset) {
+        int begin = oldModel.getSize();
+        if ( currentType == ChangeType.COMMON ) {
+            oldModel.addLines(oldLines, oldBeginLineOffset, "  ", common);
+        } else if ( currentType == ChangeType.WARNING ) {
+            oldModel.addLines(oldLines, oldBeginLineOffset, "< ", warning);
+        } else {
+            oldModel.addLines(oldLines, oldBeginLineOffset, "< ", oldOnly);
+        }
+        if ( currentType == ChangeType.CHANGED ) {
+            oldModel.addText("---", 1, info);
+        }
+        if ( currentType != ChangeType.COMMON ) {
+            StyleSet sSet = currentType == ChangeType.WARNING ? warning : newOnly;
+            oldModel.addLines(newLines, newBeginLineOffset, "> ", sSet);
+            // include header row in change
+            oldChangeList.add(new ChangeRange(currentType == ChangeType.WARNING ? begin : begin - 1, oldModel.getSize()));
+        }
+    }
+
+    private void appendSideBySide(List<String> oldLines, int oldBeginLineOffset, List<String> newLines, int newBeginLineOffset) {
+        int oldBegin = oldModel.getSize();
+        int newBegin = newModel.getSize();
+        StyleSet sSet = styleSetForChangeType(currentType);
+        String indicator = "  ";
+        if ( currentType == ChangeType.OLD_ONLY ) {
+            indicator = "- ";
+        } else if ( currentType == ChangeType.NEW_ONLY ) {
+            indicator = "+ ";
+        } else if ( currentType == ChangeType.CHANGED )  {
+            indicator = "! ";
+        }
+        oldModel.addLines(oldLines, oldBeginLineOffset, indicator, sSet);
+        newModel.addLines(newLines, newBeginLineOffset, indicator, sSet);
+        if ( oldLines.size() > newLines.size() ) {
+            newModel.addText("", oldLines.size() - newLines.size(), sSet);
+        } else {
+            oldModel.addText("", newLines.size() - oldLines.size(), sSet);
+        }
+        if ( currentType != ChangeType.COMMON ) {
+            oldChangeList.add(new ChangeRange(oldBegin, oldModel.getSize()));
+            newChangeList.add(new ChangeRange(newBegin, newModel.getSize()));
+        }
+    }
+
+    private String numberRange(int begin, int end) {
+        if ( begin == end )
+            return Integer.toString(begin+1);
+        if ( begin > end )
+            return Integer.toString(begin);
+        else
+            return Integer.toString(begin+1) + "," + Integer.toString(end+1);
+    }
+
+    @Override
+    public void newChange(ChangeType type, int oldBegin, int oldEnd, int newBegin, int newEnd) {
+        currentType = type;
+        if ( isSideBySide ) {
+            return;
+        }
+        switch ( type ) {
+            case COMMON:
+                break;
+            case NEW_ONLY:
+                oldModel.addText(numberRange(oldBegin,oldEnd) + "a" + numberRange(newBegin,newEnd), 1, info);
+                break;
+            case OLD_ONLY:
+                oldModel.addText(numberRange(oldBegin,oldEnd) + "d" + numberRange(newBegin,newEnd), 1, info);
+                break;
+            case WARNING:
+                break;
+            case CHANGED:
+                oldModel.addText(numberRange(oldBegin,oldEnd) + "c" + numberRange(newBegin,newEnd), 1, info);
+                break;
+            default:
+                throw new IllegalArgumentException( "BUG unknown change type " + type);
+        }
+    }
+
+    public int numberOfDifferences() {
+        return oldChangeList.size();
+    }
+
+    /**
+     * @return row ranges of changes in old model
+     */
+    public List<ChangeRange> getOldChangeRanges() {
+        return oldChangeList;
+    }
+
+    /**
+     * @return row ranges of changes in new model, empty if not side by side
+     */
+    public List<ChangeRange> getNewChangeRanges() {
+        return newChangeList;
+    }
+}
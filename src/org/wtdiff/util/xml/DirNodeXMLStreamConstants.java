@@ -57,5 +57,7 @@ public interface DirNodeXMLStreamConstants {
 
     public static final String DIGEST_CRC32 = "CRC32";  // TODO should be in a FileNode constants
     public static final String DIGEST_MD5 = "MD5";  // TODO should be in a FileNode constants
+    /** Merkle digest of a dir, see {@link org.wtdiff.util.DirNode#getMerkleDigest()} */
+    public static final String DIGEST_MERKLE_MD5 = "MERKLE-MD5";
 
 }
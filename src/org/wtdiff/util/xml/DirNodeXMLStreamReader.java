@@ -26,6 +26,7 @@ import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,10 +44,13 @@ import javax.xml.stream.XMLStreamReader;
 import org.apache.logging.log4j.core.config.Node;
 import org.apache.logging.log4j.core.config.plugins.util.ResolverUtil.Test;
 import org.wtdiff.util.DirNode;
+import org.wtdiff.util.DirNodeStream;
 import org.wtdiff.util.ErrorHandler;
 import org.wtdiff.util.FileNode;
 import org.wtdiff.util.Leaf;
 import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.FilterTreeBuilder;
+import org.wtdiff.util.filter.NodeFilter;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -58,6 +62,18 @@ public class DirNodeXMLStreamReader implements DirNodeXMLStreamConstants {
     private List<String> availableDigests = new ArrayList<>();
     private HashMap<String,String> snapshotInfo = new HashMap<>();
     private DateFormat dateTimeFormat = new SimpleDateFormat(FILE_TIME_FORMAT_STRING);
+    private NodeFilter filter;
+    
+    /**
+     * Set filter of nodes to leave out of tree read.  Filter applies to files and 
+     * dirs within the top dir, but not the top dir itself.  The snapshot is still
+     * read and checked in full.
+     * 
+     * @param f filter, or null for none
+     */
+    public void setFilter(NodeFilter f) {
+        filter = f;
+    }
     
     private void clearSnapshotInfo() {
         snapshotInfo = new HashMap<>();
@@ -182,6 +198,278 @@ public class DirNodeXMLStreamReader implements DirNodeXMLStreamConstants {
         throw new IOException("unexpected end of <" + ELEMENT_FILE_TREE_SNAPSHOT + ">");
     }
     
+    /**
+     * Open snapshot to be read one directory at a time.  Snapshot information 
+     * and available digests are read on opening.  The filter applies as for
+     * {@link #readSnapshot(InputStream)}, excluded directories are skipped.
+     * Merkle digests of directories are not read.  Closing the stream 
+     * does not close input.
+     * 
+     * @param input
+     * @return stream of directories of snapshot
+     * @throws IOException if snapshot can't be read or is malformed
+     */
+    public DirNodeStream openStream(InputStream input) throws IOException {
+        clearSnapshotInfo();
+        availableDigests = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = createReader(input);
+            startFileTreeSnapshot(reader);
+            processSnapshotHeader(reader);
+            noAttributeCheck(reader, ELEMENT_SNAPSHOT);
+            if ( getElement(reader, ELEMENT_SNAPSHOT, ELEMENT_DIR) == null ) {
+                throw new XMLStreamException(
+                    MessageFormat.format(
+                        Messages.getString("DirNodeXMLStreamReader.missing_child_element"),
+                        ELEMENT_SNAPSHOT,
+                        ELEMENT_DIR
+                    ),
+                    reader.getLocation()
+                );
+            }
+            return new XMLDirNodeStream(reader);
+        } catch (XMLStreamException xse) {
+            if ( reader != null ) {
+                try { reader.close(); } catch (Exception e) {};
+            }
+            throw toIOException(xse);
+        }
+    }
+    
+    private static IOException toIOException(XMLStreamException xse) {
+        if ( xse.getNestedException() instanceof IOException )
+            return (IOException)xse.getNestedException();
+        return new IOException(xse);
+    }
+    
+    /**
+     * Advance to start of <file-tree-snapshot> 
+     */
+    private void startFileTreeSnapshot(XMLStreamReader reader) throws XMLStreamException {
+        while ( reader.hasNext() ) {
+            int type = reader.next();
+            switch ( type ) {
+            case XMLStreamConstants.START_ELEMENT:
+                if ( ELEMENT_FILE_TREE_SNAPSHOT.equals(reader.getLocalName()) ) {
+                    noAttributeCheck(reader, ELEMENT_FILE_TREE_SNAPSHOT);
+                    return;
+                }
+                throw new XMLStreamException(
+                    MessageFormat.format(
+                        Messages.getString("DirNodeXMLStreamReader.unexpected_element"),
+                        ELEMENT_FILE_TREE_SNAPSHOT,
+                        reader.getLocalName()
+                    ),
+                    reader.getLocation());
+            case XMLStreamConstants.DTD:
+            case XMLStreamConstants.START_DOCUMENT:
+            case XMLStreamConstants.COMMENT:
+                break;
+            case XMLStreamConstants.CHARACTERS: 
+            case XMLStreamConstants.CDATA:
+                whitespaceCheck(reader);
+                break;
+            default:
+                throw new XMLStreamException(
+                    MessageFormat.format(
+                        Messages.getString("DirNodeXMLStreamReader.unexpected_parse_event"),
+                        type
+                    ),
+                    reader.getLocation());
+            }
+        }
+        throw new XMLStreamException(
+            MessageFormat.format(
+                Messages.getString("DirNodeXMLStreamReader.missing_element"),
+                ELEMENT_FILE_TREE_SNAPSHOT
+            ),
+            reader.getLocation());
+    }
+    
+    /**
+     * A <dir> being streamed
+     */
+    private static class StreamLevel {
+        String name;
+        // positioned within <dirs>, otherwise the <dir> has been read to its end
+        boolean isInDirs = false;
+        HashSet<String> names = new HashSet<>();
+    }
+    
+    /**
+     * Stream of the <dir>s of a snapshot.  The parser is left positioned after 
+     * the <files> of the innermost open <dir>, so a <dir> is only held while open.
+     */
+    private class XMLDirNodeStream implements DirNodeStream {
+        private XMLStreamReader reader;
+        private ArrayDeque<StreamLevel> levels = new ArrayDeque<>();
+        private boolean isStarted = false;
+        
+        XMLDirNodeStream(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+        
+        @Override
+        public DirNode nextDir() throws IOException {
+            try {
+                if ( ! isStarted ) {
+                    isStarted = true;
+                    StreamLevel top = new StreamLevel();
+                    DirNode dir = processDirStart(top, true);
+                    levels.push(top);
+                    return dir;
+                }
+                StreamLevel level = levels.peek();
+                if ( level == null ) {
+                    return null;
+                }
+                while ( level.isInDirs && getElement(reader, ELEMENT_DIRS, ELEMENT_DIR) != null ) {
+                    StreamLevel child = new StreamLevel();
+                    DirNode dir = processDirStart(child, false);
+                    addStreamName(level, child.name);
+                    if ( FilterTreeBuilder.isExcluded(filter, dir) ) {
+                        skipDirs(child);
+                        continue;
+                    }
+                    levels.push(child);
+                    return dir;
+                }
+                if ( level.isInDirs ) {
+                    level.isInDirs = false;
+                    processDirEnd();
+                }
+                closeLevel();
+                return null;
+            } catch (XMLStreamException xse) {
+                throw toIOException(xse);
+            }
+        }
+
+        @Override
+        public void skipDir() throws IOException {
+            try {
+                StreamLevel level = levels.peek();
+                if ( level != null ) {
+                    skipDirs(level);
+                    closeLevel();
+                }
+            } catch (XMLStreamException xse) {
+                throw toIOException(xse);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                reader.close();
+            } catch (XMLStreamException xse) {
+                throw toIOException(xse);
+            }
+        }
+        
+        /**
+         * Process <dir> up to its <dirs>, or its end if none
+         * 
+         * @param level level to set up for the <dir>
+         * @param isTop
+         * @return dir with its files but no dirs
+         */
+        private DirNode processDirStart(StreamLevel level, boolean isTop) throws XMLStreamException {
+            level.name = processDirName(reader, isTop);
+            List<Leaf> files = new ArrayList<>(0);
+            String element = getElement(reader, ELEMENT_DIR, ELEMENT_FILES, ELEMENT_DIRS, ELEMENT_DIGEST);
+            if ( ELEMENT_FILES.equals(element) ) {
+                files = processFiles(reader);
+                element = getElement(reader, ELEMENT_DIR, ELEMENT_DIRS, ELEMENT_DIGEST);
+            }
+            for ( Leaf file: files ) {
+                addStreamName(level, file.getName());
+            }
+            if ( ELEMENT_DIRS.equals(element) ) {
+                noAttributeCheck(reader, ELEMENT_DIRS);
+                level.isInDirs = true;
+            } else if ( ELEMENT_DIGEST.equals(element) ) {
+                processDigest(reader, new HashMap<String, byte[]>());
+                processDirEnd();
+            }
+            if ( filter != null ) {
+                files = SnapshotUtil.filterNodes(filter, files);
+            }
+            return new DirNode(level.name, files, new ArrayList<DirNode>(0));
+        }
+        
+        /**
+         * Process rest of <dir> after its <dirs>
+         */
+        private void processDirEnd() throws XMLStreamException {
+            while ( getElement(reader, ELEMENT_DIR, ELEMENT_DIGEST) != null ) {
+                processDigest(reader, new HashMap<String, byte[]>());
+            }
+        }
+        
+        /**
+         * Skip any <dir>s of level not yet read, and the rest of its <dir>
+         */
+        private void skipDirs(StreamLevel level) throws XMLStreamException {
+            if ( ! level.isInDirs ) {
+                return;
+            }
+            while ( getElement(reader, ELEMENT_DIRS, ELEMENT_DIR) != null ) {
+                skipElement();
+            }
+            level.isInDirs = false;
+            processDirEnd();
+        }
+        
+        private void skipElement() throws XMLStreamException {
+            int depth = 1;
+            while ( reader.hasNext() ) {
+                int type = reader.next();
+                if ( type == XMLStreamConstants.START_ELEMENT ) {
+                    depth++;
+                } else if ( type == XMLStreamConstants.END_ELEMENT ) {
+                    if ( --depth == 0 ) {
+                        return;
+                    }
+                } else if ( type == XMLStreamConstants.END_DOCUMENT ) {
+                    break;
+                }
+            }
+            throw new XMLStreamException(
+                MessageFormat.format(
+                    Messages.getString("DirNodeXMLStreamReader.unexpected_end_of_document"),
+                    ELEMENT_DIR
+                ),
+                reader.getLocation());
+        }
+        
+        /**
+         * Close innermost level, whose <dir> has been read to its end.  After
+         * the top <dir> check the rest of the snapshot. 
+         */
+        private void closeLevel() throws XMLStreamException {
+            levels.pop();
+            if ( levels.isEmpty() ) {
+                skipToEndElement(reader, ELEMENT_SNAPSHOT);
+                skipToEndElement(reader, ELEMENT_FILE_TREE_SNAPSHOT);
+            }
+        }
+        
+        private void addStreamName(StreamLevel level, String name) throws XMLStreamException {
+            if ( ! level.names.add(name) ) {
+                throw new XMLStreamException(
+                    MessageFormat.format(
+                        Messages.getString("DirNodeXMLStreamReader.duplicate_file_or_dir_name"),
+                        name,
+                        level.name
+                    ),
+                    reader.getLocation()
+                 );
+            }
+        }
+    }
+    
     private String getElement(XMLStreamReader reader, String parent, String ... allowedElements) throws XMLStreamException {
         
         while ( reader.hasNext() ) {
@@ -357,15 +645,22 @@ public class DirNodeXMLStreamReader implements DirNodeXMLStreamConstants {
 
     }
     private DirNode processFileTreeSnapshot(XMLStreamReader reader) throws XMLStreamException {
-        DirNode topNode = null;
+        processSnapshotHeader(reader);
+        DirNode topNode = processSnapshot(reader);
+        skipToEndElement(reader, ELEMENT_FILE_TREE_SNAPSHOT);
+        return topNode;
+    }
+    
+    /**
+     * Process children of <file-tree-snapshot> up to and including start of <snapshot>
+     */
+    private void processSnapshotHeader(XMLStreamReader reader) throws XMLStreamException {
         String element;
         while ( (element = getElement(reader, ELEMENT_FILE_TREE_SNAPSHOT, ELEMENT_SNAPSHOT, ELEMENT_CAPTURE_TIME, ELEMENT_CAPTURE_ROOT, 
          ELEMENT_USER, ELEMENT_HOME, ELEMENT_CURRENT_DIR, ELEMENT_OS, ELEMENT_HOST, ELEMENT_USER_COMMENT, ELEMENT_DIGESTS_AVAILABLE)) != null ) {
             switch (element) {
             case ELEMENT_SNAPSHOT:
-                topNode = processSnapshot(reader);
-                skipToEndElement(reader, ELEMENT_FILE_TREE_SNAPSHOT);
-                return topNode;
+                return;
             case ELEMENT_CAPTURE_TIME:
                 processInfoElement(reader, element, false);
                 //TODO long captureTime
@@ -514,28 +809,10 @@ public class DirNodeXMLStreamReader implements DirNodeXMLStreamConstants {
     private DirNode processDir( XMLStreamReader reader, boolean isTop ) throws XMLStreamException {
         List<Leaf> files = null;
         List<DirNode> dirs = null;
-        String name = exactAttributeCheck(reader, ELEMENT_DIR, ATTR_DIR_NAME).get(ATTR_DIR_NAME);
-        try {
-            name = decodeSpecial(name);
-        } catch ( IllegalArgumentException ila ) {
-            throw new XMLStreamException(
-                MessageFormat.format(
-                    Messages.getString("DirNodeXMLStreamReader.bad_encode_attribute"),
-                    name,
-                    ELEMENT_DIR,
-                    ATTR_DIR_NAME
-                ),
-                reader.getLocation()
-             );                         
-        }
-
-        if ( isTop && "".equals(name) ) {
-            // empty name is OK but only for top directory 
-        } else {
-            checkName(reader, ELEMENT_DIR, name);
-        }
+        HashMap<String, byte[]> digests = new HashMap<>();
+        String name = processDirName(reader, isTop);
         String element;
-        while ( ( element = getElement(reader, ELEMENT_DIR, ELEMENT_FILES, ELEMENT_DIRS) ) != null ) {
+        while ( ( element = getElement(reader, ELEMENT_DIR, ELEMENT_FILES, ELEMENT_DIRS, ELEMENT_DIGEST) ) != null ) {
             if ( ELEMENT_DIRS.equals(element) ) {
                     if ( dirs != null ) {
                         throw new XMLStreamException(
@@ -560,6 +837,8 @@ public class DirNodeXMLStreamReader implements DirNodeXMLStreamConstants {
                          );
                     }
                     files = processFiles(reader);
+            } else if ( ELEMENT_DIGEST.equals(element) ) {
+                processDigest(reader, digests);
             }
         }
         if ( files == null ) {
@@ -569,40 +848,55 @@ public class DirNodeXMLStreamReader implements DirNodeXMLStreamConstants {
             dirs = new ArrayList<>(0);
         }
         uniqueNamesCheck(reader, name, files, dirs);
-        return new DirNode(name, files, dirs);
+        if ( filter != null ) {
+            files = SnapshotUtil.filterNodes(filter, files);
+            dirs = SnapshotUtil.filterNodes(filter, dirs);
+        }
+        DirNode dir = new DirNode(name, files, dirs);
+        // recorded digest is of the unfiltered dir
+        if ( filter == null && digests.containsKey(DIGEST_MERKLE_MD5) ) {
+            dir.setMerkleDigest(digests.get(DIGEST_MERKLE_MD5));
+        }
+        return dir;
         
     }
     
+    private String processDirName( XMLStreamReader reader, boolean isTop ) throws XMLStreamException {
+        String name = exactAttributeCheck(reader, ELEMENT_DIR, ATTR_DIR_NAME).get(ATTR_DIR_NAME);
+        try {
+            name = decodeSpecial(name);
+        } catch ( IllegalArgumentException ila ) {
+            throw new XMLStreamException(
+                MessageFormat.format(
+                    Messages.getString("DirNodeXMLStreamReader.bad_encode_attribute"),
+                    name,
+                    ELEMENT_DIR,
+                    ATTR_DIR_NAME
+                ),
+                reader.getLocation()
+             );                         
+        }
+
+        if ( isTop && "".equals(name) ) {
+            // empty name is OK but only for top directory 
+        } else {
+            checkName(reader, ELEMENT_DIR, name);
+        }
+        return name;
+    }
+    
     private void uniqueNamesCheck(XMLStreamReader reader, String dirName, List<Leaf> files, List<DirNode> dirs) throws XMLStreamException {
-        HashSet<String> names = new HashSet<>();
-        for( Leaf node: files ) {
-            String name = node.getName();
-            if ( names.contains(name) ) {
-                throw new XMLStreamException(
-                    MessageFormat.format(
-                        Messages.getString("DirNodeXMLStreamReader.duplicate_file_or_dir_name"),
-                        name,
-                        dirName
-                     ),
-                     reader.getLocation()
-                 );
-            }
-            names.add(name);
+        String duplicate = SnapshotUtil.findDuplicateName(files, dirs);
+        if ( duplicate != null ) {
+            throw new XMLStreamException(
+                MessageFormat.format(
+                    Messages.getString("DirNodeXMLStreamReader.duplicate_file_or_dir_name"),
+                    duplicate,
+                    dirName
+                 ),
+                 reader.getLocation()
+             );
         }
-        for( DirNode node: dirs ) {
-            String name = node.getName();
-            if ( names.contains(name) ) {
-                throw new XMLStreamException(
-                    MessageFormat.format(
-                        Messages.getString("DirNodeXMLStreamReader.duplicate_file_or_dir_name"),
-                        name,
-                        dirName
-                    ),
-                    reader.getLocation()
-                 );
-            }
-            names.add(name);
-        }        
     }
 
     private List<DirNode> processDirs( XMLStreamReader reader ) throws XMLStreamException  {
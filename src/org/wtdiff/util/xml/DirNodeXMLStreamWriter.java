@@ -25,8 +25,9 @@ import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import javax.xml.stream.XMLOutputFactory;
@@ -49,6 +50,7 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
     private DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
     private OutputStream outStream;
     private XMLStreamWriter writer;
+    private Map<String, String> infoOverrides = new HashMap<>();
 /*
     <user>davidst</user>
     <home>/home/davidst/tmp></home>
@@ -60,7 +62,7 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
     public DirNodeXMLStreamWriter(OutputStream out, List<String> digestTypes) throws XMLStreamException {
         outStream = out;
         digests = digestTypes;
-        checkDigests(digests);
+        SnapshotUtil.checkDigests(digests);
         dateFormat = new SimpleDateFormat(FILE_TIME_FORMAT_STRING);
         dateFormat.setTimeZone(TimeZone.getTimeZone("GMT")); // is this really useful?
         XMLOutputFactory fact = XMLOutputFactory.newInstance();
@@ -71,37 +73,28 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
 //        outStream = out;
 //        userComment = comment;
 //        digests = digestTypes;
-//        checkDigests(digests);
+//        SnapshotUtil.checkDigests(digests);
 //        dateFormat = new SimpleDateFormat(FILE_TIME_FORMAT_STRING);
 //        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT")); // is this really useful?
 //        XMLOutputFactory fact = XMLOutputFactory.newInstance();
 //        writer = fact.createXMLStreamWriter(out);
 //    }
 
-    private void checkDigests(List<String> list) {
-        HashSet<String> digestSet = new HashSet<>();
-        for ( String digest: digests ) {
-            if ( digestSet.contains(digest) ) {
-                throw new IllegalArgumentException(
-                    MessageFormat.format(
-                        Messages.getString("DirNodeXMLStreamWriter.digest_duplciate"),
-                        digest
-                    )
-                );
-            } 
-            digestSet.add(digest);
-            if ( !DIGEST_CRC32.equals( digest )
-               && !DIGEST_MD5.equals( digest ) ) {
-                throw new IllegalArgumentException(
-                    MessageFormat.format(
-                        Messages.getString("DirNodeXMLStreamWriter.digest_unknown"),
-                        digest
-                    )
-                );
-            }
-        }
-        
+    /**
+     * Set capture time, user, home, current dir and os to write, rather than those
+     * of the current environment, as when converting a snapshot.
+     * 
+     * @param info values keyed by element name, as {@link DirNodeXMLStreamReader#getSnapshotInfo()}
+     */
+    public void setSnapshotInfo(Map<String, String> info) {
+        infoOverrides = new HashMap<>(info);
+    }
+    
+    private String infoValue(String element, String current) {
+        String value = infoOverrides.get(element);
+        return value != null ? value : current;
     }
+    
     private void nl()  throws XMLStreamException {
         writer.writeCharacters("\n");
     }
@@ -127,7 +120,7 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
         writer.writeStartElement(ELEMENT_FILE_TREE_SNAPSHOT);
         nl();
         writer.writeStartElement(ELEMENT_CAPTURE_TIME);
-        writer.writeCharacters(dateFormat.format(new Date()));
+        writer.writeCharacters(infoValue(ELEMENT_CAPTURE_TIME, dateFormat.format(new Date())));
         writer.writeEndElement(); //capture-time
         nl();
         writer.writeStartElement(ELEMENT_CAPTURE_ROOT);
@@ -135,19 +128,19 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
         writer.writeEndElement(); //capture-root        
         nl();
         writer.writeStartElement(ELEMENT_USER);
-        writer.writeCharacters(encodeSpecial(System.getProperty("user.name")));
+        writer.writeCharacters(encodeSpecial(infoValue(ELEMENT_USER, System.getProperty("user.name"))));
         writer.writeEndElement();
         nl();
         writer.writeStartElement(ELEMENT_HOME);
-        writer.writeCharacters(encodeSpecial(System.getProperty("user.home")));
+        writer.writeCharacters(encodeSpecial(infoValue(ELEMENT_HOME, System.getProperty("user.home"))));
         writer.writeEndElement();
         nl();
         writer.writeStartElement(ELEMENT_CURRENT_DIR);
-        writer.writeCharacters(encodeSpecial(System.getProperty("user.dir")));
+        writer.writeCharacters(encodeSpecial(infoValue(ELEMENT_CURRENT_DIR, System.getProperty("user.dir"))));
         writer.writeEndElement();
         nl();
         writer.writeStartElement(ELEMENT_OS);
-        writer.writeCharacters(encodeSpecial(System.getProperty("os.name")));
+        writer.writeCharacters(encodeSpecial(infoValue(ELEMENT_OS, System.getProperty("os.name"))));
         writer.writeEndElement();
         nl();
 //        writer.writeStartElement(ELEMENT_HOST);
@@ -189,6 +182,9 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
         if ( dir.getDirs().size() > 0 ) {
             writeDirNodes(dir.getDirs());
         }
+        if ( digests.contains(DIGEST_MD5) ) {
+            writeMerkle(dir);
+        }
         writer.writeEndElement();  // dir
         nl();
         
@@ -254,6 +250,9 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
         writer.writeAttribute( ATTR_FILE_NAME, encodeSpecial(leaf.getName()));
         writer.writeAttribute( ATTR_FILE_SIZE, Long.toString(leaf.getSize()));
         writer.writeAttribute( ATTR_FILE_TIME, dateFormat.format( new Date(leaf.getTime()) ) );
+        if ( leaf.getFileType() == FileType.REGFILE ) {
+            SnapshotUtil.prepareDigests(digests, leaf);
+        }
         if ( leaf.isText() )
             writer.writeAttribute(ATTR_FILE_ISTEXT, FILE_ISTEXT_YES);
         else
@@ -326,18 +325,42 @@ public class DirNodeXMLStreamWriter implements DirNodeXMLStreamConstants {
 
     private void writeMD5(FileNode leaf) throws IOException, XMLStreamException {
         byte[] digest = leaf.getMd5();
-        StringBuilder sb = new StringBuilder();
-        for( byte b : digest ) {
-            sb.append( String.format("%02x", 0xff & (int)b) );
-        }
         writer.writeStartElement(ELEMENT_DIGEST);
         writer.writeAttribute(ATTR_DIGEST_NAME, DIGEST_MD5);
-        writer.writeCharacters(sb.toString());
+        writer.writeCharacters(toHex(digest));
         writer.writeEndElement();
         nl();
 
     }
 
+    /**
+     * Write Merkle digest of dir, if available.  Written after children, so
+     * MD5s of its files have already been computed.
+     * 
+     * @param dir
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void writeMerkle(DirNode dir) throws IOException, XMLStreamException {
+        byte[] digest = dir.computeMerkleDigest();
+        if ( digest == null ) {
+            return;
+        }
+        writer.writeStartElement(ELEMENT_DIGEST);
+        writer.writeAttribute(ATTR_DIGEST_NAME, DIGEST_MERKLE_MD5);
+        writer.writeCharacters(toHex(digest));
+        writer.writeEndElement();
+        nl();
+    }
+
+    private String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for( byte b : digest ) {
+            sb.append( String.format("%02x", 0xff & (int)b) );
+        }
+        return sb.toString();
+    }
+
     private void writeCrc32(FileNode leaf) throws IOException, XMLStreamException {
         String crc32 = String.format("%08x", leaf.getCrc());
         writer.writeStartElement(ELEMENT_DIGEST);
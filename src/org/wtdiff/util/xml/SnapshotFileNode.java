@@ -26,18 +26,49 @@ import org.wtdiff.util.FileNode;
 import org.wtdiff.util.FileNode.ContentMethod;
 import org.wtdiff.util.FileNode.FileType;
 
-class SnapshotFileNode extends FileNode {
+/**
+ * File as recorded in a snapshot.  Content is only known through its digests,
+ * except for symbolic links whose content is their target.
+ * 
+ * @author davidst
+ *
+ */
+public class SnapshotFileNode extends FileNode {
     private FileType fileType;
     private long size;
     private long modTime;
+    private long modTimeNanos;
     private boolean isText;
     private HashMap<String, byte[]> digests;
     private String linkTo;
+    private String fileKey;
+    private boolean isTimeNanosKnown;
     
     public SnapshotFileNode(String name, long size2, long mtime, boolean isText2, 
+      FileType fileType2, String linkTo2, HashMap<String, byte[]> digests2) throws IllegalArgumentException {
+        this(name, size2, mtime, mtime * 1000000L, isText2, fileType2, linkTo2, digests2);
+        isTimeNanosKnown = false;
+    }
+    
+    /**
+     * Constructor for snapshots recording time in nanoseconds
+     * 
+     * @param name
+     * @param size2
+     * @param mtime time in milliseconds
+     * @param mtimeNanos time in nanoseconds
+     * @param isText2
+     * @param fileType2
+     * @param linkTo2 target if symbolic link
+     * @param digests2 digests by digest name
+     * @throws IllegalArgumentException
+     */
+    public SnapshotFileNode(String name, long size2, long mtime, long mtimeNanos, boolean isText2, 
       FileType fileType2, String linkTo2, HashMap<String, byte[]> digests2) throws IllegalArgumentException {
         size = size2;
         modTime = mtime;
+        modTimeNanos = mtimeNanos;
+        isTimeNanosKnown = true;
         isText = isText2;
         fileType = fileType2;
         digests = digests2;
@@ -68,6 +99,30 @@ class SnapshotFileNode extends FileNode {
         return modTime;
     }
 
+    @Override
+    public long getTimeNanos() {
+        return modTimeNanos;
+    }
+
+    /**
+     * @return true if time was recorded in nanoseconds, false if only milliseconds
+     */
+    public boolean isTimeNanosKnown() {
+        return isTimeNanosKnown;
+    }
+
+    @Override
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * @param key file key recorded in snapshot, null if none
+     */
+    public void setFileKey(String key) {
+        fileKey = key;
+    }
+
     @Override
     public long getSize() {
         return size;
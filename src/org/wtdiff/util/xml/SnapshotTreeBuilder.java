@@ -0,0 +1,179 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.xml;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.ErrorHandler;
+import org.wtdiff.util.FilterTreeBuilder;
+import org.wtdiff.util.NodeTreeBuilder;
+import org.wtdiff.util.TaskProgress;
+import org.wtdiff.util.filter.NodeFilter;
+import org.wtdiff.util.io.ProgressInputStream;
+
+/**
+ * Build tree from a snapshot file.  Subclasses read a particular snapshot format,
+ * this checks the file, tracks progress reading it, and puts the snapshot under a 
+ * root named for the snapshot file.
+ * 
+ * @author davidst
+ *
+ */
+public abstract class SnapshotTreeBuilder implements NodeTreeBuilder {
+
+    private Path root;
+    private TaskProgress progress;
+    private NodeFilter filter;
+
+    protected SnapshotTreeBuilder(String path) {
+        root = Paths.get(path);
+    }
+
+    /**
+     * Set progress to update as snapshot is read.  Building stops
+     * with an InterruptedIOException if progress is cancelled.
+     * 
+     * @param p progress, or null for none
+     */
+    public void setProgress(TaskProgress p) {
+        progress = p;
+    }
+
+    protected TaskProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Set filter of nodes to leave out of the built tree.  The tree is the same as 
+     * filtering the unfiltered tree with a {@link FilterTreeBuilder}.
+     * 
+     * @param f filter, or null for none
+     */
+    public void setFilter(NodeFilter f) {
+        filter = f;
+    }
+
+    protected NodeFilter getFilter() {
+        return filter;
+    }
+
+    public DirNode buildTree(ErrorHandler handler) throws IOException {
+        try {
+            if ( ! root.toFile().exists() ) { // nio Files.exists(path) returns false in Windows7 if missing read permission
+                throw new IOException(
+                  MessageFormat.format(
+                      Messages.getString("SnapshotTreeBuilder.file_noexist"),  //$NON-NLS-1$
+                      root
+                  )
+                 );
+            }
+            if ( ! Files.isRegularFile(root) ) {
+                throw new IOException(
+                    MessageFormat.format(
+                        Messages.getString("SnapshotTreeBuilder.file_notreg"),  //$NON-NLS-1$
+                        root
+                    )
+                 );
+            }
+            if ( ! Files.isReadable(root) ) {
+                throw new IOException(
+                    MessageFormat.format(
+                        Messages.getString("SnapshotTreeBuilder.file_noread"),  //$NON-NLS-1$
+                        root
+                    )
+                 );
+            }
+        } catch (IOException e) {
+            handler.logError(e);
+            throw e;
+        }
+        try ( InputStream fileInput = new FileInputStream(root.toFile()) ) {
+            InputStream input = fileInput;
+            if ( progress != null ) {
+                progress.setTotals(TaskProgress.UNKNOWN, Files.size(root));
+                input = new ProgressInputStream(input, progress);
+            }
+            return buildTree(input, handler);
+        }
+    }
+
+    private DirNode buildTree(InputStream input, ErrorHandler handler) throws IOException {
+        try {
+            DirNode d = readSnapshot(input);
+            // a named captured dir goes under an artificial root named for the snapshot 
+            if ( ! "".equals( d.getName() ) ) {
+                boolean isCapturedDirExcluded = FilterTreeBuilder.isExcluded(filter, d);
+                d = new DirNode(d);
+                if ( isCapturedDirExcluded ) {
+                    d.getDirs().clear();
+                }
+            }
+            d.setName(root.toFile().getName());
+            d.setRoot(root.toString());
+            if ( FilterTreeBuilder.isExcluded(filter, d) ) {
+                d.getLeaves().clear();
+                d.getDirs().clear();
+            }
+            return d;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            handler.logError(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Read snapshot, leaving out nodes excluded by filter
+     * 
+     * @param input
+     * @return top directory of snapshot
+     * @throws IOException
+     */
+    protected abstract DirNode readSnapshot(InputStream input) throws IOException;
+
+    /**
+     * Open file to check if it is a snapshot
+     * 
+     * @param file
+     * @return input stream, null if file is not a regular file
+     * @throws IOException if file does not exist or can't be read
+     */
+    protected static InputStream openIfRegularFile(String file) throws IOException {
+        Path f = Paths.get(file);
+        if ( ! f.toFile().exists() ) { // nio Files.exists(path) returns false in Windows7 if missing read permission
+            throw new IOException(
+                MessageFormat.format(
+                    Messages.getString("SnapshotTreeBuilder.file_noexist"),  //$NON-NLS-1$
+                    file
+                )
+            );
+        }
+        if ( ! Files.isRegularFile(f) ) {
+            return null;
+        }
+        return new FileInputStream(file);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.xml;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.FileNode;
+import org.wtdiff.util.FilterTreeBuilder;
+import org.wtdiff.util.Leaf;
+import org.wtdiff.util.Node;
+import org.wtdiff.util.filter.NodeFilter;
+
+/**
+ * Digest and node checks common to snapshot readers and writers, whether
+ * XML or binary.
+ * 
+ * @author davidst
+ *
+ */
+public class SnapshotUtil implements DirNodeXMLStreamConstants {
+
+    private SnapshotUtil() {
+    }
+    
+    /**
+     * Check that digest names are known and not repeated
+     * 
+     * @param digests digest names
+     * @throws IllegalArgumentException if not
+     */
+    public static void checkDigests(List<String> digests) {
+        HashSet<String> digestSet = new HashSet<>();
+        for ( String digest: digests ) {
+            if ( ! digestSet.add(digest) ) {
+                throw new IllegalArgumentException(
+                    MessageFormat.format(
+                        Messages.getString("SnapshotUtil.digest_duplicate"),
+                        digest
+                    )
+                );
+            } 
+            if ( !DIGEST_CRC32.equals( digest )
+               && !DIGEST_MD5.equals( digest ) ) {
+                throw new IllegalArgumentException(
+                    MessageFormat.format(
+                        Messages.getString("SnapshotUtil.digest_unknown"),
+                        digest
+                    )
+                );
+            }
+        }
+    }
+    
+    /**
+     * Determine if named digest of file is written, that is it is wanted and 
+     * can be computed
+     * 
+     * @param digests names of digests written
+     * @param file
+     * @param digestName
+     * @return true if written
+     */
+    public static boolean isDigestWritten(List<String> digests, FileNode file, String digestName) {
+        if ( ! digests.contains(digestName) ) {
+            return false;
+        }
+        if ( DIGEST_CRC32.equals(digestName) ) {
+            return file.getContentMethodCost(FileNode.CONTENT_METHOD_CRC) < FileNode.COST_IMPOSSIBLE;
+        } 
+        return file.getContentMethodCost(FileNode.CONTENT_METHOD_MD5) < FileNode.COST_IMPOSSIBLE;
+    }
+    
+    /**
+     * Compute digests of file that will be written, so that all are computed
+     * in one read of its content.
+     * 
+     * @param digests names of digests written
+     * @param file
+     * @throws IOException
+     */
+    public static void prepareDigests(List<String> digests, FileNode file) throws IOException {
+        file.computeDigests(isDigestWritten(digests, file, DIGEST_CRC32), 
+            isDigestWritten(digests, file, DIGEST_MD5));
+    }
+    
+    /**
+     * Get nodes not excluded by filter
+     * 
+     * @param filter filter, or null for none
+     * @param nodes
+     * @return included nodes
+     */
+    public static <N extends Node> List<N> filterNodes(NodeFilter filter, List<N> nodes) {
+        List<N> included = new ArrayList<>(nodes.size());
+        for( N node: nodes ) {
+            if ( ! FilterTreeBuilder.isExcluded(filter, node) ) {
+                included.add(node);
+            }
+        }
+        return included;
+    }
+    
+    /**
+     * Find a name used by more than one file or directory of a directory
+     * 
+     * @param files
+     * @param dirs
+     * @return first repeated name, null if names are unique
+     */
+    public static String findDuplicateName(List<Leaf> files, List<DirNode> dirs) {
+        HashSet<String> names = new HashSet<>();
+        for( Leaf node: files ) {
+            if ( ! names.add(node.getName()) ) {
+                return node.getName();
+            }
+        }
+        for( DirNode node: dirs ) {
+            if ( ! names.add(node.getName()) ) {
+                return node.getName();
+            }
+        }
+        return null;
+    }
+}
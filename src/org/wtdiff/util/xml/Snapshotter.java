@@ -17,31 +17,144 @@ limitations under the License.
 package org.wtdiff.util.xml;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.wtdiff.util.DigestPrefetcher;
 import org.wtdiff.util.DirNode;
 import org.wtdiff.util.ErrorHandler;
+import org.wtdiff.util.FileNode;
+import org.wtdiff.util.FileSystemFileNode;
+import org.wtdiff.util.Leaf;
 import org.wtdiff.util.LoggingErrorHandler;
+import org.wtdiff.util.StreamingVerifier;
 import org.wtdiff.util.CompareController;
+import org.wtdiff.util.binary.BinarySnapshotReader;
+import org.wtdiff.util.binary.BinarySnapshotWriter;
+import org.wtdiff.util.binary.BinaryTreeBuilder;
 
 public class Snapshotter {
 
     private static final Logger logger = LogManager.getLogger(Snapshotter.class.getName());
 
+    private static final List<String> DIGESTS = Arrays.asList("CRC32", "MD5");
+    
+    // write binary rather than XML snapshots
+    private boolean isBinary = false;
+    // compress binary snapshots
+    private boolean isCompress = false;
+    // record file keys in binary snapshots
+    private boolean isFileKeys = false;
+    // earlier snapshot whose digests are reused for unchanged files
+    private String baseline = null;
+    private long reusedCount = 0;
+    private long hashedCount = 0;
+    // number of threads walking dirs and computing digests, 1 for serial
+    private int parallelism = 1;
+    
     public Snapshotter() {
         
     }
     
+    /**
+     * Set whether snapshots are written in binary rather than XML
+     * 
+     * @param binary
+     */
+    public void setBinary(boolean binary) {
+        isBinary = binary;
+    }
+    
+    /**
+     * Set whether binary snapshots are compressed
+     * 
+     * @param compress
+     */
+    public void setCompress(boolean compress) {
+        isCompress = compress;
+    }
+    
+    /**
+     * Set number of threads used to walk directories and to compute digests.  Digests
+     * are computed ahead of the writing of the snapshot, which is the same as
+     * when written serially.
+     * 
+     * @param threads number of threads, 1 for serial
+     */
+    public void setParallelism(int threads) {
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException(
+                MessageFormat.format(
+                    Messages.getString("Snapshotter.bad_parallelism"),
+                    threads
+                )
+            );
+        }
+        parallelism = threads;
+    }
+    
+    /**
+     * Get number of threads used {@link #setParallelism(int)}
+     * 
+     * @return number of threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Set whether binary snapshots record file keys, such as device and inode, so
+     * that when used as a baseline a replaced file is not taken as unchanged
+     * 
+     * @param fileKeys
+     */
+    public void setFileKeys(boolean fileKeys) {
+        isFileKeys = fileKeys;
+    }
+    
+    /**
+     * Set earlier snapshot, XML or binary, of the same root.  A regular file whose
+     * size and time, and file key if recorded, are as in the baseline is taken as
+     * unchanged and its digests copied from the baseline rather than read.
+     * 
+     * @param snapshot baseline snapshot, null for none
+     */
+    public void setBaseline(String snapshot) {
+        baseline = snapshot;
+    }
+    
+    /**
+     * @return number of regular files whose digests were taken from the baseline
+     *   by the last snapshot created
+     */
+    public long getReusedCount() {
+        return reusedCount;
+    }
+    
+    /**
+     * @return number of regular files whose digests were computed from content 
+     *   by the last snapshot created
+     */
+    public long getHashedCount() {
+        return hashedCount;
+    }
+    
     public int createSnapshot(String root, String outputFile) {
         Path rootFile = Paths.get(root);
         if ( ! rootFile.toFile().exists() ) { // nio Files.exists(path) returns false in Windows7 if missing read permission
@@ -66,41 +179,329 @@ public class Snapshotter {
         CompareController controller = new CompareController();
         ErrorHandler handler = new LoggingErrorHandler( logger, false );
         controller.setErrorHandler(handler);
+        controller.setParallelism(parallelism);
         
-        try ( FileOutputStream out = new FileOutputStream(outputFile) ) {
+        try {
+            if ( baseline != null && ! isSnapshot(baseline) ) {
+                return 8;
+            }
+        } catch ( IOException ioe ) {
+            logger.error(Messages.getString("Snapshotter.ioexception"), ioe);
+            return 16;
+        }
+        try {
+            // baseline is read before anything is written, it may be the snapshot being refreshed
+            reusedCount = 0;
+            hashedCount = 0;
+            DirNode baselineDir = baseline == null ? null 
+                : readSnapshot(baseline, new HashMap<String, String>(), new ArrayList<String>());
             controller.setOldRoot(root);  // TODO should really move core node building out of controller
-            createSnapshot(outputFile, controller.getOldRootNode() );
+            DirNode rootDir = controller.getOldRootNode();
+            applyBaseline(rootDir, baselineDir);
+            if ( baseline != null && isSamePath(baseline, outputFile) ) {
+                createSnapshotReplacing(outputFile, rootDir);
+            } else {
+                createSnapshot(outputFile, rootDir);
+            }
+            if ( baseline != null ) {
+                logger.info(
+                    MessageFormat.format(
+                        Messages.getString("Snapshotter.baseline_stats"),
+                        reusedCount,
+                        hashedCount
+                    )
+                );
+            }
         } catch ( IOException ioe ) {
             logger.error(Messages.getString("Snapshotter.ioexception"), ioe);
             return 16;
         } catch ( Throwable t ) {
             logger.error(Messages.getString("Snapshotter.throwable"), t);
             return 16; // TODO hardcode
+        } finally {
+            controller.close();
         }
         return 0;
     }
     
+    private static boolean isSamePath(String path1, String path2) throws IOException {
+        Path p1 = Paths.get(path1);
+        Path p2 = Paths.get(path2);
+        if ( Files.exists(p1) && Files.exists(p2) ) {
+            return Files.isSameFile(p1, p2);
+        }
+        return p1.toAbsolutePath().normalize().equals(p2.toAbsolutePath().normalize());
+    }
+    
+    /**
+     * Create snapshot in a temporary file next to output file, then replace output
+     * file with it, so that output file is kept if the snapshot can't be written
+     * 
+     * @param outputFile
+     * @param rootDir
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void createSnapshotReplacing(String outputFile, DirNode rootDir ) throws IOException, XMLStreamException {
+        Path output = Paths.get(outputFile).toAbsolutePath();
+        Path temp = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".tmp");
+        boolean isMoved = false;
+        try {
+            createSnapshot(temp.toString(), rootDir);
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            isMoved = true;
+        } finally {
+            if ( ! isMoved ) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+    
     public void createSnapshot(String outputFile, DirNode rootDir ) throws IOException, XMLStreamException {
+        if ( parallelism > 1 ) {
+            try ( DigestPrefetcher prefetcher = new DigestPrefetcher(parallelism, 
+              DIGESTS.contains(DirNodeXMLStreamConstants.DIGEST_CRC32), 
+              DIGESTS.contains(DirNodeXMLStreamConstants.DIGEST_MD5)) ) 
+            {
+                prefetcher.start(rootDir);
+                writeSnapshot(outputFile, rootDir);
+            }
+        } else {
+            writeSnapshot(outputFile, rootDir);
+        }
+    }
+    
+    private void writeSnapshot(String outputFile, DirNode rootDir ) throws IOException, XMLStreamException {
         try ( FileOutputStream out = new FileOutputStream(outputFile) ) {
-            DirNodeXMLStreamWriter writer = new DirNodeXMLStreamWriter(out, Arrays.asList("CRC32", "MD5"));
-            writer.writeDirNodeSnapShot(rootDir);
+            if ( isBinary ) {
+                BinarySnapshotWriter writer = new BinarySnapshotWriter(out, DIGESTS, isCompress);
+                writer.setWriteFileKeys(isFileKeys);
+                writer.writeDirNodeSnapShot(rootDir);
+            } else {
+                DirNodeXMLStreamWriter writer = new DirNodeXMLStreamWriter(out, DIGESTS);
+                writer.writeDirNodeSnapShot(rootDir);
+            }
+        }
+    }
+    
+    /**
+     * Take digests of unchanged regular files from baseline, counting files
+     * reused and those left to be hashed.  Dirs are matched by name below the tops.
+     * 
+     * @param dir live dir
+     * @param baselineDir corresponding baseline dir, null if none
+     * @throws IOException
+     */
+    private void applyBaseline(DirNode dir, DirNode baselineDir) throws IOException {
+        for ( Leaf leaf: dir.getLeaves() ) {
+            if ( ! ( leaf instanceof FileNode ) 
+              || ((FileNode)leaf).getFileType() != FileNode.FileType.REGFILE ) {
+                continue;
+            }
+            FileNode file = (FileNode)leaf;
+            Leaf baselineLeaf = baselineDir == null ? null : baselineDir.childLeafByName(file.getName());
+            if ( file instanceof FileSystemFileNode 
+              && baselineLeaf instanceof SnapshotFileNode
+              && isUnchanged(file, (SnapshotFileNode)baselineLeaf) ) {
+                SnapshotFileNode baselineFile = (SnapshotFileNode)baselineLeaf;
+                ((FileSystemFileNode)file).setKnownDigests(baselineFile.getCrc(), 
+                    baselineFile.getMd5(), baselineFile.isText());
+                reusedCount++;
+            } else {
+                hashedCount++;
+            }
+        }
+        for ( DirNode subDir: dir.getDirs() ) {
+            applyBaseline(subDir, baselineDir == null ? null : baselineDir.childDirNodeByName(subDir.getName()));
+        }
+    }
+    
+    private boolean isUnchanged(FileNode file, SnapshotFileNode baselineFile) {
+        if ( baselineFile.getFileType() != FileNode.FileType.REGFILE 
+          || baselineFile.getSize() != file.getSize() ) {
+            return false;
+        }
+        if ( baselineFile.isTimeNanosKnown() ? baselineFile.getTimeNanos() != file.getTimeNanos()
+          : baselineFile.getTime() != file.getTime() ) {
+            return false;
+        }
+        String key = file.getFileKey();
+        String baselineKey = baselineFile.getFileKey();
+        if ( key != null && baselineKey != null && ! key.equals(baselineKey) ) {
+            return false;
+        }
+        return baselineFile.getContentMethodCost(FileNode.CONTENT_METHOD_CRC) == FileNode.COST_EASY
+            && baselineFile.getContentMethodCost(FileNode.CONTENT_METHOD_MD5) == FileNode.COST_EASY;
+    }
+    
+    /**
+     * @param snapshot
+     * @return true if XML or binary snapshot, otherwise error is logged
+     */
+    private boolean isSnapshot(String snapshot) throws IOException {
+        if ( ! BinaryTreeBuilder.isBinarySnapshot(snapshot) && ! XMLTreeBuilder.isXMLSnapshot(snapshot) ) {
+            logger.error(
+                MessageFormat.format(
+                    Messages.getString("Snapshotter.not_snapshot"),
+                    snapshot
+                )
+            );
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Read XML or binary snapshot
+     * 
+     * @param snapshot
+     * @param info filled with information about the capture
+     * @param digests filled with names of digests available
+     * @return top dir
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private DirNode readSnapshot(String snapshot, Map<String, String> info, List<String> digests) 
+      throws IOException, XMLStreamException {
+        try ( InputStream in = new FileInputStream(snapshot) ) {
+            if ( BinaryTreeBuilder.isBinarySnapshot(snapshot) ) {
+                BinarySnapshotReader reader = new BinarySnapshotReader();
+                DirNode rootDir = reader.readSnapshot(in);
+                info.putAll(reader.getSnapshotInfo());
+                digests.addAll(reader.getAvailableDigests());
+                return rootDir;
+            } else {
+                DirNodeXMLStreamReader reader = new DirNodeXMLStreamReader();
+                DirNode rootDir = reader.readSnapshot(in);
+                info.putAll(reader.getSnapshotInfo());
+                digests.addAll(reader.getAvailableDigests());
+                return rootDir;
+            }
+        }
+    }
+    
+    /**
+     * Convert snapshot, either XML or binary, to a snapshot in the format set by
+     * {@link #setBinary(boolean)}.  Information about the capture is kept.
+     * 
+     * @param snapshot existing snapshot
+     * @param outputFile new snapshot
+     * @return 0 if converted, otherwise error code
+     */
+    public int convertSnapshot(String snapshot, String outputFile) {
+        try {
+            if ( ! isSnapshot(snapshot) ) {
+                return 8;
+            }
+            Map<String, String> info = new HashMap<>();
+            List<String> digests = new ArrayList<>();
+            DirNode rootDir = readSnapshot(snapshot, info, digests);
+            String root = info.get(DirNodeXMLStreamConstants.ELEMENT_CAPTURE_ROOT);
+            String comment = info.get(DirNodeXMLStreamConstants.ELEMENT_USER_COMMENT);
+            try ( FileOutputStream out = new FileOutputStream(outputFile) ) {
+                if ( isBinary ) {
+                    BinarySnapshotWriter writer = new BinarySnapshotWriter(out, digests, isCompress);
+                    writer.setWriteFileKeys(isFileKeys);
+                    writer.setSnapshotInfo(info);
+                    writer.writeDirNodeSnapShot(rootDir, comment, root);
+                } else {
+                    DirNodeXMLStreamWriter writer = new DirNodeXMLStreamWriter(out, digests);
+                    writer.setSnapshotInfo(info);
+                    writer.writeDirNodeSnapShot(rootDir, comment, root);
+                }
+            }
+        } catch ( IOException ioe ) {
+            logger.error(Messages.getString("Snapshotter.ioexception"), ioe);
+            return 16;
+        } catch ( Throwable t ) {
+            logger.error(Messages.getString("Snapshotter.throwable"), t);
+            return 16; // TODO hardcode
+        }
+        return 0;
+    }
+
+    /**
+     * Verify directory against snapshot as the directory is walked, see {@link StreamingVerifier}.
+     * Differences are printed as they are found, '-' if only in snapshot, '+' if only in
+     * directory, '*' if changed.
+     * 
+     * @param snapshot XML or binary snapshot
+     * @param root directory to verify
+     * @return 0 if same, 8 if different, otherwise error code
+     */
+    public int verifySnapshot(String snapshot, String root) {
+        ErrorHandler handler = new LoggingErrorHandler( logger, false );
+        StreamingVerifier verifier = new StreamingVerifier(false, false);
+        verifier.setErrorHandler(handler);
+        verifier.setDifferenceListener(new StreamingVerifier.DifferenceListener() {
+            @Override
+            public void difference(StreamingVerifier.Difference difference, String path, boolean isDir) {
+                String indicator = difference == StreamingVerifier.Difference.SNAPSHOT_ONLY ? "-" //$NON-NLS-1$
+                    : difference == StreamingVerifier.Difference.LIVE_ONLY ? "+" : "*"; //$NON-NLS-1$ //$NON-NLS-2$
+                System.out.println(indicator + path + (isDir ? "/" : "")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        });
+        try {
+            return verifier.verify(snapshot, root) ? 0 : 8;
+        } catch ( IOException ioe ) {
+            logger.error(Messages.getString("Snapshotter.ioexception"), ioe);
+            return 16;
+        } catch ( Throwable t ) {
+            logger.error(Messages.getString("Snapshotter.throwable"), t);
+            return 16; // TODO hardcode
         }
     }
 
     static String usage() {
-        return "usage: " + Snapshotter.class.getSimpleName() + " root snapshot"; // TODO usage
+        String name = Snapshotter.class.getSimpleName();
+        return "usage: " + name + " [-binary [-compress] [-filekeys]] [-baseline oldsnapshot] [-threads n] root snapshot\n" // TODO usage
+            + "       " + name + " -convert [-binary [-compress]] snapshot newsnapshot\n"
+            + "       " + name + " -verify snapshot root";
     }
     /**
      * @param args
      */
     public static void main(String[] args) {
-        if ( args.length != 2 ) {
+        Snapshotter snapshotter = new Snapshotter();
+        boolean isConvert = false;
+        boolean isVerify = false;
+        int i = 0;
+        for ( ; i < args.length && args[i].startsWith("-"); i++ ) {
+            if ( "-binary".equals(args[i]) ) {
+                snapshotter.setBinary(true);
+            } else if ( "-compress".equals(args[i]) ) {
+                snapshotter.setCompress(true);
+            } else if ( "-filekeys".equals(args[i]) ) {
+                snapshotter.setFileKeys(true);
+            } else if ( "-baseline".equals(args[i]) && i + 1 < args.length ) {
+                snapshotter.setBaseline(args[++i]);
+            } else if ( "-threads".equals(args[i]) && i + 1 < args.length ) {
+                try {
+                    snapshotter.setParallelism(Integer.parseInt(args[++i]));
+                } catch (IllegalArgumentException iae) { // includes NumberFormatException
+                    System.err.println(usage());
+                    System.exit(9); // TODO hard code
+                }
+            } else if ( "-convert".equals(args[i]) ) {
+                isConvert = true;
+            } else if ( "-verify".equals(args[i]) ) {
+                isVerify = true;
+            } else {
+                break;
+            }
+        }
+        if ( args.length - i != 2 ) {
             System.err.println(usage());
             System.exit(9); // TODO hard code
         }
+        else if ( isVerify ) {
+            System.exit(snapshotter.verifySnapshot(args[i], args[i+1]));
+        }
+        else if ( isConvert ) {
+            System.exit(snapshotter.convertSnapshot(args[i], args[i+1]));
+        }
         else {
-            Snapshotter snapshotter = new Snapshotter();
-            int result = snapshotter.createSnapshot(args[0], args[1]);
+            int result = snapshotter.createSnapshot(args[i], args[i+1]);
             System.exit(result);
         }
     }
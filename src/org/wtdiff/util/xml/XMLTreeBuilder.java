@@ -16,114 +16,37 @@ limitations under the License.
 */
 package org.wtdiff.util.xml;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.text.MessageFormat;
 
 import javax.xml.stream.XMLStreamException;
 
 import org.wtdiff.util.DirNode;
-import org.wtdiff.util.ErrorHandler;
 import org.wtdiff.util.NoHandleErrorHandler;
-import org.wtdiff.util.NodeTreeBuilder;
 
-public class XMLTreeBuilder implements NodeTreeBuilder{
+public class XMLTreeBuilder extends SnapshotTreeBuilder {
 
-    private Path root;
     public XMLTreeBuilder(String path) {
-        root = Paths.get(path);
-    }
-    public DirNode buildTree(ErrorHandler handler) throws IOException {
-        return buildTree(root, handler);
-    }
-
-    
-    private DirNode buildTree(Path file, ErrorHandler handler) throws IOException {
-        try {
-            if ( ! file.toFile().exists() ) { // nio Files.exists(path) returns false in Windows7 if missing read permission
-                throw new IOException(
-                  MessageFormat.format(
-                      Messages.getString("XMLTreeBuilder.file_noexist"),  //$NON-NLS-1$
-                      file
-                  )
-                 );
-            }
-            if ( ! Files.isRegularFile(file) ) {
-                throw new IOException(
-                    MessageFormat.format(
-                        Messages.getString("XMLTreeBuilder.file_notreg"),  //$NON-NLS-1$
-                        file
-                    )
-                 );
-            }
-            if ( ! Files.isReadable(file) ) {
-                throw new IOException(
-                    MessageFormat.format(
-                        Messages.getString("XMLTreeBuilder.file_noread"),  //$NON-NLS-1$
-                        file
-                    )
-                 );
-            }
-        } catch (IOException e) {
-            handler.logError(e);
-            throw e;
-        }
-        return buildTree( new FileInputStream(file.toFile()), handler);
+        super(path);
     }
 
-
-    
-    private DirNode buildTree(InputStream input, ErrorHandler handler) throws IOException {
-        DirNode d = null;
-        // note at top level follow symbolic links
-
+    @Override
+    protected DirNode readSnapshot(InputStream input) throws IOException {
         DirNodeXMLStreamReader snapshotReader = new DirNodeXMLStreamReader();
-        
+        snapshotReader.setFilter(getFilter());
         try {
-            d = snapshotReader.readSnapshot(input);
-            //String subRoot = snapshotReader.getSnapshotInfo().get(DirNodeXMLStreamConstants.ELEMENT_CAPTURE_ROOT);
-            if ( "".equals( d.getName() ) ) {
-                //File rootFile = new File(root, d.getName());
-                d.setName(root.toFile().getName());
-                d.setRoot(root.toString());
-            } else {
-                //File rootFile = new File(root, subRoot);
-                d = new DirNode(d);
-                d.setName(root.toFile().getName());
-                d.setRoot(root.toString());
-                //d.setRoot(rootFile.getPath());
-            }
+            return snapshotReader.readSnapshot(input);
         } catch (XMLStreamException e) {
-            handler.logError(e); 
+            if ( getProgress() != null ) {
+                getProgress().checkCancelled(); // parser wraps exception of cancelled read
+            }
             throw new IOException(e);
-        } catch (IOException e) {
-            handler.logError(e);
-            throw e;
         }
-        return d;
     }
 
     public static boolean isXMLSnapshot(String file) throws IOException {
-        Path f = Paths.get(file);
-        if ( ! f.toFile().exists() ) { // nio Files.exists(path) returns false in Windows7 if missing read permission
-            throw new IOException(
-                MessageFormat.format(
-                    Messages.getString("XMLTreeBuilder.file_noexist"),  //$NON-NLS-1$
-                    file
-                )
-            );
-        }
-        if ( ! Files.isRegularFile(f) ) {
-            return false;
-        }
-        try ( InputStream input = new FileInputStream(file) ){
-            DirNodeXMLStreamReader reader = new DirNodeXMLStreamReader();
-            return reader.isSnapshot(input);
+        try ( InputStream input = openIfRegularFile(file) ){
+            return input != null && new DirNodeXMLStreamReader().isSnapshot(input);
         }
     }
     
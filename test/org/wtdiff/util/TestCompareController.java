@@ -17,6 +17,7 @@ limitations under the License.
 package org.wtdiff.util;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -156,6 +157,31 @@ public class TestCompareController  {
         assertEquals( cFilter, controller.getFilter() );
     }
 
+    @Test
+    public void testParallelism() throws Exception {
+        CompareController controller = new CompareController();
+        assertEquals( 1, controller.getParallelism() );
+        controller.setParallelism(4);
+        assertEquals( 4, controller.getParallelism() );
+        try {
+            controller.setParallelism(0);
+            fail("parallelism less than 1 should throw exception");
+        } catch (IllegalArgumentException iae) {
+            // this is expected
+        }
+        assertEquals( 4, controller.getParallelism() );
+
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File testDir1 = helper.createTestDir("testParallelism1");
+        File sdir = helper.createTestDir("sdir", testDir1);
+        helper.createTestFile("t1", "t1-content", sdir);
+        controller.setOldRoot(testDir1.getCanonicalPath());
+        controller.setNewRoot(testDir1.getCanonicalPath());
+        controller.compare();
+        assertTrue( controller.getCompareRootNode().areSame() );
+        assertEquals( "t1", controller.getOldRootNode().getDirs().get(0).getLeaves().get(0).getName() );
+    }
+
     @Test
     public void testFilter() throws Exception {
         CompareController controller = new CompareController();
@@ -1175,4 +1201,61 @@ public class TestCompareController  {
         
     }
 
+    @Test
+    public void testProgressAndCancel() throws Exception {
+        FileSystemTestHelper fileHelper = new FileSystemTestHelper();
+        File dir1 = fileHelper.createTestDir("d1");
+        File dir2 = fileHelper.createTestDir("d2");
+        fileHelper.createTestFile("a", "aaa", dir1);
+        fileHelper.createTestFile("b", "bb", dir1);
+        fileHelper.createTestFile("a", "aaa", dir2);
+        File dir3 = fileHelper.createTestDir("d3");
+        
+        CompareController controller = new CompareController();
+        TaskProgress progress = new TaskProgress();
+        controller.setProgress(progress);
+        assertSame(progress, controller.getProgress());
+        controller.setOldRoot(dir1.getPath());
+        assertEquals(1, progress.getDirs());
+        assertEquals(2, progress.getFiles());
+        assertEquals(5, progress.getBytes());
+        controller.setNewRoot(dir2.getPath());
+        
+        progress = new TaskProgress();
+        controller.setProgress(progress);
+        controller.compare();
+        assertEquals(3, progress.getTotalFiles());
+        assertEquals(8, progress.getTotalBytes());
+        assertEquals(3, progress.getFiles());
+        assertEquals(8, progress.getBytes());
+        assertEquals(0, progress.getEstimatedMillisRemaining());
+        
+        DirNode oldNode = controller.getOldRootNode();
+        ComparisonDirNode cmpNode = controller.getCompareRootNode();
+        assertNotNull(cmpNode);
+        
+        // cancelled load or compare leaves previous result 
+        progress.cancel();
+        try {
+            controller.setOldRoot(dir3.getPath());
+            fail("cancelled load should throw InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        assertSame(oldNode, controller.getOldRootNode());
+        assertEquals(dir1.getPath(), controller.getOldRoot());
+        assertSame(cmpNode, controller.getCompareRootNode());
+        try {
+            controller.compare();
+            fail("cancelled compare should throw InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        assertSame(cmpNode, controller.getCompareRootNode());
+        
+        controller.setProgress(null);
+        controller.setOldRoot(dir3.getPath());
+        assertNull(controller.getCompareRootNode());
+    }
+
 }
@@ -0,0 +1,301 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestDigestCache {
+
+    private static final byte[] MD5 = { 
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15
+    };
+    
+    private FileSystemTestHelper helper;
+    private Path cacheDir;
+    
+    @Before
+    public void setUp() throws Exception {
+        helper = new FileSystemTestHelper();
+        cacheDir = new File(helper.createTestDir("cache"), "digests").toPath();
+    }
+    
+    @Test
+    public void testStoreLookup() throws IOException {
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertNull(cache.lookup("/a", 10, 100, "k"));
+            cache.store("/a", 10, 100, "k", 1234L, null, null);
+            cache.store("/a", 10, 100, "k", null, MD5, Boolean.TRUE);
+            
+            DigestCache.Entry e = cache.lookup("/a", 10, 100, "k");
+            assertNotNull(e);
+            assertEquals(Long.valueOf(1234L), e.getCrc());
+            assertTrue(Arrays.equals(MD5, e.getMd5()));
+            assertEquals(Boolean.TRUE, e.getIsText());
+            
+            // changed files are misses
+            assertNull(cache.lookup("/a", 11, 100, "k"));
+            assertNull(cache.lookup("/a", 10, 101, "k"));
+            assertNull(cache.lookup("/a", 10, 100, "k2"));
+            assertEquals(1, cache.getHits());
+            assertEquals(4, cache.getMisses());
+            
+            // changed file replaces entry
+            cache.store("/a", 11, 100, "k", 99L, null, null);
+            e = cache.lookup("/a", 11, 100, "k");
+            assertEquals(Long.valueOf(99L), e.getCrc());
+            assertNull(e.getMd5());
+            assertNull(e.getIsText());
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void testPersist() throws IOException {
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            cache.store("/a", 10, 100, "k", 1234L, MD5, Boolean.FALSE);
+            cache.store("/b/\u00e9", 0, 0, "", 5L, null, null);
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertEquals(2, cache.size());
+            DigestCache.Entry e = cache.lookup("/a", 10, 100, "k");
+            assertEquals(Long.valueOf(1234L), e.getCrc());
+            assertTrue(Arrays.equals(MD5, e.getMd5()));
+            assertEquals(Boolean.FALSE, e.getIsText());
+            assertEquals(Long.valueOf(5L), cache.lookup("/b/\u00e9", 0, 0, "").getCrc());
+        }
+    }
+    
+    @Test
+    public void testTruncatedLog() throws IOException {
+        DigestCache cache = new DigestCache(cacheDir);
+        cache.store("/a", 10, 100, "k", 1L, null, null);
+        cache.store("/b", 10, 100, "k", 2L, null, null);
+        cache.store("/c", 10, 100, "k", 3L, null, null);
+        cache.close();
+        // simulate interrupted run
+        File f = cacheDir.resolve(DigestCache.CACHE_FILE_NAME).toFile();
+        try ( RandomAccessFile raf = new RandomAccessFile(f, "rw") ) {
+            raf.setLength(raf.length() - 3);
+        }
+        try ( DigestCache cache2 = new DigestCache(cacheDir) ) {
+            assertEquals(2, cache2.size());
+            cache2.store("/d", 10, 100, "k", 4L, null, null);
+        }
+        try ( DigestCache cache3 = new DigestCache(cacheDir) ) {
+            assertEquals(3, cache3.size());
+            assertEquals(Long.valueOf(4L), cache3.lookup("/d", 10, 100, "k").getCrc());
+        }
+    }
+
+    @Test
+    public void testBadFile() throws IOException {
+        Files.createDirectories(cacheDir);
+        Files.write(cacheDir.resolve(DigestCache.CACHE_FILE_NAME), "not a cache".getBytes());
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertEquals(0, cache.size());
+            cache.store("/a", 10, 100, "k", 1L, null, null);
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertEquals(1, cache.size());
+        }
+    }
+    
+    @Test
+    public void testEvict() throws IOException {
+        try ( DigestCache cache = new DigestCache(cacheDir, 1000000, 2) ) {
+            cache.store("/a", 10, 100, "k", 1L, null, null);
+            cache.store("/b", 10, 100, "k", 2L, null, null);
+            long now = System.currentTimeMillis();
+            cache.evict(now);
+            assertEquals(2, cache.size());
+            // too old
+            cache.evict(now + 2000000);
+            assertEquals(0, cache.size());
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir, 1000000, 2) ) {
+            assertEquals(0, cache.size());
+        }
+    }
+    
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        try ( DigestCache cache = new DigestCache(cacheDir, 1000000, 2) ) {
+            cache.store("/a", 10, 100, "k", 1L, null, null);
+            Thread.sleep(5);
+            cache.store("/b", 10, 100, "k", 2L, null, null);
+            Thread.sleep(5);
+            cache.store("/c", 10, 100, "k", 3L, null, null);
+            Thread.sleep(5);
+            // use is refreshed by storing, lookup only refreshes after half max age
+            cache.store("/a", 10, 100, "k", 1L, null, null);
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir, 1000000, 2) ) {
+            assertEquals(2, cache.size());
+            assertNotNull(cache.lookup("/a", 10, 100, "k"));
+            assertNull(cache.lookup("/b", 10, 100, "k"));
+            assertNotNull(cache.lookup("/c", 10, 100, "k"));
+        }
+    }
+    
+    @Test
+    public void testWarmRunNotRewritten() throws IOException {
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            cache.store("/a", 10, 100, "k", 1L, null, null);
+            cache.store("/b", 10, 100, "k", 2L, null, null);
+        }
+        Path f = cacheDir.resolve(DigestCache.CACHE_FILE_NAME);
+        Object fileKey = Files.readAttributes(f, BasicFileAttributes.class).fileKey();
+        byte[] before = Files.readAllBytes(f);
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertNotNull(cache.lookup("/a", 10, 100, "k"));
+            assertNotNull(cache.lookup("/b", 10, 100, "k"));
+            assertNotNull(cache.peek("/a", 10, 100, "k"));
+            assertNull(cache.peek("/a", 11, 100, "k"));
+            assertEquals(2, cache.getHits());
+        }
+        assertTrue(Arrays.equals(before, Files.readAllBytes(f)));
+        if ( fileKey != null ) {
+            assertEquals(fileKey, Files.readAttributes(f, BasicFileAttributes.class).fileKey());
+        }
+    }
+    
+    @Test
+    public void testCorruptLength() throws IOException {
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            cache.store("/a", 10, 100, "k", 1L, null, null);
+        }
+        // path length far larger than file
+        Files.write(cacheDir.resolve(DigestCache.CACHE_FILE_NAME), 
+            new byte[] { 0x7f, (byte)0xff, (byte)0xff, (byte)0xff, 'x' }, StandardOpenOption.APPEND);
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertEquals(1, cache.size());
+            cache.store("/b", 10, 100, "k", 2L, null, null);
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            assertEquals(2, cache.size());
+        }
+    }
+    
+    @Test
+    public void testBadLimits() throws IOException {
+        try {
+            new DigestCache(cacheDir, 0, 10);
+            fail("expected exception not thrown");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            new DigestCache(cacheDir, 10, 0);
+            fail("expected exception not thrown");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+    
+    /**
+     * file node uses cache rather than reading unchanged file
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testFileNode() throws IOException {
+        String content = "some content\n";
+        File file = helper.createTestFile("cached", content);
+        MockFileNode mockNode = new MockFileNode("cached", content, new Date());
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            FileSystemFileNode node = new FileSystemFileNode(file.toPath());
+            node.setDigestCache(cache);
+            assertEquals(mockNode.getCrc(), node.getCrc());
+            assertEquals(0, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            FileSystemFileNode node = new FileSystemFileNode(file.toPath());
+            node.setDigestCache(cache);
+            assertTrue(file.setReadable(false));
+            try {
+                assertEquals(mockNode.getCrc(), node.getCrc());
+                assertTrue(node.isText());
+                assertEquals(1, cache.getHits());
+                // MD5 was cached alongside CRC32
+                assertArrayEquals(mockNode.getMd5(), node.getMd5());
+                assertEquals(1, cache.getHits());
+            } finally {
+                file.setReadable(true);
+            }
+        }
+    }
+
+    /**
+     * digests known or cached are cheaper than reading content, so 
+     * directories are compared through the cache
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testFileNodeCost() throws IOException {
+        File file = helper.createTestFile("costed", "some content\n");
+        FileSystemFileNode plain = new FileSystemFileNode(file.toPath());
+        assertEquals(FileNode.COST_MODERATE, plain.getContentMethodCost(FileNode.CONTENT_METHOD_CRC), 0.0);
+        assertEquals(FileNode.COST_HARD, plain.getContentMethodCost(FileNode.CONTENT_METHOD_MD5), 0.0);
+        assertEquals(FileNode.COST_EASY, plain.getContentMethodCost(FileNode.CONTENT_METHOD_CONTENT), 0.0);
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            FileSystemFileNode node = new FileSystemFileNode(file.toPath());
+            node.setDigestCache(cache);
+            // compared by MD5 rather than by CRC32 alone
+            assertTrue(node.getContentMethodCost(FileNode.CONTENT_METHOD_MD5) 
+                <= node.getContentMethodCost(FileNode.CONTENT_METHOD_CONTENT));
+            assertTrue(node.getContentMethodCost(FileNode.CONTENT_METHOD_MD5) 
+                < node.getContentMethodCost(FileNode.CONTENT_METHOD_CRC));
+            node.computeDigests(true, false);
+        }
+        try ( DigestCache cache = new DigestCache(cacheDir) ) {
+            FileSystemFileNode node = new FileSystemFileNode(file.toPath());
+            node.setDigestCache(cache);
+            // MD5 was cached alongside CRC32
+            assertEquals(FileNode.COST_EASY, node.getContentMethodCost(FileNode.CONTENT_METHOD_MD5), 0.0);
+            assertTrue(node.getContentMethodCost(FileNode.CONTENT_METHOD_MD5) 
+                < node.getContentMethodCost(FileNode.CONTENT_METHOD_CRC));
+            assertEquals(0, cache.getHits() + cache.getMisses());
+            
+            // directories compared without reading content
+            File other = helper.createTestFile("costed", "some content\n", helper.createTestDir("other"));
+            FileSystemFileNode otherNode = new FileSystemFileNode(other.toPath());
+            otherNode.setDigestCache(cache);
+            assertTrue(file.setReadable(false));
+            try {
+                assertTrue(new TreeComparor(false, false).compare(
+                    new DirNode(node), new DirNode(otherNode)).areSame());
+            } finally {
+                file.setReadable(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+public class TestDigestPrefetcher {
+
+    private class CountingFileNode extends MockFileNode {
+        private CountDownLatch latch;
+        private boolean isFail;
+        
+        public CountingFileNode(String name, CountDownLatch l, boolean fail) {
+            super(name, name + " content", new Date(0));
+            latch = l;
+            isFail = fail;
+        }
+        
+        @Override
+        public void computeDigests(boolean wantCrc, boolean wantMd5) throws IOException {
+            computedBy.add(Thread.currentThread());
+            latch.countDown();
+            if ( isFail ) {
+                throw new IOException("failed " + getName());
+            }
+            super.computeDigests(wantCrc, wantMd5);
+        }
+    }
+    
+    private List<Thread> computedBy = Collections.synchronizedList(new ArrayList<Thread>());
+    
+    @Test
+    public void testPrefetch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(40);
+        List<Leaf> leaves = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ ) {
+            leaves.add(new CountingFileNode("f" + i, latch, i == 3));
+        }
+        List<Leaf> subLeaves = new ArrayList<>();
+        for ( int i = 0; i < 20; i++ ) {
+            subLeaves.add(new CountingFileNode("s" + i, latch, false));
+        }
+        DirNode sub = new DirNode("sub", subLeaves, new ArrayList<DirNode>());
+        DirNode top = new DirNode("top", leaves, new ArrayList<DirNode>(Arrays.asList(sub)));
+        
+        try ( DigestPrefetcher prefetcher = new DigestPrefetcher(3, true, true) ) {
+            assertEquals(3, prefetcher.getParallelism());
+            prefetcher.start(top);
+            // all regular files are computed, despite failure of one
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(40, computedBy.size());
+        assertFalse(computedBy.contains(Thread.currentThread()));
+    }
+    
+    @Test
+    public void testCloseUnstarted() throws IOException {
+        DigestPrefetcher prefetcher = new DigestPrefetcher(1, true, false);
+        prefetcher.close();
+        try {
+            prefetcher.start(new DirNode("top", new ArrayList<Leaf>(), new ArrayList<DirNode>()));
+            fail("start after close should fail");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testBadParallelism() {
+        try {
+            new DigestPrefetcher(0, true, true);
+            fail("expected exception not thrown");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
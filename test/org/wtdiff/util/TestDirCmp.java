@@ -21,6 +21,7 @@ import java.io.IOException;
 
 import org.wtdiff.util.DirCmp;
 import org.wtdiff.util.DirCmp.Result;
+import org.wtdiff.util.xml.Snapshotter;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeTrue;
@@ -199,6 +200,64 @@ public class TestDirCmp  {
         
     }
     
+    @Test
+    public void testParallelismOption() throws Exception {
+        String[] args1 = {"-j", "4", tfile.getPath(), tFile.getPath()};
+        DirCmp.Result result = DirCmp.process(args1);
+        assertEquals(Result.DIFFERENT, result);    
+
+        String[] args2 = {"--parallelism", "2", testDir1.getPath(), testDir1.getPath()};
+        result = DirCmp.process(args2);
+        assertEquals(Result.SAME, result);        
+
+        String[] args3 = {"-j", "0", tfile.getPath(), tFile.getPath()};
+        result = DirCmp.process(args3);
+        assertEquals(Result.HELP, result);
+
+        String[] args4 = {"-j", "x", tfile.getPath(), tFile.getPath()};
+        result = DirCmp.process(args4);
+        assertEquals(Result.HELP, result);
+
+        String[] args5 = {"-j", "2", "--devicelimit", "1", testDir1.getPath(), testDir1.getPath()};
+        result = DirCmp.process(args5);
+        assertEquals(Result.SAME, result);
+
+        String[] args6 = {"-d", "0", tfile.getPath(), tFile.getPath()};
+        result = DirCmp.process(args6);
+        assertEquals(Result.HELP, result);
+    }
+    
+    @Test
+    public void testDigestCacheOption() throws Exception {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File cacheDir = new File(helper.createTestDir("cachedir"), "cache");
+        String[] args1 = {"-c", cacheDir.getPath(), testDir1.getPath(), testDir1.getPath()};
+        DirCmp.Result result = DirCmp.process(args1);
+        assertEquals(Result.SAME, result);
+        assertTrue(new File(cacheDir, DigestCache.CACHE_FILE_NAME).exists());
+
+        // can't make cache directory where there is a file
+        String[] args2 = {"--digestcache", tfile.getPath(), testDir1.getPath(), testDir1.getPath()};
+        result = DirCmp.process(args2);
+        assertEquals(Result.FAILED, result);
+    }
+    
+    @Test
+    public void testVerifyOption() throws Exception {
+        File snapshot = new File(testDir2.getParentFile(), "dir1.xml");
+        assertEquals(0, new Snapshotter().createSnapshot(testDir1.getPath(), snapshot.getPath()));
+        String[] args1 = {"-v", snapshot.getPath(), testDir1.getPath()};
+        assertEquals(Result.SAME, DirCmp.process(args1));
+        String[] args2 = {"--verify", testDir1.getPath(), snapshot.getPath()};
+        assertEquals(Result.SAME, DirCmp.process(args2));
+        String[] args3 = {"-v", snapshot.getPath(), testDir2.getPath()};
+        assertEquals(Result.DIFFERENT, DirCmp.process(args3));
+        String[] args4 = {"-v", testDir1.getPath(), testDir2.getPath()};
+        assertEquals(Result.HELP, DirCmp.process(args4));
+        String[] args5 = {"-v", "-g", snapshot.getPath(), testDir1.getPath()};
+        assertEquals(Result.HELP, DirCmp.process(args5));
+    }
+    
     @Test
     public void testResult() {
         assertEquals( 0, Result.SAME.getExitCode() );
@@ -16,8 +16,10 @@ limitations under the License.
 */
 package org.wtdiff.util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -96,6 +98,106 @@ public class TestDirNode  {
             assertEquals(f2, d3.getLeaves().get(1));
         }
         
+        @Test
+        public void testChildLookup() {
+            DirNode d2 = new DirNode( "d2", new ArrayList<Leaf>(), new ArrayList<DirNode>()  );
+            DirNode d3 = new DirNode( "d3", new ArrayList<Leaf>(), new ArrayList<DirNode>()  );
+            DirNode d1 = new DirNode( d3 );
+            MockFileNode f1 = new MockFileNode("f1");
+            MockFileNode f2 = new MockFileNode("f2");
+            MockFileNode d2f = new MockFileNode("d2"); // leaf with same name as dir
+            d1.addLeaf(f2);
+            
+            assertSame( d3, d1.childDirNodeByName("d3") );
+            assertNull( d1.childDirNodeByName("d2") );
+            assertSame( f2, d1.childLeafByName("f2") );
+            assertNull( d1.childLeafByName("f1") );
+            assertEquals( 0, d1.indexOfChild(d3) );
+            assertEquals( 1, d1.indexOfChild(f2) );
+            assertEquals( -1, d1.indexOfChild(d2) );
+            assertEquals( -1, d1.indexOfChild(f1) );
+            
+            // added children are found
+            d1.addDir(d2);
+            d1.addLeaf(f1);
+            d1.addLeaf(d2f);
+            assertSame( d2, d1.childDirNodeByName("d2") );
+            assertSame( d2f, d1.childLeafByName("d2") );
+            assertSame( f1, d1.childLeafByName("f1") );
+            assertEquals( 1, d1.indexOfChild(d2) );
+            assertEquals( 3, d1.indexOfChild(f1) );
+            assertEquals( 4, d1.indexOfChild(d2f) );
+            
+            // indexes follow sort
+            d1.sort();
+            assertEquals( 0, d1.indexOfChild(d2) );
+            assertEquals( 1, d1.indexOfChild(d3) );
+            assertEquals( 2, d1.indexOfChild(d2f) );
+            assertEquals( 3, d1.indexOfChild(f1) );
+            assertEquals( 4, d1.indexOfChild(f2) );
+            
+            // and changes made directly to child lists
+            d1.getLeaves().remove(f1);
+            assertNull( d1.childLeafByName("f1") );
+            assertEquals( -1, d1.indexOfChild(f1) );
+            assertEquals( 3, d1.indexOfChild(f2) );
+            
+            // first of duplicate names is found
+            MockFileNode f2b = new MockFileNode("f2");
+            d1.addLeaf(f2b);
+            assertSame( f2, d1.childLeafByName("f2") );
+            assertEquals( 4, d1.indexOfChild(f2b) );
+        }
+        
+        @Test
+        public void testMerkleDigest() throws IOException {
+            MockFileNode f1 = new MockFileNode("f1");
+            MockFileNode f2 = new MockFileNode("f2");
+            DirNode sub1 = new DirNode( "sub", new ArrayList<Leaf>(), new ArrayList<DirNode>()  );
+            DirNode d1 = new DirNode( "d1", new ArrayList<Leaf>(Arrays.asList(f1, f2)), new ArrayList<DirNode>(Arrays.asList(sub1)) );
+            MockFileNode f1b = new MockFileNode("f1");
+            MockFileNode f2b = new MockFileNode("f2");
+            DirNode sub2 = new DirNode( "sub", new ArrayList<Leaf>(), new ArrayList<DirNode>()  );
+            // order of children and dir's own name don't matter
+            DirNode d2 = new DirNode( "d2", new ArrayList<Leaf>(Arrays.asList(f2b, f1b)), new ArrayList<DirNode>(Arrays.asList(sub2)) );
+            
+            byte[] m1 = d1.computeMerkleDigest();
+            assertNotNull(m1);
+            assertArrayEquals(m1, d2.computeMerkleDigest());
+            
+            // mock content is at hand so digest is not cheap
+            DirNode d3 = new DirNode( "d3", new ArrayList<Leaf>(Arrays.asList((Leaf)new MockFileNode("f1"))), new ArrayList<DirNode>() );
+            assertNull(d3.getMerkleDigest());
+            // unless it has been computed
+            assertArrayEquals(m1, d1.getMerkleDigest());
+            
+            // differences in content, names and sub-dirs change digest
+            sub2.addLeaf(new MockFileNode("f3"));
+            DirNode d4 = new DirNode( "d2", new ArrayList<Leaf>(Arrays.asList(f2b, f1b)), new ArrayList<DirNode>(Arrays.asList(sub2)) );
+            assertFalse(Arrays.equals(m1, d4.computeMerkleDigest()));
+            DirNode d5 = new DirNode( "d5", new ArrayList<Leaf>(Arrays.asList((Leaf)new MockFileNode("f1", "other", new Date(0)), f2b)), new ArrayList<DirNode>() );
+            DirNode d6 = new DirNode( "d6", new ArrayList<Leaf>(Arrays.asList((Leaf)new MockFileNode("f1"), f2b)), new ArrayList<DirNode>() );
+            DirNode d7 = new DirNode( "d7", new ArrayList<Leaf>(Arrays.asList((Leaf)new MockFileNode("f1x", "f1", new Date(0)), f2b)), new ArrayList<DirNode>() );
+            assertFalse(Arrays.equals(d5.computeMerkleDigest(), d6.computeMerkleDigest()));
+            assertFalse(Arrays.equals(d7.computeMerkleDigest(), d6.computeMerkleDigest()));
+            
+            // adding a child invalidates digest
+            byte[] m6 = d6.computeMerkleDigest();
+            d6.addLeaf(new MockFileNode("f9"));
+            assertFalse(Arrays.equals(m6, d6.computeMerkleDigest()));
+            
+            // special files never compare the same, so have no digest
+            MockFileNode special = new MockFileNode("s");
+            special.setFileType(FileNode.FileType.SPECIAL);
+            DirNode d8 = new DirNode( "d8", new ArrayList<Leaf>(Arrays.asList((Leaf)special)), new ArrayList<DirNode>() );
+            assertNull(d8.computeMerkleDigest());
+            assertNull(new DirNode(d8).computeMerkleDigest());
+            
+            // recorded digest is used as is
+            d8.setMerkleDigest(m1);
+            assertArrayEquals(m1, d8.getMerkleDigest());
+        }
+        
         @Test
         public void testPopulatePathByNames() {
             DirNode d2 = new DirNode( "d2", new ArrayList<Leaf>(), new ArrayList<DirNode>()  );
@@ -206,6 +206,25 @@ public class TestFileNode  {
         expectDifferentContent(fNodeAPlus, fNodeAPlusLastM);
     }
     
+    @Test
+    public void testFindDifference() throws IOException {
+        Date now = new Date(0);
+        MockFileNode fA = new MockFileNode("fA", "abcdef", now);
+        MockFileNode fSame = new MockFileNode("fSame", "abcdef", now);
+        MockFileNode fDiff = new MockFileNode("fDiff", "abcXef", now);
+        MockFileNode fLong = new MockFileNode("fLong", "abcdefg", now);
+        
+        assertEquals(FileNode.OFFSET_SAME, fA.findDifference(fSame, FileNode.CONTENT_METHOD_CONTENT));
+        assertEquals(3, fA.findDifference(fDiff, FileNode.CONTENT_METHOD_CONTENT));
+        assertEquals(3, fDiff.findDifference(fA, FileNode.CONTENT_METHOD_CONTENT));
+        // sizes differ, so content is not read
+        assertEquals(FileNode.OFFSET_UNKNOWN, fA.findDifference(fLong, FileNode.CONTENT_METHOD_CONTENT));
+        assertEquals(6, fA.findFirstDifference(fLong));
+        // digests don't locate the difference
+        assertEquals(FileNode.OFFSET_UNKNOWN, fA.findDifference(fDiff, FileNode.CONTENT_METHOD_CRC));
+        assertEquals(FileNode.OFFSET_SAME, fA.findDifference(fSame, FileNode.CONTENT_METHOD_CRC));
+    }
+    
     @Test
     public void testIsText() throws IOException {
         Date now = new Date(0);
@@ -19,13 +19,17 @@ package org.wtdiff.util;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
 import java.util.Date;
 
 import org.wtdiff.util.FileNode;
 import org.wtdiff.util.FileSystemFileNode;
 import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.io.ContentComparor;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.*;
@@ -377,4 +381,127 @@ public class TestFileSystemFileNode   {
         assertEquals(tFileName, symlinkNode.getLinkTo());
     }
     
+    /**
+     * construction from pre-read attributes matches construction from path
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testAttributesConstructor() throws Exception {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File file = helper.createTestFile("tfile", "tfile-content");
+        Path path = Paths.get(file.getPath());
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        FileSystemFileNode node = new FileSystemFileNode(path, attrs);
+        FileSystemFileNode pathNode = new FileSystemFileNode(path);
+        assertEquals(FileType.REGFILE, node.getFileType());
+        assertEquals("tfile", node.getName());
+        assertEquals(pathNode.getSize(), node.getSize());
+        assertEquals(pathNode.getTime(), node.getTime());
+        assertEquals(pathNode.getTimeNanos(), node.getTimeNanos());
+        assertTrue(node.compareDetails(pathNode, FileNode.CONTENT_METHOD_CONTENT));
+        
+        File dir = helper.createTestDir("adir");
+        Path dirPath = Paths.get(dir.getPath());
+        BasicFileAttributes dirAttrs = Files.readAttributes(dirPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        try {
+            new FileSystemFileNode(dirPath, dirAttrs);
+            fail("creation of file node from directory attributes should throw exception");
+        } catch (IllegalArgumentException iae) {
+            // this is supposed to happen
+        }
+        
+        if ( testSymlinks ) {
+            File symlink = helper.createTestSymlink(new File("tfile"), "symlink-tfile");
+            Path symPath = Paths.get(symlink.getPath());
+            BasicFileAttributes symAttrs = Files.readAttributes(symPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            FileSystemFileNode symNode = new FileSystemFileNode(symPath, symAttrs);
+            assertEquals(FileType.SYMLINK, symNode.getFileType());
+            assertEquals("tfile", symNode.getLinkTo());
+            assertEquals("tfile".length(), symNode.getSize());
+        }
+        if ( testSpecialFile ) {
+            File special = helper.createTestFifo("fifo");
+            Path specialPath = Paths.get(special.getPath());
+            BasicFileAttributes specialAttrs = Files.readAttributes(specialPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            assertEquals(FileType.SPECIAL, new FileSystemFileNode(specialPath, specialAttrs).getFileType());
+        }
+    }
+
+    /**
+     * time in nanoseconds is kept at file system precision
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testTimeNanos() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File file = helper.createTestFile("tfile", "tfile-content");
+        Path path = Paths.get(file.getPath());
+        long nanos = 1500000000123456789L;
+        Files.setLastModifiedTime(path, FileTime.from(nanos, java.util.concurrent.TimeUnit.NANOSECONDS));
+        long fsNanos = Files.getLastModifiedTime(path).to(java.util.concurrent.TimeUnit.NANOSECONDS);
+
+        FileSystemFileNode node = new FileSystemFileNode(path);
+        assertEquals(fsNanos, node.getTimeNanos());
+        assertEquals(fsNanos / 1000000L, node.getTime());
+    }
+    
+    /**
+     * first difference is found using file channels for files larger than the buffer size
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testFindDifference() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        byte[] content = new byte[ContentComparor.CHANNEL_BUFFER_SIZE + 100];
+        Arrays.fill(content, (byte)'x');
+        byte[] content2 = content.clone();
+        content2[ContentComparor.CHANNEL_BUFFER_SIZE + 7] = 'y';
+        FileSystemFileNode node1 = new FileSystemFileNode(helper.createTestFile("tfile1", content).toPath());
+        FileSystemFileNode node2 = new FileSystemFileNode(helper.createTestFile("tfile2", content2).toPath());
+        FileSystemFileNode node3 = new FileSystemFileNode(helper.createTestFile("tfile3", content.clone()).toPath());
+        
+        assertNotNull(node1.getContentPath());
+        assertEquals(ContentComparor.CHANNEL_BUFFER_SIZE + 7, node1.findDifference(node2, FileNode.CONTENT_METHOD_CONTENT));
+        assertEquals(FileNode.OFFSET_SAME, node1.findDifference(node3, FileNode.CONTENT_METHOD_CONTENT));
+        assertTrue(node1.compareDetails(node3, FileNode.CONTENT_METHOD_CONTENT));
+        assertFalse(node1.compareDetails(node2, FileNode.CONTENT_METHOD_CONTENT));
+    }
+    
+    /**
+     * digests and text guess are all computed in one read, so content
+     * is not needed afterwards
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testComputeDigests() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        String content = "tfile-content\n";
+        File file = helper.createTestFile("tfile", content);
+        MockFileNode mockNode = new MockFileNode("tfile", content, new Date());
+        FileSystemFileNode node = new FileSystemFileNode(file.toPath());
+        node.computeDigests(true, true);
+        assertTrue(file.delete());
+        
+        assertEquals(mockNode.getCrc(), node.getCrc());
+        assertTrue( Arrays.equals(mockNode.getMd5(), node.getMd5()) );
+        assertTrue( node.isText() );
+        
+        File file2 = helper.createTestFile("tfile2", new byte[] { 0, 1, 2 });
+        FileSystemFileNode node2 = new FileSystemFileNode(file2.toPath());
+        node2.computeDigests(false, true);
+        assertTrue(file2.delete());
+        assertFalse( node2.isText() );
+        assertTrue( Arrays.equals(new MockFileNode("x", new byte[] { 0, 1, 2 }, new Date()).getMd5(), node2.getMd5()) );
+        try {
+            node2.getCrc();
+            fail("CRC was not requested so file should be read again");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+    
 }
@@ -28,6 +28,8 @@ import org.wtdiff.util.LoggingErrorHandler;
 import org.wtdiff.util.NoHandleErrorHandler;
 import org.wtdiff.util.Node;
 import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.filter.CompositeNodeFilter;
+import org.wtdiff.util.filter.GlobNameFilter;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.*;
@@ -78,6 +80,23 @@ public class TestFileSystemFileNodeTreeBuilder   {
         assertEquals(file.getName(), ((Node)rootNode.getLeaves().get(0)).getName() );
     }
     
+    @Test
+    public void testDeviceKey() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File dir = helper.createTestDir("tdevdir");
+        File subDir = helper.createTestDir("sub", dir);
+        helper.createTestFile("tfile", "tfile-content", dir);
+        helper.createTestFile("tsubfile", "tsubfile-content", subDir);
+
+        FileSystemNodeTreeBuilder builder = new FileSystemNodeTreeBuilder(dir.getCanonicalPath());
+        DirNode rootNode = builder.buildTree(noHandler);
+        // device key is store holding each file's directory
+        assertEquals(java.nio.file.Files.getFileStore(dir.toPath()), 
+            ((FileNode)rootNode.getLeaves().get(0)).getDeviceKey());
+        assertEquals(java.nio.file.Files.getFileStore(subDir.toPath()), 
+            ((FileNode)rootNode.getDirs().get(0).getLeaves().get(0)).getDeviceKey());
+    }
+    
     @Test
     public void testOneDirOnly() throws IOException {
         FileSystemTestHelper helper = new FileSystemTestHelper();
@@ -141,6 +160,59 @@ public class TestFileSystemFileNodeTreeBuilder   {
         assertEquals(sfile.getName(), ((Node)sNode.getLeaves().get(0)).getName() );
     }
 
+    @Test
+    public void testFilter() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File dir = helper.createTestDir("tdir");
+        File sdir = helper.createTestDir("sdir", dir);
+        File xdir = helper.createTestDir("xdir", dir);
+        File tfile = helper.createTestFile("tfile", "tfile-content", dir);
+        helper.createTestFile("xfile", "xfile-content", dir);
+        helper.createTestFile("sfile", "sfile-content", sdir);
+        helper.createTestFile("xfile", "xfile-content", sdir);
+        helper.createTestFile("ofile", "ofile-content", xdir);
+        CompositeNodeFilter filter = new CompositeNodeFilter().add(new GlobNameFilter("x*"));
+        
+        for ( int parallelism = 1; parallelism <= 2; parallelism++ ) {
+            FileSystemNodeTreeBuilder builder = new FileSystemNodeTreeBuilder(dir.getCanonicalPath(), parallelism);
+            builder.setFilter(filter);
+            DirNode rootNode = builder.buildTree(noHandler);
+            DirNode expected = new FilterTreeBuilder(
+                new FileSystemNodeTreeBuilder(dir.getCanonicalPath()).buildTree(noHandler), 
+                filter
+            ).buildTree(noHandler);
+    
+            assertEquals( 1, rootNode.getDirs().size() );
+            assertEquals( 1, rootNode.getLeaves().size() );
+            assertEquals( tfile.getName(), rootNode.getLeaves().get(0).getName() );
+            assertEquals( sdir.getName(), rootNode.getDirs().get(0).getName() );
+            DirNode sNode = rootNode.getDirs().get(0);
+            assertEquals( 0, sNode.getDirs().size() );
+            assertEquals( 1, sNode.getLeaves().size() );
+            assertEquals( "sfile", sNode.getLeaves().get(0).getName() );
+            assertEquals( expected.getRoot(), rootNode.getRoot() );
+            assertEquals( expected.getLeaves().size(), rootNode.getLeaves().size() );
+            assertEquals( expected.getDirs().size(), rootNode.getDirs().size() );
+        }
+        {
+            // excluded root gives empty tree
+            FileSystemNodeTreeBuilder builder = new FileSystemNodeTreeBuilder(dir.getCanonicalPath());
+            builder.setFilter(new GlobNameFilter(dir.getName()));
+            DirNode rootNode = builder.buildTree(noHandler);
+            assertEquals( dir.getName(), rootNode.getName() );
+            assertEquals( 0, rootNode.getDirs().size() );
+            assertEquals( 0, rootNode.getLeaves().size() );
+        }
+        {
+            // excluded file root
+            FileSystemNodeTreeBuilder builder = new FileSystemNodeTreeBuilder(tfile.getCanonicalPath());
+            builder.setFilter(new GlobNameFilter(tfile.getName()));
+            DirNode rootNode = builder.buildTree(noHandler);
+            assertEquals( 0, rootNode.getLeaves().size() );
+            assertEquals( tfile.getParentFile().getCanonicalPath(), rootNode.getRoot() );
+        }
+    }
+
     @Test
     public void testSubdirsPermFail() throws IOException {
         FileSystemTestHelper helper = new FileSystemTestHelper();
@@ -357,4 +429,97 @@ public class TestFileSystemFileNodeTreeBuilder   {
         assertEquals(FileType.SYMLINK, child.getFileType() );            
     }
     
+    /**
+     * parallel walk produces same tree as a serial walk
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testParallel() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File dir = helper.createTestDir("tdir");
+        for ( int i = 0 ; i < 4 ; i++ ) {
+            File sdir = helper.createTestDir("sdir" + i, dir);
+            helper.createTestFile("sfile" + i, "sfile-content" + i, sdir);
+            for ( int j = 0 ; j < 3 ; j++ ) {
+                File ssdir = helper.createTestDir("ssdir" + j, sdir);
+                helper.createTestFile("ssfile" + j, "ssfile-content" + j, ssdir);
+                helper.createTestDir("empty", ssdir);
+            }
+        }
+        helper.createTestFile("tfile", "tfile-content", dir);
+
+        FileSystemNodeTreeBuilder serialBuilder = new FileSystemNodeTreeBuilder(dir.getCanonicalPath());
+        FileSystemNodeTreeBuilder parallelBuilder = new FileSystemNodeTreeBuilder(dir.getCanonicalPath(), 4);
+        assertEquals(1, serialBuilder.getParallelism());
+        assertEquals(4, parallelBuilder.getParallelism());
+        DirNode serialNode = serialBuilder.buildTree(noHandler);
+        DirNode parallelNode = parallelBuilder.buildTree(noHandler);
+        
+        assertEquals(serialNode.getRoot(), parallelNode.getRoot());
+        assertSameTree(serialNode, parallelNode);
+        
+        // root is a file rather than dir
+        File tfile = new File(dir, "tfile");
+        parallelNode = new FileSystemNodeTreeBuilder(tfile.getCanonicalPath(), 4).buildTree(noHandler);
+        assertEquals( 1, parallelNode.getLeaves().size() );
+        assertEquals(tfile.getName(), parallelNode.getLeaves().get(0).getName() );
+    }
+
+    private void assertSameTree(DirNode d1, DirNode d2) {
+        assertEquals(d1.getName(), d2.getName());
+        assertEquals(d1.getLeaves().size(), d2.getLeaves().size());
+        for ( int i = 0 ; i < d1.getLeaves().size(); i++ ) {
+            FileNode f1 = (FileNode)d1.getLeaves().get(i);
+            FileNode f2 = (FileNode)d2.getLeaves().get(i);
+            assertEquals(f1.getName(), f2.getName());
+            assertEquals(f1.getFileType(), f2.getFileType());
+            assertEquals(f1.getSize(), f2.getSize());
+        }
+        assertEquals(d1.getDirs().size(), d2.getDirs().size());
+        for ( int i = 0 ; i < d1.getDirs().size(); i++ ) {
+            assertSameTree(d1.getDirs().get(i), d2.getDirs().get(i));
+        }
+    }
+    
+    @Test
+    public void testBadParallelism() throws IOException {
+        try {
+            new FileSystemNodeTreeBuilder("tdir", 0);
+            fail("parallelism less than 1 should throw exception");
+        } catch (IllegalArgumentException iae) {
+            // this is expected
+        }
+    }
+
+    @Test
+    public void testParallelSubdirsPermFail() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        File dir = helper.createTestDir("tdir");
+        File sdir1 = helper.createTestDir("sdir1", dir);
+        File sdir2 = helper.createTestDir("sdir2", dir);
+        helper.createTestFile("sfile", "sfile-content", sdir2);
+
+        FileSystemNodeTreeBuilder builder = new FileSystemNodeTreeBuilder(dir.getCanonicalPath(), 3);
+
+        ost.setExecutable(sdir1, false);
+        ErrorHandler loggingHandler = new LoggingErrorHandler(logger,  false);
+        try {
+            builder.buildTree(loggingHandler);
+            fail("subdirectory no executable should throw excetpion");
+        } catch (IOException ioe) {
+            // this should happen
+        }
+        assertTrue(loggingHandler.encounteredError());
+
+        LoggingErrorHandler loggingHandler2 = new LoggingErrorHandler(logger,  true);
+        DirNode rootNode = builder.buildTree(loggingHandler2);
+        assertTrue(loggingHandler2.encounteredError());
+        rootNode.sort();
+        assertEquals( 2, rootNode.getDirs().size() );
+        assertEquals( 0, rootNode.getDirs().get(0).getLeaves().size() );
+        assertEquals( 1, rootNode.getDirs().get(1).getLeaves().size() );
+        ost.setExecutable(sdir1, true);
+    }
+
 }
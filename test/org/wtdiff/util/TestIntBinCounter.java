@@ -67,4 +67,23 @@ public class TestIntBinCounter  {
         assertEquals("max not 2", 2, ibc.getMax());
         
     }
+    @Test
+    public void testGrow() {
+        IntBinCounter ibc = new IntBinCounter();
+        ibc.incr(100, 3);
+        ibc.incr(-100);
+        ibc.incr(1000, 2);
+        ibc.incr(-1000);
+        ibc.incr(5, 0);
+        assertEquals(7, ibc.getTotCount());
+        assertEquals(3, ibc.getCount(100));
+        assertEquals(1, ibc.getCount(-100));
+        assertEquals(2, ibc.getCount(1000));
+        assertEquals(1, ibc.getCount(-1000));
+        assertEquals(0, ibc.getCount(5));
+        assertEquals(0, ibc.getCount(1001));
+        assertEquals(0, ibc.getCount(Integer.MIN_VALUE));
+        assertEquals(-1000, ibc.getMin());
+        assertEquals(1000, ibc.getMax());
+    }
 }
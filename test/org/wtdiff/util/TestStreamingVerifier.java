@@ -0,0 +1,191 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wtdiff.util.StreamingVerifier.Difference;
+import org.wtdiff.util.filter.GlobNameFilter;
+import org.wtdiff.util.xml.Snapshotter;
+
+public class TestStreamingVerifier {
+
+    private FileSystemTestHelper helper;
+    
+    @Before
+    public void setUp() throws Exception {
+        helper = new FileSystemTestHelper();
+    }
+
+    /**
+     * Collect differences as "kind path"
+     */
+    private static class Collector implements StreamingVerifier.DifferenceListener {
+        List<String> differences = new ArrayList<>();
+        
+        @Override
+        public void difference(Difference difference, String path, boolean isDir) {
+            differences.add(difference + " " + path + (isDir ? "/" : ""));
+        }
+    }
+    
+    private File createTree(String name) throws IOException {
+        File top = helper.createTestDir(name);
+        File tree = helper.createTestDir("tree", top);
+        helper.createTestFile("a", "a content", tree);
+        helper.createTestFile("b", "b content", tree);
+        File sub = helper.createTestDir("sub", tree);
+        helper.createTestFile("c", "c content", sub);
+        File subsub = helper.createTestDir("subsub", sub);
+        helper.createTestFile("d", "d content", subsub);
+        helper.createTestDir("empty", tree);
+        return tree;
+    }
+    
+    private File snapshot(File tree, boolean isBinary) {
+        File snapshot = new File(tree.getParentFile(), isBinary ? "snapshot.bin" : "snapshot.xml");
+        Snapshotter snapper = new Snapshotter();
+        snapper.setBinary(isBinary);
+        assertEquals(0, snapper.createSnapshot(tree.getPath(), snapshot.getPath()));
+        return snapshot;
+    }
+    
+    private List<String> verify(StreamingVerifier verifier, File snapshot, File tree) throws IOException {
+        Collector collector = new Collector();
+        verifier.setDifferenceListener(collector);
+        boolean isSame = verifier.verify(snapshot.getPath(), tree.getPath());
+        assertEquals(collector.differences.isEmpty(), isSame);
+        assertEquals(collector.differences.size(), verifier.getDifferenceCount());
+        return collector.differences;
+    }
+    
+    @Test
+    public void testSame() throws IOException {
+        for ( boolean isBinary: new boolean[] {false, true} ) {
+            File tree = createTree("testSame" + isBinary);
+            File snapshot = snapshot(tree, isBinary);
+            assertEquals(0, verify(new StreamingVerifier(false, false), snapshot, tree).size());
+        }
+    }
+    
+    @Test
+    public void testDifferences() throws IOException {
+        for ( boolean isBinary: new boolean[] {false, true} ) {
+            File tree = createTree("testDifferences" + isBinary);
+            File snapshot = snapshot(tree, isBinary);
+            File sub = new File(tree, "sub");
+            helper.createTestFile("c", "c changed", sub);
+            assertTrue(new File(tree, "a").delete());
+            helper.createTestFile("new", "new content", tree);
+            File subsub = new File(sub, "subsub");
+            assertTrue(new File(subsub, "d").delete());
+            assertTrue(subsub.delete());
+            helper.createTestDir("newdir", sub);
+            
+            List<String> differences = verify(new StreamingVerifier(false, false), snapshot, tree);
+            assertEquals(5, differences.size());
+            assertTrue(differences.contains("SNAPSHOT_ONLY a"));
+            assertTrue(differences.contains("LIVE_ONLY new"));
+            assertTrue(differences.contains("CHANGED sub/c"));
+            assertTrue(differences.contains("SNAPSHOT_ONLY sub/subsub/"));
+            assertTrue(differences.contains("LIVE_ONLY sub/newdir/"));
+        }
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        File tree = createTree("testFilter");
+        File snapshot = snapshot(tree, false);
+        helper.createTestFile("a", "a changed", tree);
+        helper.createTestFile("c", "c changed", new File(tree, "sub"));
+        helper.createTestDir("newdir", tree);
+        StreamingVerifier verifier = new StreamingVerifier(false, false);
+        verifier.setFilter(new GlobNameFilter("a"));
+        List<String> differences = verify(verifier, snapshot, tree);
+        assertEquals(2, differences.size());
+        
+        verifier.setFilter(new GlobNameFilter("sub"));
+        differences = verify(verifier, snapshot, tree);
+        assertEquals(2, differences.size());
+        assertTrue(differences.contains("CHANGED a"));
+        assertTrue(differences.contains("LIVE_ONLY newdir/"));
+    }
+    
+    @Test
+    public void testIgnoreCase() throws IOException {
+        File tree = createTree("testIgnoreCase");
+        File snapshot = snapshot(tree, true);
+        File sub = new File(tree, "sub");
+        File renamed = new File(tree, "SUB");
+        assertTrue(sub.renameTo(renamed));
+        List<String> differences = verify(new StreamingVerifier(false, false), snapshot, tree);
+        assertEquals(2, differences.size());
+        assertTrue(differences.contains("SNAPSHOT_ONLY sub/"));
+        assertTrue(differences.contains("LIVE_ONLY SUB/"));
+        
+        assertEquals(0, verify(new StreamingVerifier(true, false), snapshot, tree).size());
+    }
+    
+    @Test
+    public void testRootFile() throws IOException {
+        File top = helper.createTestDir("testRootFile");
+        File f = helper.createTestFile("f", "f content", top);
+        File snapshot = new File(top, "snapshot.xml");
+        assertEquals(0, new Snapshotter().createSnapshot(f.getPath(), snapshot.getPath()));
+        assertEquals(0, verify(new StreamingVerifier(false, false), snapshot, f).size());
+        
+        File tree = createTree("testRootFile2");
+        List<String> differences = verify(new StreamingVerifier(false, false), snapshot(tree, false), f);
+        assertTrue(differences.contains("SNAPSHOT_ONLY sub/"));
+        assertTrue(differences.contains("LIVE_ONLY f"));
+    }
+    
+    @Test
+    public void testErrors() throws IOException {
+        File tree = createTree("testErrors");
+        File snapshot = snapshot(tree, false);
+        StreamingVerifier verifier = new StreamingVerifier(false, false);
+        try {
+            verifier.verify(snapshot.getPath(), new File(tree, "noexist").getPath());
+            fail("nonexistent directory should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+        try {
+            verifier.verify(new File(tree, "a").getPath(), tree.getPath());
+            fail("not a snapshot should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+        File truncated = helper.createTestFile("truncated", 
+            "<?xml version=\"1.0\"?><file-tree-snapshot><digests-available/><snapshot><dir name=\"\"><dirs><dir name=\"sub\">", 
+            tree.getParentFile());
+        try {
+            verifier.verify(truncated.getPath(), tree.getPath());
+            fail("truncated snapshot should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+}
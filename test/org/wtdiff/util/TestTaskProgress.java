@@ -0,0 +1,140 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util;
+
+import static org.junit.Assert.*;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TestTaskProgress {
+
+    @Test
+    public void testCounts() throws Exception {
+        TaskProgress p = new TaskProgress();
+        assertEquals(TaskProgress.UNKNOWN, p.getTotalFiles());
+        assertEquals(TaskProgress.UNKNOWN, p.getTotalBytes());
+        assertEquals(TaskProgress.UNKNOWN, p.getEstimatedMillisRemaining());
+        p.addDir();
+        p.addFile();
+        p.addFile();
+        p.addBytes(10);
+        assertEquals(1, p.getDirs());
+        assertEquals(2, p.getFiles());
+        assertEquals(10, p.getBytes());
+        // no totals, no estimate
+        assertEquals(TaskProgress.UNKNOWN, p.getEstimatedMillisRemaining());
+        p.setTotals(4, TaskProgress.UNKNOWN);
+        assertTrue(p.getEstimatedMillisRemaining() >= 0);
+        p.setTotals(4, 10);
+        assertEquals(0, p.getEstimatedMillisRemaining());
+        
+        p.reset();
+        assertEquals(0, p.getDirs());
+        assertEquals(0, p.getFiles());
+        assertEquals(0, p.getBytes());
+        assertEquals(TaskProgress.UNKNOWN, p.getTotalBytes());
+    }
+    
+    @Test
+    public void testCancel() throws Exception {
+        TaskProgress p = new TaskProgress();
+        p.checkCancelled();
+        assertFalse(p.isCancelled());
+        p.cancel();
+        assertTrue(p.isCancelled());
+        try {
+            p.checkCancelled();
+            fail("cancelled progress should throw");
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+        p.reset();
+        assertFalse(p.isCancelled());
+    }
+    
+    @Test
+    public void testCancelInterruptsTask() throws Exception {
+        final TaskProgress p = new TaskProgress();
+        final CountDownLatch started = new CountDownLatch(1);
+        final boolean[] interrupted = { false };
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                p.start();
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted[0] = true;
+                } finally {
+                    p.finish();
+                }
+            }
+        };
+        t.start();
+        started.await();
+        p.cancel();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertTrue(interrupted[0]);
+    }
+
+    @Test
+    public void testCancelInterruptsHelpers() throws Exception {
+        final TaskProgress p = new TaskProgress();
+        final CountDownLatch started = new CountDownLatch(2);
+        final boolean[] interrupted = { false, false };
+        Thread[] helpers = new Thread[2];
+        for ( int i = 0; i < helpers.length; i++ ) {
+            final int n = i;
+            helpers[i] = new Thread() {
+                @Override
+                public void run() {
+                    p.addHelper();
+                    started.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted[n] = true;
+                    } finally {
+                        p.removeHelper();
+                    }
+                }
+            };
+            helpers[i].start();
+        }
+        started.await();
+        p.cancel();
+        for ( Thread t: helpers ) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+        assertTrue(interrupted[0]);
+        assertTrue(interrupted[1]);
+        
+        // helper joining after cancel is interrupted at once
+        p.addHelper();
+        try {
+            assertTrue(Thread.interrupted());
+        } finally {
+            p.removeHelper();
+        }
+    }
+}
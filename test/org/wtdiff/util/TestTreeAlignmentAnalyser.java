@@ -324,4 +324,86 @@ public class TestTreeAlignmentAnalyser  {
         assertEquals( d4ba, taa.bestSubTree(2, d4, d2).get(2));
         
     }
-}
\ No newline at end of file
+
+    private DirNode createRandomTree(Random random, String name, int depth) {
+        ArrayList<Leaf> leaves = new ArrayList<>();
+        ArrayList<DirNode> dirs = new ArrayList<>();
+        int nLeaves = random.nextInt(4);
+        for ( int i = 0; i < nLeaves; i++ ) {
+            leaves.add(new MockFileNode("f" + random.nextInt(5)));
+        }
+        if ( depth < 4 ) {
+            int nDirs = random.nextInt(3);
+            for ( int i = 0; i < nDirs; i++ ) {
+                dirs.add(createRandomTree(random, (random.nextBoolean() ? "D" : "d") + random.nextInt(3), depth + 1));
+            }
+        }
+        return new DirNode(name, leaves, dirs);
+    }
+    
+    /**
+     * count of name matches at each depth difference, by brute force
+     */
+    private Map<Integer, Integer> depthCounts(List<NameDepth> l1, List<NameDepth> l2) {
+        Map<String, Map<Integer, Integer>> byName2 = new HashMap<>();
+        for ( NameDepth nd: l2 ) {
+            if ( ! byName2.containsKey(nd.name) )
+                byName2.put(nd.name, new HashMap<Integer, Integer>());
+            Map<Integer, Integer> depths = byName2.get(nd.name);
+            depths.put(nd.depth, depths.containsKey(nd.depth) ? depths.get(nd.depth) + 1 : 1);
+        }
+        Map<String, Map<Integer, Integer>> byName1 = new HashMap<>();
+        for ( NameDepth nd: l1 ) {
+            if ( ! byName1.containsKey(nd.name) )
+                byName1.put(nd.name, new HashMap<Integer, Integer>());
+            Map<Integer, Integer> depths = byName1.get(nd.name);
+            depths.put(nd.depth, depths.containsKey(nd.depth) ? depths.get(nd.depth) + 1 : 1);
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        for ( String name: byName1.keySet() ) {
+            if ( ! byName2.containsKey(name) )
+                continue;
+            for ( Map.Entry<Integer, Integer> e1: byName1.get(name).entrySet() ) {
+                for ( Map.Entry<Integer, Integer> e2: byName2.get(name).entrySet() ) {
+                    int diff = e1.getKey() - e2.getKey();
+                    int n = Math.min(e1.getValue(), e2.getValue());
+                    counts.put(diff, counts.containsKey(diff) ? counts.get(diff) + n : n);
+                }
+            }
+        }
+        return counts;
+    }
+    
+    @Test
+    public void testSameAsBruteForce() {
+        Random random = new Random(1);
+        for ( boolean ignoreCase: new boolean[] { false, true } ) {
+            NameDepthListBuilder builder = new NameDepthListBuilder(ignoreCase);
+            for ( int i = 0; i < 50; i++ ) {
+                TreeAlignmentAnalyser taa = new TreeAlignmentAnalyser(ignoreCase);
+                DirNode t1 = createRandomTree(random, "t", random.nextInt(2));
+                DirNode t2 = createRandomTree(random, "t", random.nextInt(2));
+                List<NameDepth> l1 = builder.buildNameDepthList(t1);
+                List<NameDepth> l2 = builder.buildNameDepthList(t2);
+                Map<Integer, Integer> counts = depthCounts(l1, l2);
+                int same = counts.containsKey(0) ? counts.get(0) : 0;
+                int bestDepth = 0;
+                int bestCount = 0;
+                for ( int depth = -10; depth <= 10; depth++ ) {
+                    if ( counts.containsKey(depth) && counts.get(depth) > bestCount ) {
+                        bestCount = counts.get(depth);
+                        bestDepth = depth;
+                    }
+                }
+                assertEquals( 2 * same / (double)(l1.size() + l2.size()), taa.matchFactor(t1, t2), 0.0 );
+                assertEquals( same, taa.matchCount(t1, t2) );
+                assertEquals( bestDepth, taa.findBestDepthAlignment(t1, t2) );
+                // subtrees, as searched by bestSubTree
+                for ( DirNode sub: t1.getDirs() ) {
+                    Map<Integer, Integer> subCounts = depthCounts(builder.buildNameDepthList(sub), l2);
+                    assertEquals( subCounts.containsKey(0) ? subCounts.get(0) : 0, taa.matchCount(sub, t2) );
+                }
+            }
+        }
+    }
+}
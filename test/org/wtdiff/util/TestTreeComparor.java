@@ -20,6 +20,8 @@ package org.wtdiff.util;
 import java.util.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -73,6 +75,125 @@ public class TestTreeComparor  {
         assertTrue( "null tree not missing 2", cdn.isMissing2());
     }
     
+    @Test
+    public void testDifferenceOffset() throws IOException {
+        Date now = new Date();
+        TunableCompareMethodMockFileNode f1 = new TunableCompareMethodMockFileNode("a", "AAAA", now);
+        TunableCompareMethodMockFileNode f2 = new TunableCompareMethodMockFileNode("a", "AABA", now);
+        TunableCompareMethodMockFileNode f3 = new TunableCompareMethodMockFileNode("a", "AAAA", now);
+        f1.setContentMethodCost(FileNode.CONTENT_METHOD_CONTENT, FileNode.COST_EASY);
+        f2.setContentMethodCost(FileNode.CONTENT_METHOD_CONTENT, FileNode.COST_EASY);
+        f3.setContentMethodCost(FileNode.CONTENT_METHOD_CONTENT, FileNode.COST_EASY);
+        ArrayList<Leaf> a1 = new ArrayList<>();
+        a1.add(f1);
+        ArrayList<Leaf> a2 = new ArrayList<>();
+        a2.add(f2);
+        ArrayList<Leaf> a3 = new ArrayList<>();
+        a3.add(f3);
+        DirNode d1 = new DirNode( "d1", a1, new ArrayList<DirNode>() );
+        DirNode d2 = new DirNode( "d2", a2, new ArrayList<DirNode>() );
+        DirNode d3 = new DirNode( "d3", a3, new ArrayList<DirNode>() );
+        
+        TreeComparor tc = new TreeComparor(false, false);
+        {
+            LeafComparisonResult cr = (LeafComparisonResult) tc.compare(d1, d2).getLeaves().get(0);
+            assertFalse("leaf should be different", cr.areSame() );
+            assertEquals("first difference offset", 2, cr.getDifferenceOffset() );
+        }
+        {
+            LeafComparisonResult cr = (LeafComparisonResult) tc.compare(d1, d3).getLeaves().get(0);
+            assertTrue("leaf should be the same", cr.areSame() );
+            assertEquals("no difference offset when same", -1, cr.getDifferenceOffset() );
+        }
+    }
+    
+    @Test
+    public void testProgress() throws IOException {
+        Date now = new Date();
+        MockFileNode a1 = new MockFileNode("a", "AAAA", now);
+        MockFileNode a2 = new MockFileNode("a", "AAAB", now);
+        MockFileNode b1 = new MockFileNode("b", "BB", now);
+        DirNode sub = new DirNode( "s", new ArrayList<Leaf>(Arrays.asList(b1)), new ArrayList<DirNode>() );
+        DirNode d1 = new DirNode( "d1", new ArrayList<Leaf>(Arrays.asList(a1)), new ArrayList<DirNode>(Arrays.asList(sub)) );
+        DirNode d2 = new DirNode( "d2", new ArrayList<Leaf>(Arrays.asList(a2)), new ArrayList<DirNode>() );
+        for ( int threads = 1; threads <= 2; threads++ ) {
+            TreeComparor tc = new TreeComparor(false, false);
+            tc.setParallelism(threads);
+            TaskProgress progress = new TaskProgress();
+            tc.setProgress(progress);
+            tc.compare(d1, d2);
+            assertEquals(3, progress.getTotalFiles());
+            assertEquals(10, progress.getTotalBytes());
+            assertEquals(3, progress.getFiles());
+            assertEquals(10, progress.getBytes());
+            assertEquals(2, progress.getDirs());
+            
+            progress.cancel();
+            try {
+                tc.compare(d1, d2);
+                fail("cancelled comparison should throw InterruptedIOException");
+            } catch (InterruptedIOException e) {
+                // expected
+            }
+        }
+    }
+    
+    @Test
+    public void testMerkleSkip() throws IOException {
+        Date now = new Date();
+        // content differs, but recorded digests claim sub-dirs are identical so they are not descended
+        MockFileNode s1 = new MockFileNode("s", "SSSS", now);
+        MockFileNode s2 = new MockFileNode("s", "SSST", now);
+        DirNode subsub1 = new DirNode( "t", new ArrayList<Leaf>(), new ArrayList<DirNode>() );
+        DirNode subsub2 = new DirNode( "t", new ArrayList<Leaf>(), new ArrayList<DirNode>() );
+        DirNode same1 = new DirNode( "same", new ArrayList<Leaf>(Arrays.asList(s1)), new ArrayList<DirNode>(Arrays.asList(subsub1)) );
+        DirNode same2 = new DirNode( "same", new ArrayList<Leaf>(Arrays.asList(s2)), new ArrayList<DirNode>(Arrays.asList(subsub2)) );
+        same1.setMerkleDigest(new byte[] {1, 2, 3});
+        same2.setMerkleDigest(new byte[] {1, 2, 3});
+        MockFileNode a1 = new MockFileNode("a", "AAAA", now);
+        MockFileNode a2 = new MockFileNode("a", "AAAB", now);
+        DirNode diff1 = new DirNode( "diff", new ArrayList<Leaf>(Arrays.asList(a1)), new ArrayList<DirNode>() );
+        DirNode diff2 = new DirNode( "diff", new ArrayList<Leaf>(Arrays.asList(a2)), new ArrayList<DirNode>() );
+        diff1.setMerkleDigest(new byte[] {1, 2, 3});
+        diff2.setMerkleDigest(new byte[] {1, 2, 4});
+        DirNode d1 = new DirNode( "d1", new ArrayList<Leaf>(), new ArrayList<DirNode>(Arrays.asList(diff1, same1)) );
+        DirNode d2 = new DirNode( "d2", new ArrayList<Leaf>(), new ArrayList<DirNode>(Arrays.asList(same2, diff2)) );
+        
+        for ( int threads = 1; threads <= 2; threads++ ) {
+            TreeComparor tc = new TreeComparor(false, false);
+            tc.setParallelism(threads);
+            TaskProgress progress = new TaskProgress();
+            tc.setProgress(progress);
+            ComparisonDirNode result = tc.compare(d1, d2);
+            assertFalse(result.areSame());
+            assertEquals(4, progress.getFiles());
+            assertEquals(16, progress.getBytes());
+            assertEquals(3, progress.getDirs()); // same not descended
+            
+            ComparisonDirNode diffResult = (ComparisonDirNode)result.getDirs().get(0);
+            assertEquals("diff", diffResult.getName());
+            assertFalse(diffResult.areSame());
+            assertFalse(((LeafComparisonResult)diffResult.getLeaves().get(0)).areSame());
+            
+            // results below skipped dir are created when asked for 
+            ComparisonDirNode sameResult = (ComparisonDirNode)result.getDirs().get(1);
+            assertEquals("same", sameResult.getName());
+            assertTrue(sameResult.areSame());
+            assertEquals(1, sameResult.getLeaves().size());
+            LeafComparisonResult sResult = (LeafComparisonResult)sameResult.getLeaves().get(0);
+            assertEquals("s", sResult.getName());
+            assertTrue(sResult.areSame());
+            assertTrue(sResult.haveBoth());
+            assertEquals(1, sameResult.getDirs().size());
+            ComparisonDirNode tResult = (ComparisonDirNode)sameResult.getDirs().get(0);
+            assertEquals("t", tResult.getName());
+            assertTrue(tResult.areSame());
+            assertEquals(0, tResult.getLeaves().size());
+            assertEquals(0, sameResult.indexOfChild(tResult));
+            assertEquals(1, sameResult.indexOfChild(sResult));
+        }
+    }
+    
     @Test
     public void testTrivialTrees() throws IOException {
         MockFileNode f = new MockFileNode("a", "AAAA", new Date());
@@ -1125,4 +1246,176 @@ public class TestTreeComparor  {
     }
     
 
+    /**
+     * Mock file node which records how many comparisons are reading its device at once
+     */
+    private static class DeviceMockFileNode extends MockFileNode {
+        private final Object deviceKey;
+        private final AtomicInteger active;
+        private final AtomicInteger maxActive;
+        
+        DeviceMockFileNode(String name, String content, Object deviceKey, AtomicInteger active, AtomicInteger maxActive) {
+            super(name, content, new Date(0));
+            this.deviceKey = deviceKey;
+            this.active = active;
+            this.maxActive = maxActive;
+        }
+        
+        @Override
+        public Object getDeviceKey() {
+            return deviceKey;
+        }
+        
+        @Override
+        public long findDifference(FileNode f2, ContentMethod method) throws IOException {
+            int n = active.incrementAndGet();
+            synchronized (maxActive) {
+                if ( n > maxActive.get() ) {
+                    maxActive.set(n);
+                }
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            return super.findDifference(f2, method);
+        }
+    }
+
+    private DirNode buildMockTree(String name, String variant, int nDirs, int nFiles) {
+        ArrayList<DirNode> dirs = new ArrayList<>();
+        for ( int d = 0; d < nDirs; d++ ) {
+            ArrayList<Leaf> leaves = new ArrayList<>();
+            for ( int f = 0; f < nFiles; f++ ) {
+                String content = "content" + d + "-" + f;
+                if ( (d + f) % 7 == 0 ) {
+                    content += variant; // differs
+                }
+                if ( (d * f) % 11 == 5 && variant.length() > 0 ) {
+                    continue; // missing
+                }
+                leaves.add(new MockFileNode("f" + f, content, new Date(0)));
+            }
+            dirs.add(new DirNode("d" + d, leaves, new ArrayList<DirNode>()));
+        }
+        return new DirNode(name, new ArrayList<Leaf>(), dirs);
+    }
+    
+    private void assertSameComparison(ComparisonDirNode expected, ComparisonDirNode actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.areSame(), actual.areSame());
+        assertEquals(expected.getLeaves().size(), actual.getLeaves().size());
+        for ( int i = 0; i < expected.getLeaves().size(); i++ ) {
+            LeafComparisonResult e = (LeafComparisonResult)expected.getLeaves().get(i);
+            LeafComparisonResult a = (LeafComparisonResult)actual.getLeaves().get(i);
+            assertEquals(e.toString(), a.toString());
+            assertEquals(e.areSame(), a.areSame());
+            assertEquals(e.getDifferenceOffset(), a.getDifferenceOffset());
+        }
+        assertEquals(expected.getDirs().size(), actual.getDirs().size());
+        for ( int i = 0; i < expected.getDirs().size(); i++ ) {
+            assertSameComparison((ComparisonDirNode)expected.getDirs().get(i), (ComparisonDirNode)actual.getDirs().get(i));
+        }
+    }
+    
+    @Test
+    public void testParallel() throws IOException {
+        DirNode d1 = buildMockTree("d1", "", 20, 30);
+        DirNode d2 = buildMockTree("d2", "x", 20, 30);
+        DirNode d3 = buildMockTree("d3", "", 20, 30);
+        
+        TreeComparor serial = new TreeComparor(false, false);
+        TreeComparor parallel = new TreeComparor(false, false);
+        parallel.setParallelism(4);
+        assertEquals(4, parallel.getParallelism());
+        
+        ComparisonDirNode expected = serial.compare(d1, d2);
+        assertFalse(expected.areSame());
+        assertSameComparison(expected, parallel.compare(d1, d2));
+        
+        expected = serial.compare(d1, d3);
+        assertTrue(expected.areSame());
+        assertSameComparison(expected, parallel.compare(d1, d3));
+        
+        parallel.setDeviceLimit(1);
+        assertSameComparison(serial.compare(d1, d2), parallel.compare(d1, d2));
+    }
+    
+    @Test
+    public void testParallelDeviceLimit() throws IOException {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        ArrayList<Leaf> leaves1 = new ArrayList<>();
+        ArrayList<Leaf> leaves2 = new ArrayList<>();
+        for ( int f = 0; f < 40; f++ ) {
+            leaves1.add(new DeviceMockFileNode("f" + f, "content" + f, "dev", active, maxActive));
+            leaves2.add(new DeviceMockFileNode("f" + f, "content" + f, "dev", active, maxActive));
+        }
+        DirNode d1 = new DirNode("d1", leaves1, new ArrayList<DirNode>());
+        DirNode d2 = new DirNode("d2", leaves2, new ArrayList<DirNode>());
+        
+        TreeComparor tc = new TreeComparor(false, false);
+        tc.setParallelism(4);
+        tc.setDeviceLimit(1);
+        assertEquals(1, tc.getDeviceLimit());
+        assertTrue(tc.compare(d1, d2).areSame());
+        assertEquals(1, maxActive.get());
+        
+        maxActive.set(0);
+        tc.setDeviceLimit(2);
+        assertTrue(tc.compare(d1, d2).areSame());
+        assertTrue(maxActive.get() <= 2);
+    }
+    
+    @Test
+    public void testParallelError() throws IOException {
+        ArrayList<Leaf> leaves1 = new ArrayList<>();
+        ArrayList<Leaf> leaves2 = new ArrayList<>();
+        for ( int f = 0; f < 20; f++ ) {
+            leaves1.add(new MockFileNode("f" + f, "content" + f, new Date(0)));
+            if ( f == 10 ) {
+                leaves2.add(new ReadFailMockFileNode("f" + f, "content" + f, new Date(0), 2));
+            } else {
+                leaves2.add(new MockFileNode("f" + f, "content" + f, new Date(0)));
+            }
+        }
+        DirNode d1 = new DirNode("d1", leaves1, new ArrayList<DirNode>());
+        DirNode d2 = new DirNode("d2", leaves2, new ArrayList<DirNode>());
+        
+        // text comparison reads content through stream
+        TreeComparor tc = new TreeComparor(false, true);
+        tc.setParallelism(3);
+        try {
+            tc.compare(d1, d2);
+            fail("expected exception not thrown");
+        } catch (IOException ioe) {
+            // expected
+        }
+        tc.setErrorHandler(new LoggingErrorHandler(LogManager.getRootLogger(), true));
+        ComparisonDirNode result = tc.compare(d1, d2);
+        assertFalse(result.areSame());
+        for ( Leaf l: result.getLeaves() ) {
+            assertEquals(l.getName(), !l.getName().equals("f10"), ((LeafComparisonResult)l).areSame());
+        }
+    }
+    
+    @Test
+    public void testBadParallelism() {
+        TreeComparor tc = new TreeComparor(false, false);
+        try {
+            tc.setParallelism(0);
+            fail("expected exception not thrown");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            tc.setDeviceLimit(-1);
+            fail("expected exception not thrown");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+    
 }
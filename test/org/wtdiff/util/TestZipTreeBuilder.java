@@ -38,6 +38,8 @@ import org.wtdiff.util.NoHandleErrorHandler;
 import org.wtdiff.util.Node;
 import org.wtdiff.util.TreeComparor;
 import org.wtdiff.util.ZipTreeBuilder;
+import org.wtdiff.util.filter.CompositeNodeFilter;
+import org.wtdiff.util.filter.GlobNameFilter;
 
 public class TestZipTreeBuilder   {
 
@@ -209,6 +211,44 @@ public class TestZipTreeBuilder   {
         
     }
 
+    @Test
+    public void testFilter() throws IOException {
+        ZipTestHelper helper = new ZipTestHelper();
+        Date now = new Date();
+
+        helper.addTestZipDir("tdir/");
+        helper.addTestZipFile("tdir/sdir/sfile", "sfile-content", now);
+        helper.addTestZipFile("tdir/xfile", "xfile-content", now);
+        helper.addTestZipDir("xdir/");
+        helper.addTestZipFile("xdir/tfile", "tfile-content", now);
+        helper.addTestZipFile("tfile", "tfile-content", now);
+        helper.addTestZipFile("xfile", "xfile-content", now);
+        
+        File zipFile = helper.createTestZipFile("tfile.zip");
+        ZipTreeBuilder builder = new ZipTreeBuilder(zipFile.getCanonicalPath());
+        builder.setFilter(new CompositeNodeFilter().add(new GlobNameFilter("x*")));
+        DirNode rootNode = builder.buildTree(noHandler);
+        
+        assertEquals( 1, rootNode.getDirs().size() );
+        assertEquals( 1, rootNode.getLeaves().size() );
+        assertEquals("tfile", rootNode.getLeaves().get(0).getName() );
+        assertEquals("tdir", rootNode.getDirs().get(0).getName() );
+        DirNode tNode =  rootNode.getDirs().get(0);
+        assertEquals( 1, tNode.getDirs().size() );
+        assertEquals( 0, tNode.getLeaves().size() );
+        DirNode sNode = tNode.getDirs().get(0);
+        assertEquals( 1, sNode.getLeaves().size() );
+        assertEquals("sfile", sNode.getLeaves().get(0).getName() );
+        
+        // excluded root gives empty tree
+        builder = new ZipTreeBuilder(zipFile.getCanonicalPath());
+        builder.setFilter(new GlobNameFilter("*.zip"));
+        rootNode = builder.buildTree(noHandler);
+        assertEquals( zipFile.getName(), rootNode.getName() );
+        assertEquals( 0, rootNode.getDirs().size() );
+        assertEquals( 0, rootNode.getLeaves().size() );
+    }
+
     @Test
     public void testDirs() throws IOException {
         ZipTestHelper helper = new ZipTestHelper();
@@ -350,4 +390,112 @@ public class TestZipTreeBuilder   {
         }
     }
 
+    /**
+     * all content streams share a single open of the zip file
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testSharedZipFile() throws IOException {
+        Date now = new Date();
+        ZipTestHelper helper = new ZipTestHelper();
+        for ( int i = 0; i < 10; i++ ) {
+            helper.addTestZipFile("tfile" + i, "tfile-content" + i, now);
+        }
+        File zipFile = helper.createTestZipFile("shared.zip");
+        ZipTreeBuilder builder = new ZipTreeBuilder(zipFile.getPath());
+        DirNode root = builder.buildTree(noHandler);
+        assertEquals(0, builder.getZipOpenCount());
+        
+        List<Leaf> leaves = root.getLeaves();
+        assertEquals(10, leaves.size());
+        for ( Leaf leaf: leaves ) {
+            FileNode node = (FileNode)leaf;
+            MockFileNode mockNode = new MockFileNode(node.getName(), "tfile-content" + node.getName().substring(5), now);
+            assertTrue(node.compareDetails(mockNode, FileNode.CONTENT_METHOD_CONTENT));
+            assertTrue(java.util.Arrays.equals(mockNode.getMd5(), node.getMd5()));
+        }
+        assertEquals(1, builder.getZipOpenCount());
+        
+        // concurrent streams 
+        FileNode node0 = (FileNode)leaves.get(0);
+        FileNode node1 = (FileNode)leaves.get(1);
+        try ( InputStream s0 = node0.getInputStream(); InputStream s1 = node1.getInputStream() ) {
+            assertEquals('t', s0.read());
+            assertEquals('t', s1.read());
+            // closing tree while streams are open doesn't close zip under them
+            builder.close();
+            assertEquals('f', s0.read());
+            assertEquals('f', s1.read());
+        }
+        assertEquals(1, builder.getZipOpenCount());
+        
+        // reading after release reopens
+        MockFileNode mockNode0 = new MockFileNode(node0.getName(), "tfile-content" + node0.getName().substring(5), now);
+        assertTrue(node0.compareDetails(mockNode0, FileNode.CONTENT_METHOD_CONTENT));
+        assertEquals(2, builder.getZipOpenCount());
+        builder.close();
+    }
+    
+    /**
+     * sub directories are ordered by name whatever the order of zip entries
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testDirOrder() throws IOException {
+        Date now = new Date();
+        ZipTestHelper helper = new ZipTestHelper();
+        String[] dirs = { "m", "b", "z", "a", "c" };
+        for ( String dir: dirs ) {
+            helper.addTestZipFile(dir + "/x/tfile", "content", now);
+            helper.addTestZipFile(dir + "/tfile", "content", now);
+        }
+        helper.addTestZipFile("b/x/afile", "content", now);
+        File zipFile = helper.createTestZipFile("order.zip");
+        ZipTreeBuilder builder = new ZipTreeBuilder(zipFile.getPath());
+        DirNode root = builder.buildTree(noHandler);
+        List<DirNode> children = root.getDirs();
+        String[] expected = { "a", "b", "c", "m", "z" };
+        assertEquals(expected.length, children.size());
+        for ( int i = 0; i < expected.length; i++ ) {
+            DirNode child = children.get(i);
+            assertEquals(expected[i], child.getName());
+            assertEquals(1, child.getLeaves().size());
+            assertEquals(1, child.getDirs().size());
+            assertEquals("x", child.getDirs().get(0).getName());
+        }
+        assertEquals(2, children.get(1).getDirs().get(0).getLeaves().size());
+        builder.close();
+    }
+    
+    /**
+     * close requested while streams are open is not lost when another
+     * stream is opened meanwhile
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testCloseDuringReuse() throws IOException {
+        Date now = new Date();
+        ZipTestHelper helper = new ZipTestHelper();
+        helper.addTestZipFile("tfile0", "tfile-content0", now);
+        helper.addTestZipFile("tfile1", "tfile-content1", now);
+        File zipFile = helper.createTestZipFile("reuse.zip");
+        ZipTreeBuilder builder = new ZipTreeBuilder(zipFile.getPath());
+        DirNode root = builder.buildTree(noHandler);
+        FileNode node0 = (FileNode)root.getLeaves().get(0);
+        FileNode node1 = (FileNode)root.getLeaves().get(1);
+        try ( InputStream s0 = node0.getInputStream() ) {
+            builder.close();
+            try ( InputStream s1 = node1.getInputStream() ) {
+                assertEquals('t', s1.read());
+            }
+            assertEquals('t', s0.read());
+        }
+        assertEquals(1, builder.getZipOpenCount());
+        // zip was closed with last stream, so is reopened
+        node0.getInputStream().close();
+        assertEquals(2, builder.getZipOpenCount());
+    }
 }
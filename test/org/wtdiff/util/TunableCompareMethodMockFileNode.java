@@ -56,7 +56,7 @@ public class TunableCompareMethodMockFileNode extends MockFileNode {
         return super.getCrc();
     }
 
-    public boolean compareDetails(FileNode f2, ContentMethod method) throws IOException {
+    public long findDifference(FileNode f2, ContentMethod method) throws IOException {
         if ( getContentMethodCost(method) >= COST_IMPOSSIBLE ) {
             throw new IOException("BAD compareDetails invoked with method" + method +  "even though cost impossible");
         }
@@ -64,7 +64,7 @@ public class TunableCompareMethodMockFileNode extends MockFileNode {
             throw new IOException("BAD compareDetails invoked with compare tetxt method even though not text");
         }
         usedMethod = method;
-        return super.compareDetails( f2, method);
+        return super.findDifference( f2, method);
     }
     
 }
@@ -0,0 +1,323 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.DirNodeStream;
+import org.wtdiff.util.FileNode;
+import org.wtdiff.util.Leaf;
+import org.wtdiff.util.MockFileNode;
+import org.wtdiff.util.FileNode.FileType;
+import org.wtdiff.util.filter.GlobNameFilter;
+import org.wtdiff.util.xml.SnapshotFileNode;
+
+public class TestBinarySnapshotWriter {
+
+    private static final List<String> DIGESTS = Arrays.asList("CRC32", "MD5");
+    
+    private byte[] write(DirNode dir, List<String> digests, boolean compress, String comment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinarySnapshotWriter writer = new BinarySnapshotWriter(out, digests, compress);
+        writer.writeDirNodeSnapShot(dir, comment, "the root");
+        return out.toByteArray();
+    }
+    
+    private DirNode read(byte[] snapshot) throws IOException {
+        return new BinarySnapshotReader().readSnapshot(new ByteArrayInputStream(snapshot));
+    }
+    
+    private DirNode sampleTree() {
+        MockFileNode text = new MockFileNode("text", "some text\n", new Date(1234567));
+        MockFileNode binary = new MockFileNode("binary", new byte[] {0, 1, 2, (byte)0xff}, new Date(-1001));
+        MockFileNode link = new MockFileNode("link", "", new Date(0));
+        link.setFileType(FileType.SYMLINK);
+        link.setLinkTo("../text");
+        MockFileNode special = new MockFileNode("special", "", new Date(0));
+        special.setFileType(FileType.SPECIAL);
+        DirNode sub = new DirNode("sub", new ArrayList<Leaf>(Arrays.asList((Leaf)new MockFileNode("text", "other\n", new Date(0)))), new ArrayList<DirNode>());
+        DirNode specials = new DirNode("specials", new ArrayList<Leaf>(Arrays.asList((Leaf)special)), new ArrayList<DirNode>());
+        return new DirNode("top", new ArrayList<Leaf>(Arrays.asList((Leaf)text, binary, link)), new ArrayList<DirNode>(Arrays.asList(sub, specials)));
+    }
+    
+    private void assertSameFile(FileNode expected, FileNode actual) throws IOException {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getFileType(), actual.getFileType());
+        assertEquals(expected.getSize(), actual.getSize());
+        assertEquals(expected.getTime(), actual.getTime());
+        assertEquals(expected.getTimeNanos(), actual.getTimeNanos());
+        assertEquals(expected.isText(), actual.isText());
+        if ( expected.getFileType() == FileType.REGFILE ) {
+            assertEquals(expected.getCrc(), actual.getCrc());
+            assertArrayEquals(expected.getMd5(), actual.getMd5());
+        } else if ( expected.getFileType() == FileType.SYMLINK ) {
+            assertEquals(expected.getLinkTo(), actual.getLinkTo());
+        }
+    }
+    
+    private void assertSameTree(DirNode expected, DirNode actual) throws IOException {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getLeaves().size(), actual.getLeaves().size());
+        for ( int i = 0; i < expected.getLeaves().size(); i++ ) {
+            assertSameFile((FileNode)expected.getLeaves().get(i), (FileNode)actual.getLeaves().get(i));
+        }
+        assertEquals(expected.getDirs().size(), actual.getDirs().size());
+        for ( int i = 0; i < expected.getDirs().size(); i++ ) {
+            assertSameTree(expected.getDirs().get(i), actual.getDirs().get(i));
+        }
+    }
+    
+    @Test
+    public void testRoundTrip() throws IOException {
+        for ( boolean compress: new boolean[] {false, true} ) {
+            DirNode top = sampleTree();
+            byte[] snapshot = write(top, DIGESTS, compress, "a comment");
+            BinarySnapshotReader reader = new BinarySnapshotReader();
+            DirNode read = reader.readSnapshot(new ByteArrayInputStream(snapshot));
+            assertSameTree(top, read);
+            assertTrue(read.getLeaves().get(0) instanceof SnapshotFileNode);
+            assertEquals(DIGESTS, reader.getAvailableDigests());
+            assertEquals("the root", reader.getSnapshotInfo().get("capture-root"));
+            assertEquals("a comment", reader.getSnapshotInfo().get("user-comment"));
+            assertEquals(System.getProperty("user.name"), reader.getSnapshotInfo().get("user"));
+            assertNotNull(reader.getSnapshotInfo().get("capture-time"));
+            
+            // Merkle digests are recorded where possible
+            assertArrayEquals(top.getDirs().get(0).computeMerkleDigest(), read.getDirs().get(0).getMerkleDigest());
+            assertNull(read.getDirs().get(1).getMerkleDigest());
+            assertNull(read.getMerkleDigest());
+        }
+    }
+    
+    @Test
+    public void testTimeNanos() throws IOException {
+        final long nanos = -1234567890123L;
+        MockFileNode file = new MockFileNode("f", "f", new Date(0)) {
+            @Override
+            public long getTimeNanos() {
+                return nanos;
+            }
+        };
+        DirNode top = new DirNode("", new ArrayList<Leaf>(Arrays.asList((Leaf)file)), new ArrayList<DirNode>());
+        FileNode read = (FileNode)read(write(top, DIGESTS, false, null)).getLeaves().get(0);
+        assertEquals(nanos, read.getTimeNanos());
+        assertEquals(-1234568, read.getTime());
+    }
+    
+    @Test
+    public void testFileKeys() throws IOException {
+        MockFileNode file = new MockFileNode("f", "f", new Date(0)) {
+            @Override
+            public String getFileKey() {
+                return "(dev=801,ino=1234)";
+            }
+        };
+        DirNode top = new DirNode("", new ArrayList<Leaf>(Arrays.asList((Leaf)file)), new ArrayList<DirNode>());
+        // not written by default
+        assertNull(((FileNode)read(write(top, DIGESTS, false, null)).getLeaves().get(0)).getFileKey());
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinarySnapshotWriter writer = new BinarySnapshotWriter(out, DIGESTS, false);
+        writer.setWriteFileKeys(true);
+        writer.writeDirNodeSnapShot(top, null, "the root");
+        SnapshotFileNode read = (SnapshotFileNode)read(out.toByteArray()).getLeaves().get(0);
+        assertEquals("(dev=801,ino=1234)", read.getFileKey());
+        assertTrue(read.isTimeNanosKnown());
+        assertSameFile(file, read);
+    }
+    
+    @Test
+    public void testDigests() throws IOException {
+        DirNode top = sampleTree();
+        DirNode read = read(write(top, Arrays.asList("MD5"), false, null));
+        FileNode text = (FileNode)read.getLeaves().get(0);
+        assertArrayEquals(((FileNode)top.getLeaves().get(0)).getMd5(), text.getMd5());
+        assertEquals(FileNode.COST_IMPOSSIBLE, text.getContentMethodCost(FileNode.CONTENT_METHOD_CRC), 0.0);
+        
+        read = read(write(top, Collections.<String>emptyList(), false, null));
+        text = (FileNode)read.getLeaves().get(0);
+        assertEquals(FileNode.COST_IMPOSSIBLE, text.getContentMethodCost(FileNode.CONTENT_METHOD_MD5), 0.0);
+        assertNull(read.getDirs().get(0).getMerkleDigest());
+        
+        // digest not possible for a file is left out
+        MockFileNode noMd5 = new MockFileNode("nomd5", "x", new Date(0)) {
+            @Override
+            public double getContentMethodCost(ContentMethod method) {
+                return method == CONTENT_METHOD_MD5 ? COST_IMPOSSIBLE : COST_EASY;
+            }
+        };
+        top = new DirNode("", new ArrayList<Leaf>(Arrays.asList((Leaf)noMd5)), new ArrayList<DirNode>());
+        text = (FileNode)read(write(top, DIGESTS, false, null)).getLeaves().get(0);
+        assertEquals(noMd5.getCrc(), text.getCrc());
+        assertEquals(FileNode.COST_IMPOSSIBLE, text.getContentMethodCost(FileNode.CONTENT_METHOD_MD5), 0.0);
+        
+        try {
+            new BinarySnapshotWriter(new ByteArrayOutputStream(), Arrays.asList("MD5", "MD5"), false);
+            fail("duplicate digest should fail");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            new BinarySnapshotWriter(new ByteArrayOutputStream(), Arrays.asList("SHA1"), false);
+            fail("unknown digest should fail");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testNameTable() throws IOException {
+        // repeated names are written once
+        List<DirNode> dirs = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ ) {
+            dirs.add(new DirNode("a rather long repeated name", new ArrayList<Leaf>(), new ArrayList<DirNode>()));
+        }
+        DirNode middle = new DirNode("middle", new ArrayList<Leaf>(), dirs);
+        byte[] snapshot = write(new DirNode(middle), DIGESTS, false, null);
+        assertTrue(snapshot.length < 100 * "a rather long repeated name".length());
+        try {
+            read(snapshot);
+            fail("duplicate names should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testFilter() throws IOException {
+        DirNode top = sampleTree();
+        BinarySnapshotReader reader = new BinarySnapshotReader();
+        reader.setFilter(new GlobNameFilter("s*"));
+        DirNode read = reader.readSnapshot(new ByteArrayInputStream(write(top, DIGESTS, false, null)));
+        assertEquals(3, read.getLeaves().size());
+        assertEquals(0, read.getDirs().size());
+    }
+    
+    @Test
+    public void testMalformed() throws IOException {
+        byte[] good = write(sampleTree(), DIGESTS, false, null);
+        assertTrue(new BinarySnapshotReader().isSnapshot(new ByteArrayInputStream(good)));
+        assertFalse(new BinarySnapshotReader().isSnapshot(new ByteArrayInputStream("<file-tree-snapshot>".getBytes())));
+        assertFalse(new BinarySnapshotReader().isSnapshot(new ByteArrayInputStream(new byte[] {'W', 'T'})));
+        
+        List<byte[]> bad = new ArrayList<>();
+        bad.add("<file-tree-snapshot>".getBytes());
+        bad.add(Arrays.copyOf(good, good.length - 1));
+        byte[] badVersion = good.clone();
+        badVersion[BinarySnapshotConstants.MAGIC.length] = 99;
+        bad.add(badVersion);
+        byte[] badFraming = good.clone();
+        badFraming[BinarySnapshotConstants.MAGIC.length + 1] = 7;
+        bad.add(badFraming);
+        for ( byte[] snapshot: bad ) {
+            try {
+                read(snapshot);
+                fail("malformed snapshot should fail");
+            } catch (IOException ioe) {
+                // expected
+            }
+        }
+    }
+    
+    @Test
+    public void testSmallerThanXml() throws Exception {
+        List<Leaf> leaves = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            leaves.add(new MockFileNode("file" + i, "content " + i, new Date(i * 1000L)));
+        }
+        DirNode top = new DirNode("", leaves, new ArrayList<DirNode>());
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        new org.wtdiff.util.xml.DirNodeXMLStreamWriter(xml, DIGESTS).writeDirNodeSnapShot(top);
+        byte[] binary = write(top, DIGESTS, false, null);
+        byte[] compressed = write(top, DIGESTS, true, null);
+        assertTrue(binary.length * 3 < xml.size());
+        assertTrue(compressed.length < binary.length);
+        
+        HashMap<String, Long> sizes = new HashMap<>();
+        for ( Leaf l: read(compressed).getLeaves() ) {
+            sizes.put(l.getName(), ((FileNode)l).getSize());
+        }
+        assertEquals(1000, sizes.size());
+    }
+    @Test
+    public void testOpenStream() throws IOException {
+        byte[] snapshot = write(sampleTree(), DIGESTS, true, "a comment");
+        BinarySnapshotReader reader = new BinarySnapshotReader();
+        try ( DirNodeStream stream = reader.openStream(new ByteArrayInputStream(snapshot)) ) {
+            assertEquals("a comment", reader.getSnapshotInfo().get("user-comment"));
+            DirNode top = stream.nextDir();
+            assertEquals("top", top.getName());
+            assertEquals(3, top.getLeaves().size());
+            assertEquals(0, top.getDirs().size());
+            DirNode sub = stream.nextDir();
+            assertEquals("sub", sub.getName());
+            assertEquals(1, sub.getLeaves().size());
+            assertNull(stream.nextDir()); // end of sub
+            assertEquals("specials", stream.nextDir().getName());
+            stream.skipDir();
+            assertNull(stream.nextDir()); // end of top
+            assertNull(stream.nextDir());
+        }
+        
+        reader.setFilter(new GlobNameFilter("sub"));
+        try ( DirNodeStream stream = reader.openStream(new ByteArrayInputStream(snapshot)) ) {
+            stream.nextDir();
+            assertEquals("specials", stream.nextDir().getName());
+            stream.skipDir();
+            stream.skipDir();
+            assertNull(stream.nextDir());
+        }
+        
+        try ( DirNodeStream stream = reader.openStream(new ByteArrayInputStream(Arrays.copyOf(snapshot, snapshot.length / 2))) ) {
+            while ( stream.nextDir() != null ) {
+                // read through
+            }
+            fail("truncated snapshot should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHugeLength() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(BinarySnapshotConstants.MAGIC);
+        out.write(BinarySnapshotConstants.VERSION);
+        out.write(BinarySnapshotConstants.FRAMING_NONE);
+        out.write(1); // one info entry
+        // name length of 2^31 - 1 as varint
+        out.write(new byte[] { (byte)0xff, (byte)0xff, (byte)0xff, (byte)0xff, 0x07 });
+        try {
+            read(out.toByteArray());
+            fail("huge string length should fail");
+        } catch (IOException ioe) {
+            assertTrue(ioe.getMessage().contains("2,147,483,647") || ioe.getMessage().contains("2147483647"));
+        }
+    }
+}
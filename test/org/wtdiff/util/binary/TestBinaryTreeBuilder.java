@@ -0,0 +1,133 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.binary;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wtdiff.util.CompareController;
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.FileSystemTestHelper;
+import org.wtdiff.util.Leaf;
+import org.wtdiff.util.MockFileNode;
+import org.wtdiff.util.NoHandleErrorHandler;
+import org.wtdiff.util.filter.GlobNameFilter;
+import org.wtdiff.util.xml.Snapshotter;
+
+public class TestBinaryTreeBuilder {
+
+    FileSystemTestHelper helper;
+
+    @Before
+    public void setUp() throws Exception {
+        helper = new FileSystemTestHelper();
+    }
+    
+    private File writeSnapshot(String name, DirNode dir) throws IOException {
+        File snapshot = new File(helper.createTestDir(name), "snapshot.bin");
+        try ( OutputStream out = new FileOutputStream(snapshot) ) {
+            new BinarySnapshotWriter(out, Arrays.asList("CRC32", "MD5"), true).writeDirNodeSnapShot(dir);
+        }
+        return snapshot;
+    }
+    
+    @Test
+    public void testIsSnapshot() throws IOException {
+        File snapshot = writeSnapshot("testIsSnapshot", new DirNode("", new ArrayList<Leaf>(), new ArrayList<DirNode>()));
+        assertTrue(BinaryTreeBuilder.isBinarySnapshot(snapshot.getPath()));
+        assertFalse(BinaryTreeBuilder.isBinarySnapshot(snapshot.getParent()));
+        File xml = helper.createTestFile("xml", "<?xml version=\"1.0\"?><file-tree-snapshot></file-tree-snapshot>");
+        assertFalse(BinaryTreeBuilder.isBinarySnapshot(xml.getPath()));
+        try {
+            BinaryTreeBuilder.isBinarySnapshot(new File(snapshot.getParent(), "noexist").getPath());
+            fail("nonexistent file should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testBuild() throws IOException {
+        MockFileNode f = new MockFileNode("f", "content", new Date(0));
+        DirNode sub = new DirNode("sub", new ArrayList<Leaf>(Arrays.asList((Leaf)f)), new ArrayList<DirNode>());
+        File snapshot = writeSnapshot("testBuild", new DirNode(sub));
+        
+        DirNode root = new BinaryTreeBuilder(snapshot.getPath()).buildTree(new NoHandleErrorHandler());
+        assertEquals("snapshot.bin", root.getName());
+        assertEquals(snapshot.getPath(), root.getRoot());
+        assertEquals(1, root.getDirs().size());
+        assertEquals("sub", root.getDirs().get(0).getName());
+        assertEquals("f", root.getDirs().get(0).getLeaves().get(0).getName());
+        
+        BinaryTreeBuilder builder = new BinaryTreeBuilder(snapshot.getPath());
+        builder.setFilter(new GlobNameFilter("f"));
+        root = builder.buildTree(new NoHandleErrorHandler());
+        assertEquals(0, root.getDirs().get(0).getLeaves().size());
+        
+        builder = new BinaryTreeBuilder(snapshot.getPath());
+        builder.setFilter(new GlobNameFilter("sub"));
+        root = builder.buildTree(new NoHandleErrorHandler());
+        assertEquals(0, root.getDirs().size());
+    }
+
+    @Test
+    public void testNoexist() throws IOException {
+        File noexist = new File(helper.createTestDir("testNoexist"), "noexist");
+        try {
+            new BinaryTreeBuilder(noexist.getPath()).buildTree(new NoHandleErrorHandler());
+            fail("nonexistent snapshot should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testCompareWithDir() throws IOException {
+        File testDir = helper.createTestDir("testCompareWithDir");
+        File testSubDir = helper.createTestDir("sd", testDir);
+        helper.createTestFile("aFile", "aFile content", testSubDir);
+        helper.createTestFile("bFile", "bFile content", helper.createTestDir("sub", testSubDir));
+        File saveFile = new File(testDir, "snapshot.bin");
+        Snapshotter snapper = new Snapshotter();
+        snapper.setBinary(true);
+        snapper.setCompress(true);
+        assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), saveFile.getPath()));
+        assertTrue(BinaryTreeBuilder.isBinarySnapshot(saveFile.getPath()));
+        
+        CompareController controller = new CompareController();
+        controller.setOldRoot(testSubDir.getPath());
+        controller.setNewRoot(saveFile.getPath());
+        controller.compare();
+        assertTrue(controller.getCompareRootNode().areSame());
+        
+        helper.createTestFile("cFile", "cFile content", testSubDir);
+        controller = new CompareController();
+        controller.setOldRoot(testSubDir.getPath());
+        controller.setNewRoot(saveFile.getPath());
+        controller.compare();
+        assertFalse(controller.getCompareRootNode().areSame());
+    }
+}
@@ -19,11 +19,13 @@ package org.wtdiff.util.filter;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.wtdiff.util.MockFileNode;
+import org.wtdiff.util.Node;
 import org.wtdiff.util.filter.NodeFilter.Result;
 
 public class TestCompositeFilter {
@@ -111,4 +113,90 @@ public class TestCompositeFilter {
         }
     }
         
+    /**
+     * Result of trying each filter in turn, as composite filter did before compiling globs
+     */
+    private Result filterEach(List<NodeFilter> filters, Node node) {
+        for( NodeFilter f: filters ) {
+            Result r = f.filterNode(node);
+            if ( r != Result.NONE ) {
+                return r;
+            }
+        }
+        return Result.NONE;
+    }
+    
+    @Test
+    public void testCompiledSameAsEach() {
+        String[] globs = { "build", "*.o", "*.class", "tmp*", "*cache*", "a?c", "[ab]*x", 
+            "x|y", "a.b", "*", "", "**", "n*e", "(p)", "*$", "^q" };
+        String[] names = { "", "build", "builds", "x.o", ".o", "o", "A.class", "tmpdir", "tmp", 
+            "mycachedir", "cache", "abc", "axc", "ac", "a-x", "bzzx", "x", "y", "x|y", "a.b", "axb", 
+            "name", "ne", "(p)", "p", "$", "q", "^q", "line\nbreak", "tmp\n", "\n.o", "build\n" };
+        List<NodeFilter> all = new ArrayList<NodeFilter>();
+        for ( String glob: globs ) {
+            all.add(new GlobNameFilter(glob));
+        }
+        // each glob alone, all but the match anything globs, and all 
+        for ( int i = 0; i <= globs.length + 1; i++ ) {
+            List<NodeFilter> filters;
+            if ( i < globs.length ) {
+                filters = all.subList(i, i+1);
+            } else if ( i == globs.length ) {
+                filters = new ArrayList<NodeFilter>(all);
+                filters.removeAll(all.subList(9, 12));
+            } else {
+                filters = all;
+            }
+            CompositeNodeFilter composite = new CompositeNodeFilter().add(filters);
+            for ( String name: names ) {
+                MockFileNode node = new MockFileNode(name);
+                assertEquals( filters + " " + name, filterEach(filters, node), composite.filterNode(node) );
+            }
+        }
+    }
+    
+    @Test
+    public void testPrecedence() {
+        final MockFileNode keep = new MockFileNode("keep.o");
+        NodeFilter includeKeep = new NodeFilter() {
+            @Override
+            public Result filterNode(Node node) {
+                return node.getName().startsWith("keep") ? Result.INCLUDE : Result.NONE;
+            }
+        };
+        MockFileNode other = new MockFileNode("other.o");
+        MockFileNode keepC = new MockFileNode("keep.c");
+        {
+            // include before glob wins
+            CompositeNodeFilter filter = new CompositeNodeFilter();
+            filter.add(new GlobNameFilter("*.c")).add(includeKeep).add(new GlobNameFilter("*.o"));
+            assertEquals( Result.INCLUDE, filter.filterNode(keep) );
+            assertEquals( Result.EXCLUDE, filter.filterNode(other) );
+            assertEquals( Result.EXCLUDE, filter.filterNode(keepC) );
+        }
+        {
+            // glob before include wins
+            CompositeNodeFilter filter = new CompositeNodeFilter();
+            filter.add(new GlobNameFilter("*.o")).add(includeKeep);
+            assertEquals( Result.EXCLUDE, filter.filterNode(keep) );
+            assertEquals( Result.INCLUDE, filter.filterNode(keepC) );
+        }
+    }
+    
+    @Test
+    public void testChanges() {
+        MockFileNode aNode = new MockFileNode("a.o");
+        MockFileNode bNode = new MockFileNode("b.c");
+        GlobNameFilter glob = new GlobNameFilter("*.o");
+        CompositeNodeFilter filter = new CompositeNodeFilter().add(glob);
+        assertEquals( Result.EXCLUDE, filter.filterNode(aNode) );
+        assertEquals( Result.NONE, filter.filterNode(bNode) );
+        // added filter applies
+        filter.add(new GlobNameFilter("b*"));
+        assertEquals( Result.EXCLUDE, filter.filterNode(bNode) );
+        // changed glob applies
+        glob.setGlob("*.a");
+        assertEquals( Result.NONE, filter.filterNode(aNode) );
+    }
 }
@@ -0,0 +1,87 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class TestCRLFFilterInputStream {
+
+    private static final int[] BUFFER_SIZES = { 1, 2, 3, 5, 64 };
+    
+    private String filter(String raw, int bufferSize, int readSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( InputStream is = new CRLFFilterInputStream(
+            new ByteArrayInputStream(raw.getBytes("ISO-8859-1")), bufferSize) ) {
+            if ( readSize == 1 ) {
+                int ch;
+                while ( (ch = is.read()) >= 0 ) {
+                    out.write(ch);
+                }
+            } else {
+                byte[] b = new byte[readSize];
+                int n;
+                while ( (n = is.read(b, 0, b.length)) >= 0 ) {
+                    out.write(b, 0, n);
+                }
+            }
+        }
+        return out.toString("ISO-8859-1");
+    }
+    
+    private void expectFiltered(String expected, String raw) throws IOException {
+        for ( int bufferSize: BUFFER_SIZES ) {
+            for ( int readSize: BUFFER_SIZES ) {
+                assertEquals("buffer " + bufferSize + " read " + readSize, 
+                    expected, filter(raw, bufferSize, readSize));
+            }
+        }
+    }
+
+    @Test
+    public void testLineSeparators() throws IOException {
+        expectFiltered("", "");
+        expectFiltered("abc", "abc");
+        expectFiltered("\nA\n", "\r\nA\r\n");
+        expectFiltered("\nA\n", "\rA\r");
+        expectFiltered("\nA\n", "\nA\n");
+        expectFiltered("\n\nB\n", "\n\rB\r\n");
+        expectFiltered("\n\n", "\r\r");
+        expectFiltered("\n\n", "\r\r\n");
+        expectFiltered("\n\n\n", "\r\n\n\r");
+        expectFiltered("A\n", "A\r");
+        expectFiltered("\nA", "\rA");
+        expectFiltered("\n\u0000", "\r\u0000");
+    }
+
+    @Test
+    public void testCtrlZ() throws IOException {
+        expectFiltered("AB", "AB\032");
+        expectFiltered("A\032B", "A\032B");
+        expectFiltered("", "\032");
+        expectFiltered("\032", "\032\032");
+        expectFiltered("\032\n", "\032\r\n");
+        expectFiltered("A\n", "A\r\n\032");
+        expectFiltered("A\n", "A\r\032");
+    }
+}
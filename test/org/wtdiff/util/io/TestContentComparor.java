@@ -0,0 +1,106 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.wtdiff.util.FileSystemTestHelper;
+
+public class TestContentComparor {
+
+    private byte[] filled(int length, byte b) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, b);
+        return bytes;
+    }
+
+    private long streamDiff(byte[] b1, byte[] b2) throws IOException {
+        return ContentComparor.findFirstDifference(
+            new ByteArrayInputStream(b1), new ByteArrayInputStream(b2)
+        );
+    }
+
+    @Test
+    public void testMismatch() {
+        byte[] b1 = filled(21, (byte)'a');
+        for ( int i = 0; i < b1.length; i++ ) {
+            byte[] b2 = b1.clone();
+            b2[i] = 'b';
+            assertEquals(i, ContentComparor.mismatch(ByteBuffer.wrap(b1), ByteBuffer.wrap(b2), b1.length));
+            assertEquals(-1, ContentComparor.mismatch(ByteBuffer.wrap(b1), ByteBuffer.wrap(b2), i));
+        }
+        assertEquals(-1, ContentComparor.mismatch(ByteBuffer.wrap(b1), ByteBuffer.wrap(b1.clone()), b1.length));
+        assertEquals(-1, ContentComparor.mismatch(ByteBuffer.wrap(b1), ByteBuffer.wrap(b1), 0));
+    }
+
+    @Test
+    public void testStreams() throws IOException {
+        assertEquals(ContentComparor.SAME, streamDiff(new byte[0], new byte[0]));
+        assertEquals(0, streamDiff(new byte[0], "a".getBytes()));
+        assertEquals(0, streamDiff("a".getBytes(), new byte[0]));
+        assertEquals(ContentComparor.SAME, streamDiff("abc".getBytes(), "abc".getBytes()));
+        assertEquals(2, streamDiff("abc".getBytes(), "abd".getBytes()));
+        assertEquals(3, streamDiff("abc".getBytes(), "abcd".getBytes()));
+        assertEquals(3, streamDiff("abcd".getBytes(), "abc".getBytes()));
+    }
+
+    @Test
+    public void testStreamsBufferBoundary() throws IOException {
+        int size = ContentComparor.STREAM_BUFFER_SIZE;
+        byte[] b = filled(size * 2 + 3, (byte)'a');
+        assertEquals(ContentComparor.SAME, streamDiff(b, b.clone()));
+        int[] offsets = { size - 1, size, size + 1, size * 2 + 2 };
+        for ( int offset: offsets ) {
+            byte[] b2 = b.clone();
+            b2[offset] = 'b';
+            assertEquals(offset, streamDiff(b, b2));
+            assertEquals(offset, streamDiff(b2, b));
+        }
+        assertEquals(size, streamDiff(Arrays.copyOf(b, size), b));
+        assertEquals(size, streamDiff(b, Arrays.copyOf(b, size)));
+    }
+
+    @Test
+    public void testPaths() throws IOException {
+        FileSystemTestHelper helper = new FileSystemTestHelper();
+        int size = ContentComparor.CHANNEL_BUFFER_SIZE;
+        byte[] b = filled(size + 10, (byte)'a');
+        byte[] bMid = b.clone();
+        bMid[size + 1] = 'b';
+        File f = helper.createTestFile("f", b);
+        File fSame = helper.createTestFile("fSame", b.clone());
+        File fMid = helper.createTestFile("fMid", bMid);
+        File fShort = helper.createTestFile("fShort", Arrays.copyOf(b, size));
+        File fEmpty = helper.createTestFile("fEmpty", new byte[0]);
+        File fEmpty2 = helper.createTestFile("fEmpty2", new byte[0]);
+
+        assertEquals(ContentComparor.SAME, ContentComparor.findFirstDifference(f.toPath(), fSame.toPath()));
+        assertEquals(size + 1, ContentComparor.findFirstDifference(f.toPath(), fMid.toPath()));
+        assertEquals(size + 1, ContentComparor.findFirstDifference(fMid.toPath(), f.toPath()));
+        assertEquals(size, ContentComparor.findFirstDifference(f.toPath(), fShort.toPath()));
+        assertEquals(size, ContentComparor.findFirstDifference(fShort.toPath(), f.toPath()));
+        assertEquals(0, ContentComparor.findFirstDifference(fEmpty.toPath(), f.toPath()));
+        assertEquals(ContentComparor.SAME, ContentComparor.findFirstDifference(fEmpty.toPath(), fEmpty2.toPath()));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+public class TestContentDigester {
+
+    @Test
+    public void testDigests() throws Exception {
+        byte[] content = new byte[ContentDigester.BUFFER_SIZE * 2 + 17];
+        for ( int i = 0; i < content.length; i++ ) {
+            content[i] = (byte)(i * 31);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+        
+        ContentDigester digester = new ContentDigester(true, MessageDigest.getInstance("MD5"), 512);
+        digester.digest(new ByteArrayInputStream(content));
+        assertEquals(crc.getValue(), digester.getCrc());
+        assertTrue(Arrays.equals(md5, digester.getMd5()));
+        assertEquals(512, digester.getSampleLength());
+        assertTrue(Arrays.equals(Arrays.copyOf(content, 512), digester.getSample()));
+    }
+
+    @Test
+    public void testDigestFile() throws Exception {
+        byte[] content = new byte[ContentDigester.FILE_BUFFER_SIZE + 17];
+        for ( int i = 0; i < content.length; i++ ) {
+            content[i] = (byte)(i * 31);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+        Path file = Files.createTempFile("digest", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, content);
+        
+        ContentDigester digester = new ContentDigester(true, MessageDigest.getInstance("MD5"), 512);
+        digester.digest(file);
+        assertEquals(crc.getValue(), digester.getCrc());
+        assertTrue(Arrays.equals(md5, digester.getMd5()));
+        assertTrue(Arrays.equals(Arrays.copyOf(content, 512), digester.getSample()));
+    }
+
+    @Test
+    public void testNotRequested() throws IOException {
+        ContentDigester digester = new ContentDigester(false, null, 10);
+        digester.digest(new ByteArrayInputStream("abc".getBytes()));
+        assertNull(digester.getMd5());
+        assertEquals(3, digester.getSampleLength());
+        try {
+            digester.getCrc();
+            fail("expected exception not thrown");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+}
@@ -631,4 +631,90 @@ public class TestDiffController   {
         assertEquals("2.1", lines2.get(0));
         assertEquals("2.2", lines2.get(1));
     }
+
+    @Test
+    public void testDiffAlgorithm() throws IOException {
+        File fileOld = helper.createTestFile("AlgOld", "a\nb\nc\n");
+        File fileNew = helper.createTestFile("AlgNew", "a\nx\nc\n");
+        SimpleListener listener = new SimpleListener();
+        DiffController controller = new DiffController();
+        controller.addDiffChangeListener(listener);
+        assertNull(controller.getDiffAlgorithm());
+        controller.setOldSource( new FileInputStreamSource( fileOld ) );
+        controller.setNewSource( new FileInputStreamSource( fileNew ) );
+        controller.diff();
+        assertEquals(1, controller.getDiff().getDeltas().size());
+        
+        HistogramDiff histogram = new HistogramDiff();
+        listener.reset();
+        controller.setDiffAlgorithm(histogram);
+        assertTrue(listener.notified);
+        assertSame(histogram, controller.getDiffAlgorithm());
+        assertFalse(controller.haveDiff());
+        controller.diff();
+        assertEquals(1, controller.getDiff().getDeltas().size());
+        assertEquals(1, controller.getDiff().getDeltas().get(0).getOriginal().getPosition());
+        
+        listener.reset();
+        controller.setDiffAlgorithm(histogram);
+        assertFalse(listener.notified);
+        assertTrue(controller.haveDiff());
+    }
+
+    @Test
+    public void testMassageCache() throws IOException {
+        File fileOld = helper.createTestFile("WSOld", "a  b\n c\n");
+        File fileNew = helper.createTestFile("WSNew", "a b\nc \n");
+        DiffController controller = new DiffController();
+        controller.setOldSource( new FileInputStreamSource( fileOld ) );
+        controller.setNewSource( new FileInputStreamSource( fileNew ) );
+        controller.diff();
+        assertEquals(1, controller.getDiff().getDeltas().size());
+        // no massaging without white space handling
+        assertEquals(0, controller.getMassageCacheMisses());
+        assertEquals(0, controller.getMassageCacheHits());
+        
+        controller.setCompactWhiteSpace(true);
+        controller.setTrimWhiteSpace(true);
+        controller.diff();
+        assertEquals(0, controller.getDiff().getDeltas().size());
+        assertEquals(2, controller.getMassageCacheMisses());
+        assertEquals(0, controller.getMassageCacheHits());
+        
+        controller.setTrimWhiteSpace(false);
+        controller.diff();
+        assertEquals(1, controller.getDiff().getDeltas().size());
+        assertEquals(4, controller.getMassageCacheMisses());
+        
+        controller.setTrimWhiteSpace(true);
+        controller.diff();
+        assertEquals(0, controller.getDiff().getDeltas().size());
+        assertEquals(4, controller.getMassageCacheMisses());
+        assertEquals(2, controller.getMassageCacheHits());
+        
+        // ignore overrides compact and trim
+        controller.setIgnoreWhiteSpace(true);
+        controller.diff();
+        controller.setCompactWhiteSpace(false);
+        controller.diff();
+        assertEquals(6, controller.getMassageCacheMisses());
+        assertEquals(4, controller.getMassageCacheHits());
+        
+        // changing line separator of one source recomputes only that source
+        controller.forceLineSepSourceType(SourceType.NEW, LineSeparator.CR);
+        controller.diff();
+        assertEquals(7, controller.getMassageCacheMisses());
+        assertEquals(5, controller.getMassageCacheHits());
+        assertEquals(1, controller.getDiff().getDeltas().size());
+        
+        controller.forceEncoding(SourceType.OLD, Charset.forName("ISO-8859-1"));
+        controller.diff();
+        assertEquals(8, controller.getMassageCacheMisses());
+        assertEquals(6, controller.getMassageCacheHits());
+        
+        controller.setOldSource( new FileInputStreamSource( fileOld ) );
+        controller.diff();
+        assertEquals(9, controller.getMassageCacheMisses());
+        assertEquals(7, controller.getMassageCacheHits());
+    }
 }
@@ -18,8 +18,10 @@ package org.wtdiff.util.text;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Date;
 import java.util.List;
@@ -353,6 +355,48 @@ public class TestDiffSource  {
 //        assertTrue(ds.isTrimWhiteSpace());
 //    }
     
+    @Test
+    public void testSingleRead() throws IOException {
+        final String content = "line1\r\nline2\r\nline3";
+        final int[] openCount = { 0 };
+        InputStreamSource source = new InputStreamSource() {
+            public InputStream getInputStream() throws IOException {
+                openCount[0]++;
+                return new ByteArrayInputStream(content.getBytes(iso88591));
+            }
+            public String getName() {
+                return "counted";
+            }
+            public long getTime() {
+                return 0;
+            }
+        };
+        DiffSource ds = new DiffSource(source);
+        assertEquals(LineSeparator.CRLF, ds.getLineSep());
+        assertEquals(3, ds.getLines().size());
+        ds.forceLineSep(LineSeparator.LF);
+        assertEquals(3, ds.getLines().size());
+        assertEquals("line1\r", ds.getLines().get(0));
+        ds.forceEncoding(utf16le);
+        ds.forceEncoding(iso88591);
+        ds.forceLineSep(null);
+        assertEquals(LineSeparator.CRLF, ds.getLineSep());
+        List<String> lines = ds.getLines();
+        assertEquals(3, lines.size());
+        assertEquals("line3", lines.get(2));
+        assertTrue(ds.isMissingFinalLineSep());
+        assertEquals(1, openCount[0]);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File emptyFile = helper.createTestFile("empty", "");
+        DiffSource ds = new DiffSource(new FileInputStreamSource(emptyFile));
+        assertEquals(TextUtil.DEFAULT_SEP, ds.getLineSep());
+        assertEquals(0, ds.getLines().size());
+        assertFalse(ds.isMissingFinalLineSep());
+    }
+
     @Test
     public void testReadError() throws IOException {
         Date now = new Date();
@@ -47,6 +47,12 @@ public class TestFileInputStreamSource  {
         assertEquals(testFile.getPath(), source.getName());
     }
 
+    @Test
+    public void testGetFile() {
+        FileInputStreamSource source = new FileInputStreamSource(testFile);
+        assertEquals(testFile, source.getFile());
+    }
+
     @Test
     public void testGetTime() {
         FileInputStreamSource source = new FileInputStreamSource(testFile);
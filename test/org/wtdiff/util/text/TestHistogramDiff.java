@@ -0,0 +1,175 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import difflib.Delta;
+import difflib.DiffUtils;
+import difflib.Patch;
+
+public class TestHistogramDiff {
+
+    private static List<String> lines(String... lines) {
+        return Arrays.asList(lines);
+    }
+
+    @Test
+    public void testSame() {
+        HistogramDiff differ = new HistogramDiff();
+        assertEquals(0, differ.diff(lines(), lines()).getDeltas().size());
+        assertEquals(0, differ.diff(lines("a", "b"), lines("a", "b")).getDeltas().size());
+    }
+
+    @Test
+    public void testDeltaTypes() {
+        HistogramDiff differ = new HistogramDiff();
+        {
+            List<Delta> deltas = differ.diff(lines("a", "c"), lines("a", "b", "c")).getDeltas();
+            assertEquals(1, deltas.size());
+            assertEquals(Delta.TYPE.INSERT, deltas.get(0).getType());
+            assertEquals(1, deltas.get(0).getOriginal().getPosition());
+            assertEquals(0, deltas.get(0).getOriginal().size());
+            assertEquals(1, deltas.get(0).getRevised().getPosition());
+            assertEquals(lines("b"), deltas.get(0).getRevised().getLines());
+        }
+        {
+            List<Delta> deltas = differ.diff(lines("a", "b", "c"), lines("a", "c")).getDeltas();
+            assertEquals(1, deltas.size());
+            assertEquals(Delta.TYPE.DELETE, deltas.get(0).getType());
+            assertEquals(1, deltas.get(0).getOriginal().getPosition());
+            assertEquals(lines("b"), deltas.get(0).getOriginal().getLines());
+        }
+        {
+            List<Delta> deltas = differ.diff(lines("a", "b", "c", "d"), lines("x", "b", "y", "d")).getDeltas();
+            assertEquals(2, deltas.size());
+            assertEquals(Delta.TYPE.CHANGE, deltas.get(0).getType());
+            assertEquals(0, deltas.get(0).getOriginal().getPosition());
+            assertEquals(lines("x"), deltas.get(0).getRevised().getLines());
+            assertEquals(Delta.TYPE.CHANGE, deltas.get(1).getType());
+            assertEquals(2, deltas.get(1).getOriginal().getPosition());
+            assertEquals(2, deltas.get(1).getRevised().getPosition());
+        }
+        {
+            List<Delta> deltas = differ.diff(lines(), lines("a")).getDeltas();
+            assertEquals(1, deltas.size());
+            assertEquals(Delta.TYPE.INSERT, deltas.get(0).getType());
+        }
+    }
+
+    @Test
+    public void testUniqueLinesAnchor() {
+        // the unique line "}" in the middle should be matched, not the repeated blank lines
+        HistogramDiff differ = new HistogramDiff();
+        List<String> original = lines("", "f1", "", "}", "", "g1", "");
+        List<String> revised = lines("", "f2", "", "}", "", "g2", "");
+        List<Delta> deltas = differ.diff(original, revised).getDeltas();
+        assertEquals(2, deltas.size());
+        assertEquals(1, deltas.get(0).getOriginal().getPosition());
+        assertEquals(5, deltas.get(1).getOriginal().getPosition());
+    }
+
+    @Test
+    public void testRandomPatchApplies() throws Exception {
+        Random random = new Random(12345);
+        HistogramDiff differ = new HistogramDiff();
+        for ( int n = 0; n < 500; n++ ) {
+            List<String> original = randomLines(random, random.nextInt(40), 1 + random.nextInt(8));
+            List<String> revised = new ArrayList<>(original);
+            int edits = random.nextInt(6);
+            for ( int e = 0; e < edits; e++ ) {
+                int pos = revised.isEmpty() ? 0 : random.nextInt(revised.size());
+                switch ( random.nextInt(3) ) {
+                case 0:
+                    revised.add(pos, Integer.toString(random.nextInt(8)));
+                    break;
+                case 1:
+                    if ( ! revised.isEmpty() )
+                        revised.remove(pos);
+                    break;
+                default:
+                    if ( ! revised.isEmpty() )
+                        revised.set(pos, Integer.toString(random.nextInt(8)));
+                }
+            }
+            Patch patch = differ.diff(original, revised);
+            assertEquals(revised, apply(original, patch));
+            assertEquals(revised, DiffUtils.patch(original, patch));
+        }
+    }
+
+    @Test
+    public void testRepetitive() throws Exception {
+        // every line occurs more often than the chain limit
+        List<String> original = new ArrayList<>();
+        List<String> revised = new ArrayList<>();
+        for ( int i = 0; i < 2 * HistogramDiff.MAX_CHAIN_LENGTH; i++ ) {
+            original.add("a");
+            original.add("b");
+            revised.add("b");
+            revised.add("a");
+        }
+        Patch patch = new HistogramDiff().diff(original, revised);
+        assertEquals(revised, apply(original, patch));
+    }
+
+    @Test
+    public void testLarge() throws Exception {
+        List<String> original = new ArrayList<>();
+        List<String> revised = new ArrayList<>();
+        for ( int i = 0; i < 200000; i++ ) {
+            original.add("line " + i);
+            revised.add( i % 3 == 0 ? "changed " + i : "line " + i);
+        }
+        Patch patch = new HistogramDiff().diff(original, revised);
+        assertEquals(200000 / 3 + 1, patch.getDeltas().size());
+        assertEquals(revised, apply(original, patch));
+    }
+
+    /**
+     * Apply patch in a single pass, DiffUtils.patch is quadratic in number of deltas
+     */
+    private static List<Object> apply(List<String> original, Patch patch) {
+        List<Object> result = new ArrayList<>();
+        int position = 0;
+        for ( Delta delta: patch.getDeltas() ) {
+            assertTrue( delta.getOriginal().getPosition() >= position );
+            result.addAll(original.subList(position, delta.getOriginal().getPosition()));
+            assertEquals(delta.getOriginal().getLines(), original.subList(delta.getOriginal().getPosition(), delta.getOriginal().getPosition() + delta.getOriginal().size()));
+            assertEquals(result.size(), delta.getRevised().getPosition());
+            result.addAll(delta.getRevised().getLines());
+            position = delta.getOriginal().getPosition() + delta.getOriginal().size();
+        }
+        result.addAll(original.subList(position, original.size()));
+        return result;
+    }
+
+    private static List<String> randomLines(Random random, int n, int distinct) {
+        List<String> lines = new ArrayList<>(n);
+        for ( int i = 0; i < n; i++ ) {
+            lines.add(Integer.toString(random.nextInt(distinct)));
+        }
+        return lines;
+    }
+}
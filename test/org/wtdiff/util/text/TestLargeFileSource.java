@@ -0,0 +1,223 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wtdiff.util.FileSystemTestHelper;
+import org.wtdiff.util.text.TextUtil.LineSeparator;
+
+import difflib.Delta;
+import difflib.Patch;
+
+public class TestLargeFileSource {
+
+    private FileSystemTestHelper helper;
+
+    @Before
+    public void setUp() throws Exception {
+        helper = new FileSystemTestHelper();
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        File file = helper.createTestFile("lines", "a\r\nb\r\nc");
+        LargeFileSource source = new LargeFileSource(file);
+        assertEquals(file.getPath(), source.getName());
+        assertEquals(LineSeparator.CRLF, source.getLineSep());
+        assertTrue(source.isMissingFinalLineSep());
+        List<String> lines = source.getLines();
+        assertEquals(3, lines.size());
+        assertEquals("a", lines.get(0));
+        assertEquals("c", lines.get(2));
+        assertEquals("b", lines.subList(1, 2).get(0));
+        try {
+            lines.get(3);
+            fail("no exception fetching line past end");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        source.forceLineSep(LineSeparator.LF);
+        assertEquals("a\r", source.getLines().get(0));
+        source.forceEncoding(StandardCharsets.ISO_8859_1);
+        assertEquals(StandardCharsets.ISO_8859_1, source.getEncoding());
+        source.forceEncoding(null);
+        assertEquals(java.nio.charset.Charset.defaultCharset(), source.getEncoding());
+    }
+
+    @Test
+    public void testDiffSameAsSmallFileDiff() throws IOException {
+        Random random = new Random(4321);
+        for ( int n = 0; n < 50; n++ ) {
+            StringBuilder oldContent = new StringBuilder();
+            StringBuilder newContent = new StringBuilder();
+            int nLines = random.nextInt(60);
+            for ( int i = 0; i < nLines; i++ ) {
+                String line = "line " + random.nextInt(20) + "\n";
+                if ( random.nextInt(5) != 0 )
+                    oldContent.append(line);
+                if ( random.nextInt(5) != 0 )
+                    newContent.append(random.nextInt(8) == 0 ? "changed\n" : line);
+            }
+            if ( random.nextBoolean() )
+                newContent.append("no final line separator");
+            File oldFile = helper.createTestFile("old" + n, oldContent.toString());
+            File newFile = helper.createTestFile("new" + n, newContent.toString());
+            
+            DiffController small = new DiffController();
+            small.setDiffAlgorithm(new HistogramDiff());
+            small.setOldSource(new FileInputStreamSource(oldFile));
+            small.setNewSource(new FileInputStreamSource(newFile));
+            small.diff();
+            
+            DiffController large = new DiffController();
+            large.setLargeFileMode(true);
+            assertTrue(large.isLargeFileMode());
+            large.setOldSource(new FileInputStreamSource(oldFile));
+            large.setNewSource(new FileInputStreamSource(newFile));
+            assertTrue(large.getOldData() instanceof LargeFileSource);
+            large.diff();
+            
+            assertEquals(format(small), format(large));
+        }
+    }
+
+    private static String format(DiffController controller) throws IOException {
+        SimpleTestDiffWriter w = new SimpleTestDiffWriter();
+        new FullDiffAdapter(controller.getOldData(), controller.getNewData(), w).format(controller.getDiff());
+        return w.toString();
+    }
+
+    @Test
+    public void testDiff() throws IOException {
+        File oldFile = helper.createTestFile("diffOld", "a\nb\nc\nd\n");
+        File newFile = helper.createTestFile("diffNew", "a\nx\nc\nd\ne\n");
+        Patch patch = LargeFileSource.diff(new LargeFileSource(oldFile), new LargeFileSource(newFile));
+        assertEquals(2, patch.getDeltas().size());
+        assertEquals(1, patch.getDeltas().get(0).getOriginal().getPosition());
+        assertEquals("x", patch.getDeltas().get(0).getRevised().getLines().get(0));
+        assertEquals(4, patch.getDeltas().get(1).getRevised().getPosition());
+    }
+
+    @Test
+    public void testThreshold() throws IOException {
+        File small = helper.createTestFile("thresholdSmall", "a\nb\n");
+        File big = helper.createTestFile("thresholdBig", "a\nb\nc\nd\n");
+        DiffController controller = new DiffController();
+        assertEquals(DiffController.DEFAULT_LARGE_FILE_THRESHOLD, controller.getLargeFileThreshold());
+        controller.setLargeFileThreshold(5);
+        controller.setOldSource(new FileInputStreamSource(small));
+        controller.setNewSource(new FileInputStreamSource(big));
+        assertTrue(controller.getOldData() instanceof DiffSource);
+        assertTrue(controller.getNewData() instanceof LargeFileSource);
+        
+        // mixed pair is diffed with both sides as large file sources
+        controller.diff();
+        assertTrue(controller.getOldData() instanceof LargeFileSource);
+        assertEquals(1, controller.getDiff().getDeltas().size());
+        assertEquals(2, controller.getDiff().getDeltas().get(0).getRevised().getPosition());
+        
+        // turning large file mode on and off reloads sources
+        controller.setLargeFileThreshold(DiffController.DEFAULT_LARGE_FILE_THRESHOLD);
+        controller.setLargeFileMode(true);
+        assertTrue(controller.getOldData() instanceof LargeFileSource);
+        controller.setLargeFileMode(false);
+        assertTrue(controller.getOldData() instanceof DiffSource);
+        assertTrue(controller.getNewData() instanceof DiffSource);
+    }
+
+    @Test
+    public void testMixedNotFile() throws IOException {
+        File big = helper.createTestFile("mixedBig", "a\nb\n");
+        DiffController controller = new DiffController();
+        controller.setLargeFileMode(true);
+        controller.setOldSource(new FileInputStreamSource(big));
+        controller.setNewSource(new InputStreamSource() {
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream("a\n".getBytes(StandardCharsets.UTF_8));
+            }
+            public String getName() {
+                return "stream";
+            }
+            public long getTime() {
+                return 0;
+            }
+        });
+        try {
+            controller.diff();
+            fail("no exception diffing large file with stream");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("stream"));
+        }
+        assertNull(controller.getDiff());
+    }
+
+    @Test
+    public void testWhiteSpace() throws IOException {
+        File oldFile = helper.createTestFile("wsOld", "a b\n  c\nd\ne\n");
+        File newFile = helper.createTestFile("wsNew", "a  b\nc \nx\ne\n");
+        DiffController small = new DiffController();
+        small.setDiffAlgorithm(new HistogramDiff());
+        small.setOldSource(new FileInputStreamSource(oldFile));
+        small.setNewSource(new FileInputStreamSource(newFile));
+        DiffController large = new DiffController();
+        large.setLargeFileMode(true);
+        large.setOldSource(new FileInputStreamSource(oldFile));
+        large.setNewSource(new FileInputStreamSource(newFile));
+        
+        large.diff();
+        assertEquals(1, large.getDiff().getDeltas().size());
+        assertEquals(3, large.getDiff().getDeltas().get(0).getOriginal().size());
+        
+        large.setCompactWhiteSpace(true);
+        large.setTrimWhiteSpace(true);
+        small.setCompactWhiteSpace(true);
+        small.setTrimWhiteSpace(true);
+        large.diff();
+        small.diff();
+        assertEquals(positions(small.getDiff()), positions(large.getDiff()));
+        assertEquals(1, large.getDiff().getDeltas().size());
+        assertEquals(2, large.getDiff().getDeltas().get(0).getOriginal().getPosition());
+        assertEquals("x", large.getDiff().getDeltas().get(0).getRevised().getLines().get(0));
+
+        large.setIgnoreWhiteSpace(true);
+        small.setIgnoreWhiteSpace(true);
+        large.diff();
+        small.diff();
+        assertEquals(positions(small.getDiff()), positions(large.getDiff()));
+    }
+
+    private static String positions(Patch patch) {
+        StringBuilder b = new StringBuilder();
+        for ( Delta delta: patch.getDeltas() ) {
+            b.append(delta.getOriginal().getPosition()).append(',').append(delta.getOriginal().size())
+                .append(' ').append(delta.getRevised().getPosition()).append(',').append(delta.getRevised().size())
+                .append('\n');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.text;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wtdiff.util.FileSystemTestHelper;
+import org.wtdiff.util.text.TextUtil.LineSeparator;
+
+public class TestLineIndex {
+
+    private FileSystemTestHelper helper;
+
+    @Before
+    public void setUp() throws Exception {
+        helper = new FileSystemTestHelper();
+    }
+
+    private void assertSameAsReaderToLines(String content, LineSeparator sep, LineIndex index) throws IOException {
+        List<String> expected = TextUtil.readerToLines(new StringReader(content), sep);
+        assertEquals(expected.size(), index.getLineCount());
+        for ( int i = 0; i < expected.size(); i++ ) {
+            assertEquals(TextUtil.removeTrailingLineSeparator(expected.get(i), sep), index.getLine(i));
+        }
+        boolean missing = expected.size() > 0 && ! expected.get(expected.size() - 1).endsWith(new String(sep.chars()));
+        assertEquals(missing, index.isMissingFinalLineSep());
+    }
+
+    @Test
+    public void testSegments() throws IOException {
+        String content = "line1\r\nline22\r\r\n\r\nxyz\nabc\rline7";
+        File file = helper.createTestFile("segments", content.getBytes(StandardCharsets.ISO_8859_1));
+        for ( LineSeparator sep: LineSeparator.values() ) {
+            // segments of 1 byte upwards split lines and separators everywhere
+            for ( int shift = 0; shift < 7; shift++ ) {
+                LineIndex index = new LineIndex(file, StandardCharsets.ISO_8859_1, sep, shift);
+                assertEquals(sep, index.getLineSep());
+                assertSameAsReaderToLines(content, sep, index);
+            }
+        }
+    }
+
+    @Test
+    public void testGuessAndForceLineSep() throws IOException {
+        String content = "a\r\nb\r\nc\r\n";
+        File file = helper.createTestFile("guess", content.getBytes(StandardCharsets.ISO_8859_1));
+        LineIndex index = new LineIndex(file, StandardCharsets.ISO_8859_1);
+        assertEquals(LineSeparator.CRLF, index.getLineSep());
+        assertEquals(3, index.getLineCount());
+        assertFalse(index.isMissingFinalLineSep());
+        assertEquals(0, index.getLineStart(0));
+        assertEquals(3, index.getLineStart(1));
+        
+        index.setLineSep(LineSeparator.LF);
+        assertEquals(LineSeparator.LF, index.getLineSep());
+        assertSameAsReaderToLines(content, LineSeparator.LF, index);
+        
+        index.setLineSep(null);
+        assertEquals(LineSeparator.CRLF, index.getLineSep());
+        assertSameAsReaderToLines(content, LineSeparator.CRLF, index);
+    }
+    
+    @Test
+    public void testEmpty() throws IOException {
+        File file = helper.createTestFile("empty", "");
+        LineIndex index = new LineIndex(file, StandardCharsets.UTF_8);
+        assertEquals(0, index.getLineCount());
+        assertFalse(index.isMissingFinalLineSep());
+    }
+
+    @Test
+    public void testEncoding() throws IOException {
+        String content = "cont\u00e9nt\n";
+        File file = helper.createTestFile("encoding", content.getBytes(StandardCharsets.UTF_8));
+        LineIndex index = new LineIndex(file, StandardCharsets.UTF_8, LineSeparator.LF);
+        assertEquals("cont\u00e9nt", index.getLine(0));
+        index.setEncoding(StandardCharsets.ISO_8859_1);
+        assertEquals(StandardCharsets.ISO_8859_1, index.getEncoding());
+        assertEquals(new String("cont\u00e9nt".getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1), index.getLine(0));
+        
+        assertTrue(LineIndex.isSupportedEncoding(StandardCharsets.US_ASCII));
+        assertFalse(LineIndex.isSupportedEncoding(StandardCharsets.UTF_16));
+        assertFalse(LineIndex.isSupportedEncoding(StandardCharsets.UTF_16LE));
+        assertFalse(LineIndex.isSupportedEncoding(Charset.forName("UTF-32")));
+        try {
+            index.setEncoding(StandardCharsets.UTF_16BE);
+            fail("unsupported encoding accepted");
+        } catch (IOException ioe) {
+            // expected
+        }
+        assertEquals(StandardCharsets.ISO_8859_1, index.getEncoding());
+        try {
+            new LineIndex(file, StandardCharsets.UTF_16);
+            fail("unsupported encoding accepted");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIsSameLine() throws IOException {
+        File file1 = helper.createTestFile("same1", "a\nbc\nd\n");
+        File file2 = helper.createTestFile("same2", "bc\na\nbd\nd");
+        LineIndex index1 = new LineIndex(file1, StandardCharsets.UTF_8, LineSeparator.LF);
+        LineIndex index2 = new LineIndex(file2, StandardCharsets.UTF_8, LineSeparator.LF, 1);
+        assertTrue(index1.isSameLine(0, index2, 1));
+        assertTrue(index1.isSameLine(1, index2, 0));
+        assertFalse(index1.isSameLine(1, index2, 2));
+        assertTrue(index1.isSameLine(2, index2, 3)); // separator not part of line
+        assertEquals(index1.getLineHash(2), index2.getLineHash(3));
+        assertFalse(index1.isSameLine(0, index1, 1));
+    }
+}
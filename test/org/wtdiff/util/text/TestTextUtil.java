@@ -20,6 +20,8 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.wtdiff.util.ExceptionInputStream;
@@ -503,6 +505,47 @@ public class TestTextUtil   {
         }
     }
     
+    @Test
+    public void testReaderToLinesBufferBoundary() throws Exception {
+        String text = "ab\r\ncd\r\r\nef\rg\r\n\r\nh";
+        List<String> expected = Arrays.asList("ab\r\n", "cd\r\r\n", "ef\rg\r\n", "\r\n", "h");
+        // every buffer size splits lines and separators at different places
+        for ( int bufferSize = 1; bufferSize <= text.length() + 1; bufferSize++ ) {
+            List<String> lines = TextUtil.readerToLines(new StringReader(text), TextUtil.LineSeparator.CRLF, bufferSize);
+            assertEquals("buffer size " + bufferSize, expected, lines);
+        }
+        String crText = "a\r\rbc\r";
+        List<String> crExpected = Arrays.asList("a\r", "\r", "bc\r");
+        for ( int bufferSize = 1; bufferSize <= crText.length() + 1; bufferSize++ ) {
+            List<String> lines = TextUtil.readerToLines(new StringReader(crText), TextUtil.LineSeparator.CR, bufferSize);
+            assertEquals("buffer size " + bufferSize, crExpected, lines);
+        }
+        String lfText = "\nab\ncd";
+        List<String> lfExpected = Arrays.asList("\n", "ab\n", "cd");
+        for ( int bufferSize = 1; bufferSize <= lfText.length() + 1; bufferSize++ ) {
+            List<String> lines = TextUtil.readerToLines(new StringReader(lfText), TextUtil.LineSeparator.LF, bufferSize);
+            assertEquals("buffer size " + bufferSize, lfExpected, lines);
+        }
+    }
+
+    @Test
+    public void testReaderToLinesSameAsReadLine() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0 ; i < 20000; i++ ) {
+            sb.append("line ").append(i).append(i % 7 == 0 ? "\r" : "").append("\r\n");
+        }
+        sb.append("last");
+        String text = sb.toString();
+        for ( TextUtil.LineSeparator sep : TextUtil.LineSeparator.values() ) {
+            List<String> expected = new ArrayList<>();
+            StringReader sr = new StringReader(text);
+            for ( String line = TextUtil.readLine(sr, sep); line.length() > 0; line = TextUtil.readLine(sr, sep) ) {
+                expected.add(line);
+            }
+            assertEquals(sep.toString(), expected, TextUtil.readerToLines(new StringReader(text), sep));
+        }
+    }
+
     @Test
     public void testDefaultLineSeparator() {
         assertEquals(System.getProperty("line.separator"), new String(TextUtil.DEFAULT_SEP.chars())); 
@@ -0,0 +1,120 @@
+/*
+Copyright 2018 David Standish
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package org.wtdiff.util.ui;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+
+import org.junit.Test;
+import org.wtdiff.util.text.DiffWriter;
+import org.wtdiff.util.text.DiffWriter.ChangeType;
+import org.wtdiff.util.ui.DocumentDiffWriter.ChangeRange;
+
+public class TestRowDiffWriter {
+
+    private static String ls = System.getProperty("line.separator");
+
+    private void writeSample(DiffWriter w) {
+        w.newChange(ChangeType.COMMON, 0, 1, 0, 1);
+        w.append(Arrays.asList("a", "b"), 0, Arrays.asList("a", "b"), 0);
+        w.newChange(ChangeType.CHANGED, 2, 2, 2, 3);
+        w.append(Arrays.asList("c\tx"), 2, Arrays.asList("C", "D"), 2);
+        w.newChange(ChangeType.OLD_ONLY, 3, 4, 4, 3);
+        w.append(Arrays.asList("d", "e"), 3, Arrays.<String>asList(), 4);
+        w.newChange(ChangeType.COMMON, 5, 5, 4, 4);
+        w.append(Arrays.asList("f"), 5, Arrays.asList("f"), 4);
+        w.newChange(ChangeType.NEW_ONLY, 6, 5, 5, 5);
+        w.append(Arrays.<String>asList(), 6, Arrays.asList("g"), 5);
+    }
+
+    private String rowText(DiffRowModel model) {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < model.getSize(); i++ ) {
+            sb.append(model.getElementAt(i).toString()).append(ls);
+        }
+        return sb.toString();
+    }
+
+    private void configure(DiffWriter w) {
+        w.setNumberLines(true);
+        w.setTabWidth(4);
+    }
+
+    @Test
+    public void testSameAsNormalDocument() throws Exception {
+        StyledDocument doc = new DefaultStyledDocument();
+        NormalDocumentDiffWriter dw = new NormalDocumentDiffWriter(doc);
+        configure(dw);
+        writeSample(dw);
+
+        RowDiffWriter rw = new RowDiffWriter(false);
+        configure(rw);
+        writeSample(rw);
+
+        assertNull(rw.getNewModel());
+        assertEquals(doc.getText(0, doc.getLength()), rowText(rw.getOldModel()));
+        assertEquals(dw.numberOfDifferences(), rw.numberOfDifferences());
+        // change ranges include header row
+        List<ChangeRange> ranges = rw.getOldChangeRanges();
+        assertEquals(3, ranges.size());
+        assertEquals(2, ranges.get(0).begin);
+        assertEquals(7, ranges.get(0).end);
+        assertEquals("3c3,4", rw.getOldModel().getElementAt(2).toString());
+        assertEquals(7, ranges.get(1).begin);
+        assertEquals(10, ranges.get(1).end);
+    }
+
+    @Test
+    public void testSameAsTwoDocuments() throws Exception {
+        StyledDocument oldDoc = new DefaultStyledDocument();
+        StyledDocument newDoc = new DefaultStyledDocument();
+        TwoDocumentDiffWriter dw = new TwoDocumentDiffWriter(oldDoc, newDoc);
+        configure(dw);
+        writeSample(dw);
+
+        RowDiffWriter rw = new RowDiffWriter(true);
+        configure(rw);
+        writeSample(rw);
+
+        assertEquals(oldDoc.getText(0, oldDoc.getLength()), rowText(rw.getOldModel()));
+        assertEquals(newDoc.getText(0, newDoc.getLength()), rowText(rw.getNewModel()));
+        assertEquals(rw.getOldModel().getSize(), rw.getNewModel().getSize());
+        assertEquals(dw.numberOfDifferences(), rw.numberOfDifferences());
+        assertEquals(3, rw.getNewChangeRanges().size());
+        assertEquals(2, rw.getOldChangeRanges().get(0).begin);
+        assertEquals(4, rw.getOldChangeRanges().get(0).end);
+        assertEquals(2, rw.getNewChangeRanges().get(0).begin);
+        assertEquals(4, rw.getNewChangeRanges().get(0).end);
+    }
+
+    @Test
+    public void testOutOfRange() {
+        RowDiffWriter rw = new RowDiffWriter(false);
+        writeSample(rw);
+        try {
+            rw.getOldModel().getElementAt(rw.getOldModel().getSize());
+            fail("index past end should fail");
+        } catch ( IndexOutOfBoundsException e ) {
+            // expected
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.wtdiff.util.xml;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -36,10 +37,13 @@ import javax.xml.stream.XMLStreamException;
 
 import org.junit.Test;
 import org.wtdiff.util.DirNode;
+import org.wtdiff.util.DirNodeStream;
 import org.wtdiff.util.ExceptionInputStream;
 import org.wtdiff.util.FileSystemTestHelper;
 import org.wtdiff.util.Leaf;
 import org.wtdiff.util.MockFileNode;
+import org.wtdiff.util.filter.GlobNameFilter;
+import static org.wtdiff.util.xml.DirNodeXMLStreamConstants.ELEMENT_USER;
 import org.wtdiff.util.xml.DirNodeXMLStreamReader;
 import org.wtdiff.util.xml.DirNodeXMLStreamWriter;
 import org.junit.After;
@@ -303,4 +307,61 @@ public class TestDirNodeXMLStreamReader {
         bis.close();
         
     }
+    @Test
+    public void testOpenStream() throws IOException, XMLStreamException {
+        MockFileNode f = new MockFileNode("f", "f", new Date(0));
+        MockFileNode g = new MockFileNode("g", "g", new Date(0));
+        DirNode a = new DirNode("a", new ArrayList<Leaf>(), new ArrayList<DirNode>(Arrays.asList(new DirNode("aa", new ArrayList<Leaf>(), new ArrayList<DirNode>()))));
+        DirNode b = new DirNode("b", new ArrayList<Leaf>(Arrays.asList((Leaf)g)), new ArrayList<DirNode>(Arrays.asList(new DirNode("bb", new ArrayList<Leaf>(), new ArrayList<DirNode>()))));
+        DirNode c = new DirNode("c", new ArrayList<Leaf>(), new ArrayList<DirNode>());
+        DirNode top = new DirNode("top", new ArrayList<Leaf>(Arrays.asList((Leaf)f)), new ArrayList<DirNode>(Arrays.asList(a, b, c)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DirNodeXMLStreamWriter(out, Arrays.asList("CRC32", "MD5")).writeDirNodeSnapShot(new DirNode(top));
+        String data = out.toString("UTF-8");
+        DirNodeXMLStreamReader reader = new DirNodeXMLStreamReader();
+        try ( DirNodeStream stream = reader.openStream(new ByteArrayInputStream(data.getBytes("UTF-8"))) ) {
+            assertEquals(System.getProperty("user.name"), reader.getSnapshotInfo().get(ELEMENT_USER));
+            assertEquals("", stream.nextDir().getName());
+            DirNode dir = stream.nextDir();
+            assertEquals("top", dir.getName());
+            assertEquals(1, dir.getLeaves().size());
+            assertEquals(0, dir.getDirs().size());
+            assertEquals("a", stream.nextDir().getName());
+            stream.skipDir();
+            dir = stream.nextDir();
+            assertEquals("b", dir.getName());
+            assertEquals("g", dir.getLeaves().get(0).getName());
+            assertEquals("bb", stream.nextDir().getName());
+            assertNull(stream.nextDir()); // end of bb
+            assertNull(stream.nextDir()); // end of b
+            assertEquals("c", stream.nextDir().getName());
+            assertNull(stream.nextDir()); // end of c
+            assertNull(stream.nextDir()); // end of top
+            assertNull(stream.nextDir()); // end of artificial root
+            assertNull(stream.nextDir());
+        }
+        
+        reader.setFilter(new GlobNameFilter("b"));
+        try ( DirNodeStream stream = reader.openStream(new ByteArrayInputStream(data.getBytes("UTF-8"))) ) {
+            stream.nextDir();
+            stream.nextDir();
+            assertEquals("a", stream.nextDir().getName());
+            assertEquals("aa", stream.nextDir().getName());
+            assertNull(stream.nextDir());
+            assertNull(stream.nextDir());
+            assertEquals("c", stream.nextDir().getName());
+        }
+        
+        String duplicate = "<?xml version=\"1.0\"?><file-tree-snapshot><digests-available/><snapshot>"
+            + "<dir name=\"top\"><dirs><dir name=\"a\"/><dir name=\"a\"/></dirs></dir></snapshot></file-tree-snapshot>";
+        try ( DirNodeStream stream = reader.openStream(new ByteArrayInputStream(duplicate.getBytes("UTF-8"))) ) {
+            stream.nextDir();
+            stream.nextDir();
+            stream.nextDir();
+            stream.nextDir();
+            fail("duplicate name should fail");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
 }
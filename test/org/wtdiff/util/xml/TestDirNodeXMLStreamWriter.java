@@ -502,6 +502,40 @@ public class TestDirNodeXMLStreamWriter {
         assertEquals(subDirName, subDir.getAttribute("name"));
     }
 
+    @Test
+    public void testMerkleDigest() throws ParseException, IOException, XMLStreamException, ParserConfigurationException, SAXException {
+        DirNode subdirNode = new DirNode("subdir", new ArrayList<Leaf>(0), new ArrayList<DirNode>(0));
+        subdirNode.addLeaf(new MockFileNode("f1"));
+        DirNode dirNode = new DirNode(subdirNode);
+        dirNode.setName("adir");
+        dirNode.addLeaf(new MockFileNode("f2"));
+        
+        File outFile = writeSnapshot(dirNode, Arrays.asList("CRC32", "MD5"));
+        Document doc = loadit(outFile.getPath());
+        Element topDir = getChildElements(getSingleElementByTag(doc, "snapshot")).get(0);
+        List<Element> children = getChildElements(topDir);
+        Element merkle = children.get(children.size() - 1);
+        assertEquals("digest", merkle.getTagName());
+        assertEquals("MERKLE-MD5", merkle.getAttribute("name"));
+        assertArrayEquals(dirNode.computeMerkleDigest(), digestStringToBytes(merkle.getTextContent()));
+        
+        // read back, digests are recorded and computable from snapshot MD5s
+        DirNode read;
+        try ( InputStream in = new FileInputStream(outFile) ) {
+            read = new DirNodeXMLStreamReader().readSnapshot(in);
+        }
+        assertArrayEquals(dirNode.computeMerkleDigest(), read.getMerkleDigest());
+        DirNode readSub = read.getDirs().get(0);
+        assertArrayEquals(subdirNode.computeMerkleDigest(), readSub.getMerkleDigest());
+        DirNode copy = new DirNode("copy", readSub.getLeaves(), readSub.getDirs());
+        assertArrayEquals(subdirNode.computeMerkleDigest(), copy.getMerkleDigest());
+        
+        // no MD5 so no Merkle digest
+        outFile = writeSnapshot(dirNode, Arrays.asList("CRC32"));
+        doc = loadit(outFile.getPath());
+        assertEquals(0, doc.getElementsByTagName("digest").getLength() - doc.getElementsByTagName("file").getLength());
+    }
+
     enum FileOrDirs { FILES, DIRS };
     
     public void checkNameEncoding(FileOrDirs which) throws ParseException, IOException, XMLStreamException, ParserConfigurationException, SAXException {
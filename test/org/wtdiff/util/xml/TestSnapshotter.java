@@ -19,7 +19,11 @@ package org.wtdiff.util.xml;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -27,6 +31,9 @@ import org.junit.Test;
 import org.wtdiff.util.FileSystemTestHelper;
 import org.wtdiff.util.OperationSupportTester;
 import org.wtdiff.util.CompareController;
+import org.wtdiff.util.DirNode;
+import org.wtdiff.util.FileNode;
+import org.wtdiff.util.binary.BinaryTreeBuilder;
 import org.wtdiff.util.xml.Snapshotter;
 
 public class TestSnapshotter {
@@ -107,5 +114,162 @@ public class TestSnapshotter {
         ost.setWritable(saveFile, true);
     }
 
+    @Test
+    public void testConvert() throws IOException {
+        File testDir = helper.createTestDir("testConvert");
+        File testSubDir = helper.createTestDir("sd", testDir);
+        helper.createTestFile("aFile", "aFile content", testSubDir);
+        File xmlFile = new File( testDir, "snapshot.xml");
+        File binFile = new File( testDir, "snapshot.bin");
+        File xmlAgainFile = new File( testDir, "again.xml");
+        Snapshotter snapper = new Snapshotter();
+        assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), xmlFile.getPath()));
+        snapper.setBinary(true);
+        assertEquals(0, snapper.convertSnapshot(xmlFile.getPath(), binFile.getPath()));
+        assertTrue(BinaryTreeBuilder.isBinarySnapshot(binFile.getPath()));
+        snapper.setBinary(false);
+        assertEquals(0, snapper.convertSnapshot(binFile.getPath(), xmlAgainFile.getPath()));
+        assertTrue(XMLTreeBuilder.isXMLSnapshot(xmlAgainFile.getPath()));
+
+        CompareController controller = new CompareController();
+        controller.setOldRoot(testSubDir.getPath());
+        controller.setNewRoot(xmlAgainFile.getPath());
+        controller.compare();
+        assertTrue(controller.getCompareRootNode().areSame());
+
+        assertEquals(8, snapper.convertSnapshot(testSubDir.getPath(), xmlAgainFile.getPath()));
+    }
+
+    private void setTime(File file, long seconds) throws IOException {
+        Files.setLastModifiedTime(file.toPath(), FileTime.from(seconds, TimeUnit.SECONDS));
+    }
+    
+    private FileNode readTouched(File snapshot) throws IOException {
+        CompareController controller = new CompareController();
+        controller.setOldRoot(snapshot.getPath());
+        // snapshot top is within a dir named for the snapshot file
+        DirNode top = controller.getOldRootNode().getDirs().get(0);
+        return (FileNode)top.childDirNodeByName("ssd").childLeafByName("touched");
+    }
+    
+    @Test
+    public void testBaseline() throws IOException {
+        File testDir = helper.createTestDir("testBaseline");
+        File testSubDir = helper.createTestDir("sd", testDir);
+        File subSubDir = helper.createTestDir("ssd", testSubDir);
+        File same = helper.createTestFile("same", "same content", testSubDir);
+        File touched = helper.createTestFile("touched", "old content", subSubDir);
+        setTime(same, 1500000000);
+        setTime(touched, 1500000000);
+        for ( boolean binary: new boolean[] {false, true} ) {
+            File baseFile = new File( testDir, "base" + binary);
+            File newFile = new File( testDir, "new" + binary);
+            Snapshotter snapper = new Snapshotter();
+            snapper.setBinary(binary);
+            snapper.setFileKeys(true);
+            assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), baseFile.getPath()));
+            assertEquals(0, snapper.getReusedCount());
+            assertEquals(2, snapper.getHashedCount());
+            
+            // rewritten in place keeping size and time, so taken as unchanged
+            try ( FileOutputStream out = new FileOutputStream(touched) ) {
+                out.write("new content".getBytes());
+            }
+            setTime(touched, 1500000000);
+            File added = helper.createTestFile("added", "added content", testSubDir);
+            
+            snapper.setBaseline(baseFile.getPath());
+            assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), newFile.getPath()));
+            assertEquals(2, snapper.getReusedCount());
+            assertEquals(1, snapper.getHashedCount());
+            FileNode baseTouched = readTouched(baseFile);
+            FileNode newTouched = readTouched(newFile);
+            assertEquals(baseTouched.getCrc(), newTouched.getCrc());
+            assertArrayEquals(baseTouched.getMd5(), newTouched.getMd5());
+            
+            // changed time means digests are computed
+            setTime(touched, 1500000001);
+            assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), newFile.getPath()));
+            assertEquals(1, snapper.getReusedCount());
+            assertEquals(2, snapper.getHashedCount());
+            newTouched = readTouched(newFile);
+            assertNotEquals(baseTouched.getCrc(), newTouched.getCrc());
+            
+            try ( FileOutputStream out = new FileOutputStream(touched) ) {
+                out.write("old content".getBytes());
+            }
+            setTime(touched, 1500000000);
+            assertTrue(added.delete());
+        }
+    }
+    
+    private String readWithoutCaptureTime(File snapshot) throws IOException {
+        String xml = new String(Files.readAllBytes(snapshot.toPath()), "UTF-8");
+        return xml.replaceAll("<capture-time>[^<]*</capture-time>", "");
+    }
+    
+    @Test
+    public void testParallel() throws IOException {
+        File testDir = helper.createTestDir("testParallel");
+        File testSubDir = helper.createTestDir("sd", testDir);
+        for ( int i = 0; i < 5; i++ ) {
+            File dir = helper.createTestDir("d" + i, testSubDir);
+            for ( int j = 0; j < 20; j++ ) {
+                helper.createTestFile("f" + j, "content " + i + " " + j, dir);
+            }
+        }
+        File serialFile = new File( testDir, "serial.xml");
+        File parallelFile = new File( testDir, "parallel.xml");
+        Snapshotter snapper = new Snapshotter();
+        assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), serialFile.getPath()));
+        snapper.setParallelism(4);
+        assertEquals(4, snapper.getParallelism());
+        assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), parallelFile.getPath()));
+        assertEquals(readWithoutCaptureTime(serialFile), readWithoutCaptureTime(parallelFile));
+        
+        try {
+            snapper.setParallelism(0);
+            fail("expected exception not thrown");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testBaselineInPlace() throws IOException {
+        File testDir = helper.createTestDir("testBaselineInPlace");
+        File testSubDir = helper.createTestDir("sd", testDir);
+        File subSubDir = helper.createTestDir("ssd", testSubDir);
+        File touched = helper.createTestFile("touched", "old content", subSubDir);
+        setTime(touched, 1500000000);
+        for ( boolean binary: new boolean[] {false, true} ) {
+            File snapshot = new File( testDir, "snapshot" + binary);
+            Snapshotter snapper = new Snapshotter();
+            snapper.setBinary(binary);
+            assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), snapshot.getPath()));
+            long crc = readTouched(snapshot).getCrc();
+            
+            // refresh snapshot in place, unchanged file's digests come from the snapshot itself
+            snapper.setBaseline(snapshot.getPath());
+            assertEquals(0, snapper.createSnapshot(testSubDir.getPath(), snapshot.getPath()));
+            assertEquals(1, snapper.getReusedCount());
+            assertEquals(0, snapper.getHashedCount());
+            assertEquals(crc, readTouched(snapshot).getCrc());
+            for ( String name: testDir.list() ) {
+                assertFalse("temporary file left " + name, name.endsWith(".tmp"));
+            }
+        }
+    }
+    
+    @Test
+    public void testBaselineNotSnapshot() throws IOException {
+        File testDir = helper.createTestDir("testBaselineNotSnapshot");
+        File testSubDir = helper.createTestDir("sd", testDir);
+        File notSnapshot = helper.createTestFile("aFile", "aFile content", testDir);
+        File saveFile = new File( testDir, "snapshot.xml");
+        Snapshotter snapper = new Snapshotter();
+        snapper.setBaseline(notSnapshot.getPath());
+        assertEquals(8, snapper.createSnapshot(testSubDir.getPath(), saveFile.getPath()));
+    }
     
 }
@@ -30,6 +30,7 @@ import org.wtdiff.util.ErrorHandler;
 import org.wtdiff.util.FileSystemTestHelper;
 import org.wtdiff.util.LoggingErrorHandler;
 import org.wtdiff.util.OperationSupportTester;
+import org.wtdiff.util.filter.GlobNameFilter;
 import org.wtdiff.util.xml.XMLTreeBuilder;
 
 public class TestXMLTreeBuilder {
@@ -164,4 +165,40 @@ public class TestXMLTreeBuilder {
         notSnapshotHandler(noReadSnapshotFile.getPath());
         
     }
+
+    @Test
+    public void testFilter() throws IOException {
+        String nested = "<file-tree-snapshot><digests-available/><snapshot><dir name=\"\"><dirs>"
+            + "<dir name=\"a\"><dirs><dir name=\"xa\"></dir></dirs></dir>"
+            + "<dir name=\"xb\"><dirs><dir name=\"b\"></dir></dirs></dir>"
+            + "</dirs></dir></snapshot></file-tree-snapshot>";
+        File nestedSnapshot = helper.createTestFile("nestedSnapshot", xmlHeader + nested);
+        ErrorHandler h = new LoggingErrorHandler(logger,  false);
+        {
+            XMLTreeBuilder builder = new XMLTreeBuilder(nestedSnapshot.getPath());
+            builder.setFilter(new GlobNameFilter("x*"));
+            DirNode dir = builder.buildTree(h);
+            assertEquals(nestedSnapshot.getName(), dir.getName());
+            assertEquals(1, dir.getDirs().size());
+            assertEquals("a", dir.getDirs().get(0).getName());
+            assertEquals(0, dir.getDirs().get(0).getDirs().size());
+        }
+        {
+            // captured dir is excluded from artificial root
+            XMLTreeBuilder builder = new XMLTreeBuilder(isSnapshot.getPath());
+            builder.setFilter(new GlobNameFilter("n"));
+            DirNode dir = builder.buildTree(h);
+            assertEquals(isSnapshot.getName(), dir.getName());
+            assertEquals(0, dir.getDirs().size());
+        }
+        {
+            // excluded root gives empty tree
+            XMLTreeBuilder builder = new XMLTreeBuilder(nestedSnapshot.getPath());
+            builder.setFilter(new GlobNameFilter("nested*"));
+            DirNode dir = builder.buildTree(h);
+            assertEquals(nestedSnapshot.getName(), dir.getName());
+            assertEquals(0, dir.getDirs().size());
+        }
+        assertFalse(h.encounteredError());
+    }
 }